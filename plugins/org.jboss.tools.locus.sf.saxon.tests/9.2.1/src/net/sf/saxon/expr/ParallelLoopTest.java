@@ -0,0 +1,227 @@
+package net.sf.saxon.expr;
+
+import junit.framework.TestCase;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.s9api.*;
+import net.sf.saxon.trans.WorkerPool;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for the parallel evaluation of xsl:for-each instructions and "for" expressions. Each test runs
+ * with a pool of four worker threads, whatever the number of processors available, and checks that the
+ * result is the same as the result of sequential evaluation, and that the work was actually divided into
+ * parallel tasks (or, where the loop is not safe, that it was not).
+ */
+
+public class ParallelLoopTest extends TestCase {
+
+    private static final int REPEATS = 20;
+
+    private static final String XSL =
+            "<xsl:stylesheet version='2.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>";
+
+    private String source;
+
+    /**
+     * A worker pool that counts the tasks submitted to it
+     */
+
+    private static class CountingWorkerPool extends WorkerPool {
+
+        AtomicInteger tasks = new AtomicInteger();
+
+        public CountingWorkerPool(int threads) {
+            super(threads);
+        }
+
+        public <T> Future<T> submit(Callable<T> task) {
+            tasks.incrementAndGet();
+            return super.submit(task);
+        }
+    }
+
+    protected void setUp() {
+        StringBuffer sb = new StringBuffer("<doc>");
+        for (int i=0; i<500; i++) {
+            sb.append("<group n='").append(i / 50).append("'>");
+            sb.append("<item id='i").append(i).append("' grp='g").append(i % 7).append("'>");
+            sb.append(i).append("</item></group>");
+        }
+        sb.append("</doc>");
+        source = sb.toString();
+    }
+
+    /**
+     * Run a stylesheet sequentially and then repeatedly in parallel, checking that every run gives the
+     * same result
+     * @param xsl the stylesheet
+     * @param expectParallel true if the loop is expected to be evaluated in parallel
+     * @return the result of the transformation
+     * @throws Exception if the transformation fails
+     */
+
+    private String transform(String xsl, boolean expectParallel) throws Exception {
+        String expected = transform(xsl, null);
+        for (int i=0; i<REPEATS; i++) {
+            CountingWorkerPool pool = new CountingWorkerPool(4);
+            try {
+                assertEquals(expected, transform(xsl, pool));
+            } finally {
+                pool.shutdown();
+            }
+            if (expectParallel) {
+                assertTrue("loop was not evaluated in parallel", pool.tasks.get() > 1);
+            } else {
+                assertEquals("loop was evaluated in parallel", 0, pool.tasks.get());
+            }
+        }
+        return expected;
+    }
+
+    private String transform(String xsl, WorkerPool pool) throws Exception {
+        Processor processor = new Processor(false);
+        setPool(processor.getUnderlyingConfiguration(), pool);
+        XsltExecutable exec = processor.newXsltCompiler().compile(new StreamSource(new StringReader(xsl)));
+        XdmNode doc = processor.newDocumentBuilder().build(new StreamSource(new StringReader(source)));
+        XsltTransformer t = exec.load();
+        StringWriter sw = new StringWriter();
+        Serializer out = new Serializer();
+        out.setOutputWriter(sw);
+        out.setOutputProperty(Serializer.Property.METHOD, "text");
+        t.setInitialContextNode(doc);
+        t.setDestination(out);
+        t.transform();
+        return sw.toString();
+    }
+
+    private static void setPool(Configuration config, WorkerPool pool) {
+        config.setMultiThreading(pool != null);
+        if (pool != null) {
+            config.setWorkerPool(pool);
+        }
+    }
+
+    public void testPositionAndLast() throws Exception {
+        String result = transform(XSL +
+                "<xsl:template match='/'><xsl:for-each select='//item'>" +
+                "<xsl:value-of select='position(), last(), @id' separator=','/>;" +
+                "</xsl:for-each></xsl:template></xsl:stylesheet>", true);
+        assertTrue(result.startsWith("1,500,i0;2,500,i1;"));
+        assertTrue(result.endsWith("500,500,i499;"));
+    }
+
+    public void testPositionAfterSort() throws Exception {
+        String result = transform(XSL +
+                "<xsl:template match='/'><xsl:for-each select='//item'>" +
+                "<xsl:sort select='number(.)' order='descending'/>" +
+                "<xsl:value-of select='position(), .' separator=','/>;" +
+                "</xsl:for-each></xsl:template></xsl:stylesheet>", true);
+        assertTrue(result.startsWith("1,499;2,498;"));
+    }
+
+    public void testKey() throws Exception {
+        String result = transform(XSL +
+                "<xsl:key name='k' match='item' use='@grp'/>" +
+                "<xsl:template match='/'><xsl:for-each select='//item'>" +
+                "<xsl:value-of select=\"count(key('k', @grp)), key('k', @grp)[1]/@id\" separator=','/>;" +
+                "</xsl:for-each></xsl:template></xsl:stylesheet>", true);
+        assertTrue(result.startsWith("72,i0;72,i1;"));
+    }
+
+    public void testNumber() throws Exception {
+        String result = transform(XSL +
+                "<xsl:template match='/'><xsl:for-each select='//item'>" +
+                "<xsl:number level='any'/>,<xsl:number level='multiple' count='group|item'/>," +
+                "<xsl:number count='group' format='a'/>;" +
+                "</xsl:for-each></xsl:template></xsl:stylesheet>", true);
+        assertTrue(result.startsWith("1,1.1,a;2,2.1,b;"));
+        assertTrue(result.endsWith("500,500.1,sf;"));
+    }
+
+    public void testNumberInCalledTemplate() throws Exception {
+        String result = transform(XSL +
+                "<xsl:template match='/'><xsl:for-each select='//group'>" +
+                "<xsl:apply-templates select='item'/></xsl:for-each></xsl:template>" +
+                "<xsl:template match='item'><xsl:number level='any'/>:<xsl:value-of select='last()'/>;" +
+                "</xsl:template></xsl:stylesheet>", true);
+        assertTrue(result.startsWith("1:1;2:1;"));
+    }
+
+    public void testMessagePreventsParallelEvaluation() throws Exception {
+        transform(XSL +
+                "<xsl:template match='/'><xsl:for-each select='//item'>" +
+                "<xsl:if test='position() = 0'><xsl:message>never</xsl:message></xsl:if>" +
+                "<xsl:value-of select='position()'/>;" +
+                "</xsl:for-each></xsl:template></xsl:stylesheet>", false);
+    }
+
+    public void testDynamicErrorIsReported() throws Exception {
+        String xsl = XSL +
+                "<xsl:template match='/'><xsl:for-each select='//item'>" +
+                "<xsl:value-of select=\"if (position() = 300) then error((), 'failed at 300') else .\"/>;" +
+                "</xsl:for-each></xsl:template></xsl:stylesheet>";
+        for (int i=0; i<2; i++) {
+            WorkerPool pool = (i == 0 ? null : new WorkerPool(4));
+            try {
+                transform(xsl, pool);
+                fail("error was not reported");
+            } catch (SaxonApiException e) {
+                assertEquals("failed at 300", e.getMessage());
+            } finally {
+                if (pool != null) {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+
+    public void testQueryForExpression() throws Exception {
+        String query = "<out>{for $x at $i in //item return <r pos='{$i}' last='{count(//item)}'>{" +
+                "$x/@id/string(), count(//item[@grp = $x/@grp])}</r>}</out>";
+        String expected = null;
+        for (int i=0; i<=REPEATS; i++) {
+            CountingWorkerPool pool = (i == 0 ? null : new CountingWorkerPool(4));
+            Processor processor = new Processor(false);
+            setPool(processor.getUnderlyingConfiguration(), pool);
+            XQueryEvaluator eval = processor.newXQueryCompiler().compile(query).load();
+            eval.setContextItem(processor.newDocumentBuilder().build(new StreamSource(new StringReader(source))));
+            StringWriter sw = new StringWriter();
+            Serializer out = new Serializer();
+            out.setOutputWriter(sw);
+            eval.run(out);
+            if (pool == null) {
+                expected = sw.toString();
+                assertTrue(expected.indexOf("pos=\"500\">i499 72</r></out>") > 0);
+            } else {
+                pool.shutdown();
+                assertEquals(expected, sw.toString());
+                assertTrue("loop was not evaluated in parallel", pool.tasks.get() > 1);
+            }
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
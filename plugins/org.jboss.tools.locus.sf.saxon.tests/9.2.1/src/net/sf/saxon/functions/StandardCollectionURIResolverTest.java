@@ -0,0 +1,84 @@
+package net.sf.saxon.functions;
+
+import junit.framework.TestCase;
+import net.sf.saxon.s9api.*;
+import net.sf.saxon.trans.WorkerPool;
+
+import java.io.File;
+import java.io.FileWriter;
+
+/**
+ * Tests for directory collections read using the standard collection URI resolver
+ */
+
+public class StandardCollectionURIResolverTest extends TestCase {
+
+    private File dir;
+
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("coll", "");
+        dir.delete();
+        dir.mkdir();
+        for (int i=0; i<40; i++) {
+            FileWriter w = new FileWriter(new File(dir, "d" + i + ".xml"));
+            w.write("<doc id='" + i + "'>");
+            // vary the size of the documents so that parsing finishes out of order
+            for (int j=(40-i)*50; j>0; j--) {
+                w.write("<p>" + j + "</p>");
+            }
+            w.write("</doc>");
+            w.close();
+        }
+    }
+
+    protected void tearDown() {
+        File[] files = dir.listFiles();
+        for (int i=0; i<files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    private String evaluate(Processor processor, String xpath) throws SaxonApiException {
+        XPathSelector selector = processor.newXPathCompiler().compile(xpath).load();
+        return selector.evaluateSingle().getStringValue();
+    }
+
+    public void testMultiThreadedCollectionIsInDeliveryOrder() throws Exception {
+        String uri = dir.toURI() + "?select=*.xml";
+        Processor processor = new Processor(false);
+        String expected = evaluate(processor,
+                "string-join(for $d in collection('" + uri + "') return $d/doc/@id, ',')");
+        assertEquals(40, expected.split(",").length);
+        WorkerPool pool = new WorkerPool(4);
+        try {
+            processor.getUnderlyingConfiguration().setWorkerPool(pool);
+            for (int i=0; i<10; i++) {
+                // the path expression sorts the attributes into document order
+                assertEquals(expected, evaluate(processor,
+                        "string-join(collection('" + uri + ";threads=4')/doc/@id, ',')"));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,105 @@
+package net.sf.saxon.instruct;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.PreparedStylesheet;
+import net.sf.saxon.query.StaticQueryContext;
+import net.sf.saxon.query.XQueryExpression;
+import net.sf.saxon.trans.CompilerInfo;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.*;
+
+/**
+ * Benchmark for {@link ExecutableImage}. This is not a unit test: it is run by hand, as a Java application,
+ * with the Saxon bundle on the classpath, and compares the time taken to compile a stylesheet or query with
+ * the time taken to load its saved image. Each compilation and each load uses a new Configuration, as happens
+ * when an application starts up. The first pass warms up the Java VM and is not reported.
+ */
+
+public class ExecutableImageBenchmark {
+
+    /**
+     * Run the benchmark
+     * @param args the file name of the stylesheet, or of the query if the name ends in ".xq" or ".xquery";
+     * optionally followed by the number of iterations (default 20)
+     * @throws Exception if the stylesheet or query cannot be compiled, saved, or loaded
+     */
+
+    public static void main(String[] args) throws Exception {
+        File file = new File(args[0]);
+        boolean query = args[0].endsWith(".xq") || args[0].endsWith(".xquery");
+        int iterations = (args.length > 1 ? Integer.parseInt(args[1]) : 20);
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        if (query) {
+            compileQuery(file, new Configuration()).save(image);
+        } else {
+            compileStylesheet(file, new Configuration()).save(image);
+        }
+        byte[] bytes = image.toByteArray();
+
+        for (int pass = 0; pass < 2; pass++) {
+            long compileTime = 0;
+            long loadTime = 0;
+            for (int i = 0; i < iterations; i++) {
+                Configuration config = new Configuration();
+                long start = System.nanoTime();
+                if (query) {
+                    compileQuery(file, config);
+                } else {
+                    compileStylesheet(file, config);
+                }
+                compileTime += System.nanoTime() - start;
+
+                config = new Configuration();
+                start = System.nanoTime();
+                InputStream in = new ByteArrayInputStream(bytes);
+                if (query) {
+                    XQueryExpression.load(in, config);
+                } else {
+                    PreparedStylesheet.load(in, config, new CompilerInfo(config.getDefaultXsltCompilerInfo()));
+                }
+                loadTime += System.nanoTime() - start;
+            }
+            if (pass == 1) {
+                System.err.println(file.getName() + ": image size " + bytes.length + " bytes; " +
+                        "compile " + (compileTime / iterations / 1000) + "us, " +
+                        "load " + (loadTime / iterations / 1000) + "us (average of " + iterations + ")");
+            }
+        }
+    }
+
+    private static PreparedStylesheet compileStylesheet(File file, Configuration config) throws Exception {
+        return PreparedStylesheet.compile(new StreamSource(file), config,
+                new CompilerInfo(config.getDefaultXsltCompilerInfo()));
+    }
+
+    private static XQueryExpression compileQuery(File file, Configuration config) throws Exception {
+        StaticQueryContext env = config.newStaticQueryContext();
+        env.setBaseURI(file.toURI().toString());
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            return env.compileQuery(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,152 @@
+package net.sf.saxon.instruct;
+
+import junit.framework.TestCase;
+import net.sf.saxon.s9api.*;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * Tests for saving compiled stylesheets and queries as binary images and loading them into another
+ * Processor, both when the NamePool of that Processor is new and when it has already allocated codes
+ * to other names, so that the codes in the compiled code have to be translated.
+ */
+
+public class ExecutableImageTest extends TestCase {
+
+    private static final String XSL =
+            "<xsl:stylesheet version='2.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform' " +
+            "xmlns:o='http://out.example.com/' xmlns:c='http://config.example.com/' exclude-result-prefixes='c'>" +
+            "<xsl:key name='k' match='entry' use='@key'/>" +
+            "<xsl:template match='/'><o:result version='1'><xsl:apply-templates/></o:result></xsl:template>" +
+            "<xsl:template match='config'><xsl:apply-templates select='*|@*'/></xsl:template>" +
+            "<xsl:template match=\"entry[@key='x']\" priority='2'><o:x n='{count(key(\"k\", @key))}'/></xsl:template>" +
+            "<xsl:template match='config/entry[@key]'><xsl:element name='o:{@key}'/></xsl:template>" +
+            "<xsl:template match='c:*'><o:ns local='{local-name()}'/></xsl:template>" +
+            "<xsl:template match='*:other'><o:any/></xsl:template>" +
+            "<xsl:template match='@mode'><xsl:attribute name='o:mode' select='.'/></xsl:template>" +
+            "<xsl:template match='*'><o:unknown name='{name()}'/></xsl:template>" +
+            "</xsl:stylesheet>";
+
+    private static final String XML =
+            "<config mode='m' xmlns:c='http://config.example.com/'>" +
+            "<entry key='x'/><entry key='y'/><c:item/><other/><entry/></config>";
+
+    private static final String QUERY =
+            "declare namespace o='http://out.example.com/'; " +
+            "<o:result>{for $e in //entry[@key] return <o:item key='{$e/@key}'>{name($e/..)}</o:item>}</o:result>";
+
+    private Processor compiler;
+
+    protected void setUp() {
+        compiler = new Processor(false);
+    }
+
+    /**
+     * Create a Processor whose NamePool has already allocated codes to names other than those
+     * allocated, in the same order, when the stylesheet or query was compiled
+     * @return the new Processor
+     * @throws SaxonApiException if the documents cannot be built
+     */
+
+    private Processor populatedProcessor() throws SaxonApiException {
+        Processor processor = new Processor(false);
+        DocumentBuilder builder = processor.newDocumentBuilder();
+        builder.build(new StreamSource(new StringReader(
+                "<a:doc xmlns:a='http://a.example.com/' xmlns:o='http://other.example.com/'>" +
+                "<o:entry o:key='1'/><zz/></a:doc>")));
+        builder.build(new StreamSource(new StringReader("<config><entry key='x'/></config>")));
+        return processor;
+    }
+
+    private XdmNode build(Processor processor, String xml) throws SaxonApiException {
+        return processor.newDocumentBuilder().build(new StreamSource(new StringReader(xml)));
+    }
+
+    private String transform(Processor processor, XsltExecutable exec) throws SaxonApiException {
+        XsltTransformer t = exec.load();
+        StringWriter sw = new StringWriter();
+        Serializer out = new Serializer();
+        out.setOutputWriter(sw);
+        out.setOutputProperty(Serializer.Property.OMIT_XML_DECLARATION, "yes");
+        t.setInitialContextNode(build(processor, XML));
+        t.setDestination(out);
+        t.transform();
+        return sw.toString();
+    }
+
+    private String query(Processor processor, XQueryExecutable exec) throws SaxonApiException {
+        XQueryEvaluator eval = exec.load();
+        StringWriter sw = new StringWriter();
+        Serializer out = new Serializer();
+        out.setOutputWriter(sw);
+        out.setOutputProperty(Serializer.Property.OMIT_XML_DECLARATION, "yes");
+        eval.setContextItem(build(processor, XML));
+        eval.run(out);
+        return sw.toString();
+    }
+
+    private XsltExecutable reloadStylesheet(XsltExecutable exec, Processor target) throws SaxonApiException {
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        exec.export(image);
+        return target.newXsltCompiler().importExecutable(new ByteArrayInputStream(image.toByteArray()));
+    }
+
+    private XQueryExecutable reloadQuery(XQueryExecutable exec, Processor target) throws SaxonApiException {
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        exec.export(image);
+        return target.newXQueryCompiler().importExecutable(new ByteArrayInputStream(image.toByteArray()));
+    }
+
+    public void testStylesheetInNewProcessor() throws Exception {
+        XsltExecutable exec = compiler.newXsltCompiler().compile(new StreamSource(new StringReader(XSL)));
+        String expected = transform(compiler, exec);
+        Processor target = new Processor(false);
+        assertEquals(expected, transform(target, reloadStylesheet(exec, target)));
+    }
+
+    public void testStylesheetInPopulatedProcessor() throws Exception {
+        XsltExecutable exec = compiler.newXsltCompiler().compile(new StreamSource(new StringReader(XSL)));
+        String expected = transform(compiler, exec);
+        assertEquals("<o:result xmlns:o=\"http://out.example.com/\" version=\"1\" o:mode=\"m\"><o:x n=\"1\"/><o:y/>" +
+                "<o:ns local=\"item\"/><o:any/><o:unknown name=\"entry\"/></o:result>", expected);
+        Processor target = populatedProcessor();
+        XsltExecutable loaded = reloadStylesheet(exec, target);
+        assertEquals(expected, transform(target, loaded));
+        // the translated stylesheet can itself be saved and loaded again
+        assertEquals(expected, transform(target, reloadStylesheet(loaded, target)));
+        Processor other = populatedProcessor();
+        assertEquals(expected, transform(other, reloadStylesheet(loaded, other)));
+    }
+
+    public void testQueryInPopulatedProcessor() throws Exception {
+        XQueryExecutable exec = compiler.newXQueryCompiler().compile(QUERY);
+        String expected = query(compiler, exec);
+        assertEquals("<o:result xmlns:o=\"http://out.example.com/\"><o:item key=\"x\">config</o:item>" +
+                "<o:item key=\"y\">config</o:item></o:result>", expected);
+        Processor target = populatedProcessor();
+        assertEquals(expected, query(target, reloadQuery(exec, target)));
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
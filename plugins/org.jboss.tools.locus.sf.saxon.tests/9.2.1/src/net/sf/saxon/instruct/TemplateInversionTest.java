@@ -0,0 +1,184 @@
+package net.sf.saxon.instruct;
+
+import junit.framework.TestCase;
+import net.sf.saxon.StandardErrorListener;
+import net.sf.saxon.s9api.*;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * Tests for the analysis of template rules in streamable modes, and for streamed transformations. Each
+ * streamed transformation is run through the s9api interface with the source supplied as a StreamSource,
+ * and its output is compared with the output of the same stylesheet with the mode declared not streamable,
+ * which builds a tree and applies the template rules to it in the usual way.
+ */
+
+public class TemplateInversionTest extends TestCase {
+
+    private static final String XSL =
+            "<xsl:stylesheet version='2.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform' " +
+            "xmlns:saxon='http://saxon.sf.net/' exclude-result-prefixes='saxon'>\n" +
+            "<saxon:mode name='s' streamable='yes'/>\n";
+
+    /**
+     * Compile a stylesheet that is expected to fail, and return the error messages that were reported
+     * @param xsl the stylesheet
+     * @return the text written by the standard error listener
+     */
+
+    private String compileErrors(String xsl) throws Exception {
+        Processor processor = new Processor(false);
+        XsltCompiler compiler = processor.newXsltCompiler();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StandardErrorListener listener = new StandardErrorListener();
+        listener.setErrorOutput(new PrintStream(bytes, true, "UTF-8"));
+        compiler.setErrorListener(listener);
+        try {
+            compiler.compile(new StreamSource(new StringReader(xsl), "http://test.example.com/main.xsl"));
+            fail("stylesheet was not rejected");
+        } catch (SaxonApiException e) {
+            // expected
+        }
+        return bytes.toString("UTF-8");
+    }
+
+    /**
+     * Run a stylesheet whose initial mode is "s" twice, once with mode "s" streamable and once not,
+     * check that both runs give the same result, and return it
+     * @param templates the template rules and other declarations of the stylesheet
+     * @param xml the source document
+     * @return the serialized result
+     */
+
+    private String stream(String templates, String xml) throws Exception {
+        String streamed = transform(XSL + templates + "</xsl:stylesheet>", xml, true);
+        String tree = transform(XSL.replace("streamable='yes'", "streamable='no'") +
+                templates + "</xsl:stylesheet>", xml, false);
+        assertEquals("streamed and tree results differ", tree, streamed);
+        return streamed;
+    }
+
+    private String transform(String xsl, String xml, boolean streaming) throws Exception {
+        Processor processor = new Processor(false);
+        XsltExecutable exec = processor.newXsltCompiler().compile(new StreamSource(new StringReader(xsl)));
+        XsltTransformer t = exec.load();
+        StringWriter sw = new StringWriter();
+        Serializer out = new Serializer();
+        out.setOutputWriter(sw);
+        out.setOutputProperty(Serializer.Property.OMIT_XML_DECLARATION, "yes");
+        t.setInitialMode(new QName("s"));
+        t.setSource(new StreamSource(new StringReader(xml)));
+        t.setDestination(out);
+        t.transform();
+        // a streamed transformation reads the source without building a tree
+        assertEquals("source was " + (streaming ? "" : "not ") + "streamed",
+                streaming, t.getInitialContextNode() == null);
+        return sw.toString();
+    }
+
+    public void testMotionlessPredicates() throws Exception {
+        String result = stream(
+                "<xsl:template match='/' mode='s'><out><xsl:apply-templates mode='s'/></out></xsl:template>" +
+                "<xsl:template match=\"item[@type='a']\" mode='s'>A<xsl:value-of select='@n'/>;</xsl:template>" +
+                "<xsl:template match='item[@type][@n &gt; 2]' mode='s'>big<xsl:value-of select='@n'/>;</xsl:template>" +
+                "<xsl:template match='item[not(@type)]' mode='s'>none;</xsl:template>" +
+                "<xsl:template match='item' mode='s'>other;</xsl:template>",
+                "<doc><item type='a' n='1'>x</item><item type='b' n='3'>y</item><item type='b' n='2'/>" +
+                "<item>z</item></doc>");
+        assertEquals("<out>A1;big3;other;none;</out>", result);
+    }
+
+    public void testAttributes() throws Exception {
+        String result = stream(
+                "<xsl:template match='/' mode='s'><out><xsl:apply-templates mode='s'/></out></xsl:template>" +
+                "<xsl:template match='doc' mode='s'><xsl:apply-templates mode='s'/></xsl:template>" +
+                "<xsl:template match='item' mode='s'>" +
+                "<e id='{@id}' name='{name()}' count='{count(@*)}'><xsl:copy-of select='@lang'/></e>" +
+                "</xsl:template>",
+                "<doc><item id='1' lang='en'>skipped</item><item id='2'/></doc>");
+        assertEquals("<out><e id=\"1\" name=\"item\" count=\"2\" lang=\"en\"/>" +
+                "<e id=\"2\" name=\"item\" count=\"1\"/></out>", result);
+    }
+
+    public void testText() throws Exception {
+        String result = stream(
+                "<xsl:template match='/' mode='s'><out><xsl:apply-templates mode='s'/></out></xsl:template>" +
+                "<xsl:template match='p' mode='s'>[<xsl:apply-templates mode='s'/>]</xsl:template>" +
+                "<xsl:template match='text()' mode='s'><xsl:value-of select='upper-case(.)'/></xsl:template>",
+                "<doc><p>one</p>two<p>three<p>four</p></p></doc>");
+        assertEquals("<out>[ONE]TWO[THREE[FOUR]]</out>", result);
+    }
+
+    public void testNestedApplyTemplates() throws Exception {
+        String result = stream(
+                "<xsl:template match='/' mode='s'><book><xsl:apply-templates mode='s'/></book></xsl:template>" +
+                "<xsl:template match='section' mode='s'>" +
+                "<div title='{@title}'><xsl:apply-templates mode='s'/></div>" +
+                "</xsl:template>" +
+                "<xsl:template match='para' mode='s'><p><xsl:apply-templates mode='s'/></p></xsl:template>",
+                "<doc><section title='a'><para>1</para><section title='b'><para>2</para></section></section>" +
+                "<section title='c'/></doc>");
+        assertEquals("<book><div title=\"a\"><p>1</p><div title=\"b\"><p>2</p></div></div>" +
+                "<div title=\"c\"/></book>", result);
+    }
+
+    public void testBufferedSubtrees() throws Exception {
+        String result = stream(
+                "<xsl:template match='/' mode='s'><out><xsl:apply-templates mode='s'/></out></xsl:template>" +
+                "<xsl:template match='doc' mode='s'><xsl:apply-templates mode='s'/></xsl:template>" +
+                "<xsl:template match='copy' mode='s'><xsl:copy-of select='.'/></xsl:template>" +
+                "<xsl:template match='str' mode='s'><s><xsl:value-of select='string(.)'/></s></xsl:template>" +
+                "<xsl:template match='list' mode='s'><n><xsl:value-of select='count(entry)'/></n></xsl:template>",
+                "<doc><copy a='1'><b>x</b>y<!--c--></copy><str>a<i>b</i>c</str>" +
+                "<list><entry/><other/><entry><entry/></entry></list></doc>");
+        assertEquals("<out><copy a=\"1\"><b>x</b>y<!--c--></copy><s>abc</s><n>2</n></out>", result);
+    }
+
+    public void testUpwardNavigationIsRejected() throws Exception {
+        String errors = compileErrors(XSL +
+                "<xsl:template match='item' mode='s'>\n" +
+                "<xsl:value-of select='count(../item)'/></xsl:template>\n" +
+                "</xsl:stylesheet>");
+        assertTrue(errors, errors.indexOf("SXST0060") >= 0);
+    }
+
+    public void testUnnamedTemplateIsIdentifiedByPattern() throws Exception {
+        String errors = compileErrors(XSL +
+                "<xsl:template match='item[@a]' mode='s'>\n" +
+                "<xsl:value-of select='following::x'/></xsl:template>\n" +
+                "</xsl:stylesheet>");
+        assertTrue(errors, errors.indexOf("SXST0060") >= 0);
+        assertTrue(errors, errors.indexOf("at template rule match=\"item[@a]\" on line 3") >= 0);
+    }
+
+    public void testNamedTemplateIsIdentifiedByName() throws Exception {
+        String errors = compileErrors(XSL +
+                "<xsl:template match='item[1]' name='t' mode='s'/>\n" +
+                "</xsl:stylesheet>");
+        assertTrue(errors, errors.indexOf("SXST0060") >= 0);
+        assertTrue(errors, errors.indexOf("at template t on line 3") >= 0);
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,104 @@
+package net.sf.saxon.om;
+
+import junit.framework.TestCase;
+import net.sf.saxon.Controller;
+import net.sf.saxon.event.Builder;
+import net.sf.saxon.s9api.*;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * Tests for the document cache shared between transformations
+ */
+
+public class DocumentCacheTest extends TestCase {
+
+    private File lookup;
+    private Processor processor;
+    private DocumentCache cache;
+    private XsltExecutable exec;
+
+    protected void setUp() throws Exception {
+        lookup = File.createTempFile("lookup", ".xml");
+        FileWriter w = new FileWriter(lookup);
+        w.write("<lookup><entry>file</entry></lookup>");
+        w.close();
+        processor = new Processor(false);
+        cache = new DocumentCache(10, -1);
+        processor.getUnderlyingConfiguration().setDocumentCache(cache);
+        String xsl = "<xsl:stylesheet version='2.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>" +
+                "<xsl:template name='main'><xsl:value-of select=\"doc('" + lookup.toURI() + "')//entry\"/>" +
+                "</xsl:template></xsl:stylesheet>";
+        exec = processor.newXsltCompiler().compile(new StreamSource(new StringReader(xsl)));
+    }
+
+    protected void tearDown() {
+        lookup.delete();
+    }
+
+    private String run(XsltTransformer t) throws SaxonApiException {
+        StringWriter sw = new StringWriter();
+        Serializer out = new Serializer();
+        out.setOutputWriter(sw);
+        out.setOutputProperty(Serializer.Property.OMIT_XML_DECLARATION, "yes");
+        t.setInitialTemplate(new QName("main"));
+        t.setDestination(out);
+        t.transform();
+        return sw.toString();
+    }
+
+    public void testDocumentIsReused() throws Exception {
+        assertEquals("file", run(exec.load()));
+        assertEquals(1, cache.getEntryCount());
+        assertEquals("file", run(exec.load()));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    public void testDifferentURIResolverIsNotGivenCachedDocument() throws Exception {
+        assertEquals("file", run(exec.load()));
+        XsltTransformer t = exec.load();
+        t.getUnderlyingController().setURIResolver(new URIResolver() {
+            public Source resolve(String href, String base) {
+                return new StreamSource(new StringReader("<lookup><entry>resolver</entry></lookup>"), href);
+            }
+        });
+        assertEquals("resolver", run(t));
+        assertEquals(0, cache.getHitCount());
+    }
+
+    public void testLinkedTreeIsNotGivenCachedTinyTree() throws Exception {
+        assertEquals("file", run(exec.load()));
+        XsltTransformer t = exec.load();
+        Controller c = t.getUnderlyingController();
+        c.setTreeModel(Builder.LINKED_TREE);
+        assertEquals("file", run(t));
+        assertEquals(0, cache.getHitCount());
+        // linked trees are not thread-safe, so they are never added to the cache
+        assertEquals(1, cache.getEntryCount());
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
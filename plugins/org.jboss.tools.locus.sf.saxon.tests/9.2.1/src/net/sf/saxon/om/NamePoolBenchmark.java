@@ -0,0 +1,106 @@
+package net.sf.saxon.om;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Contention benchmark for the {@link NamePool}. This is not a unit test: it is run by hand, as a Java
+ * application, with the Saxon bundle on the classpath, and reports the throughput achieved by 1, 2, 4, ... 64
+ * threads allocating names in a single NamePool.
+ *
+ * <p>Each thread allocates a mixture of names that are shared with the other threads (which, after the first
+ * allocation, only exercise the read path) and names that are private to the thread (which always add new entries
+ * to the hash chains). Each thread count is measured several times, and the best run is reported; the first
+ * round warms up the Java VM and is not reported.</p>
+ */
+
+public class NamePoolBenchmark {
+
+    private static final int SHARED_NAMES = 500;
+    private static final int PRIVATE_NAMES_PER_THREAD = 2000;
+    private static final int ITERATIONS = 100;
+
+    /**
+     * Run the benchmark
+     * @param args optionally, the number of runs for each thread count (default 5)
+     * @throws Exception if a worker thread is interrupted
+     */
+
+    public static void main(String[] args) throws Exception {
+        int runs = (args.length > 0 ? Integer.parseInt(args[0]) : 5);
+        System.err.println("Processors: " + Runtime.getRuntime().availableProcessors());
+        for (int round = 0; round < 2; round++) {
+            for (int threads = 1; threads <= 64; threads *= 2) {
+                long best = Long.MAX_VALUE;
+                for (int r = 0; r < runs; r++) {
+                    best = Math.min(best, run(threads));
+                }
+                if (round == 1) {
+                    long allocations = (long)threads * ITERATIONS *
+                            (SHARED_NAMES + PRIVATE_NAMES_PER_THREAD / ITERATIONS);
+                    System.err.println("Threads: " + threads + " allocations: " + allocations +
+                            " time: " + (best / 1000000) + "ms throughput: " +
+                            (allocations * 1000000000L / best) + "/s");
+                }
+            }
+        }
+    }
+
+    /**
+     * Run the given number of threads against a new NamePool
+     * @param threads the number of threads
+     * @return the elapsed time in nanoseconds
+     * @throws InterruptedException if interrupted while waiting for the threads to finish
+     */
+
+    private static long run(int threads) throws InterruptedException {
+        final NamePool pool = new NamePool();
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final CountDownLatch endGate = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final String threadPrefix = "t" + t + "-";
+            Thread worker = new Thread() {
+                public void run() {
+                    try {
+                        startGate.await();
+                        for (int i = 0; i < ITERATIONS; i++) {
+                            for (int n = 0; n < SHARED_NAMES; n++) {
+                                pool.allocate("p", "http://shared.example.com/", "name" + n);
+                            }
+                            for (int n = i; n < PRIVATE_NAMES_PER_THREAD; n += ITERATIONS) {
+                                pool.allocate("", "http://private.example.com/", threadPrefix + n);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        // fall through
+                    } finally {
+                        endGate.countDown();
+                    }
+                }
+            };
+            worker.start();
+        }
+        long start = System.nanoTime();
+        startGate.countDown();
+        endGate.await();
+        return System.nanoTime() - start;
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
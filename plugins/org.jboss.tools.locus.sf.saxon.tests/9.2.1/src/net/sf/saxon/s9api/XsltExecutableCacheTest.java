@@ -0,0 +1,82 @@
+package net.sf.saxon.s9api;
+
+import junit.framework.TestCase;
+import net.sf.saxon.Configuration;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.FileWriter;
+
+/**
+ * Tests for the cache of compiled stylesheets
+ */
+
+public class XsltExecutableCacheTest extends TestCase {
+
+    private File stylesheet;
+    private Processor processor;
+    private XsltExecutableCache cache;
+
+    protected void setUp() throws Exception {
+        stylesheet = File.createTempFile("style", ".xsl");
+        FileWriter w = new FileWriter(stylesheet);
+        w.write("<xsl:stylesheet version='2.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>" +
+                "<xsl:template name='main'>ok</xsl:template></xsl:stylesheet>");
+        w.close();
+        processor = new Processor(false);
+        cache = new XsltExecutableCache(10);
+        processor.setXsltExecutableCache(cache);
+    }
+
+    protected void tearDown() {
+        stylesheet.delete();
+    }
+
+    private XsltExecutable compile() throws SaxonApiException {
+        return processor.newXsltCompiler().compile(new StreamSource(stylesheet.toURI().toString()));
+    }
+
+    public void testStylesheetIsReused() throws Exception {
+        XsltExecutable first = compile();
+        assertSame(first, compile());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    public void testConfigurationOptionsArePartOfTheKey() throws Exception {
+        Configuration config = processor.getUnderlyingConfiguration();
+        XsltExecutable first = compile();
+        config.setInliningThreshold(0);
+        XsltExecutable second = compile();
+        assertNotSame(first, second);
+        config.getOptimizer().setOptimizationLevel(0);
+        XsltExecutable third = compile();
+        assertNotSame(second, third);
+        config.getOptimizer().setIndexedFilters(false);
+        XsltExecutable fourth = compile();
+        assertNotSame(third, fourth);
+        config.setGenerateByteCode(!config.isGenerateByteCode());
+        XsltExecutable fifth = compile();
+        assertNotSame(fourth, fifth);
+        assertEquals(0, cache.getHitCount());
+        assertSame(fifth, compile());
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,84 @@
+package net.sf.saxon.s9api;
+
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.OutputStream;
+
+/**
+ * Benchmark for the transformer pool of an {@link XsltExecutable}. This is not a unit test: it is run by hand,
+ * as a Java application, with the Saxon bundle on the classpath, and reports the number of transformations per
+ * second achieved when a stylesheet is applied repeatedly to the same source document: first loading a new
+ * XsltTransformer for each transformation, then loading and releasing each XsltTransformer using a transformer
+ * pool, and finally reusing a single XsltTransformer. The result of each transformation is serialized and
+ * discarded. The first pass warms up the Java VM and is not reported.
+ */
+
+public class XsltTransformerPoolBenchmark {
+
+    private static final String[] METHODS = {"new transformer", "pooled transformer", "reused transformer"};
+
+    /**
+     * Run the benchmark
+     * @param args the file name of the stylesheet and of the source document; optionally followed by the
+     * number of seconds for which each measurement runs (default 5)
+     * @throws Exception if the stylesheet cannot be compiled, or if a transformation fails
+     */
+
+    public static void main(String[] args) throws Exception {
+        Processor processor = new Processor(false);
+        XsltExecutable exec = processor.newXsltCompiler().compile(new StreamSource(new File(args[0])));
+        XdmNode source = processor.newDocumentBuilder().build(new File(args[1]));
+        long duration = (args.length > 2 ? Long.parseLong(args[2]) : 5) * 1000L;
+        Serializer destination = new Serializer();
+        destination.setOutputStream(new OutputStream() {
+            public void write(int b) {}
+            public void write(byte[] b, int off, int len) {}
+        });
+
+        for (int pass = 0; pass < 2; pass++) {
+            for (int method = 0; method < METHODS.length; method++) {
+                exec.setTransformerPoolSize(method == 1 ? 1 : 0);
+                XsltTransformer reused = exec.load();
+                long count = 0;
+                long start = System.currentTimeMillis();
+                long end = start + duration;
+                long now;
+                do {
+                    for (int i = 0; i < 100; i++) {
+                        XsltTransformer t = (method == 2 ? reused : exec.load());
+                        t.setInitialContextNode(source);
+                        t.setDestination(destination);
+                        t.transform();
+                        if (method == 1) {
+                            t.release();
+                        }
+                    }
+                    count += 100;
+                    now = System.currentTimeMillis();
+                } while (now < end);
+                if (pass == 1) {
+                    System.err.println(METHODS[method] + ": " + (count * 1000 / (now - start)) + " transformations/s");
+                }
+            }
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,89 @@
+package net.sf.saxon.sort;
+
+import junit.framework.TestCase;
+import net.sf.saxon.s9api.*;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests that the temporary files written by an external sort are deleted, however the sorted
+ * sequence is consumed
+ */
+
+public class ExternalSorterTest extends TestCase {
+
+    private Processor processor;
+    private Set<String> existing;
+
+    protected void setUp() {
+        processor = new Processor(false);
+        processor.getUnderlyingConfiguration().setExternalSortThreshold(100);
+        existing = new HashSet<String>(Arrays.asList(listRunFiles()));
+    }
+
+    private static String[] listRunFiles() {
+        String[] files = new File(System.getProperty("java.io.tmpdir")).list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith("saxon") && name.endsWith(".sort");
+            }
+        });
+        return (files == null ? new String[0] : files);
+    }
+
+    private void assertNoRunFilesRemain() {
+        String[] files = listRunFiles();
+        for (int i=0; i<files.length; i++) {
+            assertTrue("temporary file " + files[i] + " was not deleted", existing.contains(files[i]));
+        }
+    }
+
+    private XdmValue evaluate(String query) throws SaxonApiException {
+        return processor.newXQueryCompiler().compile(query).load().evaluate();
+    }
+
+    public void testFilesDeletedWhenMergeIsComplete() throws Exception {
+        XdmValue result = evaluate("for $i in 1 to 1000 order by $i mod 7, -$i return $i");
+        assertEquals(1000, result.size());
+        assertEquals("994", result.itemAt(0).getStringValue());
+        assertNoRunFilesRemain();
+    }
+
+    public void testFilesDeletedWhenIterationIsAbandoned() throws Exception {
+        XdmValue result = evaluate("subsequence(for $i in 1 to 1000 order by -$i return $i, 1, 3)");
+        assertEquals("1000", result.itemAt(0).getStringValue());
+        assertNoRunFilesRemain();
+    }
+
+    public void testFilesDeletedWhenSortFails() throws Exception {
+        try {
+            evaluate("for $i in 1 to 1000 order by (if ($i = 500) then error() else -$i) return $i");
+            fail("error was not reported");
+        } catch (SaxonApiException e) {
+            // expected
+        }
+        assertNoRunFilesRemain();
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
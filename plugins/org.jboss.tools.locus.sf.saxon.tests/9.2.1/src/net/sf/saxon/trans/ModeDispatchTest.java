@@ -0,0 +1,221 @@
+package net.sf.saxon.trans;
+
+import junit.framework.TestCase;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.s9api.*;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Tests for the selection of template rules using the compiled dispatch table of a {@link Mode}.
+ * Each stylesheet is run twice, once with compiled dispatch and once searching the rule chains
+ * sequentially: the two runs must produce the same output and report the same errors, and the
+ * output must be the expected result.
+ */
+
+public class ModeDispatchTest extends TestCase {
+
+    private static final String XSL =
+            "<xsl:stylesheet version='2.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform' " +
+            "xmlns:x='http://x.example.com/'>";
+
+    private HashMap<String, String> modules = new HashMap<String, String>();
+
+    /**
+     * Run a stylesheet with and without compiled dispatch, check that the results are the same, and
+     * return the result
+     * @param xsl the text of the principal stylesheet module
+     * @param xml the source document
+     * @param modes the names of the non-default modes used by the stylesheet
+     * @return the serialized result, followed by the number of recoverable errors (such as ambiguous
+     * rule matches) if any were reported
+     * @throws Exception if the transformation fails
+     */
+
+    private String run(String xsl, String xml, String... modes) throws Exception {
+        String compiled = run(xsl, xml, true, modes);
+        String sequential = run(xsl, xml, false, modes);
+        assertEquals("compiled and sequential dispatch differ", sequential, compiled);
+        return compiled;
+    }
+
+    private String run(String xsl, String xml, boolean compiledDispatch, String[] modes) throws Exception {
+        Processor processor = new Processor(false);
+        XsltCompiler compiler = processor.newXsltCompiler();
+        compiler.setURIResolver(new URIResolver() {
+            public Source resolve(String href, String base) {
+                return new StreamSource(new StringReader(modules.get(href)), "http://test.example.com/" + href);
+            }
+        });
+        XsltExecutable exec = compiler.compile(
+                new StreamSource(new StringReader(xsl), "http://test.example.com/main.xsl"));
+        RuleManager rules = exec.getUnderlyingCompiledStylesheet().getExecutable().getRuleManager();
+        rules.getDefaultMode().setCompiledDispatch(compiledDispatch);
+        for (int i=0; i<modes.length; i++) {
+            rules.getMode(new StructuredQName("", "", modes[i]), false).setCompiledDispatch(compiledDispatch);
+        }
+        XdmNode source = processor.newDocumentBuilder().build(new StreamSource(new StringReader(xml)));
+        XsltTransformer t = exec.load();
+        final List<String> errors = new ArrayList<String>();
+        t.setErrorListener(new ErrorListener() {
+            public void warning(TransformerException exception) {
+                errors.add(exception.getMessage());
+            }
+            public void error(TransformerException exception) {
+                // a recoverable error: record it and continue
+                errors.add(exception.getMessage());
+            }
+            public void fatalError(TransformerException exception) throws TransformerException {
+                throw exception;
+            }
+        });
+        StringWriter sw = new StringWriter();
+        Serializer out = new Serializer();
+        out.setOutputWriter(sw);
+        out.setOutputProperty(Serializer.Property.METHOD, "text");
+        t.setInitialContextNode(source);
+        t.setDestination(out);
+        t.transform();
+        return sw.toString() + (errors.isEmpty() ? "" : " [" + errors.size() + " errors]");
+    }
+
+    public void testAmbiguity() throws Exception {
+        String xsl = XSL +
+                "<xsl:template match='a[@x]'>X</xsl:template>" +
+                "<xsl:template match='a[@y]'>Y</xsl:template>" +
+                "<xsl:template match='a'>A</xsl:template>" +
+                "</xsl:stylesheet>";
+        // for the element with both attributes, the last rule in document order is chosen
+        assertEquals("YXYA [1 errors]", run(xsl, "<r><a x='1' y='1'/><a x='1'/><a y='1'/><a/></r>"));
+    }
+
+    public void testAmbiguityBetweenNamedAndUnnamedChains() throws Exception {
+        String xsl = XSL +
+                "<xsl:template match='r/*'>star;</xsl:template>" +
+                "<xsl:template match='r/a'>named;</xsl:template>" +
+                "<xsl:template match='*:b' priority='1'>local;</xsl:template>" +
+                "</xsl:stylesheet>";
+        // r/* has priority 0.5 like r/a, so the two rules are ambiguous for element a
+        assertEquals("named;local;star; [1 errors]", run(xsl, "<r><a/><b/><c/></r>"));
+    }
+
+    public void testNextMatch() throws Exception {
+        String xsl = XSL +
+                "<xsl:template match='a' priority='1'>1<xsl:next-match/></xsl:template>" +
+                "<xsl:template match='r/a' priority='2'>2<xsl:next-match/></xsl:template>" +
+                "<xsl:template match=\"a[@c='v']\" priority='3'>3<xsl:next-match/></xsl:template>" +
+                "<xsl:template match='*' priority='0'>*<xsl:next-match/></xsl:template>" +
+                "<xsl:template match='node()' priority='-1'>n<xsl:next-match/></xsl:template>" +
+                "</xsl:stylesheet>";
+        assertEquals("*n321*n21*n*n1*n",
+                run(xsl, "<r><a c='v'/><a/><s><a c='w'/></s></r>"));
+    }
+
+    public void testApplyImports() throws Exception {
+        modules.put("base.xsl", XSL +
+                "<xsl:template match='a' priority='10'>base-a</xsl:template>" +
+                "<xsl:template match='b[@k]'>base-b</xsl:template>" +
+                "<xsl:template match='r/c'>base-c</xsl:template>" +
+                "</xsl:stylesheet>");
+        String xsl = XSL +
+                "<xsl:import href='base.xsl'/>" +
+                "<xsl:template match='a'>main-a(<xsl:apply-imports/>)</xsl:template>" +
+                "<xsl:template match='b'>main-b(<xsl:apply-imports/>)</xsl:template>" +
+                "<xsl:template match='c'>main-c(<xsl:apply-imports/>)</xsl:template>" +
+                "</xsl:stylesheet>";
+        assertEquals("main-a(base-a)main-b(base-b)main-b()main-c(base-c)main-c()",
+                run(xsl, "<r><a/><b k='1'/><b/><c/><s><c/></s></r>"));
+    }
+
+    public void testAttributePreconditions() throws Exception {
+        String xsl = XSL +
+                "<xsl:template match=\"p[@class='note']\" priority='9'>note;</xsl:template>" +
+                "<xsl:template match=\"p[@class=('a','b')]\" priority='8'>ab;</xsl:template>" +
+                "<xsl:template match=\"p[@class eq 'c']\" priority='7'>c;</xsl:template>" +
+                "<xsl:template match=\"p[@class='x' and @lang]\" priority='6'>xl;</xsl:template>" +
+                "<xsl:template match='p[@n = 3]' priority='5'>three;</xsl:template>" +
+                "<xsl:template match='p[@id]' priority='4'>id;</xsl:template>" +
+                "<xsl:template match='p[not(@class)]' priority='3'>none;</xsl:template>" +
+                "<xsl:template match='p' priority='2'>p;</xsl:template>" +
+                "</xsl:stylesheet>";
+        String xml = "<r>" +
+                "<p class='note'/><p class='a'/><p class='b'/><p class='c'/><p class='d'/>" +
+                "<p class='x' lang='en'/><p class='x'/><p n='3.0'/><p n='03'/><p n='4' class='z'/>" +
+                "<p id='i'/><p/><p class=' note'/><p class='note a'/>" +
+                "</r>";
+        assertEquals("note;ab;ab;c;p;xl;p;three;three;p;id;none;p;p;", run(xsl, xml));
+    }
+
+    public void testParentPartitioning() throws Exception {
+        String xsl = XSL +
+                "<xsl:template match='section/title' priority='2'>section;</xsl:template>" +
+                "<xsl:template match='chapter/title' priority='2'>chapter;</xsl:template>" +
+                "<xsl:template match='appendix/title' priority='2'>appendix;</xsl:template>" +
+                "<xsl:template match='part/title' priority='2'>part;</xsl:template>" +
+                "<xsl:template match='book/title' priority='2'>book;</xsl:template>" +
+                "<xsl:template match='preface/title' priority='2'>preface;</xsl:template>" +
+                "<xsl:template match='index/title' priority='2'>index;</xsl:template>" +
+                "<xsl:template match='x:section/title' priority='2'>x-section;</xsl:template>" +
+                "<xsl:template match='section//title' priority='1.5'>deep;</xsl:template>" +
+                "<xsl:template match='*/title[@k]' priority='1.2'>k;</xsl:template>" +
+                "<xsl:template match='/title' priority='1.1'>top;</xsl:template>" +
+                "<xsl:template match='title' priority='1'>title;</xsl:template>" +
+                "<xsl:template match='section/@id' priority='2'>section-id;</xsl:template>" +
+                "<xsl:template match='@id' priority='1'>id;</xsl:template>" +
+                "<xsl:template match='*'><xsl:apply-templates select='@*|node()'/></xsl:template>" +
+                "</xsl:stylesheet>";
+        String xml = "<book xmlns:x='http://x.example.com/'><title/>" +
+                "<section id='s'><title/><div id='d'><title/></div></section>" +
+                "<chapter><title/></chapter><appendix><title/></appendix><part><title/></part>" +
+                "<preface><title/></preface><index><title/></index>" +
+                "<x:section><title/></x:section><other><title/><title k='1'/></other>" +
+                "</book>";
+        assertEquals("book;section-id;section;id;deep;chapter;appendix;part;preface;index;x-section;title;k;",
+                run(xsl, xml));
+        assertEquals("top;", run(xsl, "<title/>"));
+    }
+
+    public void testNamesWithoutRules() throws Exception {
+        String xsl = XSL +
+                "<xsl:template match='a'>a;</xsl:template>" +
+                "<xsl:template match='x:*'>x;</xsl:template>" +
+                "<xsl:template match='*:b'>b;</xsl:template>" +
+                "<xsl:template match='@q'>q;</xsl:template>" +
+                "<xsl:template match='*' mode='m'>m;</xsl:template>" +
+                "<xsl:template match='r'><xsl:apply-templates select='*|*/@*'/>" +
+                "<xsl:apply-templates select='*' mode='m'/></xsl:template>" +
+                "</xsl:stylesheet>";
+        String xml = "<r xmlns:x='http://x.example.com/' xmlns:y='http://y.example.com/'>" +
+                "<a/><zz>text;</zz><x:c/><y:b/><b/><a q='1' z='2'/><zz/></r>";
+        // unmatched elements and attributes use the built-in rules, which copy text and attribute values
+        assertEquals("a;text;x;b;b;a;q;2m;m;m;m;m;m;m;", run(xsl, xml, "m"));
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
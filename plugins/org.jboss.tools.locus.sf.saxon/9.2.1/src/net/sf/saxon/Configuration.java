@@ -1,5 +1,6 @@
 package net.sf.saxon;
 
+import net.sf.saxon.bytecode.ByteCodeCandidate;
 import net.sf.saxon.charcode.CharacterSetFactory;
 import net.sf.saxon.event.*;
 import net.sf.saxon.evpull.PullEventSource;
@@ -18,7 +19,9 @@ import net.sf.saxon.sort.StandardCollationURIResolver;
 import net.sf.saxon.sort.StringCollator;
 import net.sf.saxon.style.StyleNodeFactory;
 import net.sf.saxon.sxpath.IndependentContext;
+import net.sf.saxon.tinytree.TinyTreeImageSource;
 import net.sf.saxon.trace.TraceListener;
+import net.sf.saxon.regex.RegexCache;
 import net.sf.saxon.trans.*;
 import net.sf.saxon.type.*;
 import net.sf.saxon.value.SequenceType;
@@ -123,11 +126,16 @@ public class Configuration implements Serializable, SourceResolver {
     private boolean useTypedValueCache = true;
     private boolean lazyConstructionMode = false;
     private boolean allowMultiThreading = false;
+    private transient WorkerPool workerPool = null;
+    private int externalSortThreshold = 0;
+    private transient RegexCache regexCache = null;
+    private int regexCacheSize = RegexCache.DEFAULT_CAPACITY;
     private boolean preEvaluateDocFunction = false;
     private boolean useDisableOutputEscaping = false;
     private NamePool namePool = new NamePool();
     private DocumentNumberAllocator documentNumberAllocator = new DocumentNumberAllocator();
     private DocumentPool globalDocumentPool = new DocumentPool();
+    private DocumentCache documentCache = null;
     private transient XPathContext conversionContext = null;
     private transient TypeHierarchy typeHierarchy;
 
@@ -139,6 +147,10 @@ public class Configuration implements Serializable, SourceResolver {
     private transient Debugger debugger = null;
     protected Optimizer optimizer = null;
     protected int optimizationLevel = Optimizer.FULL_OPTIMIZATION;
+    private int inliningThreshold = Optimizer.DEFAULT_INLINING_THRESHOLD;
+    private boolean generateByteCode = false;
+    private int byteCodeThreshold = Optimizer.DEFAULT_BYTE_CODE_THRESHOLD;
+    private boolean verifyByteCode = false;
     private transient DynamicLoader dynamicLoader = new DynamicLoader();
     protected transient StyleNodeFactory styleNodeFactory = null;
 
@@ -573,6 +585,7 @@ public class Configuration implements Serializable, SourceResolver {
         c.allowExternalFunctions = allowExternalFunctions;
         c.lazyConstructionMode = lazyConstructionMode;
         c.allowMultiThreading = allowMultiThreading;
+        c.externalSortThreshold = externalSortThreshold;
         c.preEvaluateDocFunction = preEvaluateDocFunction;
         c.namePool = namePool;
         c.documentNumberAllocator = documentNumberAllocator;
@@ -584,6 +597,11 @@ public class Configuration implements Serializable, SourceResolver {
         c.retainDTDattributeTypes = retainDTDattributeTypes;
         c.debugger = debugger;
         c.optimizer = optimizer;
+        c.inliningThreshold = inliningThreshold;
+        c.generateByteCode = generateByteCode;
+        c.byteCodeThreshold = byteCodeThreshold;
+        c.verifyByteCode = verifyByteCode;
+        c.regexCacheSize = regexCacheSize;
         c.serializerFactory = serializerFactory;
         c.characterSetFactory = characterSetFactory;
         c.dynamicLoader = dynamicLoader;
@@ -920,7 +938,10 @@ public class Configuration implements Serializable, SourceResolver {
     }
 
     /**
-     * Set whether multithreading optimizations are allowed
+     * Set whether multithreading optimizations are allowed. When multithreading is enabled, large key
+     * indexes are built in parallel, large sequences are sorted in parallel, and the bodies of xsl:for-each instructions and "for" expressions
+     * that have no side-effects are evaluated for different items at the same time, using the threads
+     * of the {@link #getWorkerPool worker pool}. The results are always delivered in the correct order.
      *
      * @param multithreading true if multithreading optimizations area allowed
      */
@@ -939,6 +960,230 @@ public class Configuration implements Serializable, SourceResolver {
         return allowMultiThreading;
     }
 
+    /**
+     * Set the pool of worker threads to be used for multithreading optimizations. This
+     * has no effect unless multithreading is enabled using {@link #setMultiThreading}.
+     *
+     * @param pool the pool of worker threads
+     * @since 9.2
+     */
+
+    public void setWorkerPool(WorkerPool pool) {
+        workerPool = pool;
+    }
+
+    /**
+     * Get the pool of worker threads to be used for multithreading optimizations. If no pool
+     * has been set, a pool is created with one thread for each available processor.
+     *
+     * @return the pool of worker threads
+     * @since 9.2
+     */
+
+    public synchronized WorkerPool getWorkerPool() {
+        if (workerPool == null) {
+            workerPool = new WorkerPool(Runtime.getRuntime().availableProcessors());
+        }
+        return workerPool;
+    }
+
+    /**
+     * Set the maximum number of items that are held in memory while sorting. When a sequence containing
+     * more items than this is sorted, the items and their sort keys are sorted in runs of this size, each
+     * run is written to a temporary file, and the runs are then merged. Nodes in a TinyTree and atomic
+     * values are written to the files; other items remain in memory.
+     *
+     * @param threshold the maximum number of items to be sorted in memory. The value zero (the default)
+     * means that there is no limit.
+     * @since 9.2
+     */
+
+    public void setExternalSortThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("External sort threshold must not be negative");
+        }
+        externalSortThreshold = threshold;
+    }
+
+    /**
+     * Get the maximum number of items that are held in memory while sorting
+     *
+     * @return the maximum number of items to be sorted in memory, or zero if there is no limit
+     * @since 9.2
+     */
+
+    public int getExternalSortThreshold() {
+        return externalSortThreshold;
+    }
+
+    /**
+     * Set the inlining threshold. Calls on user-defined functions (xsl:function in XSLT, or
+     * declare function in XQuery) are replaced by the body of the function at compile time if
+     * the function is not recursive and its body is no larger than this threshold, measured
+     * as a number of nodes in the expression tree.
+     *
+     * @param threshold the maximum size of a function body that can be inlined. The value
+     * zero prevents any function calls from being inlined.
+     * @since 9.2
+     */
+
+    public void setInliningThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Inlining threshold must not be negative");
+        }
+        inliningThreshold = threshold;
+    }
+
+    /**
+     * Get the inlining threshold, the maximum size of the body of a user-defined function
+     * for calls on the function to be inlined
+     *
+     * @return the inlining threshold. The value zero means that no function calls are inlined.
+     * @since 9.2
+     */
+
+    public int getInliningThreshold() {
+        return inliningThreshold;
+    }
+
+    /**
+     * Say whether frequently-evaluated expressions should be compiled to Java byte code. When this option
+     * is set, the predicates of filter expressions and the conditions of conditional expressions and
+     * instructions are compiled, if they are suitable, once they have been evaluated the number of times
+     * given by {@link #setByteCodeThreshold}. Parts of the expression that the byte code generator does not
+     * handle continue to be interpreted. Byte code generation requires the ASM library (package
+     * <code>org.objectweb.asm</code>, version 5.0 or later); if this is not available, a warning is sent
+     * to the ErrorListener of this Configuration, and the option has no effect.
+     *
+     * @param generate true if byte code is to be generated
+     * @throws IllegalArgumentException if the ASM library is not available and the ErrorListener
+     * treats the warning as fatal
+     * @since 9.2
+     */
+
+    public void setGenerateByteCode(boolean generate) {
+        generateByteCode = generate;
+        if (generate && !ByteCodeCandidate.isByteCodeAvailable()) {
+            try {
+                getErrorListener().warning(new TransformerException(
+                        "Byte code generation was requested, but the ASM library (org.objectweb.asm) " +
+                        "is not available: expressions will be interpreted"));
+            } catch (TransformerException err) {
+                throw new IllegalArgumentException(err.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Ask whether frequently-evaluated expressions should be compiled to Java byte code
+     *
+     * @return true if byte code is to be generated
+     * @since 9.2
+     */
+
+    public boolean isGenerateByteCode() {
+        return generateByteCode;
+    }
+
+    /**
+     * Set the number of times an expression must be evaluated before it is compiled to Java byte code.
+     * This has no effect unless {@link #setGenerateByteCode} has been called.
+     *
+     * @param threshold the number of evaluations after which an expression is compiled. The value zero
+     * causes expressions to be compiled on their first evaluation.
+     * @since 9.2
+     */
+
+    public void setByteCodeThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Byte code threshold must not be negative");
+        }
+        byteCodeThreshold = threshold;
+    }
+
+    /**
+     * Get the number of times an expression must be evaluated before it is compiled to Java byte code
+     *
+     * @return the number of evaluations after which an expression is compiled
+     * @since 9.2
+     */
+
+    public int getByteCodeThreshold() {
+        return byteCodeThreshold;
+    }
+
+    /**
+     * Say whether expressions compiled to Java byte code should be checked against the interpreter.
+     * When this option is set, each evaluation of a compiled expression is also performed by the interpreter,
+     * and an <code>IllegalStateException</code> is thrown if the two results differ. This is intended
+     * for testing only, since it makes evaluation slower rather than faster.
+     *
+     * @param verify true if compiled expressions are to be checked against the interpreter
+     * @since 9.2
+     */
+
+    public void setVerifyByteCode(boolean verify) {
+        verifyByteCode = verify;
+    }
+
+    /**
+     * Ask whether expressions compiled to Java byte code should be checked against the interpreter
+     *
+     * @return true if compiled expressions are to be checked against the interpreter
+     * @since 9.2
+     */
+
+    public boolean isVerifyByteCode() {
+        return verifyByteCode;
+    }
+
+    /**
+     * Set the maximum number of compiled regular expressions held in the regex cache. The cache is used
+     * when the regular expression supplied to matches(), replace(), tokenize() or xsl:analyze-string is
+     * not known until run-time.
+     *
+     * @param size the maximum number of regular expressions to be cached. The value zero means that
+     * regular expressions computed at run-time are compiled afresh on each use.
+     * @since 9.2
+     */
+
+    public synchronized void setRegexCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Regex cache size must not be negative");
+        }
+        regexCacheSize = size;
+        if (regexCache != null) {
+            regexCache.setCapacity(size);
+        }
+    }
+
+    /**
+     * Get the maximum number of compiled regular expressions held in the regex cache
+     *
+     * @return the maximum number of regular expressions to be cached
+     * @since 9.2
+     */
+
+    public synchronized int getRegexCacheSize() {
+        return regexCacheSize;
+    }
+
+    /**
+     * Get the cache of compiled regular expressions. This is shared by all transformations and queries
+     * using this Configuration. The cache is created when first needed. Applications can use it to
+     * examine the hit rate, or to clear the cache.
+     *
+     * @return the cache of compiled regular expressions
+     * @since 9.2
+     */
+
+    public synchronized RegexCache getRegexCache() {
+        if (regexCache == null) {
+            regexCache = new RegexCache(regexCacheSize);
+        }
+        return regexCache;
+    }
+
     /**
      * Set the XML version to be used by default for validating characters and names.
      * Note that source documents specifying xml version="1.0" or "1.1" are accepted
@@ -1017,7 +1262,8 @@ public class Configuration implements Serializable, SourceResolver {
 
     /**
      * Get the Tree Model used by this Configuration. This is either
-     * {@link Builder#LINKED_TREE}, {@link Builder#TINY_TREE}, or {@link Builder#TINY_TREE_CONDENSED}.
+     * {@link Builder#LINKED_TREE}, {@link Builder#TINY_TREE}, {@link Builder#TINY_TREE_CONDENSED},
+     * or {@link Builder#TINY_TREE_OFF_HEAP}.
      * The default is <code>Builder.TINY_TREE</code>.
      *
      * @return the selected Tree Model
@@ -1030,7 +1276,8 @@ public class Configuration implements Serializable, SourceResolver {
 
     /**
      * Set the Tree Model used by this Configuration. This is either
-     * {@link Builder#LINKED_TREE} or {@link Builder#TINY_TREE}, or {@link Builder#TINY_TREE_CONDENSED}.
+     * {@link Builder#LINKED_TREE} or {@link Builder#TINY_TREE}, {@link Builder#TINY_TREE_CONDENSED},
+     * or {@link Builder#TINY_TREE_OFF_HEAP}.
      * The default is <code>Builder.TINY_TREE</code>.
      *
      * @param treeModel the integer constant representing the selected Tree Model
@@ -1984,17 +2231,18 @@ public class Configuration implements Serializable, SourceResolver {
     }
 
     /**
-     * Create a document projector for a given path map. Document projection is available only
-     * in Saxon-EE, so the Saxon-B version of this method throws an exception
+     * Create a document projector for a given path map. The projector is a filter that is placed
+     * between the parser and the tree builder, and discards those parts of the document that
+     * the path map shows to be unreachable.
      *
-     * @param map the path map used to control document projection
+     * @param map the path map used to control document projection. This must be a root obtained from
+     * {@link PathMap#getContextRoot} or {@link PathMap#getRootForDocument}, so that the paths have been
+     * reduced to use downwards axes only.
      * @return a push filter that implements document projection
-     * @throws UnsupportedOperationException if this is not a schema-aware configuration, or
-     *                                       if no Saxon-EE license is available
      */
 
     public ProxyReceiver makeDocumentProjector(PathMap.PathMapRoot map) {
-        throw new UnsupportedOperationException("Document projection requires a schema-aware Configuration");
+        return new DocumentProjector(map);
     }
 
     /**
@@ -2212,6 +2460,31 @@ public class Configuration implements Serializable, SourceResolver {
         return globalDocumentPool;
     }
 
+    /**
+     * Set a document cache, to be shared by all transformations and queries that use this Configuration.
+     * Documents loaded using the doc() or document() functions are added to the cache, and are
+     * reused by later transformations that request the same document, rather than being parsed again.
+     * By default there is no document cache.
+     *
+     * @param cache the document cache to be used, or null to stop caching documents
+     * @since 9.2
+     */
+
+    public void setDocumentCache(DocumentCache cache) {
+        documentCache = cache;
+    }
+
+    /**
+     * Get the document cache that is shared by all transformations and queries that use this Configuration
+     *
+     * @return the document cache, or null if none has been set
+     * @since 9.2
+     */
+
+    public DocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
     /**
      * Determine whether whitespace-only text nodes are to be stripped unconditionally
      * from source documents.
@@ -2877,8 +3150,7 @@ public class Configuration implements Serializable, SourceResolver {
      */
 
     public Receiver makeStreamingTransformer(XPathContext context, Mode mode) {
-        // Streaming is only available in Saxon-EE
-        return null;
+        return new StreamingTransformer(context.newContext(), mode);
     }
 
     /**
@@ -3191,6 +3463,9 @@ public class Configuration implements Serializable, SourceResolver {
     */
 
     public Source resolveSource(Source source, Configuration config) throws XPathException {
+        if (source instanceof TinyTreeImageSource) {
+            return ((TinyTreeImageSource)source).load(config);
+        }
         if (source instanceof AugmentedSource) {
             return source;
         }
@@ -3287,6 +3562,7 @@ public class Configuration implements Serializable, SourceResolver {
         ParseOptions options = new ParseOptions(parseOptions);
 
         // Resolve user-defined implementations of Source
+        Source originalSource = source;
         source = resolveSource(source, this);
         if (source == null) {
             throw new XPathException("Unknown source class");
@@ -3301,6 +3577,18 @@ public class Configuration implements Serializable, SourceResolver {
 
         options.applyDefaults(this);
 
+        // A document loaded from a saved tree image can be used as is, unless it needs to be
+        // rebuilt to apply whitespace stripping, validation, or a different tree model
+
+        if (originalSource instanceof TinyTreeImageSource) {
+            int validation = options.getSchemaValidationMode() & Validation.VALIDATION_MODE_MASK;
+            if (options.getStripSpace() != Whitespace.ALL && options.getFilters() == null &&
+                    validation != Validation.STRICT && validation != Validation.LAX &&
+                    options.getModel().getSymbolicValue() != Builder.LINKED_TREE) {
+                return (DocumentInfo)source;
+            }
+        }
+
         // Create an appropriate Builder
 
         TreeModel treeModel = options.getModel();
@@ -3420,6 +3708,12 @@ public class Configuration implements Serializable, SourceResolver {
             boolean b = requireBoolean(name, value);
             setAllowExternalFunctions(b);
 
+        } else if (name.equals(FeatureKeys.BYTE_CODE_THRESHOLD)) {
+            if (!(value instanceof Integer)) {
+                throw new IllegalArgumentException("BYTE_CODE_THRESHOLD value must be an Integer");
+            }
+            setByteCodeThreshold(((Integer)value).intValue());
+
         } else if (name.equals(FeatureKeys.COLLATION_URI_RESOLVER)) {
             if (!(value instanceof CollationURIResolver)) {
                 throw new IllegalArgumentException(
@@ -3458,6 +3752,13 @@ public class Configuration implements Serializable, SourceResolver {
         } else if (name.equals(FeatureKeys.DEFAULT_LANGUAGE)) {
             setDefaultLanguage(value.toString());
 
+        } else if (name.equals(FeatureKeys.DOCUMENT_CACHE)) {
+            if (value != null && !(value instanceof DocumentCache)) {
+                throw new IllegalArgumentException(
+                        "DOCUMENT_CACHE value must be an instance of net.sf.saxon.om.DocumentCache");
+            }
+            setDocumentCache((DocumentCache)value);
+
         } else if (name.equals(FeatureKeys.DTD_VALIDATION)) {
             boolean b = requireBoolean(name, value);
             setValidation(b);
@@ -3477,6 +3778,26 @@ public class Configuration implements Serializable, SourceResolver {
             boolean b = requireBoolean(name, value);
             setExpandAttributeDefaults(b);
 
+        } else if (name.equals(FeatureKeys.EXTERNAL_SORT_THRESHOLD)) {
+            if (!(value instanceof Integer)) {
+                throw new IllegalArgumentException("EXTERNAL_SORT_THRESHOLD value must be an Integer");
+            }
+            setExternalSortThreshold(((Integer)value).intValue());
+
+        } else if (name.equals(FeatureKeys.GENERATE_BYTE_CODE)) {
+            boolean b = requireBoolean(name, value);
+            setGenerateByteCode(b);
+
+        } else if (name.equals(FeatureKeys.INDEXED_FILTERS)) {
+            boolean b = requireBoolean(name, value);
+            getOptimizer().setIndexedFilters(b);
+
+        } else if (name.equals(FeatureKeys.INLINING_THRESHOLD)) {
+            if (!(value instanceof Integer)) {
+                throw new IllegalArgumentException("INLINING_THRESHOLD value must be an Integer");
+            }
+            setInliningThreshold(((Integer)value).intValue());
+
         } else if (name.equals(FeatureKeys.LAZY_CONSTRUCTION_MODE)) {
             boolean b = requireBoolean(name, value);
             setLazyConstructionMode(b);
@@ -3570,6 +3891,12 @@ public class Configuration implements Serializable, SourceResolver {
             }
             setRecoveryPolicy(rval);
 
+        } else if (name.equals(FeatureKeys.REGEX_CACHE_SIZE)) {
+            if (!(value instanceof Integer)) {
+                throw new IllegalArgumentException("REGEX_CACHE_SIZE value must be an Integer");
+            }
+            setRegexCacheSize(((Integer)value).intValue());
+
         } else if (name.equals(FeatureKeys.SERIALIZER_FACTORY_CLASS)) {
             setSerializerFactory(
                     (SerializerFactory)instantiateClassName(name, value, OutputURIResolver.class));
@@ -3668,12 +3995,14 @@ public class Configuration implements Serializable, SourceResolver {
                 setTreeModel(Builder.TINY_TREE);
             } else if (value.equals("tinyTreeCondensed")) {
                 setTreeModel(Builder.TINY_TREE_CONDENSED);
+            } else if (value.equals("tinyTreeOffHeap")) {
+                setTreeModel(Builder.TINY_TREE_OFF_HEAP);
             } else if (value.equals("linkedTree")) {
                 setTreeModel(Builder.LINKED_TREE);
             } else {
                 throw new IllegalArgumentException(
                         "Unrecognized value TREE_MODEL_NAME = '" + value +
-                                "': must be linkedTree|tinyTree|tinyTreeCondensed");
+                                "': must be linkedTree|tinyTree|tinyTreeCondensed|tinyTreeOffHeap");
             }
         } else if (name.equals(FeatureKeys.URI_RESOLVER_CLASS)) {
             setURIResolver(
@@ -3691,6 +4020,9 @@ public class Configuration implements Serializable, SourceResolver {
         } else if (name.equals(FeatureKeys.VALIDATION_WARNINGS)) {
             setValidationWarnings(requireBoolean(name, value));
 
+        } else if (name.equals(FeatureKeys.VERIFY_BYTE_CODE)) {
+            setVerifyByteCode(requireBoolean(name, value));
+
         } else if (name.equals(FeatureKeys.VERSION_WARNING)) {
             setVersionWarning(requireBoolean(name, value));
 
@@ -3820,6 +4152,9 @@ public class Configuration implements Serializable, SourceResolver {
         if (name.equals(FeatureKeys.ALLOW_EXTERNAL_FUNCTIONS)) {
             return Boolean.valueOf(isAllowExternalFunctions());
 
+        } else if (name.equals(FeatureKeys.BYTE_CODE_THRESHOLD)) {
+            return new Integer(getByteCodeThreshold());
+
         } else if (name.equals(FeatureKeys.COLLATION_URI_RESOLVER)) {
             return getCollationURIResolver();
 
@@ -3847,6 +4182,9 @@ public class Configuration implements Serializable, SourceResolver {
         } else if (name.equals(FeatureKeys.DEFAULT_LANGUAGE)) {
             return getDefaultLanguage();
 
+        } else if (name.equals(FeatureKeys.DOCUMENT_CACHE)) {
+            return getDocumentCache();
+
         } else if (name.equals(FeatureKeys.DTD_VALIDATION)) {
             return Boolean.valueOf(isValidation());
 
@@ -3859,6 +4197,18 @@ public class Configuration implements Serializable, SourceResolver {
         } else if (name.equals(FeatureKeys.EXPAND_ATTRIBUTE_DEFAULTS)) {
             return Boolean.valueOf(isExpandAttributeDefaults());
 
+        } else if (name.equals(FeatureKeys.EXTERNAL_SORT_THRESHOLD)) {
+            return new Integer(getExternalSortThreshold());
+
+        } else if (name.equals(FeatureKeys.GENERATE_BYTE_CODE)) {
+            return Boolean.valueOf(isGenerateByteCode());
+
+        } else if (name.equals(FeatureKeys.INDEXED_FILTERS)) {
+            return Boolean.valueOf(getOptimizer().isIndexedFilters());
+
+        } else if (name.equals(FeatureKeys.INLINING_THRESHOLD)) {
+            return new Integer(getInliningThreshold());
+
         } else if (name.equals(FeatureKeys.LINE_NUMBERING)) {
             return Boolean.valueOf(isLineNumbering());
 
@@ -3903,6 +4253,9 @@ public class Configuration implements Serializable, SourceResolver {
                 default: return null;
             }
 
+        } else if (name.equals(FeatureKeys.REGEX_CACHE_SIZE)) {
+            return new Integer(getRegexCacheSize());
+
         } else if (name.equals(FeatureKeys.SCHEMA_URI_RESOLVER)) {
             return getSchemaURIResolver();
 
@@ -3962,6 +4315,8 @@ public class Configuration implements Serializable, SourceResolver {
                     return "tinyTree";
                 case Builder.TINY_TREE_CONDENSED:
                     return "tinyTreeCondensed";
+                case Builder.TINY_TREE_OFF_HEAP:
+                    return "tinyTreeOffHeap";
                 case Builder.LINKED_TREE:
                     return "linkedTree";
             }
@@ -3981,6 +4336,9 @@ public class Configuration implements Serializable, SourceResolver {
         } else if (name.equals(FeatureKeys.VALIDATION_WARNINGS)) {
             return Boolean.valueOf(isValidationWarnings());
 
+        } else if (name.equals(FeatureKeys.VERIFY_BYTE_CODE)) {
+            return Boolean.valueOf(isVerifyByteCode());
+
         } else if (name.equals(FeatureKeys.VERSION_WARNING)) {
             return Boolean.valueOf(isVersionWarning());
 
@@ -67,6 +67,8 @@ public class Controller extends Transformer {
     private NamePool namePool;
     private String messageReceiverClassName;
     private Receiver messageReceiver;
+    private Emitter defaultMessageReceiver;
+    private Writer defaultMessageWriter;
     private RuleManager ruleManager;
     private Properties localOutputProperties;
     private GlobalParameterSet parameters;
@@ -147,6 +149,9 @@ public class Controller extends Transformer {
      * to reuse the document pool (the set of documents that have been loaded using the doc() or document()
      * functions). Therefore, this method does not clear the document pool. If you want to clear the document
      * pool, call the method {@link #clearDocumentPool} as well.</i>
+     * <p>
+     * <i>The default emitter for xsl:message output is also retained, since it is relatively expensive
+     * to create, unless the application has redirected its output by calling {@link Emitter#setWriter}.</i>
      * <p/>
      * <p>The reset <code>Transformer</code> is not guaranteed to have the same {@link javax.xml.transform.URIResolver}
      * or {@link javax.xml.transform.ErrorListener} <code>Object</code>s, e.g. {@link Object#equals(Object obj)}.
@@ -161,7 +166,8 @@ public class Controller extends Transformer {
 		namePool = config.getNamePool();
         standardURIResolver = config.getSystemURIResolver();
         userURIResolver = config.getURIResolver();
-        outputURIResolver = config.getOutputURIResolver();
+        outputURIResolver = (preparedStylesheet == null ? config.getOutputURIResolver() :
+                preparedStylesheet.getCompilerInfo().getOutputURIResolver());
         schemaURIResolver = config.getSchemaURIResolver();
         unparsedTextResolver = new StandardUnparsedTextResolver();
         errorListener = config.getErrorListener();
@@ -192,7 +198,12 @@ public class Controller extends Transformer {
         setTreeModel(config.getTreeModel());
 
         contextForGlobalVariables = null;
-        messageReceiver = null;
+        if (defaultMessageReceiver != null && defaultMessageReceiver.getWriter() == defaultMessageWriter) {
+            messageReceiver = defaultMessageReceiver;
+        } else {
+            messageReceiver = null;
+            defaultMessageReceiver = null;
+        }
         localOutputProperties = null;
         parameters = null;
         currentDateTime = null;
@@ -256,11 +267,12 @@ public class Controller extends Transformer {
 
     /**
      * Get the initial mode for the transformation
-     * @return the initial mode, as a name in Clark format
+     * @return the initial mode, as a name in Clark format, or null if the initial mode is the
+     * unnamed default mode
      */
 
     public String getInitialMode() {
-        return initialMode.getClarkName();
+        return (initialMode == null ? null : initialMode.getClarkName());
     }
 
     ////////////////////////////////////////////////////////////////////////////////
@@ -424,6 +436,7 @@ public class Controller extends Transformer {
 
     public void setBaseOutputURI(String uri) {
         principalResultURI = uri;
+        cookedPrincipalResultURI = null;
     }
 
     /**
@@ -577,7 +590,9 @@ public class Controller extends Transformer {
      */
 
     public SequenceOutputter allocateSequenceOutputter(int size) {
-        if (reusableSequenceOutputter != null) {
+        // A worker thread evaluating part of a parallel loop must not share the reusable SequenceOutputter,
+        // whose tree may still be in use by other threads
+        if (reusableSequenceOutputter != null && !WorkerPool.isWorkerThread()) {
             SequenceOutputter out = reusableSequenceOutputter;
             reusableSequenceOutputter = null;
             return out;
@@ -592,7 +607,9 @@ public class Controller extends Transformer {
      */
 
     public void reuseSequenceOutputter(SequenceOutputter out) {
-        reusableSequenceOutputter = out;
+        if (!WorkerPool.isWorkerThread()) {
+            reusableSequenceOutputter = out;
+        }
     }
 
     ///////////////////////////////////////////////////////////////////////////////
@@ -2037,6 +2054,8 @@ public class Controller extends Transformer {
                         throw new XPathException(e);
                     }
                 }
+                defaultMessageReceiver = (Emitter)me;
+                defaultMessageWriter = defaultMessageReceiver.getWriter();
             }
         }
         getMessageEmitter().open();
@@ -2295,7 +2314,7 @@ public class Controller extends Transformer {
      * @param number the number of this node
      */
 
-    public void setRememberedNumber(NodeInfo node, int number) {
+    public synchronized void setRememberedNumber(NodeInfo node, int number) {
         lastRememberedNode = node;
         lastRememberedNumber = number;
     }
@@ -2309,7 +2328,7 @@ public class Controller extends Transformer {
      * @return the number of this node if known, else -1.
      */
 
-    public int getRememberedNumber(NodeInfo node) {
+    public synchronized int getRememberedNumber(NodeInfo node) {
         if (lastRememberedNode == node) {
             return lastRememberedNumber;
         }
@@ -2318,7 +2337,11 @@ public class Controller extends Transformer {
 
     /**
      * Indicate whether document projection should be used, and supply the PathMap used to control it.
-     * Note: this is available only under Saxon-EE.
+     * When a path map is supplied, documents loaded using the doc() or document() functions are projected
+     * if the path map contains a root for the document's absolute URI: only the parts of the document
+     * that the path map shows to be reachable are included in the tree. This applies equally to queries,
+     * which supply the path map automatically when document projection is enabled, and to transformations,
+     * where the application may supply a path map computed from the relevant expressions.
      * @param pathMap a path map to be used for projecting source documents
      */
 
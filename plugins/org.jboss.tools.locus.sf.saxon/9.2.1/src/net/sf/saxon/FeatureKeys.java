@@ -35,6 +35,15 @@ public abstract class FeatureKeys {
 	public static final String ALLOW_EXTERNAL_FUNCTIONS =
 	        "http://saxon.sf.net/feature/allow-external-functions";
 
+    /**
+     * BYTE_CODE_THRESHOLD must be an Integer; it determines how many times a predicate or condition must be
+     * evaluated before it is compiled to Java byte code. It has no effect unless {@link #GENERATE_BYTE_CODE}
+     * is set. The default is 100.
+    */
+
+    public static final String BYTE_CODE_THRESHOLD =
+            "http://saxon.sf.net/feature/byteCodeThreshold";
+
     /**
     * COLLATION_URI_RESOLVER must be a {@link net.sf.saxon.sort.CollationURIResolver}.
      * This resolver will be used to resolve collation URIs used in stylesheets compiled or executed under the
@@ -132,6 +141,15 @@ public abstract class FeatureKeys {
              "http://saxon.sf.net/feature/defaultLanguage";
 
 
+    /**
+      * DOCUMENT_CACHE must be an instance of {@link net.sf.saxon.om.DocumentCache}, or null.
+      * If set, documents loaded using the doc() and document() functions are held in this cache, and are
+      * shared by all transformations and queries that use the same Configuration.
+     */
+
+     public static final String DOCUMENT_CACHE =
+             "http://saxon.sf.net/feature/documentCache";
+
     /**
     * DTD_VALIDATION must be a Boolean. This determines whether source documents should be
     * parsed with DTD-validation enabled.
@@ -173,6 +191,44 @@ public abstract class FeatureKeys {
     public static final String EXPAND_ATTRIBUTE_DEFAULTS =
             "http://saxon.sf.net/feature/expandAttributeDefaults";
 
+    /**
+     * EXTERNAL_SORT_THRESHOLD must be an Integer; it determines the maximum number of items that are held
+     * in memory while sorting. A larger sequence is sorted in runs of this size, which are written to
+     * temporary files and then merged. The default is zero, which means that all sorting is done in memory.
+    */
+
+    public static final String EXTERNAL_SORT_THRESHOLD =
+            "http://saxon.sf.net/feature/externalSortThreshold";
+
+    /**
+     * GENERATE_BYTE_CODE must be a Boolean; it determines whether frequently-evaluated predicates and
+     * conditions are compiled to Java byte code. This requires the ASM library (package
+     * <code>org.objectweb.asm</code>, version 5.0 or later) to be available; if it is not,
+     * a warning is sent to the ErrorListener of the Configuration, and the option has no effect.
+     * The default is false.
+    */
+
+    public static final String GENERATE_BYTE_CODE =
+            "http://saxon.sf.net/feature/generateByteCode";
+
+    /**
+     * INDEXED_FILTERS must be a Boolean; it determines whether the optimizer builds an index on a variable
+     * that is filtered using a predicate of the form $var[key = value], so that the matching items can be
+     * found without a serial search. The default is true.
+    */
+
+    public static final String INDEXED_FILTERS =
+            "http://saxon.sf.net/feature/indexedFilters";
+
+    /**
+     * INLINING_THRESHOLD must be an Integer; it determines the maximum size of the body of a user-defined
+     * function (measured as a number of nodes in the expression tree) for calls on the function to be
+     * inlined. Recursive functions are never inlined. The value zero disables inlining; the default is 20.
+    */
+
+    public static final String INLINING_THRESHOLD =
+            "http://saxon.sf.net/feature/inliningThreshold";
+
     /**
      * LAZY_CONSTRUCTION_MODE must be a Boolean; it determines whether temporary trees are constructed
      * lazily. The default setting is false; there are a few situations (but not many) where setting this
@@ -311,6 +367,16 @@ public abstract class FeatureKeys {
     public static final String RECOVERY_POLICY_NAME =
             "http://saxon.sf.net/feature/recoveryPolicyName";
 
+    /**
+     * REGEX_CACHE_SIZE must be an Integer; it determines the maximum number of compiled regular expressions
+     * held in the Configuration-wide cache used when the regular expression supplied to matches(), replace(),
+     * tokenize() or xsl:analyze-string is computed at run-time. The value zero disables the cache;
+     * the default is 100.
+    */
+
+    public static final String REGEX_CACHE_SIZE =
+            "http://saxon.sf.net/feature/regexCacheSize";
+
     /**
      * SCHEMA_URI_RESOLVER must be an instance of {@link net.sf.saxon.type.SchemaURIResolver}. This is a user-written
      * class that takes responsibility for locating schema documents.
@@ -443,14 +509,15 @@ public abstract class FeatureKeys {
 
     /**
 	* TREE_MODEL must be an Integer: {@link net.sf.saxon.event.Builder#LINKED_TREE},
-     *  {@link net.sf.saxon.event.Builder#TINY_TREE}, or {@link net.sf.saxon.event.Builder#TINY_TREE_CONDENSED}
+     *  {@link net.sf.saxon.event.Builder#TINY_TREE}, {@link net.sf.saxon.event.Builder#TINY_TREE_CONDENSED},
+     *  or {@link net.sf.saxon.event.Builder#TINY_TREE_OFF_HEAP}
 	*/
 
 	public static final String TREE_MODEL =
 	        "http://saxon.sf.net/feature/treeModel";
 
    /**
-	* TREE_MODEL_NAME must be a string: "linkedTree" or "tinyTree" or "tinyTreeCondensed"
+	* TREE_MODEL_NAME must be a string: "linkedTree" or "tinyTree" or "tinyTreeCondensed" or "tinyTreeOffHeap"
 	*/
 
 	public static final String TREE_MODEL_NAME =
@@ -507,6 +574,15 @@ public abstract class FeatureKeys {
     public static final String VALIDATION_WARNINGS =
             "http://saxon.sf.net/feature/validation-warnings";
 
+    /**
+     * VERIFY_BYTE_CODE must be a Boolean; if true, every evaluation of an expression that has been compiled
+     * to byte code is also performed by the interpreter, and an exception is thrown if the results differ.
+     * This is a diagnostic option, intended for testing the byte code generator. The default is false.
+    */
+
+    public static final String VERIFY_BYTE_CODE =
+            "http://saxon.sf.net/feature/verifyByteCode";
+
     /**
     * VERSION_WARNING must be a Boolean. This determines whether a warning should be output when
      * running an XSLT 2.0 processor against an XSLT 1.0 stylesheet. The XSLT specification requires
@@ -6,6 +6,7 @@ import net.sf.saxon.functions.ExecutableFunctionLibrary;
 import net.sf.saxon.functions.FunctionLibrary;
 import net.sf.saxon.functions.FunctionLibraryList;
 import net.sf.saxon.instruct.Executable;
+import net.sf.saxon.instruct.ExecutableImage;
 import net.sf.saxon.instruct.UserFunction;
 import net.sf.saxon.om.NamePool;
 import net.sf.saxon.om.NamespaceConstant;
@@ -14,6 +15,7 @@ import net.sf.saxon.style.*;
 import net.sf.saxon.trace.ExpressionPresenter;
 import net.sf.saxon.trans.CompilerInfo;
 import net.sf.saxon.trans.DecimalFormatManager;
+import net.sf.saxon.trans.ModuleDependencies;
 import net.sf.saxon.trans.RuleManager;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.tree.DocumentImpl;
@@ -24,6 +26,8 @@ import org.xml.sax.XMLReader;
 
 import javax.xml.transform.*;
 import javax.xml.transform.sax.SAXSource;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.io.StringReader;
 import java.math.BigDecimal;
@@ -50,6 +54,8 @@ public class PreparedStylesheet implements Templates, Serializable {
     private int errorCount = 0;
     private HashMap<URI, PreparedStylesheet> nextStylesheetCache;
                                         // cache for stylesheets named as "saxon:next-in-chain"
+    private ModuleDependencies moduleDependencies = new ModuleDependencies();
+                                        // the stylesheet modules that were read during compilation
 
     // definitions of decimal formats
     private DecimalFormatManager decimalFormatManager;
@@ -91,6 +97,51 @@ public class PreparedStylesheet implements Templates, Serializable {
         return pss;
     }
 
+    /**
+     * Save this compiled stylesheet as a binary image, which can later be reloaded using {@link #load},
+     * avoiding the cost of compiling the stylesheet again. The image can only be loaded by the same release
+     * of Saxon.
+     * @param stream the output stream to which the image is to be written. The stream is not closed.
+     * @throws XPathException if the stylesheet cannot be saved, for example because it contains references
+     * to objects that cannot be serialized, or if an I/O error occurs
+     * @since 9.2
+     */
+
+    public void save(OutputStream stream) throws XPathException {
+        ExecutableImage.save(this, getTargetNamePool(), stream);
+    }
+
+    /**
+     * Load a compiled stylesheet from a binary image written using {@link #save}
+     * @param stream the input stream from which the image is to be read. The stream is not closed.
+     * @param config the Configuration in which the stylesheet is to be run. The names used in the stylesheet
+     * are added to the NamePool of this Configuration, and the compiled code is adjusted if the codes
+     * allocated to them differ from the codes used when the stylesheet was compiled.
+     * @param info the compile-time options to be associated with the stylesheet, which provide
+     * the OutputURIResolver and the message receiver class to be used when it is run
+     * @return the compiled stylesheet
+     * @throws XPathException if the input is not a compiled stylesheet saved by this release of Saxon,
+     * or if an I/O error occurs
+     * @since 9.2
+     */
+
+    public static PreparedStylesheet load(InputStream stream, Configuration config, CompilerInfo info)
+            throws XPathException {
+        Object obj = ExecutableImage.load(stream, config);
+        if (!(obj instanceof PreparedStylesheet)) {
+            throw new XPathException("The saved executable is not a compiled stylesheet");
+        }
+        PreparedStylesheet pss = (PreparedStylesheet)obj;
+        pss.config = config;
+        pss.compilerInfo = info;
+        if (info.getErrorListener() == null) {
+            info.setErrorListener(config.getErrorListener());
+        }
+        pss.targetNamePool = null;
+        pss.executable.setConfiguration(config);
+        return pss;
+    }
+
     /**
      * Make a Transformer from this Templates object.
      *
@@ -238,6 +289,7 @@ public class PreparedStylesheet implements Templates, Serializable {
         styleBuilder.setSystemId(styleSource.getSystemId());
         styleBuilder.setNodeFactory(nodeFactory);
         styleBuilder.setLineNumbering(true);
+        moduleDependencies.add(styleSource.getSystemId());
 
         StartTagBuffer startTagBuffer = new StartTagBuffer();
 
@@ -356,6 +408,18 @@ public class PreparedStylesheet implements Templates, Serializable {
         return executable;
     }
 
+    /**
+     * Get the stylesheet modules that were read during compilation of this stylesheet, that is,
+     * the principal stylesheet module and the modules it includes or imports, directly or indirectly
+     * @return the dependencies of this stylesheet on its stylesheet modules. Modules that were supplied
+     * without a system ID are not included.
+     * @since 9.2
+     */
+
+    public ModuleDependencies getModuleDependencies() {
+        return moduleDependencies;
+    }
+
     /**
      * Determine whether trace hooks are included in the compiled code.
      * @return true if trace hooks are included, false if not.
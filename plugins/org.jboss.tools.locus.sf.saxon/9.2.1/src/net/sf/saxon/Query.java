@@ -590,8 +590,10 @@ public class Query {
                         config.setTreeModel(Builder.TINY_TREE);
                     } else if ("tinyc".equals(value)) {
                         config.setTreeModel(Builder.TINY_TREE_CONDENSED);
+                    } else if ("tinyo".equals(value)) {
+                        config.setTreeModel(Builder.TINY_TREE_OFF_HEAP);
                     } else {
-                        badUsage(command, "-tree option must be linked|tiny|tinyc");
+                        badUsage(command, "-tree option must be linked|tiny|tinyc|tinyo");
                     }
                     i++;
                 } else if (option.equals("T")) {
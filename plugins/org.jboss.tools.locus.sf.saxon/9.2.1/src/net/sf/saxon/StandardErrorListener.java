@@ -334,8 +334,14 @@ public class StandardErrorListener implements ErrorListener, Serializable {
             }
             systemId = loc.getSystemId();
             lineNumber = loc.getLineNumber();
-            nodeMessage = "at " + kind + " " +
-                    ((InstructionInfo)loc).getObjectName();
+            StructuredQName name = ((InstructionInfo)loc).getObjectName();
+            if (name != null) {
+                nodeMessage = "at " + kind + " " + name.getDisplayName() + ' ';
+            } else if (loc instanceof Template && ((Template)loc).getMatchPattern() != null) {
+                nodeMessage = "at template rule match=\"" + ((Template)loc).getMatchPattern() + "\" ";
+            } else {
+                nodeMessage = "in " + kind + ' ';
+            }
         }
         if (lineNumber == -1) {
             lineNumber = loc.getLineNumber();
@@ -0,0 +1,274 @@
+package net.sf.saxon.bytecode;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.expr.*;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.trace.ExpressionPresenter;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.ItemType;
+
+/**
+ * A ByteCodeCandidate is a wrapper around a boolean expression (typically the predicate of a filter expression
+ * or the condition of a conditional expression) that is to be compiled to Java byte code if it is evaluated
+ * sufficiently often. Until the threshold is reached, and permanently if the expression cannot be compiled,
+ * the wrapped expression is evaluated by the interpreter.
+ *
+ * <p>The wrapper is created by the optimizer, at the end of static analysis; if the expression is
+ * rewritten after that, the wrapper is discarded.</p>
+ */
+
+public class ByteCodeCandidate extends UnaryExpression {
+
+    private static Boolean byteCodeAvailable = null;
+
+    private int threshold;
+    private boolean verify;
+    private int evaluations = 0;
+    private transient volatile GeneratedExpression compiled = null;
+    private transient volatile boolean failed = false;
+
+    /**
+     * Create a ByteCodeCandidate
+     * @param base the expression to be compiled
+     * @param threshold the number of times the expression is to be evaluated by the interpreter before it is
+     * compiled
+     * @param verify true if each evaluation of the compiled code is to be checked against the interpreter
+     */
+
+    public ByteCodeCandidate(Expression base, int threshold, boolean verify) {
+        super(base);
+        this.threshold = threshold;
+        this.verify = verify;
+    }
+
+    /**
+     * Determine whether byte code generation is possible, that is, whether the ASM library is available
+     * @return true if byte code can be generated
+     */
+
+    public static synchronized boolean isByteCodeAvailable() {
+        if (byteCodeAvailable == null) {
+            try {
+                Class.forName("org.objectweb.asm.ClassWriter", false, ByteCodeCandidate.class.getClassLoader());
+                byteCodeAvailable = Boolean.TRUE;
+            } catch (ClassNotFoundException err) {
+                byteCodeAvailable = Boolean.FALSE;
+            } catch (LinkageError err) {
+                byteCodeAvailable = Boolean.FALSE;
+            }
+        }
+        return byteCodeAvailable.booleanValue();
+    }
+
+    /**
+     * Determine whether the expression has been compiled
+     * @return true if the expression has been compiled to byte code
+     */
+
+    public boolean isCompiled() {
+        return compiled != null;
+    }
+
+    /**
+     * Simplify an expression. The wrapper is discarded: it will be reinstated, if appropriate, when
+     * the containing expression is optimized.
+     */
+
+    public Expression simplify(ExpressionVisitor visitor) throws XPathException {
+        return visitor.simplify(operand);
+    }
+
+    /**
+     * Type-check the expression. The wrapper is discarded: it will be reinstated, if appropriate, when
+     * the containing expression is optimized.
+     */
+
+    public Expression typeCheck(ExpressionVisitor visitor, ItemType contextItemType) throws XPathException {
+        return visitor.typeCheck(operand, contextItemType);
+    }
+
+    /**
+     * Optimize the expression. If the wrapped expression is rewritten, the wrapper is discarded: it will be
+     * reinstated, if appropriate, when the containing expression is optimized.
+     */
+
+    public Expression optimize(ExpressionVisitor visitor, ItemType contextItemType) throws XPathException {
+        Expression exp = visitor.optimize(operand, contextItemType);
+        if (exp != operand) {
+            return exp;
+        }
+        return this;
+    }
+
+    /**
+     * Copy an expression. This makes a deep copy.
+     *
+     * @return the copy of the original expression
+     */
+
+    public Expression copy() {
+        return new ByteCodeCandidate(operand.copy(), threshold, verify);
+    }
+
+    public int getImplementationMethod() {
+        return operand.getImplementationMethod();
+    }
+
+    /**
+     * Add a representation of this expression to a PathMap. The PathMap captures a map of the nodes visited
+     * by an expression in a source tree.
+     */
+
+    public PathMap.PathMapNodeSet addToPathMap(PathMap pathMap, PathMap.PathMapNodeSet pathMapNodeSet) {
+        return operand.addToPathMap(pathMap, pathMapNodeSet);
+    }
+
+    /**
+     * Get the effective boolean value of the expression. This uses the compiled code if it is available,
+     * and compiles the expression if the threshold has been reached.
+     */
+
+    public boolean effectiveBooleanValue(XPathContext context) throws XPathException {
+        GeneratedExpression code = compiled;
+        if (code == null) {
+            if (!failed && ++evaluations > threshold) {
+                code = compile(context.getConfiguration());
+            }
+            if (code == null) {
+                return operand.effectiveBooleanValue(context);
+            }
+        }
+        if (verify) {
+            return verify(code, context);
+        }
+        try {
+            return code.effectiveBooleanValue(context);
+        } catch (ByteCodeHelper.FallbackException e) {
+            return operand.effectiveBooleanValue(context);
+        }
+    }
+
+    /**
+     * Compile the expression to byte code. If this fails, the expression is interpreted from then on.
+     * @param config the Saxon configuration
+     * @return the compiled code, or null if compilation failed
+     */
+
+    private synchronized GeneratedExpression compile(Configuration config) {
+        if (compiled == null && !failed) {
+            try {
+                compiled = new ExpressionCompiler(config.getTypeHierarchy()).compile(operand);
+                config.getOptimizer().trace("Compiled to byte code", operand);
+            } catch (XPathException err) {
+                failed = true;
+            } catch (RuntimeException err) {
+                failed = true;
+            } catch (LinkageError err) {
+                failed = true;
+            }
+            if (failed) {
+                config.getOptimizer().trace("Failed to compile to byte code", operand);
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Evaluate the expression both using the compiled code and using the interpreter, and check that
+     * the results are the same
+     * @param code the compiled code
+     * @param context the dynamic evaluation context
+     * @return the effective boolean value of the expression
+     * @throws XPathException if the interpreter reports a dynamic error
+     * @throws IllegalStateException if the compiled code and the interpreter produce different results
+     */
+
+    private boolean verify(GeneratedExpression code, XPathContext context) throws XPathException {
+        boolean expected;
+        try {
+            expected = operand.effectiveBooleanValue(context);
+        } catch (XPathException err) {
+            boolean failedToo;
+            try {
+                code.effectiveBooleanValue(context);
+                failedToo = false;
+            } catch (ByteCodeHelper.FallbackException e) {
+                failedToo = true;
+            } catch (XPathException e) {
+                failedToo = true;
+            }
+            if (!failedToo) {
+                throw new IllegalStateException("Byte code for " + operand.toString() +
+                        " succeeded, but the interpreter reported " + err.getMessage());
+            }
+            throw err;
+        }
+        boolean actual;
+        try {
+            actual = code.effectiveBooleanValue(context);
+        } catch (ByteCodeHelper.FallbackException e) {
+            return expected;
+        } catch (XPathException err) {
+            throw new IllegalStateException("Byte code for " + operand.toString() +
+                    " reported " + err.getMessage() + ", but the interpreter returned " + expected);
+        }
+        if (actual != expected) {
+            throw new IllegalStateException("Byte code for " + operand.toString() +
+                    " returned " + actual + ", but the interpreter returned " + expected);
+        }
+        return actual;
+    }
+
+    public Item evaluateItem(XPathContext context) throws XPathException {
+        return operand.evaluateItem(context);
+    }
+
+    public SequenceIterator iterate(XPathContext context) throws XPathException {
+        return operand.iterate(context);
+    }
+
+    public void process(XPathContext context) throws XPathException {
+        operand.process(context);
+    }
+
+    /**
+     * The toString() method for an expression attempts to give a representation of the expression
+     * in an XPath-like form, but there is no guarantee that the syntax will actually be true XPath.
+     */
+
+    public String toString() {
+        return operand.toString();
+    }
+
+    /**
+     * Diagnostic print of expression structure. The abstract expression tree
+     * is written to the supplied output destination.
+     */
+
+    public void explain(ExpressionPresenter out) {
+        out.startElement("byteCode");
+        out.emitAttribute("threshold", Integer.toString(threshold));
+        operand.explain(out);
+        out.endElement();
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,200 @@
+package net.sf.saxon.bytecode;
+
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.NamePool;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.StandardNames;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.Type;
+import net.sf.saxon.value.NumericValue;
+import net.sf.saxon.value.Value;
+
+/**
+ * This class contains static methods called from the code generated by the {@link ExpressionCompiler}.
+ * Each method handles the common case directly. In any case it does not handle, it throws a
+ * {@link FallbackException}, which causes the whole expression to be evaluated again by the interpreter:
+ * this ensures that the results, and in particular the errors, are always the same as if the expression
+ * had not been compiled.
+ *
+ * <p>Numeric values are represented in generated code as Java doubles, with NaN representing the
+ * empty sequence. Where the distinction matters (for example in a "not equals" comparison) the
+ * methods are told that an empty sequence is not allowed, and they then fall back to the interpreter
+ * rather than returning NaN.</p>
+ */
+
+public class ByteCodeHelper {
+
+    /**
+     * Exception thrown by generated code when it cannot evaluate an expression, indicating that the
+     * interpreter should be used instead. The exception carries no information, and a single instance
+     * is reused.
+     */
+
+    public static final class FallbackException extends RuntimeException {
+
+        private FallbackException() {
+            super("Byte code evaluation abandoned");
+        }
+
+        public Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * The single instance of FallbackException
+     */
+
+    public static final FallbackException FALLBACK = new FallbackException();
+
+    private ByteCodeHelper() {
+    }
+
+    /**
+     * Evaluate a numeric expression using the interpreter, and return its value as a double
+     * @param exp the expression to be evaluated. Its static type must be numeric, and its cardinality zero-or-one
+     * @param context the dynamic evaluation context
+     * @param emptyAllowed true if an empty sequence may be returned as NaN
+     * @return the value of the expression, converted to a double
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    public static double evaluateDouble(Expression exp, XPathContext context, boolean emptyAllowed)
+            throws XPathException {
+        Item item = exp.evaluateItem(context);
+        if (item == null) {
+            if (emptyAllowed) {
+                return Double.NaN;
+            }
+            throw FALLBACK;
+        }
+        return ((NumericValue)item).getDoubleValue();
+    }
+
+    /**
+     * Get the value of an attribute of the context node, converted from xs:untypedAtomic to xs:double
+     * @param context the dynamic evaluation context
+     * @param fingerprint the name of the attribute
+     * @param emptyAllowed true if an absent attribute may be returned as NaN
+     * @return the value of the attribute as a double
+     */
+
+    public static double attributeAsDouble(XPathContext context, int fingerprint, boolean emptyAllowed) {
+        String value = getUntypedElement(context).getAttributeValue(fingerprint);
+        if (value == null) {
+            if (emptyAllowed) {
+                return Double.NaN;
+            }
+            throw FALLBACK;
+        }
+        try {
+            return Value.stringToNumber(value);
+        } catch (NumberFormatException err) {
+            // let the interpreter report the error
+            throw FALLBACK;
+        }
+    }
+
+    /**
+     * Get the value of an attribute of the context node, converted to a double using the rules of the
+     * number() function
+     * @param context the dynamic evaluation context
+     * @param fingerprint the name of the attribute
+     * @return the value of number(@name)
+     */
+
+    public static double attributeNumber(XPathContext context, int fingerprint) {
+        String value = getUntypedElement(context).getAttributeValue(fingerprint);
+        if (value == null) {
+            return Double.NaN;
+        }
+        try {
+            return Value.stringToNumber(value);
+        } catch (NumberFormatException err) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Test whether the context node has a given attribute
+     * @param context the dynamic evaluation context
+     * @param fingerprint the name of the attribute
+     * @return true if the context node is an element having this attribute
+     */
+
+    public static boolean hasAttribute(XPathContext context, int fingerprint) {
+        Item item = context.getContextItem();
+        if (!(item instanceof NodeInfo)) {
+            // let the interpreter report the error
+            throw FALLBACK;
+        }
+        NodeInfo node = (NodeInfo)item;
+        return node.getNodeKind() == Type.ELEMENT && node.getAttributeValue(fingerprint) != null;
+    }
+
+    /**
+     * Evaluate the general comparison @name = 'value' using the Unicode codepoint collation
+     * @param context the dynamic evaluation context
+     * @param fingerprint the name of the attribute
+     * @param value the string to be compared with the attribute
+     * @return true if the context node has this attribute, and its value is equal to the supplied string
+     */
+
+    public static boolean attributeEquals(XPathContext context, int fingerprint, String value) {
+        String att = getUntypedElement(context).getAttributeValue(fingerprint);
+        return att != null && att.equals(value);
+    }
+
+    /**
+     * Evaluate the general comparison @name != 'value' using the Unicode codepoint collation
+     * @param context the dynamic evaluation context
+     * @param fingerprint the name of the attribute
+     * @param value the string to be compared with the attribute
+     * @return true if the context node has this attribute, and its value is not equal to the supplied string
+     */
+
+    public static boolean attributeNotEquals(XPathContext context, int fingerprint, String value) {
+        String att = getUntypedElement(context).getAttributeValue(fingerprint);
+        return att != null && !att.equals(value);
+    }
+
+    /**
+     * Get the context node, checking that it is an untyped element, so that the typed value of each
+     * of its attributes is the string value as an instance of xs:untypedAtomic
+     * @param context the dynamic evaluation context
+     * @return the context node
+     */
+
+    private static NodeInfo getUntypedElement(XPathContext context) {
+        Item item = context.getContextItem();
+        if (item instanceof NodeInfo) {
+            NodeInfo node = (NodeInfo)item;
+            if (node.getNodeKind() == Type.ELEMENT &&
+                    (node.getTypeAnnotation() & NamePool.FP_MASK) == StandardNames.XS_UNTYPED) {
+                return node;
+            }
+        }
+        throw FALLBACK;
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
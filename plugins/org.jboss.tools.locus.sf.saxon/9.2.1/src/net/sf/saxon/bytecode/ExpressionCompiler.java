@@ -0,0 +1,617 @@
+package net.sf.saxon.bytecode;
+
+import net.sf.saxon.expr.*;
+import net.sf.saxon.functions.BooleanFn;
+import net.sf.saxon.functions.Existence;
+import net.sf.saxon.functions.NumberFn;
+import net.sf.saxon.om.Axis;
+import net.sf.saxon.pattern.NameTest;
+import net.sf.saxon.pattern.NodeTest;
+import net.sf.saxon.sort.AtomicComparer;
+import net.sf.saxon.sort.CodepointCollatingComparer;
+import net.sf.saxon.sort.CodepointCollator;
+import net.sf.saxon.sort.GenericAtomicComparer;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.type.ItemType;
+import net.sf.saxon.type.TypeHierarchy;
+import net.sf.saxon.value.BooleanValue;
+import net.sf.saxon.value.Cardinality;
+import net.sf.saxon.value.DoubleValue;
+import net.sf.saxon.value.NumericValue;
+import net.sf.saxon.value.StringValue;
+import net.sf.saxon.value.Value;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class compiles a boolean expression, such as the predicate of a filter expression, into a Java class
+ * that is a subclass of {@link GeneratedExpression}. The byte code is written using the ASM library.
+ *
+ * <p>The following constructs are compiled:</p>
+ * <ul>
+ * <li>the operators "and" and "or", and the functions not(), boolean(), true() and false()</li>
+ * <li>value comparisons and singleton general comparisons in which one operand is an xs:double and the
+ * other is numeric, or is an attribute of the context node that is converted to a double</li>
+ * <li>comparisons of the form <code>@name = 'string'</code> or <code>@name != 'string'</code> using
+ * the Unicode codepoint collation</li>
+ * <li>the arithmetic operators +, -, *, div, mod and unary minus applied to xs:double values</li>
+ * <li>the functions exists(@name), empty(@name) and number(@name), and attribute tests such as [@name]</li>
+ * </ul>
+ *
+ * <p>Any other subexpression is evaluated by calling back into the interpreter.</p>
+ *
+ * <p>This class must not be loaded unless the ASM library is available: use
+ * {@link ByteCodeCandidate#isByteCodeAvailable()} to check.</p>
+ */
+
+public class ExpressionCompiler implements Opcodes {
+
+    private static final String GENERATED_EXPRESSION = "net/sf/saxon/bytecode/GeneratedExpression";
+    private static final String HELPER = "net/sf/saxon/bytecode/ByteCodeHelper";
+    private static final String EXPRESSION = "net/sf/saxon/expr/Expression";
+    private static final String XPATH_CONTEXT = "Lnet/sf/saxon/expr/XPathContext;";
+
+    private static final int NOT_NUMERIC = 0;
+    private static final int NUMERIC = 1;
+    private static final int DOUBLE = 2;
+    private static final int UNTYPED_ATTRIBUTE = 3;
+
+    private static final int NOT_COMPILABLE = 0;
+    private static final int NUMERIC_COMPARISON = 1;
+    private static final int STRING_COMPARISON = 2;
+
+    private static int nextClassNumber = 0;
+
+    private TypeHierarchy th;
+    private MethodVisitor mv;
+    private List<Expression> callouts = new ArrayList<Expression>();
+
+    /**
+     * Create an expression compiler
+     * @param th the type hierarchy cache
+     */
+
+    public ExpressionCompiler(TypeHierarchy th) {
+        this.th = th;
+    }
+
+    /**
+     * Determine whether it is worth compiling an expression to byte code. This is the case if the expression
+     * is a comparison or an attribute test that the compiler handles directly, or a boolean combination of
+     * expressions at least one of which is handled directly.
+     * @param exp the expression to be tested
+     * @param th the type hierarchy cache
+     * @return true if the expression should be compiled
+     */
+
+    public static boolean isCompilable(Expression exp, TypeHierarchy th) {
+        if (exp.getClass() == BooleanExpression.class) {
+            Expression[] operands = ((BooleanExpression)exp).getOperands();
+            return isCompilable(operands[0], th) || isCompilable(operands[1], th);
+        } else if (exp.getClass() == BooleanFn.class) {
+            int op = ((BooleanFn)exp).getOperation();
+            return (op == BooleanFn.NOT || op == BooleanFn.BOOLEAN) &&
+                    isCompilable(((BooleanFn)exp).getArguments()[0], th);
+        } else if (exp.getClass() == Existence.class) {
+            return getAttributeFingerprint(((Existence)exp).getArguments()[0]) != -1;
+        } else {
+            return getAttributeFingerprint(exp) != -1 || classifyComparison(exp, th) != NOT_COMPILABLE;
+        }
+    }
+
+    /**
+     * Compile an expression to byte code
+     * @param exp the expression to be compiled. This should be an expression for which
+     * {@link #isCompilable} returns true
+     * @return an object that evaluates the effective boolean value of the expression
+     * @throws XPathException if the generated class cannot be loaded
+     */
+
+    public GeneratedExpression compile(Expression exp) throws XPathException {
+        String className = allocateClassName();
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_5, ACC_PUBLIC + ACC_FINAL + ACC_SUPER, className, null, GENERATED_EXPRESSION, null);
+
+        mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, GENERATED_EXPRESSION, "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC, "effectiveBooleanValue", "(" + XPATH_CONTEXT + ")Z",
+                null, new String[]{"net/sf/saxon/trans/XPathException"});
+        mv.visitCode();
+        generateBoolean(exp);
+        mv.visitInsn(IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+
+        GeneratedClassLoader loader = new GeneratedClassLoader(GeneratedExpression.class.getClassLoader());
+        Class generatedClass = loader.makeClass(className.replace('/', '.'), cw.toByteArray());
+        try {
+            GeneratedExpression result = (GeneratedExpression)generatedClass.newInstance();
+            result.setCallouts(callouts.toArray(new Expression[callouts.size()]));
+            return result;
+        } catch (InstantiationException err) {
+            throw new XPathException("Failed to instantiate generated class " + generatedClass.getName(), err);
+        } catch (IllegalAccessException err) {
+            throw new XPathException("Failed to instantiate generated class " + generatedClass.getName(), err);
+        }
+    }
+
+    private static synchronized String allocateClassName() {
+        return "net/sf/saxon/bytecode/generated/Expression" + (nextClassNumber++);
+    }
+
+    /**
+     * Generate code to compute the effective boolean value of an expression, leaving an int (0 or 1)
+     * on the stack
+     * @param exp the expression
+     */
+
+    private void generateBoolean(Expression exp) {
+        if (exp.getClass() == BooleanExpression.class) {
+            BooleanExpression be = (BooleanExpression)exp;
+            Expression[] operands = be.getOperands();
+            boolean and = be.getOperator() == Token.AND;
+            Label shortCircuit = new Label();
+            Label end = new Label();
+            generateBoolean(operands[0]);
+            mv.visitJumpInsn(and ? IFEQ : IFNE, shortCircuit);
+            generateBoolean(operands[1]);
+            mv.visitJumpInsn(GOTO, end);
+            mv.visitLabel(shortCircuit);
+            mv.visitInsn(and ? ICONST_0 : ICONST_1);
+            mv.visitLabel(end);
+
+        } else if (exp.getClass() == BooleanFn.class) {
+            BooleanFn fn = (BooleanFn)exp;
+            switch (fn.getOperation()) {
+                case BooleanFn.BOOLEAN:
+                    generateBoolean(fn.getArguments()[0]);
+                    break;
+                case BooleanFn.NOT:
+                    generateBoolean(fn.getArguments()[0]);
+                    mv.visitInsn(ICONST_1);
+                    mv.visitInsn(IXOR);
+                    break;
+                case BooleanFn.TRUE:
+                    mv.visitInsn(ICONST_1);
+                    break;
+                case BooleanFn.FALSE:
+                    mv.visitInsn(ICONST_0);
+                    break;
+                default:
+                    generateCallout(exp);
+            }
+
+        } else if (exp.getClass() == Existence.class &&
+                getAttributeFingerprint(((Existence)exp).getArguments()[0]) != -1) {
+            Existence fn = (Existence)exp;
+            generateAttributeTest(getAttributeFingerprint(fn.getArguments()[0]));
+            if (fn.getOperation() == Existence.EMPTY) {
+                mv.visitInsn(ICONST_1);
+                mv.visitInsn(IXOR);
+            }
+
+        } else if (getAttributeFingerprint(exp) != -1) {
+            generateAttributeTest(getAttributeFingerprint(exp));
+
+        } else if (exp instanceof Literal && ((Literal)exp).getValue() instanceof BooleanValue) {
+            boolean b = ((BooleanValue)((Literal)exp).getValue()).getBooleanValue();
+            mv.visitInsn(b ? ICONST_1 : ICONST_0);
+
+        } else {
+            switch (classifyComparison(exp, th)) {
+                case NUMERIC_COMPARISON:
+                    generateNumericComparison(exp);
+                    break;
+                case STRING_COMPARISON:
+                    generateStringComparison((ComparisonExpression)exp);
+                    break;
+                default:
+                    generateCallout(exp);
+            }
+        }
+    }
+
+    /**
+     * Generate code to test whether the context node has a given attribute
+     * @param fingerprint the name of the attribute
+     */
+
+    private void generateAttributeTest(int fingerprint) {
+        mv.visitVarInsn(ALOAD, 1);
+        generateInt(fingerprint);
+        mv.visitMethodInsn(INVOKESTATIC, HELPER, "hasAttribute", "(" + XPATH_CONTEXT + "I)Z", false);
+    }
+
+    /**
+     * Generate code to evaluate a boolean expression using the interpreter
+     * @param exp the expression
+     */
+
+    private void generateCallout(Expression exp) {
+        loadCallout(exp);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitMethodInsn(INVOKEVIRTUAL, EXPRESSION, "effectiveBooleanValue", "(" + XPATH_CONTEXT + ")Z", false);
+    }
+
+    /**
+     * Generate code to push a subexpression that is to be evaluated by the interpreter onto the stack
+     * @param exp the subexpression
+     */
+
+    private void loadCallout(Expression exp) {
+        int index = callouts.size();
+        callouts.add(exp);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, GENERATED_EXPRESSION, "callouts", "[L" + EXPRESSION + ";");
+        generateInt(index);
+        mv.visitInsn(AALOAD);
+    }
+
+    /**
+     * Generate code to compare two numeric values as doubles
+     * @param exp the comparison expression
+     */
+
+    private void generateNumericComparison(Expression exp) {
+        int op;
+        if (exp instanceof CompareToIntegerConstant) {
+            CompareToIntegerConstant c = (CompareToIntegerConstant)exp;
+            op = c.getComparisonOperator();
+            generateDouble(c.getOperand(), false);
+            mv.visitLdcInsn(new Double((double)c.getComparand()));
+        } else {
+            ComparisonExpression c = (ComparisonExpression)exp;
+            Expression[] operands = c.getOperands();
+            op = c.getSingletonOperator();
+            // NaN is used to represent the empty sequence, so it must not be allowed where the result would differ
+            boolean emptyAllowed = op != Token.FNE &&
+                    !(exp instanceof ValueComparison &&
+                        ((ValueComparison)exp).getResultWhenEmpty() == BooleanValue.TRUE);
+            generateDouble(operands[0], emptyAllowed);
+            generateDouble(operands[1], emptyAllowed);
+        }
+        // Choose DCMPG or DCMPL so that a comparison involving NaN is false (or true for "ne")
+        Label yes = new Label();
+        Label end = new Label();
+        switch (op) {
+            case Token.FEQ:
+                mv.visitInsn(DCMPL);
+                mv.visitJumpInsn(IFEQ, yes);
+                break;
+            case Token.FNE:
+                mv.visitInsn(DCMPL);
+                mv.visitJumpInsn(IFNE, yes);
+                break;
+            case Token.FLT:
+                mv.visitInsn(DCMPG);
+                mv.visitJumpInsn(IFLT, yes);
+                break;
+            case Token.FLE:
+                mv.visitInsn(DCMPG);
+                mv.visitJumpInsn(IFLE, yes);
+                break;
+            case Token.FGT:
+                mv.visitInsn(DCMPL);
+                mv.visitJumpInsn(IFGT, yes);
+                break;
+            case Token.FGE:
+                mv.visitInsn(DCMPL);
+                mv.visitJumpInsn(IFGE, yes);
+                break;
+            default:
+                throw new UnsupportedOperationException("Unknown operator " + op);
+        }
+        mv.visitInsn(ICONST_0);
+        mv.visitJumpInsn(GOTO, end);
+        mv.visitLabel(yes);
+        mv.visitInsn(ICONST_1);
+        mv.visitLabel(end);
+    }
+
+    /**
+     * Generate code to compare an attribute of the context node with a string literal
+     * @param exp the comparison expression
+     */
+
+    private void generateStringComparison(ComparisonExpression exp) {
+        Expression[] operands = exp.getOperands();
+        int fingerprint = getAtomizedAttribute(operands[0]);
+        Literal literal;
+        if (fingerprint == -1) {
+            fingerprint = getAtomizedAttribute(operands[1]);
+            literal = (Literal)operands[0];
+        } else {
+            literal = (Literal)operands[1];
+        }
+        mv.visitVarInsn(ALOAD, 1);
+        generateInt(fingerprint);
+        mv.visitLdcInsn(((StringValue)literal.getValue()).getStringValue());
+        String method = exp.getSingletonOperator() == Token.FEQ ? "attributeEquals" : "attributeNotEquals";
+        mv.visitMethodInsn(INVOKESTATIC, HELPER, method, "(" + XPATH_CONTEXT + "ILjava/lang/String;)Z", false);
+    }
+
+    /**
+     * Generate code to evaluate a numeric expression, leaving a double on the stack
+     * @param exp the expression. This must have a numeric kind other than NOT_NUMERIC
+     * @param emptyAllowed true if an empty sequence may be represented by NaN. If false, the generated
+     * code falls back to the interpreter when the value is an empty sequence
+     */
+
+    private void generateDouble(Expression exp, boolean emptyAllowed) {
+        int attribute = getAtomizedAttribute(exp);
+        if (attribute != -1) {
+            // an untyped attribute, converted to a double by the containing general comparison
+            generateAttributeAsDouble(attribute, emptyAllowed && Cardinality.allowsZero(exp.getCardinality()));
+
+        } else if (exp instanceof Literal) {
+            mv.visitLdcInsn(new Double(((NumericValue)((Literal)exp).getValue()).getDoubleValue()));
+
+        } else if (exp instanceof UntypedAtomicConverter &&
+                ((UntypedAtomicConverter)exp).getRequiredItemType() == BuiltInAtomicType.DOUBLE &&
+                getAtomizedAttribute(((UntypedAtomicConverter)exp).getBaseExpression()) != -1) {
+            generateAttributeAsDouble(getAtomizedAttribute(((UntypedAtomicConverter)exp).getBaseExpression()),
+                    emptyAllowed && Cardinality.allowsZero(exp.getCardinality()));
+
+        } else if (exp.getClass() == NumberFn.class && ((NumberFn)exp).getNumberOfArguments() == 1 &&
+                getAtomizedAttribute(((NumberFn)exp).getArguments()[0]) != -1) {
+            mv.visitVarInsn(ALOAD, 1);
+            generateInt(getAtomizedAttribute(((NumberFn)exp).getArguments()[0]));
+            mv.visitMethodInsn(INVOKESTATIC, HELPER, "attributeNumber", "(" + XPATH_CONTEXT + "I)D", false);
+
+        } else if (exp.getClass() == ArithmeticExpression.class && isDoubleArithmetic((ArithmeticExpression)exp, th)) {
+            ArithmeticExpression ae = (ArithmeticExpression)exp;
+            Expression[] operands = ae.getOperands();
+            generateDouble(operands[0], emptyAllowed);
+            generateDouble(operands[1], emptyAllowed);
+            switch (ae.getOperator()) {
+                case Token.PLUS:
+                    mv.visitInsn(DADD);
+                    break;
+                case Token.MINUS:
+                    mv.visitInsn(DSUB);
+                    break;
+                case Token.MULT:
+                    mv.visitInsn(DMUL);
+                    break;
+                case Token.DIV:
+                    mv.visitInsn(DDIV);
+                    break;
+                case Token.MOD:
+                    mv.visitInsn(DREM);
+                    break;
+            }
+
+        } else if (exp.getClass() == NegateExpression.class && getNumericKind(exp, th) == DOUBLE &&
+                getNumericKind(((NegateExpression)exp).getBaseExpression(), th) == DOUBLE) {
+            generateDouble(((NegateExpression)exp).getBaseExpression(), emptyAllowed);
+            mv.visitInsn(DNEG);
+
+        } else {
+            loadCallout(exp);
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitInsn(emptyAllowed ? ICONST_1 : ICONST_0);
+            mv.visitMethodInsn(INVOKESTATIC, HELPER, "evaluateDouble",
+                    "(L" + EXPRESSION + ";" + XPATH_CONTEXT + "Z)D", false);
+        }
+    }
+
+    private void generateAttributeAsDouble(int fingerprint, boolean emptyAllowed) {
+        mv.visitVarInsn(ALOAD, 1);
+        generateInt(fingerprint);
+        mv.visitInsn(emptyAllowed ? ICONST_1 : ICONST_0);
+        mv.visitMethodInsn(INVOKESTATIC, HELPER, "attributeAsDouble", "(" + XPATH_CONTEXT + "IZ)D", false);
+    }
+
+    private void generateInt(int value) {
+        if (value >= -1 && value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(new Integer(value));
+        }
+    }
+
+    /**
+     * Determine whether an arithmetic expression can be evaluated using double arithmetic. This is the case
+     * if its result is an xs:double, and its operator is one of +, -, *, div, or mod.
+     * @param exp the arithmetic expression
+     * @param th the type hierarchy cache
+     * @return true if the expression can be evaluated using double arithmetic
+     */
+
+    private static boolean isDoubleArithmetic(ArithmeticExpression exp, TypeHierarchy th) {
+        switch (exp.getOperator()) {
+            case Token.PLUS:
+            case Token.MINUS:
+            case Token.MULT:
+            case Token.DIV:
+            case Token.MOD:
+                break;
+            default:
+                return false;
+        }
+        Expression[] operands = exp.getOperands();
+        int k0 = getNumericKind(operands[0], th);
+        int k1 = getNumericKind(operands[1], th);
+        return getNumericKind(exp, th) == DOUBLE &&
+                (k0 == NUMERIC || k0 == DOUBLE) && (k1 == NUMERIC || k1 == DOUBLE);
+    }
+
+    /**
+     * Decide how a comparison expression can be compiled
+     * @param exp the expression
+     * @param th the type hierarchy cache
+     * @return NUMERIC_COMPARISON if the operands can be compared as doubles, STRING_COMPARISON if the
+     * expression compares an untyped attribute with a string literal, or NOT_COMPILABLE otherwise
+     */
+
+    private static int classifyComparison(Expression exp, TypeHierarchy th) {
+        if (exp instanceof CompareToIntegerConstant) {
+            return getNumericKind(((CompareToIntegerConstant)exp).getOperand(), th) == DOUBLE ?
+                    NUMERIC_COMPARISON : NOT_COMPILABLE;
+        }
+        Class c = exp.getClass();
+        if (c != ValueComparison.class && c != SingletonComparison.class && c != GeneralComparison.class) {
+            return NOT_COMPILABLE;
+        }
+        ComparisonExpression comp = (ComparisonExpression)exp;
+        Expression[] operands = comp.getOperands();
+        if (Cardinality.allowsMany(operands[0].getCardinality()) ||
+                Cardinality.allowsMany(operands[1].getCardinality())) {
+            return NOT_COMPILABLE;
+        }
+        int k0 = getNumericKind(operands[0], th);
+        int k1 = getNumericKind(operands[1], th);
+
+        if (comp.convertsUntypedToOther()) {
+            // an untyped value compared with a number is converted to xs:double
+            if (k0 == UNTYPED_ATTRIBUTE && (k1 == NUMERIC || k1 == DOUBLE)) {
+                k0 = DOUBLE;
+            } else if (k1 == UNTYPED_ATTRIBUTE && (k0 == NUMERIC || k0 == DOUBLE)) {
+                k1 = DOUBLE;
+            }
+        }
+        if ((k0 == DOUBLE && (k1 == NUMERIC || k1 == DOUBLE)) || (k1 == DOUBLE && k0 == NUMERIC)) {
+            return NUMERIC_COMPARISON;
+        }
+
+        int op = comp.getSingletonOperator();
+        if ((op == Token.FEQ || op == Token.FNE) && isCodepointComparer(comp.getAtomicComparer()) &&
+                !(exp instanceof ValueComparison &&
+                    ((ValueComparison)exp).getResultWhenEmpty() == BooleanValue.TRUE)) {
+            if ((k0 == UNTYPED_ATTRIBUTE && isStringLiteral(operands[1])) ||
+                    (k1 == UNTYPED_ATTRIBUTE && isStringLiteral(operands[0]))) {
+                return STRING_COMPARISON;
+            }
+        }
+        return NOT_COMPILABLE;
+    }
+
+    private static boolean isCodepointComparer(AtomicComparer comparer) {
+        return comparer instanceof CodepointCollatingComparer ||
+                (comparer instanceof GenericAtomicComparer &&
+                    ((GenericAtomicComparer)comparer).getStringCollator() instanceof CodepointCollator);
+    }
+
+    private static boolean isStringLiteral(Expression exp) {
+        return exp instanceof Literal && ((Literal)exp).getValue() instanceof StringValue;
+    }
+
+    /**
+     * Classify an expression according to how it can be evaluated as a double
+     * @param exp the expression
+     * @param th the type hierarchy cache
+     * @return DOUBLE if the expression delivers zero or one xs:double values; NUMERIC if it delivers zero or one
+     * values of some other numeric type; UNTYPED_ATTRIBUTE if it is the atomized value of an attribute of the
+     * context node; or NOT_NUMERIC otherwise
+     */
+
+    private static int getNumericKind(Expression exp, TypeHierarchy th) {
+        if (exp instanceof Literal) {
+            Value value = ((Literal)exp).getValue();
+            if (value instanceof DoubleValue) {
+                return DOUBLE;
+            } else if (value instanceof NumericValue) {
+                return NUMERIC;
+            } else {
+                return NOT_NUMERIC;
+            }
+        }
+        if (getAtomizedAttribute(exp) != -1) {
+            return UNTYPED_ATTRIBUTE;
+        }
+        if (Cardinality.allowsMany(exp.getCardinality())) {
+            return NOT_NUMERIC;
+        }
+        ItemType type = exp.getItemType(th);
+        if (th.isSubType(type, BuiltInAtomicType.DOUBLE)) {
+            return DOUBLE;
+        } else if (th.isSubType(type, BuiltInAtomicType.NUMERIC)) {
+            return NUMERIC;
+        } else {
+            return NOT_NUMERIC;
+        }
+    }
+
+    /**
+     * If an expression atomizes a named attribute of the context node (that is, if it is data(@name)),
+     * get the fingerprint of the attribute name
+     * @param exp the expression
+     * @return the fingerprint of the attribute name, or -1 if the expression is not of this form
+     */
+
+    private static int getAtomizedAttribute(Expression exp) {
+        if (exp instanceof Atomizer || exp instanceof SingletonAtomizer) {
+            return getAttributeFingerprint(((UnaryExpression)exp).getBaseExpression());
+        }
+        return -1;
+    }
+
+    /**
+     * If an expression selects a named attribute of the context node (that is, if it is @name),
+     * get the fingerprint of the attribute name
+     * @param exp the expression
+     * @return the fingerprint of the attribute name, or -1 if the expression is not of this form
+     */
+
+    private static int getAttributeFingerprint(Expression exp) {
+        if (exp instanceof AxisExpression && ((AxisExpression)exp).getAxis() == Axis.ATTRIBUTE) {
+            NodeTest test = ((AxisExpression)exp).getNodeTest();
+            if (test instanceof NameTest) {
+                return ((NameTest)test).getFingerprint();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Class loader used to load a generated class. Each generated class has its own class loader, so
+     * that the class can be garbage-collected when the expression is no longer in use.
+     */
+
+    private static class GeneratedClassLoader extends ClassLoader {
+
+        public GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        public Class makeClass(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,58 @@
+package net.sf.saxon.bytecode;
+
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.trans.XPathException;
+
+/**
+ * This is the superclass of the classes generated by the {@link ExpressionCompiler}. Each generated
+ * class evaluates one particular boolean expression. Subexpressions that are not compiled are held
+ * in the array of callouts, and are evaluated by the interpreter.
+ *
+ * <p>This class is public only because the generated classes are loaded by a different class loader,
+ * and therefore cannot access classes or members that are package-private.</p>
+ */
+
+public abstract class GeneratedExpression {
+
+    protected Expression[] callouts;
+
+    /**
+     * Supply the subexpressions that are evaluated by calling the interpreter
+     * @param callouts the subexpressions, in the order in which the generated code refers to them
+     */
+
+    public void setCallouts(Expression[] callouts) {
+        this.callouts = callouts;
+    }
+
+    /**
+     * Get the effective boolean value of the expression
+     * @param context the dynamic evaluation context
+     * @return the effective boolean value of the expression
+     * @throws XPathException if a dynamic error occurs in a subexpression evaluated by the interpreter
+     * @throws ByteCodeHelper.FallbackException if the generated code cannot handle the values that it
+     * encounters. In this case the caller must evaluate the expression using the interpreter.
+     */
+
+    public abstract boolean effectiveBooleanValue(XPathContext context) throws XPathException;
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
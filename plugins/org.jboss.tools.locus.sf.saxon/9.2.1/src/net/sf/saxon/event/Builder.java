@@ -39,6 +39,11 @@ public abstract class Builder implements Receiver {
      * sharing the same string value use shared storage for the value.
      */
     public static final int TINY_TREE_CONDENSED = 2;
+    /**
+     * Constant denoting the "tiny tree off-heap", a variant of the tiny tree in which the text content
+     * and attribute values are held outside the Java heap.
+     */
+    public static final int TINY_TREE_OFF_HEAP = 3;
 
     protected PipelineConfiguration pipe;
     protected Configuration config;
@@ -0,0 +1,214 @@
+package net.sf.saxon.event;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ChannelOutputStream is an OutputStream that writes to a {@link WritableByteChannel}, for example
+ * a {@link java.nio.channels.FileChannel}. The bytes are collected in large direct byte buffers, which are
+ * written to the channel when several of them are full, using a gathering write if the channel supports it.
+ * This avoids the copying of the data into a temporary buffer on each call of the underlying write
+ * operation, which happens when a {@link java.io.FileOutputStream} is written from a byte array.
+ *
+ * <p>The direct buffers are expensive to allocate, so they are held in a pool that is shared by all
+ * instances of this class. The buffers are taken from the pool when output starts, and are returned to
+ * it whenever the stream is flushed or closed; since the serializer flushes its output only when the
+ * document is complete, a stream holds buffers only while a document is being written.</p>
+ *
+ * <p>This class is not thread-safe: a single stream must not be written by several threads at once.</p>
+ */
+
+public class ChannelOutputStream extends OutputStream {
+
+    /**
+     * The size of each direct buffer
+     */
+
+    public static final int BUFFER_SIZE = 65536;
+
+    // The number of full buffers that are written in a single gathering write
+    private static final int GATHER = 4;
+
+    // The maximum number of buffers retained in the pool
+    private static final int POOL_SIZE = 64;
+
+    private static ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+    private static AtomicInteger pooled = new AtomicInteger(0);
+
+    private WritableByteChannel channel;
+    private ByteBuffer[] buffers = new ByteBuffer[GATHER];
+    private int current = -1;       // the index of the buffer currently being filled
+
+    /**
+     * Create a ChannelOutputStream
+     * @param channel the channel to which the output is to be written. The channel is closed when
+     * this stream is closed.
+     */
+
+    public ChannelOutputStream(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Get the channel to which this stream writes
+     * @return the underlying channel
+     */
+
+    public WritableByteChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Get a buffer from the pool, allocating a new one if the pool is empty
+     * @return an empty direct buffer
+     */
+
+    private static ByteBuffer allocate() {
+        ByteBuffer b = pool.poll();
+        if (b == null) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        pooled.decrementAndGet();
+        return b;
+    }
+
+    /**
+     * Return a buffer to the pool, unless the pool is full
+     * @param b the buffer, which is no longer in use
+     */
+
+    private static void release(ByteBuffer b) {
+        if (pooled.incrementAndGet() <= POOL_SIZE) {
+            b.clear();
+            pool.add(b);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * Get a buffer with space remaining, writing the buffers to the channel if they are all full
+     * @return the buffer to be filled
+     * @throws IOException if the buffers cannot be written
+     */
+
+    private ByteBuffer getBuffer() throws IOException {
+        if (current >= 0 && buffers[current].hasRemaining()) {
+            return buffers[current];
+        }
+        if (current == GATHER - 1) {
+            drain();
+        }
+        current++;
+        if (buffers[current] == null) {
+            buffers[current] = allocate();
+        }
+        return buffers[current];
+    }
+
+    /**
+     * Write the contents of the buffers to the channel. The buffers are retained, empty.
+     * @throws IOException if the channel cannot be written
+     */
+
+    private void drain() throws IOException {
+        if (current < 0) {
+            return;
+        }
+        for (int i=0; i<=current; i++) {
+            buffers[i].flip();
+        }
+        if (current > 0 && channel instanceof GatheringByteChannel) {
+            GatheringByteChannel gc = (GatheringByteChannel)channel;
+            while (buffers[current].hasRemaining()) {
+                gc.write(buffers, 0, current + 1);
+            }
+        } else {
+            for (int i=0; i<=current; i++) {
+                while (buffers[i].hasRemaining()) {
+                    channel.write(buffers[i]);
+                }
+            }
+        }
+        for (int i=0; i<=current; i++) {
+            buffers[i].clear();
+        }
+        current = -1;
+    }
+
+    public void write(int b) throws IOException {
+        getBuffer().put((byte)b);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            ByteBuffer buffer = getBuffer();
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Write any buffered output to the channel, and return the buffers to the pool
+     * @throws IOException if the channel cannot be written
+     */
+
+    public void flush() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            drain();
+        } finally {
+            for (int i=0; i<GATHER; i++) {
+                if (buffers[i] != null) {
+                    release(buffers[i]);
+                    buffers[i] = null;
+                }
+            }
+            current = -1;
+        }
+    }
+
+    /**
+     * Write any buffered output, and close the channel
+     * @throws IOException if the channel cannot be written or closed
+     */
+
+    public void close() throws IOException {
+        if (channel != null) {
+            try {
+                flush();
+            } finally {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,417 @@
+package net.sf.saxon.event;
+
+import net.sf.saxon.expr.PathMap;
+import net.sf.saxon.om.Axis;
+import net.sf.saxon.om.NamePool;
+import net.sf.saxon.om.StandardNames;
+import net.sf.saxon.pattern.NodeTest;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.Type;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A DocumentProjector is a filter placed between the parser and the tree builder that discards the
+ * parts of a source document that a query cannot reach. The decision is made using a {@link PathMap}
+ * of the query, reduced so that it uses downwards axes only (see {@link PathMap#reduceToDownwardsAxes}).
+ *
+ * <p>For each element, the filter computes the set of nodes in the path map that the element corresponds
+ * to. An element that corresponds to at least one node in the path map is retained, with its attributes
+ * and namespaces; if any of those path map nodes is returned by the query or atomized, or has unknown
+ * dependencies, the entire subtree rooted at the element is retained. Children (including text nodes)
+ * are retained only if they are selected by an arc leaving one of those path map nodes. An element
+ * that is not itself selected, but which lies within the scope of a descendant arc, is retained only if
+ * one of its descendants is retained, and then only as a skeleton, without its attributes. Everything
+ * else is discarded without being passed to the next receiver.</p>
+ *
+ * <p>A DocumentProjector is stateful, and is used for a single document.</p>
+ */
+
+public class DocumentProjector extends ProxyReceiver {
+
+    private State root;
+    private ArrayList<Level> levels = new ArrayList<Level>(50);
+    private int dropDepth = 0;
+    private int keepAllDepth = 0;
+    private Level pendingLevel = null;
+
+    /**
+     * Create a DocumentProjector
+     * @param map the path map root for the document to be projected. This must have been reduced
+     * to use downwards axes only.
+     */
+
+    public DocumentProjector(PathMap.PathMapRoot map) {
+        root = compile(map, new IdentityHashMap<PathMap.PathMapNode, State>());
+    }
+
+    public void startDocument(int properties) throws XPathException {
+        levels.clear();
+        dropDepth = 0;
+        keepAllDepth = 0;
+        Level level = new Level();
+        level.matched.add(root);
+        closeOverSelf(level.matched, Type.DOCUMENT, -1, -1);
+        if (isKeepAll(level.matched)) {
+            keepAllDepth = 1;
+        }
+        level.emitted = true;
+        levels.add(level);
+        nextReceiver.startDocument(properties);
+    }
+
+    public void endDocument() throws XPathException {
+        levels.clear();
+        keepAllDepth = 0;
+        nextReceiver.endDocument();
+    }
+
+    public void startElement(int nameCode, int typeCode, int locationId, int properties) throws XPathException {
+        if (dropDepth > 0) {
+            dropDepth++;
+            return;
+        }
+        if (keepAllDepth > 0) {
+            keepAllDepth++;
+            nextReceiver.startElement(nameCode, typeCode, locationId, properties);
+            return;
+        }
+        Level parent = levels.get(levels.size() - 1);
+        int fingerprint = nameCode & NamePool.FP_MASK;
+        Level level = new Level();
+        select(parent, level.matched, Type.ELEMENT, fingerprint, typeCode);
+        for (int i=0; i<parent.carried.size(); i++) {
+            addState(level.carried, parent.carried.get(i));
+        }
+        for (int i=0; i<parent.matched.size(); i++) {
+            State s = parent.matched.get(i);
+            if (s.descTests.length > 0 || s.dosTests.length > 0) {
+                addState(level.carried, s);
+            }
+        }
+        if (!level.matched.isEmpty()) {
+            flushPending();
+            if (isKeepAll(level.matched)) {
+                keepAllDepth = 1;
+                nextReceiver.startElement(nameCode, typeCode, locationId, properties);
+                return;
+            }
+            level.emitted = true;
+            levels.add(level);
+            nextReceiver.startElement(nameCode, typeCode, locationId, properties);
+        } else if (!level.carried.isEmpty()) {
+            level.emitted = false;
+            level.nameCode = nameCode;
+            level.typeCode = typeCode;
+            level.locationId = locationId;
+            level.properties = properties;
+            pendingLevel = level;
+            levels.add(level);
+        } else {
+            dropDepth = 1;
+        }
+    }
+
+    public void namespace(int namespaceCode, int properties) throws XPathException {
+        if (dropDepth > 0) {
+            // no action
+        } else if (pendingLevel != null) {
+            pendingLevel.addNamespace(namespaceCode);
+        } else {
+            nextReceiver.namespace(namespaceCode, properties);
+        }
+    }
+
+    public void attribute(int nameCode, int typeCode, CharSequence value, int locationId, int properties)
+            throws XPathException {
+        if (dropDepth > 0 || pendingLevel != null) {
+            // no action: the attributes of a skeleton element are not needed
+        } else {
+            nextReceiver.attribute(nameCode, typeCode, value, locationId, properties);
+        }
+    }
+
+    public void startContent() throws XPathException {
+        if (dropDepth > 0) {
+            // no action
+        } else if (pendingLevel != null) {
+            pendingLevel = null;
+        } else {
+            nextReceiver.startContent();
+        }
+    }
+
+    public void endElement() throws XPathException {
+        if (dropDepth > 0) {
+            dropDepth--;
+        } else if (keepAllDepth > 0) {
+            keepAllDepth--;
+            nextReceiver.endElement();
+        } else {
+            Level level = levels.remove(levels.size() - 1);
+            if (level.emitted) {
+                nextReceiver.endElement();
+            }
+        }
+    }
+
+    public void characters(CharSequence chars, int locationId, int properties) throws XPathException {
+        if (keepAllDepth > 0) {
+            nextReceiver.characters(chars, locationId, properties);
+        } else if (dropDepth == 0 && isSelected(Type.TEXT, -1, StandardNames.XS_UNTYPED_ATOMIC)) {
+            flushPending();
+            nextReceiver.characters(chars, locationId, properties);
+        }
+    }
+
+    public void processingInstruction(String target, CharSequence data, int locationId, int properties)
+            throws XPathException {
+        if (keepAllDepth > 0) {
+            nextReceiver.processingInstruction(target, data, locationId, properties);
+        } else if (dropDepth == 0 && isSelected(Type.PROCESSING_INSTRUCTION,
+                getNamePool().allocate("", "", target) & NamePool.FP_MASK, StandardNames.XS_UNTYPED_ATOMIC)) {
+            flushPending();
+            nextReceiver.processingInstruction(target, data, locationId, properties);
+        }
+    }
+
+    public void comment(CharSequence chars, int locationId, int properties) throws XPathException {
+        if (keepAllDepth > 0) {
+            nextReceiver.comment(chars, locationId, properties);
+        } else if (dropDepth == 0 && isSelected(Type.COMMENT, -1, StandardNames.XS_UNTYPED_ATOMIC)) {
+            flushPending();
+            nextReceiver.comment(chars, locationId, properties);
+        }
+    }
+
+    /**
+     * Ask whether this Receiver (or the downstream pipeline) makes any use of the type annotations
+     * supplied on element and attribute events
+     * @return true: the type annotations are used when matching node tests
+     */
+
+    public boolean usesTypeAnnotations() {
+        return true;
+    }
+
+    /**
+     * Test whether a node that has no children is selected by any arc leaving the path map nodes
+     * of its parent
+     * @param kind the kind of node
+     * @param fingerprint the name of the node, or -1 if it is unnamed
+     * @param typeCode the type annotation of the node
+     * @return true if the node is to be retained
+     */
+
+    private boolean isSelected(int kind, int fingerprint, int typeCode) {
+        List<State> found = new ArrayList<State>(4);
+        select(levels.get(levels.size() - 1), found, kind, fingerprint, typeCode);
+        return !found.isEmpty();
+    }
+
+    /**
+     * Find the path map nodes corresponding to a child of a given element
+     * @param parent the level for the parent element
+     * @param result list to which the path map nodes are added
+     * @param kind the kind of the child node
+     * @param fingerprint the name of the child node, or -1 if it is unnamed
+     * @param typeCode the type annotation of the child node
+     */
+
+    private void select(Level parent, List<State> result, int kind, int fingerprint, int typeCode) {
+        for (int i=0; i<parent.matched.size(); i++) {
+            State s = parent.matched.get(i);
+            addTargets(s.childTests, s.childTargets, result, kind, fingerprint, typeCode);
+            addTargets(s.descTests, s.descTargets, result, kind, fingerprint, typeCode);
+            addTargets(s.dosTests, s.dosTargets, result, kind, fingerprint, typeCode);
+        }
+        for (int i=0; i<parent.carried.size(); i++) {
+            State s = parent.carried.get(i);
+            addTargets(s.descTests, s.descTargets, result, kind, fingerprint, typeCode);
+            addTargets(s.dosTests, s.dosTargets, result, kind, fingerprint, typeCode);
+        }
+        closeOverSelf(result, kind, fingerprint, typeCode);
+    }
+
+    /**
+     * Extend a set of path map nodes corresponding to a node with the targets of their
+     * descendant-or-self arcs that also match the node itself
+     * @param result the set of path map nodes, which is extended in situ
+     * @param kind the kind of the node
+     * @param fingerprint the name of the node, or -1 if it is unnamed
+     * @param typeCode the type annotation of the node
+     */
+
+    private static void closeOverSelf(List<State> result, int kind, int fingerprint, int typeCode) {
+        for (int i=0; i<result.size(); i++) {
+            State s = result.get(i);
+            addTargets(s.dosTests, s.dosTargets, result, kind, fingerprint, typeCode);
+        }
+    }
+
+    private static void addTargets(NodeTest[] tests, State[] targets, List<State> result,
+                                   int kind, int fingerprint, int typeCode) {
+        for (int t=0; t<tests.length; t++) {
+            if (tests[t] == null || tests[t].matches(kind, fingerprint, typeCode)) {
+                addState(result, targets[t]);
+            }
+        }
+    }
+
+    private static void addState(List<State> list, State s) {
+        for (int i=0; i<list.size(); i++) {
+            if (list.get(i) == s) {
+                return;
+            }
+        }
+        list.add(s);
+    }
+
+    private static boolean isKeepAll(List<State> matched) {
+        for (int i=0; i<matched.size(); i++) {
+            if (matched.get(i).keepAll) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Output the start tags of skeleton elements that have not yet been written, because one
+     * of their descendants is to be retained
+     * @throws XPathException if a downstream error occurs
+     */
+
+    private void flushPending() throws XPathException {
+        int first = levels.size();
+        while (first > 0 && !levels.get(first - 1).emitted) {
+            first--;
+        }
+        for (int i=first; i<levels.size(); i++) {
+            Level level = levels.get(i);
+            nextReceiver.startElement(level.nameCode, level.typeCode, level.locationId, level.properties);
+            for (int n=0; n<level.namespaceCount; n++) {
+                nextReceiver.namespace(level.namespaces[n], 0);
+            }
+            nextReceiver.startContent();
+            level.emitted = true;
+        }
+    }
+
+    /**
+     * Convert the path map into a form that can be evaluated efficiently against each element
+     * @param node a node in the path map
+     * @param done the nodes in the path map that have already been converted
+     * @return the converted node
+     */
+
+    private static State compile(PathMap.PathMapNode node, IdentityHashMap<PathMap.PathMapNode, State> done) {
+        State s = done.get(node);
+        if (s != null) {
+            return s;
+        }
+        s = new State();
+        done.put(node, s);
+        s.keepAll = node.isReturnable() || node.isAtomized() || node.hasUnknownDependencies();
+        PathMap.PathMapArc[] arcs = node.getArcs();
+        List<NodeTest> childTests = new ArrayList<NodeTest>();
+        List<State> childTargets = new ArrayList<State>();
+        List<NodeTest> descTests = new ArrayList<NodeTest>();
+        List<State> descTargets = new ArrayList<State>();
+        List<NodeTest> dosTests = new ArrayList<NodeTest>();
+        List<State> dosTargets = new ArrayList<State>();
+        for (int i=0; i<arcs.length; i++) {
+            NodeTest test = arcs[i].getStep().getNodeTest();
+            switch (arcs[i].getStep().getAxis()) {
+                case Axis.CHILD:
+                    childTests.add(test);
+                    childTargets.add(compile(arcs[i].getTarget(), done));
+                    break;
+                case Axis.DESCENDANT:
+                    descTests.add(test);
+                    descTargets.add(compile(arcs[i].getTarget(), done));
+                    break;
+                case Axis.DESCENDANT_OR_SELF:
+                    dosTests.add(test);
+                    dosTargets.add(compile(arcs[i].getTarget(), done));
+                    break;
+                case Axis.ATTRIBUTE:
+                case Axis.NAMESPACE:
+                    // attributes and namespaces are always retained on elements that are retained
+                    break;
+                default:
+                    // the path map has not been reduced to downwards axes
+                    s.keepAll = true;
+            }
+        }
+        s.childTests = childTests.toArray(new NodeTest[childTests.size()]);
+        s.childTargets = childTargets.toArray(new State[childTargets.size()]);
+        s.descTests = descTests.toArray(new NodeTest[descTests.size()]);
+        s.descTargets = descTargets.toArray(new State[descTargets.size()]);
+        s.dosTests = dosTests.toArray(new NodeTest[dosTests.size()]);
+        s.dosTargets = dosTargets.toArray(new State[dosTargets.size()]);
+        return s;
+    }
+
+    /**
+     * A node in the path map, in the form used for projection
+     */
+
+    private static class State {
+        boolean keepAll;
+        NodeTest[] childTests;
+        State[] childTargets;
+        NodeTest[] descTests;
+        State[] descTargets;
+        NodeTest[] dosTests;
+        State[] dosTargets;
+    }
+
+    /**
+     * The information held for an open element (or the document node)
+     */
+
+    private static class Level {
+        List<State> matched = new ArrayList<State>(4);
+        List<State> carried = new ArrayList<State>(4);
+        boolean emitted;
+        int nameCode;
+        int typeCode;
+        int locationId;
+        int properties;
+        int[] namespaces;
+        int namespaceCount = 0;
+
+        void addNamespace(int nscode) {
+            if (namespaces == null) {
+                namespaces = new int[4];
+            } else if (namespaceCount == namespaces.length) {
+                int[] n2 = new int[namespaceCount * 2];
+                System.arraycopy(namespaces, 0, n2, 0, namespaceCount);
+                namespaces = n2;
+            }
+            namespaces[namespaceCount++] = nscode;
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -168,7 +168,8 @@ public abstract class Emitter implements Result, Receiver
                 } catch (IOException err) {
                     throw new XPathException("Failed to create output file " + uri, err);
                 }
-                setOutputStream(new FileOutputStream(file));
+                // Write to the file through its channel, using large direct buffers
+                setOutputStream(new ChannelOutputStream(new FileOutputStream(file).getChannel()));
                 // Set the outputstream in the StreamResult object so that the
                 // call on OutputURIResolver.close() can close it
                 streamResult.setOutputStream(outputStream);
@@ -416,7 +416,7 @@ public class SerializerFactory implements Serializable {
      */
 
     protected Emitter newXMLEmitter() {
-        return new XMLEmitter();
+        return new XMLUTF8Emitter();
     }
 
     /**
@@ -0,0 +1,422 @@
+package net.sf.saxon.event;
+
+import net.sf.saxon.charcode.UTF8CharacterSet;
+import net.sf.saxon.sort.IntHashMap;
+import net.sf.saxon.tinytree.CompressedWhitespace;
+import net.sf.saxon.trans.XPathException;
+
+import java.io.IOException;
+
+/**
+ * XMLUTF8Emitter is an XMLEmitter for output in the UTF-8 encoding. It combines the escaping of special
+ * characters and the UTF-8 encoding into a single loop, writing the encoded bytes directly into the buffer
+ * of the {@link UTF8Writer}, rather than passing the characters to the Writer one segment at a time. The
+ * replacement of each special character is taken from a precomputed table, and the encoded form of each
+ * element and attribute name is cached against its name code.
+ *
+ * <p>The direct encoding is used only when the output is written to a UTF8Writer, that is, when the
+ * serializer is writing to an OutputStream or file using the UTF-8 encoding. In all other cases (for
+ * example, when the user supplies a Writer, or when a different encoding is requested), this class behaves
+ * exactly like the XMLEmitter. Less common options, such as indentation of attributes, character maps, and
+ * disable-output-escaping, are also handled by the XMLEmitter code; because this writes to the same
+ * UTF8Writer, the two kinds of output are correctly interleaved.</p>
+ */
+
+public class XMLUTF8Emitter extends XMLEmitter {
+
+    // The UTF8Writer whose buffer we write to, or null if the direct encoding is not in use
+    private UTF8Writer utf8 = null;
+
+    // The replacements for special characters: one table for text, one for attributes
+    private byte[][] textEscapes;
+    private byte[][] attEscapes;
+
+    // The replacement used for the character x2028
+    private byte[] lineSeparatorEscape;
+
+    // The UTF-8 encoding of the names of elements and attributes, indexed by name code
+    private IntHashMap<byte[]> encodedNames = new IntHashMap<byte[]>(100);
+
+    // The name codes of the elements that have been started but not finished
+    private int[] nameCodeStack = new int[20];
+    private int depth = 0;
+
+    private static final byte[][] DECIMAL_TEXT_ESCAPES = makeEscapeTable(specialInText, false);
+    private static final byte[][] DECIMAL_ATT_ESCAPES = makeEscapeTable(specialInAtt, false);
+    private static final byte[][] HEX_TEXT_ESCAPES = makeEscapeTable(specialInText, true);
+    private static final byte[][] HEX_ATT_ESCAPES = makeEscapeTable(specialInAtt, true);
+
+    // The space to be left in the buffer for the longest encoding of a single character
+    private static final int MAX_CHAR_BYTES = 12;
+
+    /**
+     * Create the table of replacements for the characters below 160. The characters that need
+     * special treatment are the same as in the XMLEmitter.
+     * @param special the table identifying the special ASCII characters
+     * @param hex true if character references are to be written in hexadecimal
+     * @return an array of 160 entries, in which the entry for a character that needs no special
+     * treatment is null, and the entry for any other character contains the bytes to be written
+     */
+
+    private static byte[][] makeEscapeTable(boolean[] special, boolean hex) {
+        byte[][] table = new byte[160][];
+        for (int c=0; c<160; c++) {
+            if (c < 127 && !special[c]) {
+                continue;
+            }
+            String s;
+            if (c=='<') {
+                s = "&lt;";
+            } else if (c=='>') {
+                s = "&gt;";
+            } else if (c=='&') {
+                s = "&amp;";
+            } else if (c=='\"') {
+                s = "&#34;";
+            } else if (c=='\n') {
+                s = "&#xA;";
+            } else if (c=='\r') {
+                s = "&#xD;";
+            } else if (c=='\t') {
+                s = "&#x9;";
+            } else {
+                s = characterReference(c, hex);
+            }
+            table[c] = asciiBytes(s);
+        }
+        return table;
+    }
+
+    /**
+     * Make a decimal or hexadecimal character reference
+     * @param c the Unicode codepoint of the character
+     * @param hex true if the reference is to be in hexadecimal
+     * @return the character reference
+     */
+
+    private static String characterReference(int c, boolean hex) {
+        return (hex ? "&#x" + Integer.toHexString(c) : "&#" + Integer.toString(c)) + ';';
+    }
+
+    /**
+     * Get the bytes of a string that contains ASCII characters only
+     * @param s the string
+     * @return the bytes of the string
+     */
+
+    private static byte[] asciiBytes(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i=0; i<b.length; i++) {
+            b[i] = (byte)s.charAt(i);
+        }
+        return b;
+    }
+
+    /**
+     * Do the real work of starting the document. This happens when the first
+     * content is written. The direct encoding is used only if the Writer is a UTF8Writer
+     * @throws XPathException
+     */
+
+    protected void openDocument() throws XPathException {
+        super.openDocument();
+        if (writer instanceof UTF8Writer && characterSet instanceof UTF8CharacterSet) {
+            utf8 = (UTF8Writer)writer;
+            textEscapes = (preferHex ? HEX_TEXT_ESCAPES : DECIMAL_TEXT_ESCAPES);
+            attEscapes = (preferHex ? HEX_ATT_ESCAPES : DECIMAL_ATT_ESCAPES);
+            lineSeparatorEscape = asciiBytes(characterReference(0x2028, preferHex));
+        }
+    }
+
+    /**
+     * Start of an element. Output the start tag, escaping special characters.
+     */
+
+    public void startElement(int nameCode, int typeCode, int locationId, int properties) throws XPathException {
+        if (utf8 == null || indenting || !started || elementStack.isEmpty()) {
+            // leave the XMLEmitter to open the document, check the rules for top-level elements,
+            // and keep track of the length of the start tag when indenting
+            super.startElement(nameCode, typeCode, locationId, properties);
+            if (utf8 != null) {
+                pushNameCode(nameCode);
+            }
+            return;
+        }
+        String displayName = getCachedName(nameCode);
+        if (displayName == null) {
+            displayName = namePool.getDisplayName(nameCode);
+            putCachedName(nameCode, displayName);
+        }
+        elementStack.push(displayName);
+        pushNameCode(nameCode);
+        elementCode = nameCode;
+        try {
+            int ptr = utf8._outPtr;
+            if (ptr + 2 > utf8._outBuffer.length) {
+                ptr = flush(ptr);
+            }
+            if (openStartTag) {
+                utf8._outBuffer[ptr++] = (byte)'>';
+            }
+            utf8._outBuffer[ptr++] = (byte)'<';
+            utf8._outPtr = writeBytes(getEncodedName(nameCode), ptr);
+            openStartTag = true;
+        } catch (IOException err) {
+            throw new XPathException(err);
+        }
+    }
+
+    /**
+     * Add a name code to the stack of elements that have been started but not finished
+     * @param nameCode the name code of the element
+     */
+
+    private void pushNameCode(int nameCode) {
+        if (depth == nameCodeStack.length) {
+            int[] s2 = new int[depth * 2];
+            System.arraycopy(nameCodeStack, 0, s2, 0, depth);
+            nameCodeStack = s2;
+        }
+        nameCodeStack[depth++] = nameCode;
+    }
+
+    /**
+     * Notify an attribute.
+     */
+
+    public void attribute(int nameCode, int typeCode, CharSequence value, int locationId, int properties)
+    throws XPathException {
+        if (utf8 == null || indenting || (properties & ReceiverOptions.USE_NULL_MARKERS) != 0) {
+            super.attribute(nameCode, typeCode, value, locationId, properties);
+            return;
+        }
+        try {
+            int ptr = utf8._outPtr;
+            if (ptr + 1 > utf8._outBuffer.length) {
+                ptr = flush(ptr);
+            }
+            utf8._outBuffer[ptr++] = (byte)' ';
+            ptr = writeBytes(getEncodedName(nameCode), ptr);
+            if (ptr + 2 > utf8._outBuffer.length) {
+                ptr = flush(ptr);
+            }
+            utf8._outBuffer[ptr++] = (byte)'=';
+            utf8._outBuffer[ptr++] = (byte)'"';
+            utf8._outPtr = ptr;
+            if ((properties & ReceiverOptions.NO_SPECIAL_CHARS) != 0) {
+                writeCharSequence(value);
+            } else {
+                writeEscape(value, true);
+            }
+            ptr = utf8._outPtr;
+            if (ptr + 1 > utf8._outBuffer.length) {
+                ptr = flush(ptr);
+            }
+            utf8._outBuffer[ptr++] = (byte)'"';
+            utf8._outPtr = ptr;
+        } catch (IOException err) {
+            throw new XPathException(err);
+        }
+    }
+
+    /**
+     * Mark the end of the start tag
+     * @throws XPathException if an IO exception occurs
+     */
+
+    public void closeStartTag() throws XPathException {
+        if (utf8 == null) {
+            super.closeStartTag();
+            return;
+        }
+        if (openStartTag) {
+            try {
+                int ptr = utf8._outPtr;
+                if (ptr + 1 > utf8._outBuffer.length) {
+                    ptr = flush(ptr);
+                }
+                utf8._outBuffer[ptr++] = (byte)'>';
+                utf8._outPtr = ptr;
+                openStartTag = false;
+            } catch (IOException err) {
+                throw new XPathException(err);
+            }
+        }
+    }
+
+    /**
+     * End of an element.
+     */
+
+    public void endElement() throws XPathException {
+        if (utf8 == null) {
+            super.endElement();
+            return;
+        }
+        elementStack.pop();
+        int nameCode = nameCodeStack[--depth];
+        try {
+            int ptr = utf8._outPtr;
+            if (ptr + 3 > utf8._outBuffer.length) {
+                ptr = flush(ptr);
+            }
+            if (openStartTag) {
+                utf8._outBuffer[ptr++] = (byte)'/';
+                utf8._outBuffer[ptr++] = (byte)'>';
+                openStartTag = false;
+            } else {
+                utf8._outBuffer[ptr++] = (byte)'<';
+                utf8._outBuffer[ptr++] = (byte)'/';
+                ptr = writeBytes(getEncodedName(nameCode), ptr);
+                if (ptr + 1 > utf8._outBuffer.length) {
+                    ptr = flush(ptr);
+                }
+                utf8._outBuffer[ptr++] = (byte)'>';
+            }
+            utf8._outPtr = ptr;
+        } catch (IOException err) {
+            throw new XPathException(err);
+        }
+    }
+
+    /**
+     * Write contents of array to current writer, after escaping special characters.
+     * This method converts the XML special characters (such as < and &) into their
+     * predefined entities, and encodes the result directly into the buffer of the UTF8Writer.
+     * @param chars The character sequence containing the string
+     * @param inAttribute  Set to true if the text is in an attribute value
+     */
+
+    protected void writeEscape(final CharSequence chars, final boolean inAttribute)
+    throws IOException, XPathException {
+        if (utf8 == null || chars instanceof CompressedWhitespace) {
+            super.writeEscape(chars, inAttribute);
+            return;
+        }
+        final byte[][] escapes = (inAttribute ? attEscapes : textEscapes);
+        final byte[] buf = utf8._outBuffer;
+        final int limit = buf.length - MAX_CHAR_BYTES;
+        final int len = chars.length();
+        int ptr = utf8._outPtr;
+        for (int i=0; i<len; i++) {
+            if (ptr > limit) {
+                ptr = flush(ptr);
+            }
+            final char c = chars.charAt(i);
+            if (c < 160) {
+                final byte[] esc = escapes[c];
+                if (esc == null) {
+                    buf[ptr++] = (byte)c;
+                } else if (c == 0) {
+                    // used to switch escaping on and off: the rest of the string contains sections
+                    // generated from a character map
+                    utf8._outPtr = ptr;
+                    super.writeEscape(chars.subSequence(i, len), inAttribute);
+                    return;
+                } else {
+                    for (int k=0; k<esc.length; k++) {
+                        buf[ptr++] = esc[k];
+                    }
+                }
+            } else if (c < 0x800) {
+                buf[ptr++] = (byte)(0xc0 | (c >> 6));
+                buf[ptr++] = (byte)(0x80 | (c & 0x3f));
+            } else if (c < UTF8Writer.SURR1_FIRST || c > UTF8Writer.SURR2_LAST) {
+                if (c == 0x2028) {
+                    // XML 1.1 requires this character to be written as a character reference
+                    for (int k=0; k<lineSeparatorEscape.length; k++) {
+                        buf[ptr++] = lineSeparatorEscape[k];
+                    }
+                } else {
+                    buf[ptr++] = (byte)(0xe0 | (c >> 12));
+                    buf[ptr++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                    buf[ptr++] = (byte)(0x80 | (c & 0x3f));
+                }
+            } else {
+                final char d;
+                if (c <= UTF8Writer.SURR1_LAST && i+1 < len &&
+                        (d = chars.charAt(i+1)) >= UTF8Writer.SURR2_FIRST && d <= UTF8Writer.SURR2_LAST) {
+                    final int cc = 0x10000 + ((c - UTF8Writer.SURR1_FIRST) << 10) + (d - UTF8Writer.SURR2_FIRST);
+                    buf[ptr++] = (byte)(0xf0 | (cc >> 18));
+                    buf[ptr++] = (byte)(0x80 | ((cc >> 12) & 0x3f));
+                    buf[ptr++] = (byte)(0x80 | ((cc >> 6) & 0x3f));
+                    buf[ptr++] = (byte)(0x80 | (cc & 0x3f));
+                    i++;
+                } else {
+                    // an unpaired surrogate: leave the XMLEmitter to report the error
+                    utf8._outPtr = ptr;
+                    super.writeEscape(chars.subSequence(i, len), inAttribute);
+                    return;
+                }
+            }
+        }
+        utf8._outPtr = ptr;
+    }
+
+    /**
+     * Get the UTF-8 encoding of the lexical QName of an element or attribute
+     * @param nameCode the name code of the element or attribute
+     * @return the UTF-8 encoding of its lexical QName
+     */
+
+    private byte[] getEncodedName(int nameCode) throws IOException {
+        byte[] name = encodedNames.get(nameCode);
+        if (name == null) {
+            name = namePool.getDisplayName(nameCode).getBytes("UTF-8");
+            encodedNames.put(nameCode, name);
+        }
+        return name;
+    }
+
+    /**
+     * Write an array of bytes to the buffer of the UTF8Writer
+     * @param bytes the bytes to be written
+     * @param ptr the current position in the buffer
+     * @return the new position in the buffer
+     * @throws IOException if the buffer needs to be flushed and this fails
+     */
+
+    private int writeBytes(byte[] bytes, int ptr) throws IOException {
+        byte[] buf = utf8._outBuffer;
+        if (ptr + bytes.length > buf.length) {
+            ptr = flush(ptr);
+            if (bytes.length > buf.length) {
+                utf8._out.write(bytes);
+                return 0;
+            }
+        }
+        System.arraycopy(bytes, 0, buf, ptr, bytes.length);
+        return ptr + bytes.length;
+    }
+
+    /**
+     * Write the contents of the buffer of the UTF8Writer to its output stream
+     * @param ptr the current position in the buffer
+     * @return the new position in the buffer, which is always zero
+     * @throws IOException if the output stream cannot be written
+     */
+
+    private int flush(int ptr) throws IOException {
+        utf8._out.write(utf8._outBuffer, 0, ptr);
+        return 0;
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
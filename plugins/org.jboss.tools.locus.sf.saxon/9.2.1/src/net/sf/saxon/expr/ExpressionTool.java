@@ -409,7 +409,17 @@ public class ExpressionTool {
             }
 
             case MAKE_INDEXED_VARIABLE:
-                return context.getConfiguration().getOptimizer().makeIndexedValue(exp.iterate(context));
+                if (exp instanceof VariableReference) {
+                    ValueRepresentation iv = ((VariableReference)exp).evaluateVariable(context);
+                    if (iv instanceof IndexedValue) {
+                        // retain any indexes that have already been built
+                        return iv;
+                    } else if (!(iv instanceof Closure)) {
+                        return new IndexedValue(Value.asValue(iv));
+                    }
+                }
+                // the value is held as a memo closure, so it is evaluated lazily and only once
+                return new IndexedValue(Closure.make(exp, context, FilterExpression.FILTERED));
 
             default:
                 throw new IllegalArgumentException("Unknown evaluation mode " + evaluationMode);
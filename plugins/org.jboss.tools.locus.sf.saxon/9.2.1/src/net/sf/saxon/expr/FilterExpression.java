@@ -439,6 +439,16 @@ public final class FilterExpression extends Expression implements ContextSwitchi
             adoptChildExpression(filter2);
         }
 
+        // If the filter is evaluated often enough, it may be worth compiling it to byte code
+
+        if (!filterIsPositional) {
+            filter2 = opt.compileToByteCode(filter);
+            if (filter2 != filter) {
+                filter = filter2;
+                adoptChildExpression(filter2);
+            }
+        }
+
         if (offer.containingExpression instanceof LetExpression) {
             if (debug) {
                 opt.trace("Subexpression extracted from filter because independent of context", offer.containingExpression);
@@ -29,6 +29,7 @@ import java.util.List;
 public class ForExpression extends Assignation {
 
     protected PositionVariable positionVariable = null;
+    private transient volatile ParallelLoop parallelLoop;
 
     /**
      * Create a "for" expression (for $x at $p in SEQUENCE return ACTION)
@@ -625,6 +626,21 @@ public class ForExpression extends Assignation {
 
     public void process(XPathContext context) throws XPathException {
         SequenceIterator iter = sequence.iterate(context);
+        if (ParallelLoop.isEnabled(context) &&
+                (action.getDependencies() & StaticProperty.DEPENDS_ON_LAST) == 0) {
+            ParallelLoop loop = parallelLoop;
+            if (loop == null) {
+                loop = new ParallelFor();
+                parallelLoop = loop;
+            }
+            if (loop.isSafe()) {
+                List<Item> items = ParallelLoop.readAll(iter);
+                if (loop.process(items, context)) {
+                    return;
+                }
+                iter = new ListIterator(items);
+            }
+        }
         int position = 1;
         int slot = getLocalSlotNumber();
         int pslot = -1;
@@ -822,6 +838,30 @@ public class ForExpression extends Assignation {
         return Location.FOR_EXPRESSION;
     }
 
+    /**
+     * Parallel evaluation of the "for" expression in push mode, used when multithreading is enabled
+     */
+
+    private class ParallelFor extends ParallelLoop {
+
+        public ParallelFor() {
+            super(ForExpression.this, action);
+        }
+
+        protected void processItems(List<Item> items, int from, int to, XPathContextMajor context)
+                throws XPathException {
+            int slot = getLocalSlotNumber();
+            int pslot = (positionVariable == null ? -1 : positionVariable.getLocalSlotNumber());
+            for (int i=from; i<to; i++) {
+                context.setLocalVariable(slot, items.get(i));
+                if (pslot >= 0) {
+                    context.setLocalVariable(pslot, Int64Value.makeIntegerValue(i+1));
+                }
+                action.process(context);
+            }
+        }
+    }
+
 }
 
 
@@ -0,0 +1,450 @@
+package net.sf.saxon.expr;
+
+import net.sf.saxon.om.ArrayIterator;
+import net.sf.saxon.om.EmptyIterator;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.ValueRepresentation;
+import net.sf.saxon.sort.AtomicComparer;
+import net.sf.saxon.sort.CodepointCollatingComparer;
+import net.sf.saxon.sort.CodepointCollator;
+import net.sf.saxon.sort.GenericAtomicComparer;
+import net.sf.saxon.trace.Location;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.type.ItemType;
+import net.sf.saxon.type.TypeHierarchy;
+import net.sf.saxon.value.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * An IndexedFilterExpression is a filter expression of the form $var[key = value], where the key
+ * depends only on the context item, and the value does not depend on the focus. Such an expression is
+ * typically evaluated repeatedly within a loop, with the same value of $var and different comparands.
+ * Instead of testing every item in the value of $var each time, the first evaluation builds a hash index
+ * of the items by the value of their key, and subsequent evaluations use the index to find the matching items
+ * directly. The index is held with the value of the variable (an {@link IndexedValue}), so it is
+ * discarded when the variable goes out of scope.
+ *
+ * <p>The expression wraps the original {@link FilterExpression}. If the value of the variable is not an
+ * IndexedValue, or if any of the items or comparands turns out to be unsuitable for indexing (for example,
+ * a key that is not a string in an index of strings), the wrapped filter expression is evaluated
+ * in the ordinary way, so the result (including any errors) is the same as if no index were used.</p>
+ *
+ * <p>Two kinds of index are supported. A string index is used when both sides of the comparison are
+ * strings (or untyped atomic values or URIs) compared using the Unicode codepoint collation. A numeric
+ * index is used when the comparands are numeric; because numeric equality depends on the types of the values
+ * being compared, the numeric index uses a key that is the same for all values that might compare equal, and
+ * the items found in the index are then tested against the original predicate.</p>
+ */
+
+public final class IndexedFilterExpression extends UnaryExpression {
+
+    /**
+     * Key type indicating that the index holds string keys
+     */
+
+    public static final int STRING_KEYS = 0;
+
+    /**
+     * Key type indicating that the index holds numeric keys
+     */
+
+    public static final int NUMERIC_KEYS = 1;
+
+    private final static Object UNUSABLE = new Object();
+    private final static Object NOT_YET_INDEXED = new Object();
+
+    private boolean indexFirstOperand;
+    private int keyType;
+
+    /**
+     * Create an IndexedFilterExpression
+     * @param filter the filter expression to be evaluated using an index. The base expression must be a
+     * variable reference, and the predicate must be a comparison that satisfies
+     * {@link Optimizer#isIndexableFilter(Expression)}.
+     * @param indexFirstOperand true if the first operand of the comparison is the key (the operand that depends
+     * on the context item); false if it is the second operand
+     * @param keyType the kind of index to be built: {@link #STRING_KEYS} or {@link #NUMERIC_KEYS}
+     */
+
+    public IndexedFilterExpression(FilterExpression filter, boolean indexFirstOperand, int keyType) {
+        super(filter);
+        this.indexFirstOperand = indexFirstOperand;
+        this.keyType = keyType;
+    }
+
+    /**
+     * Determine the kind of index that can be used for a comparison. The decision is based on the static
+     * types of the operands; where these are not known precisely (typically xs:anyAtomicType when the
+     * source documents are untyped), the types of the actual values are checked at run-time.
+     * @param comparison the comparison used as the filter predicate. This must be a GeneralComparison,
+     * SingletonComparison, or ValueComparison.
+     * @param indexFirstOperand true if the first operand of the comparison is the key
+     * @param th the type hierarchy cache
+     * @return {@link #STRING_KEYS} or {@link #NUMERIC_KEYS}, or -1 if no index can be used for this comparison
+     */
+
+    public static int getKeyType(ComparisonExpression comparison, boolean indexFirstOperand, TypeHierarchy th) {
+        Expression[] operands = comparison.getOperands();
+        ItemType keyItemType = operands[indexFirstOperand ? 0 : 1].getItemType(th);
+        ItemType valueItemType = operands[indexFirstOperand ? 1 : 0].getItemType(th);
+        if (isPossiblyStringLike(keyItemType, th) && isPossiblyStringLike(valueItemType, th)) {
+            if (isCodepointComparison(comparison)) {
+                return STRING_KEYS;
+            }
+        } else if (th.isSubType(valueItemType, BuiltInAtomicType.NUMERIC) &&
+                (th.isSubType(keyItemType, BuiltInAtomicType.NUMERIC) ||
+                    keyItemType.equals(BuiltInAtomicType.ANY_ATOMIC) ||
+                    (!(comparison instanceof ValueComparison) &&
+                            th.isSubType(keyItemType, BuiltInAtomicType.UNTYPED_ATOMIC)))) {
+            return NUMERIC_KEYS;
+        }
+        return -1;
+    }
+
+    /**
+     * Ask whether a comparison compares strings using the Unicode codepoint collation
+     * @param comparison the comparison expression
+     * @return true if strings are compared codepoint-by-codepoint, so that two strings are equal
+     * if and only if they are equal as Java strings
+     */
+
+    public static boolean isCodepointComparison(ComparisonExpression comparison) {
+        AtomicComparer comparer = comparison.getAtomicComparer();
+        return comparer instanceof CodepointCollatingComparer ||
+                (comparer instanceof GenericAtomicComparer &&
+                        ((GenericAtomicComparer)comparer).getStringCollator() instanceof CodepointCollator);
+    }
+
+    static boolean isPossiblyStringLike(ItemType type, TypeHierarchy th) {
+        return type.equals(BuiltInAtomicType.ANY_ATOMIC) ||
+                th.isSubType(type, BuiltInAtomicType.STRING) ||
+                th.isSubType(type, BuiltInAtomicType.UNTYPED_ATOMIC) ||
+                th.isSubType(type, BuiltInAtomicType.ANY_URI);
+    }
+
+    /**
+     * Get the kind of index used by this expression
+     * @return {@link #STRING_KEYS} or {@link #NUMERIC_KEYS}
+     */
+
+    public int getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * Type-check the expression. The filter expression is type-checked again, which is necessary (for example,
+     * when a function call is inlined) to count the references to variables used in the predicate. If the
+     * filter expression is rewritten as a result, the index is abandoned and the rewritten expression
+     * is returned.
+     */
+
+    public Expression typeCheck(ExpressionVisitor visitor, ItemType contextItemType) throws XPathException {
+        Expression e = visitor.typeCheck(operand, contextItemType);
+        if (e != operand) {
+            return e;
+        }
+        return this;
+    }
+
+    /**
+     * Optimize the expression. The filter expression has already been optimized, and is not
+     * visited again: if it were, it would be rewritten once more as an indexed filter expression.
+     */
+
+    public Expression optimize(ExpressionVisitor visitor, ItemType contextItemType) throws XPathException {
+        return this;
+    }
+
+    /**
+     * Copy an expression. This makes a deep copy.
+     * @return the copy of the original expression
+     */
+
+    public Expression copy() {
+        if (operand instanceof FilterExpression) {
+            return new IndexedFilterExpression((FilterExpression)operand.copy(), indexFirstOperand, keyType);
+        } else {
+            return operand.copy();
+        }
+    }
+
+    /**
+     * Return an iteration over the items selected by the filter expression
+     * @param context the dynamic evaluation context
+     * @return an iterator over the selected items, in their original order
+     */
+
+    public SequenceIterator iterate(XPathContext context) throws XPathException {
+        if (!(operand instanceof FilterExpression)) {
+            // the filter expression has been replaced, for example by a promoted variable reference
+            return operand.iterate(context);
+        }
+        FilterExpression f = (FilterExpression)operand;
+        Expression start = f.getControllingExpression();
+        Expression filter = f.getFilter();
+        if (!(start instanceof VariableReference && filter instanceof ComparisonExpression)) {
+            return operand.iterate(context);
+        }
+        ValueRepresentation val = ((VariableReference)start).evaluateVariable(context);
+        if (!(val instanceof IndexedValue)) {
+            return operand.iterate(context);
+        }
+        IndexedValue indexedValue = (IndexedValue)val;
+        Expression[] operands = ((ComparisonExpression)filter).getOperands();
+        Expression keyExp = operands[indexFirstOperand ? 0 : 1];
+        Expression valueExp = operands[indexFirstOperand ? 1 : 0];
+
+        // The index is not built until the filter is evaluated for the second time with the same value.
+        // This avoids the cost of building an index that is only used once: for example, when a function
+        // containing the filter expression is called repeatedly with a different value each time.
+
+        Object index = indexedValue.getIndex(keyExp);
+        if (index == null) {
+            indexedValue.putIndex(keyExp, NOT_YET_INDEXED);
+            return operand.iterate(context);
+        } else if (index == NOT_YET_INDEXED) {
+            index = buildIndex(indexedValue, keyExp, !(filter instanceof ValueComparison), context);
+            indexedValue.putIndex(keyExp, index);
+        }
+        if (index == UNUSABLE) {
+            return operand.iterate(context);
+        }
+        Index idx = (Index)index;
+
+        // Look up each of the comparands in the index. If there are several, take the union of the results
+
+        PositionList first = null;
+        BitSet selected = null;
+        int count = 0;
+        SequenceIterator values = valueExp.iterate(context);
+        while (true) {
+            Item value = values.next();
+            if (value == null) {
+                break;
+            }
+            count++;
+            Object key = makeLookupKey(value);
+            if (key == UNUSABLE || (count > 1 && filter instanceof ValueComparison)) {
+                // a comparand that cannot be handled using the index, or that causes a type error
+                values.close();
+                return operand.iterate(context);
+            }
+            PositionList list = (key == null ? null : idx.map.get(key));
+            if (list != null) {
+                if (first == null) {
+                    first = list;
+                } else {
+                    if (selected == null) {
+                        selected = new BitSet(idx.items.length);
+                        first.addTo(selected);
+                    }
+                    list.addTo(selected);
+                }
+            }
+        }
+
+        Item[] result;
+        if (first == null) {
+            return EmptyIterator.getInstance();
+        } else if (selected == null) {
+            result = new Item[first.size];
+            for (int i=0; i<first.size; i++) {
+                result[i] = idx.items[first.positions[i]];
+            }
+        } else {
+            result = new Item[selected.cardinality()];
+            int r = 0;
+            for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i+1)) {
+                result[r++] = idx.items[i];
+            }
+        }
+        SequenceIterator candidates = new ArrayIterator(result);
+        if (keyType == NUMERIC_KEYS) {
+            // items with the same numeric key might still not be equal: test them against the predicate
+            return new FilterIterator.NonNumeric(candidates, filter, context);
+        } else {
+            return candidates;
+        }
+    }
+
+    /**
+     * Build an index of the items in a value
+     * @param value the value to be indexed
+     * @param keyExp the expression that computes the key of each item
+     * @param isGeneralComparison true if the filter is a general comparison, false if it is a value comparison
+     * @param context the dynamic evaluation context
+     * @return the index, or the object UNUSABLE if any of the items have keys that cannot be indexed
+     */
+
+    private Object buildIndex(IndexedValue value, Expression keyExp, boolean isGeneralComparison, XPathContext context) {
+        try {
+            Index idx = new Index();
+            ArrayList<Item> items = new ArrayList<Item>();
+            XPathContext c2 = context.newMinorContext();
+            c2.setOriginatingConstructType(Location.FILTER_EXPRESSION);
+            SequenceIterator base = value.iterate();
+            c2.setCurrentIterator(base);
+            int position = 0;
+            while (true) {
+                Item item = base.next();
+                if (item == null) {
+                    break;
+                }
+                items.add(item);
+                int count = 0;
+                SequenceIterator keys = keyExp.iterate(c2);
+                while (true) {
+                    Item k = keys.next();
+                    if (k == null) {
+                        break;
+                    }
+                    count++;
+                    Object key = makeIndexKey(k, isGeneralComparison);
+                    if (key == UNUSABLE || (count > 1 && !isGeneralComparison)) {
+                        return UNUSABLE;
+                    }
+                    if (key != null) {
+                        PositionList list = idx.map.get(key);
+                        if (list == null) {
+                            list = new PositionList();
+                            idx.map.put(key, list);
+                        }
+                        list.add(position);
+                    }
+                }
+                position++;
+            }
+            idx.items = new Item[items.size()];
+            items.toArray(idx.items);
+            return idx;
+        } catch (XPathException err) {
+            // evaluate the filter in the ordinary way, so that the error is reported if appropriate
+            return UNUSABLE;
+        }
+    }
+
+    /**
+     * Make the key under which an item is to be indexed
+     * @param item the value of the key expression
+     * @param isGeneralComparison true if untyped atomic values are to be converted to numbers when
+     * compared with a number
+     * @return the key to be used in the index; or null if the item cannot be equal to any comparand
+     * (it is NaN); or UNUSABLE if the item cannot be indexed
+     */
+
+    private Object makeIndexKey(Item item, boolean isGeneralComparison) {
+        if (keyType == STRING_KEYS) {
+            return (item instanceof StringValue ? ((StringValue)item).getStringValue() : UNUSABLE);
+        } else if (item instanceof NumericValue) {
+            return makeNumericKey(((NumericValue)item).getDoubleValue());
+        } else if (item instanceof UntypedAtomicValue && isGeneralComparison) {
+            try {
+                return makeNumericKey(Value.stringToNumber(((UntypedAtomicValue)item).getStringValueCS()));
+            } catch (NumberFormatException err) {
+                return UNUSABLE;
+            }
+        } else {
+            return UNUSABLE;
+        }
+    }
+
+    /**
+     * Make the key used to look up a comparand in the index
+     * @param item the comparand
+     * @return the key to be used in the index; or null if the item cannot be equal to any key
+     * (it is NaN); or UNUSABLE if the index cannot be used to find the matching items
+     */
+
+    private Object makeLookupKey(Item item) {
+        if (keyType == STRING_KEYS) {
+            return (item instanceof StringValue ? ((StringValue)item).getStringValue() : UNUSABLE);
+        } else if (item instanceof NumericValue) {
+            return makeNumericKey(((NumericValue)item).getDoubleValue());
+        } else {
+            return UNUSABLE;
+        }
+    }
+
+    /**
+     * Make a numeric key. The key is a float: two numbers that compare equal, whether they are compared
+     * as decimals, floats, or doubles, will always have the same value when converted to a float.
+     * @param d the number
+     * @return the key, or null if the number is NaN
+     */
+
+    private static Object makeNumericKey(double d) {
+        if (Double.isNaN(d)) {
+            return null;
+        }
+        return new Float(((float)d) + 0.0f);   // adding zero converts -0.0 to +0.0
+    }
+
+    /**
+     * Diagnostic print of expression structure
+     */
+
+    protected String displayExpressionName() {
+        return "indexedFilter";
+    }
+
+    /**
+     * An index of the items in a value
+     */
+
+    private static final class Index {
+        Item[] items;
+        HashMap<Object, PositionList> map = new HashMap<Object, PositionList>();
+    }
+
+    /**
+     * The positions (in ascending order) of the items in a value that have a given key
+     */
+
+    private static final class PositionList {
+        int[] positions = new int[1];
+        int size = 0;
+
+        void add(int position) {
+            if (size > 0 && positions[size-1] == position) {
+                // the item has several keys with the same value
+                return;
+            }
+            if (size == positions.length) {
+                int[] p2 = new int[size*2];
+                System.arraycopy(positions, 0, p2, 0, size);
+                positions = p2;
+            }
+            positions[size++] = position;
+        }
+
+        void addTo(BitSet set) {
+            for (int i=0; i<size; i++) {
+                set.set(positions[i]);
+            }
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -281,7 +281,7 @@ public class LetExpression extends Assignation implements TailCallReturner, Divi
         }
 
         evaluationMode = (isIndexedVariable() ?
-                ExpressionTool.MAKE_CLOSURE :
+                ExpressionTool.MAKE_INDEXED_VARIABLE :
                 ExpressionTool.lazyEvaluationMode(sequence));
         return this;
     }
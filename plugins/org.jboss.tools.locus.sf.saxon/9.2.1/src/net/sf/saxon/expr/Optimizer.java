@@ -1,9 +1,20 @@
 package net.sf.saxon.expr;
 
 import net.sf.saxon.Configuration;
+import net.sf.saxon.bytecode.ByteCodeCandidate;
+import net.sf.saxon.bytecode.ExpressionCompiler;
+import net.sf.saxon.instruct.ApplyImports;
 import net.sf.saxon.instruct.ApplyTemplates;
+import net.sf.saxon.instruct.CallTemplate;
 import net.sf.saxon.instruct.Choose;
+import net.sf.saxon.instruct.GeneralVariable;
+import net.sf.saxon.instruct.Switch;
 import net.sf.saxon.instruct.Template;
+import net.sf.saxon.instruct.TemplateInversion;
+import net.sf.saxon.instruct.TraceWrapper;
+import net.sf.saxon.instruct.UserFunction;
+import net.sf.saxon.instruct.UserFunctionParameter;
+import net.sf.saxon.om.Item;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.om.ValueRepresentation;
 import net.sf.saxon.pattern.NodeTest;
@@ -12,12 +23,16 @@ import net.sf.saxon.trans.RuleTarget;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.type.ItemType;
 import net.sf.saxon.type.TypeHierarchy;
+import net.sf.saxon.value.Cardinality;
 import net.sf.saxon.value.Closure;
+import net.sf.saxon.value.IndexedValue;
 import net.sf.saxon.value.MemoClosure;
 import net.sf.saxon.value.SequenceExtent;
+import net.sf.saxon.value.StringValue;
 import net.sf.saxon.value.Value;
 
 import java.io.Serializable;
+import java.util.HashMap;
 import java.util.Iterator;
 
 /**
@@ -31,8 +46,30 @@ public class Optimizer implements Serializable {
     public static final int NO_OPTIMIZATION = 0;
     public static final int FULL_OPTIMIZATION = 10;
 
+    /**
+     * The minimum number of branches (excluding any xsl:otherwise branch) for which a conditional
+     * expression is rewritten as a switch
+     */
+
+    public static final int MIN_SWITCH_CASES = 3;
+
+    /**
+     * The default value of the inlining threshold: calls on user-defined functions are inlined if the
+     * body of the function contains no more than this number of expression nodes
+     */
+
+    public static final int DEFAULT_INLINING_THRESHOLD = 20;
+
+    /**
+     * The default number of times a predicate or condition is evaluated by the interpreter before
+     * it is compiled to byte code
+     */
+
+    public static final int DEFAULT_BYTE_CODE_THRESHOLD = 100;
+
     protected Configuration config;
     private int optimizationLevel = FULL_OPTIMIZATION;
+    private boolean indexedFilters = true;
 
     /**
      * Create an Optimizer.
@@ -75,6 +112,26 @@ public class Optimizer implements Serializable {
         return optimizationLevel;
     }
 
+    /**
+     * Say whether filter expressions of the form $var[key = value] are to be evaluated using an index
+     * built on the value of the variable
+     * @param indexed true if indexed filters are to be used (the default); false to disable them
+     */
+
+    public void setIndexedFilters(boolean indexed) {
+        indexedFilters = indexed;
+    }
+
+    /**
+     * Ask whether filter expressions of the form $var[key = value] are to be evaluated using an index
+     * built on the value of the variable
+     * @return true if indexed filters are used
+     */
+
+    public boolean isIndexedFilters() {
+        return indexedFilters;
+    }
+
     /**
      * Simplify a GeneralComparison expression
      * @param gc the GeneralComparison to be simplified
@@ -153,6 +210,12 @@ public class Optimizer implements Serializable {
     /**
      * Try converting a filter expression to a call on the key function. Return the supplied
      * expression unchanged if not possible
+     *
+     * <p>This implementation handles filter expressions whose base expression is a reference to a variable
+     * (typically, $var[key = value] appearing within a loop). The variable is marked as indexable, so that
+     * its value will be held as an {@link net.sf.saxon.value.IndexedValue}, and the filter expression is
+     * replaced by an {@link IndexedFilterExpression}, which builds an index on the value when it is first
+     * evaluated and reuses it for subsequent evaluations.</p>
      * @param f the filter expression to be converted
      * @param visitor the expression visitor, which must be currently visiting the filter expression f
      * @param indexFirstOperand true if the first operand of the filter comparison is to be indexed;
@@ -161,7 +224,28 @@ public class Optimizer implements Serializable {
      */
 
     public Expression tryIndexedFilter(FilterExpression f, ExpressionVisitor visitor, boolean indexFirstOperand) {
-        return f;
+        if (!(f.getControllingExpression() instanceof VariableReference)) {
+            return f;
+        }
+        int keyType = IndexedFilterExpression.getKeyType(
+                (ComparisonExpression)f.getFilter(), indexFirstOperand, config.getTypeHierarchy());
+        if (keyType < 0) {
+            return f;
+        }
+        Binding binding = ((VariableReference)f.getControllingExpression()).getBinding();
+        if (binding instanceof LetExpression) {
+            ((LetExpression)binding).setIndexedVariable();
+        } else if (binding instanceof GeneralVariable && !((GeneralVariable)binding).isAssignable()) {
+            ((GeneralVariable)binding).setIndexedVariable();
+        } else if (binding instanceof UserFunctionParameter) {
+            ((UserFunctionParameter)binding).setIndexedVariable(true);
+        } else {
+            return f;
+        }
+        IndexedFilterExpression result = new IndexedFilterExpression(f, indexFirstOperand, keyType);
+        ExpressionTool.copyLocationInfo(f, result);
+        trace("Created indexed filter expression", result);
+        return result;
     }
 
     /**
@@ -187,18 +271,65 @@ public class Optimizer implements Serializable {
      */
 
     public int isIndexableFilter(Expression filter) {
-        return 0;
+        if (!indexedFilters || optimizationLevel == NO_OPTIMIZATION) {
+            return 0;
+        }
+        if (!isEqualityComparison(filter)) {
+            return 0;
+        }
+        ComparisonExpression comparison = (ComparisonExpression)filter;
+        Expression[] operands = comparison.getOperands();
+        final int keyDependencies =
+                StaticProperty.DEPENDS_ON_CONTEXT_ITEM | StaticProperty.DEPENDS_ON_CONTEXT_DOCUMENT;
+        int result;
+        if (isIndexKey(operands[0], keyDependencies) &&
+                (operands[1].getDependencies() & StaticProperty.DEPENDS_ON_FOCUS) == 0) {
+            result = +1;
+        } else if (isIndexKey(operands[1], keyDependencies) &&
+                (operands[0].getDependencies() & StaticProperty.DEPENDS_ON_FOCUS) == 0) {
+            result = -1;
+        } else {
+            return 0;
+        }
+        if (filter instanceof ValueComparison &&
+                (Cardinality.allowsMany(operands[0].getCardinality()) ||
+                 Cardinality.allowsMany(operands[1].getCardinality()))) {
+            return 0;
+        }
+        if (IndexedFilterExpression.getKeyType(comparison, result > 0, config.getTypeHierarchy()) < 0) {
+            return 0;
+        }
+        return result;
+    }
+
+    /**
+     * Test whether an expression is an equality comparison using "=" or "eq"
+     * @param exp the expression to be tested
+     * @return true if the expression is a GeneralComparison, SingletonComparison, or ValueComparison
+     * whose operator is "=" or "eq"
+     */
+
+    private static boolean isEqualityComparison(Expression exp) {
+        return (exp.getClass() == GeneralComparison.class ||
+                exp instanceof SingletonComparison ||
+                exp instanceof ValueComparison) &&
+                ((ComparisonExpression)exp).getSingletonOperator() == Token.FEQ;
+    }
+
+    private static boolean isIndexKey(Expression exp, int allowedDependencies) {
+        int dependencies = exp.getDependencies();
+        return (dependencies & StaticProperty.DEPENDS_ON_CONTEXT_ITEM) != 0 &&
+                (dependencies & ~allowedDependencies) == 0;
     }
 
     /**
      * Create an indexed value
      * @param iter the iterator that delivers the sequence of values to be indexed
      * @return the indexed value
-     * @throws UnsupportedOperationException: this method should not be called in Saxon-B
      */
 
     public ValueRepresentation makeIndexedValue(SequenceIterator iter) throws XPathException {
-        throw new UnsupportedOperationException("Indexing requires Saxon-EE");
+        return new IndexedValue(Value.asValue(SequenceExtent.makeSequenceExtent(iter)));
     }
 
     /**
@@ -254,13 +385,94 @@ public class Optimizer implements Serializable {
      * @param visitor the expression visitor
      * @param contextItemType the context item type
      * @return either the original expression unchanged, or an expression that consists of the inlined
-     * function body, with all function parameters bound as required. In Saxon-B, function inlining is
-     * not supported, so the original functionCall is always returned unchanged
+     * function body, with all function parameters bound as required.
+     *
+     * <p>A call is inlined only if the body of the function is small (it contains no more expression nodes
+     * than the inlining threshold set in the {@link Configuration}), if it contains no calls on user-defined
+     * functions (which ensures that the function is not recursive), and if it does not depend on the
+     * context. Each parameter of the function becomes a let expression that binds the corresponding
+     * argument; the let expression will itself be inlined by the subsequent optimization of the expression
+     * if the parameter is referenced only once.</p>
      */
 
     public Expression tryInlineFunctionCall(
             UserFunctionCall functionCall, ExpressionVisitor visitor, ItemType contextItemType) {
-        return functionCall;
+        if (optimizationLevel == NO_OPTIMIZATION) {
+            return functionCall;
+        }
+        int threshold = config.getInliningThreshold();
+        UserFunction function = functionCall.getFunction();
+        if (threshold <= 0 || function == null || function.isMemoFunction() || function.isUpdating()) {
+            return functionCall;
+        }
+        Expression body = function.getBody();
+        if (body == null ||
+                (body.getDependencies() & (StaticProperty.DEPENDS_ON_FOCUS | StaticProperty.DEPENDS_ON_XSLT_CONTEXT)) != 0 ||
+                !isInlineable(body, new int[]{threshold})) {
+            return functionCall;
+        }
+        try {
+            body = body.copy();
+        } catch (UnsupportedOperationException err) {
+            return functionCall;
+        }
+        UserFunctionParameter[] params = function.getParameterDefinitions();
+        Expression[] arguments = functionCall.getArguments();
+        Expression result = body;
+        for (int i=params.length-1; i>=0; i--) {
+            LetExpression let = new LetExpression();
+            let.setVariableQName(params[i].getVariableQName());
+            let.setRequiredType(params[i].getRequiredType());
+            let.setSequence(arguments[i]);
+            if (params[i].isIndexedVariable()) {
+                let.setIndexedVariable();
+            }
+            ExpressionTool.rebindVariableReferences(body, params[i], let);
+            let.setAction(result);
+            result = let;
+        }
+        result.setContainer(functionCall.getContainer());
+        ExpressionTool.copyLocationInfo(functionCall, result);
+        // type-check the result: this counts the references to each of the new variables. The extra type
+        // information available may reveal a type error; if so, leave it to be reported at run-time, since
+        // the function call might never be evaluated
+        try {
+            result = visitor.typeCheck(result, contextItemType);
+        } catch (XPathException err) {
+            return functionCall;
+        }
+        trace("Inlined call to function " + function.getFunctionName().getDisplayName() +
+                "#" + params.length, result);
+        return result;
+    }
+
+    /**
+     * Test whether the body of a function is suitable for inlining
+     * @param exp the body of the function, or a subexpression of the body
+     * @param budget a single-element array holding the number of expression nodes that may still be
+     * visited before the function is considered too large to inline. This is decremented as the
+     * expression tree is traversed.
+     * @return true if the expression is small enough, and contains no constructs that prevent inlining
+     */
+
+    private static boolean isInlineable(Expression exp, int[] budget) {
+        if (--budget[0] < 0) {
+            return false;
+        }
+        if (exp instanceof UserFunctionCall || exp instanceof TailCallLoop || exp instanceof TraceWrapper ||
+                exp instanceof ApplyTemplates || exp instanceof ApplyImports || exp instanceof CallTemplate) {
+            // These constructs depend on the dynamic context of the function call in ways that would
+            // change if the function were inlined (for example, the current mode, or tunnel parameters),
+            // or would risk inlining a recursive function indefinitely
+            return false;
+        }
+        Iterator iter = exp.iterateSubExpressions();
+        while (iter.hasNext()) {
+            if (!isInlineable((Expression)iter.next(), budget)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -279,14 +491,117 @@ public class Optimizer implements Serializable {
     }
 
     /**
-     * Try to convert a Choose expression into a switch
+     * Consider compiling a boolean expression, such as the predicate of a filter expression or the condition
+     * of a conditional expression, to Java byte code. If byte code generation is enabled in the
+     * {@link Configuration}, and the expression is one that the byte code generator handles, the expression
+     * is wrapped in a {@link ByteCodeCandidate}, which compiles it once it has been evaluated often enough.
+     * This method should be called only when optimization of the containing expression is otherwise complete,
+     * since the wrapper hides the structure of the expression from other optimizations.
+     * @param exp the expression. The caller must use only the effective boolean value of this expression.
+     * @return either the original expression, or a ByteCodeCandidate that wraps it
+     */
+
+    public Expression compileToByteCode(Expression exp) {
+        if (optimizationLevel == NO_OPTIMIZATION || !config.isGenerateByteCode() ||
+                exp instanceof ByteCodeCandidate || !ByteCodeCandidate.isByteCodeAvailable() ||
+                !ExpressionCompiler.isCompilable(exp, config.getTypeHierarchy())) {
+            return exp;
+        }
+        ByteCodeCandidate candidate =
+                new ByteCodeCandidate(exp, config.getByteCodeThreshold(), config.isVerifyByteCode());
+        ExpressionTool.copyLocationInfo(exp, candidate);
+        trace("Expression selected for compilation to byte code", exp);
+        return candidate;
+    }
+
+    /**
+     * Try to convert a Choose expression into a switch. This is possible when every condition
+     * (other than a final xsl:otherwise) compares the same expression with one or more string literals,
+     * using "=" or "eq" and the codepoint collation.
      * @param choose the Choose expression
      * @param env the static context
      * @return the result of optimizing this (the original expression if no optimization was possible)
      */
 
     public Expression trySwitch(Choose choose, StaticContext env) {
-        return choose;
+        if (optimizationLevel == NO_OPTIMIZATION || choose instanceof Switch) {
+            return choose;
+        }
+        Expression[] conditions = choose.getConditions();
+        boolean hasDefault = Literal.isConstantBoolean(conditions[conditions.length-1], true);
+        int tests = (hasDefault ? conditions.length - 1 : conditions.length);
+        if (tests < MIN_SWITCH_CASES) {
+            return choose;
+        }
+        TypeHierarchy th = config.getTypeHierarchy();
+        HashMap<String, Integer> index = new HashMap<String, Integer>(tests*2);
+        Expression subject = null;
+        boolean subjectIsFirstOperand = true;
+        boolean singletonSubject = false;
+        boolean generalComparisons = false;
+        for (int i=0; i<tests; i++) {
+            Expression condition = conditions[i];
+            boolean isValueComparison = condition instanceof ValueComparison;
+            if (!isEqualityComparison(condition) ||
+                    !IndexedFilterExpression.isCodepointComparison((ComparisonExpression)condition)) {
+                return choose;
+            }
+            Expression[] operands = ((ComparisonExpression)condition).getOperands();
+            int lit;
+            if (operands[1] instanceof Literal) {
+                lit = 1;
+            } else if (operands[0] instanceof Literal) {
+                lit = 0;
+            } else {
+                return choose;
+            }
+            Expression s = operands[1-lit];
+            if (i == 0) {
+                if (!IndexedFilterExpression.isPossiblyStringLike(s.getItemType(th), th)) {
+                    return choose;
+                }
+                subject = s;
+                subjectIsFirstOperand = (lit == 1);
+            } else if (!s.equals(subject)) {
+                return choose;
+            }
+            if (isValueComparison) {
+                singletonSubject = true;
+            } else {
+                generalComparisons = true;
+            }
+            try {
+                SequenceIterator iter = ((Literal)operands[lit]).getValue().iterate();
+                int count = 0;
+                while (true) {
+                    Item item = iter.next();
+                    if (item == null) {
+                        break;
+                    }
+                    if (!(item instanceof StringValue) || (isValueComparison && ++count > 1)) {
+                        return choose;
+                    }
+                    String key = ((StringValue)item).getStringValue();
+                    if (!index.containsKey(key)) {
+                        index.put(key, new Integer(i));
+                    }
+                }
+            } catch (XPathException err) {
+                return choose;
+            }
+        }
+        if (singletonSubject && generalComparisons) {
+            // "=" and "eq" are only equivalent if the subject is a single item
+            if (Cardinality.allowsMany(subject.getCardinality())) {
+                return choose;
+            }
+            singletonSubject = false;
+        }
+        Switch result = new Switch(conditions, choose.getActions(),
+                index, subjectIsFirstOperand, singletonSubject, hasDefault);
+        ExpressionTool.copyLocationInfo(choose, result);
+        trace("Rewrote conditional expression as a switch", result);
+        return result;
     }
 
     /**
@@ -302,7 +617,10 @@ public class Optimizer implements Serializable {
     }
 
     /**
-     * Make a streaming applyTemplates instruction. Supported in Saxon-EE only
+     * Make a streaming applyTemplates instruction. The instruction is not rewritten: when it
+     * processes the children of the context node in a template rule that has been inverted (see
+     * {@link #makeInversion}), the {@link net.sf.saxon.instruct.StreamingTransformer} evaluates it
+     * directly against the streamed input, and in other cases it is evaluated in the ordinary way.
      * @param inst the unoptimized applyTemplates instruction
      */
 
@@ -311,14 +629,20 @@ public class Optimizer implements Serializable {
     }
 
     /**
-     * Generate the inversion of the expression comprising the body of a template rules.
-     * Supported in Saxon-EE only
+     * Generate the inversion of the expression comprising the body of a template rule in a
+     * streamable mode. The analysis is attached to the template (see {@link TemplateInversion}),
+     * so that the template can still be used to process nodes held in memory.
      * @param template the template to be inverted
      * @param nodeTest the static item type of the context node of the template
+     * @return the template, which is retained as the action of the rule
+     * @throws XPathException if the template cannot be evaluated against streamed input
      */
 
     public RuleTarget makeInversion(Template template, NodeTest nodeTest) throws XPathException {
-        return null;
+        if (template.getInversion() == null) {
+            template.setInversion(TemplateInversion.makeInversion(template));
+        }
+        return template;
     }
 
     /**
@@ -0,0 +1,541 @@
+package net.sf.saxon.expr;
+
+import net.sf.saxon.Controller;
+import net.sf.saxon.event.PipelineConfiguration;
+import net.sf.saxon.event.SequenceOutputter;
+import net.sf.saxon.event.SequenceReceiver;
+import net.sf.saxon.functions.*;
+import net.sf.saxon.instruct.*;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.ListIterator;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.om.ValueRepresentation;
+import net.sf.saxon.pattern.Pattern;
+import net.sf.saxon.trans.*;
+import net.sf.saxon.value.Closure;
+import net.sf.saxon.value.IndexedValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * A ParallelLoop evaluates the body of a loop (an xsl:for-each instruction, or an XQuery or XPath
+ * "for" expression) for different items of the input sequence at the same time, using the threads of the
+ * {@link WorkerPool} owned by the Configuration. It is used only if multithreading has been enabled using
+ * {@link net.sf.saxon.Configuration#setMultiThreading}.
+ *
+ * <p>The input sequence is divided into contiguous chunks, and each chunk is processed by a task running
+ * on a worker thread, which writes the results to its own buffer (a {@link SequenceOutputter}). The buffers
+ * are then copied to the real output destination in the order of the input sequence, so the result is
+ * exactly the same as if the loop had been evaluated sequentially. To keep memory use bounded, only a limited
+ * number of chunks are in progress at any one time.</p>
+ *
+ * <p>A loop is only evaluated in parallel if its body has no side-effects and shares no mutable state
+ * with other iterations. This is decided by analyzing the body, together with the templates, functions,
+ * attribute sets and global variables that it can invoke, when the loop is first executed. The analysis is
+ * conservative: the loop is evaluated sequentially if the body outputs messages or secondary result documents,
+ * loads documents, calls extension functions or memo functions, or uses a dynamic template name or
+ * <code>mode="#current"</code>. Variables declared outside the loop, including global variables, are evaluated
+ * before the parallel tasks start, so that lazily-evaluated values are never shared between threads.</p>
+ *
+ * <p>Each kind of loop provides its own subclass, which implements the {@link #processItems} method to
+ * process a range of items from the input sequence.</p>
+ */
+
+public abstract class ParallelLoop {
+
+    /**
+     * The minimum number of items in the input sequence for the loop to be evaluated in parallel
+     */
+
+    public static final int PARALLEL_THRESHOLD = 16;
+
+    /**
+     * The maximum number of items processed by a single task
+     */
+
+    private static final int MAX_CHUNK_SIZE = 64;
+
+    private Expression loop;
+    private boolean safe;
+    private GlobalVariable[] globals;
+    private int[] outerSlots;
+
+    /**
+     * Create a ParallelLoop, analyzing the body of the loop to decide whether it can be evaluated
+     * in parallel
+     * @param loop the loop expression, which supplies location information for the output
+     * @param body the body of the loop, the expression evaluated once for each item in the input
+     */
+
+    protected ParallelLoop(Expression loop, Expression body) {
+        this.loop = loop;
+        HashSet<Object> visited = new HashSet<Object>();
+        List<GlobalVariable> globalList = new ArrayList<GlobalVariable>();
+        safe = isSafe(body, null, visited, globalList, loop.getExecutable());
+        if (safe) {
+            globals = globalList.toArray(new GlobalVariable[globalList.size()]);
+            outerSlots = getOuterSlots(body);
+        }
+    }
+
+    /**
+     * Ask whether the loop body can be evaluated in parallel
+     * @return true if the body of the loop has been found to be safe for parallel evaluation
+     */
+
+    public boolean isSafe() {
+        return safe;
+    }
+
+    /**
+     * Ask whether parallel evaluation of loops is enabled in a given dynamic context. It is enabled
+     * if multithreading is allowed by the Configuration, the current thread is not itself a worker thread
+     * (which would risk deadlock), and execution is not being traced.
+     * @param context the dynamic evaluation context
+     * @return true if loops can be evaluated in parallel
+     */
+
+    public static boolean isEnabled(XPathContext context) {
+        Controller controller = context.getController();
+        return controller != null &&
+                controller.getConfiguration().isMultiThreading() &&
+                !WorkerPool.isWorkerThread() &&
+                !controller.isTracing();
+    }
+
+    /**
+     * Read all the items in a sequence into a list
+     * @param iter iterator over the input sequence
+     * @return a list containing the items in the sequence
+     * @throws XPathException if a dynamic error occurs reading the sequence
+     */
+
+    public static List<Item> readAll(SequenceIterator iter) throws XPathException {
+        List<Item> items = new ArrayList<Item>(100);
+        while (true) {
+            Item item = iter.next();
+            if (item == null) {
+                break;
+            }
+            items.add(item);
+        }
+        return items;
+    }
+
+    /**
+     * Process the loop, evaluating the body for chunks of the input sequence on different threads,
+     * and writing the results to the current output destination in the correct order.
+     * @param items the items in the input sequence
+     * @param context the dynamic context of the loop expression
+     * @return true if the loop has been processed; false if it was decided not to use parallel
+     * evaluation, in which case the caller must process the loop sequentially
+     * @throws XPathException if a dynamic error occurs evaluating the body of the loop
+     */
+
+    public boolean process(List<Item> items, XPathContext context) throws XPathException {
+        final int n = items.size();
+        if (!safe || n < PARALLEL_THRESHOLD) {
+            return false;
+        }
+        Controller controller = context.getController();
+        WorkerPool pool = controller.getConfiguration().getWorkerPool();
+        int threads = pool.getNumberOfThreads();
+        if (threads < 2) {
+            return false;
+        }
+
+        if (!prepare(context)) {
+            return false;
+        }
+
+        StackFrame frame = context.getStackFrame();
+        SlotManager map = frame.getStackFrameMap();
+        ValueRepresentation[] slots = frame.getStackFrameValues();
+        int chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(1, n / (threads * 8)));
+        int maxPending = threads * 4;
+        SequenceReceiver out = context.getReceiver();
+        int locationId = loop.getLocationId();
+
+        LinkedList<Future<List>> pending = new LinkedList<Future<List>>();
+        int next = 0;
+        boolean completed = false;
+        try {
+            while (next < n || !pending.isEmpty()) {
+                while (next < n && pending.size() < maxPending) {
+                    pending.addLast(submitChunk(pool, items, next, Math.min(next + chunkSize, n),
+                            context, map, slots));
+                    next += chunkSize;
+                }
+                List result = WorkerPool.getResult(pending.removeFirst());
+                for (int i=0; i<result.size(); i++) {
+                    out.append((Item)result.get(i), locationId, NodeInfo.ALL_NAMESPACES);
+                }
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                for (Iterator<Future<List>> it = pending.iterator(); it.hasNext();) {
+                    it.next().cancel(false);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Submit a task to evaluate the body of the loop for a range of items. The context for the task
+     * is created on the calling thread.
+     * @param pool the pool of worker threads
+     * @param items the items in the input sequence
+     * @param from the position in the list of the first item to be processed (zero-based)
+     * @param to the position in the list after the last item to be processed
+     * @param context the dynamic context of the loop expression
+     * @param map the stack frame map of the containing procedure
+     * @param slots the values of the local variables in the current stack frame, which are copied
+     * so that each task can bind local variables within the loop independently
+     * @return a Future whose result is the list of items produced by the task
+     */
+
+    private Future<List> submitChunk(WorkerPool pool, final List<Item> items, final int from, final int to,
+                                     XPathContext context, SlotManager map, ValueRepresentation[] slots) {
+        Controller controller = context.getController();
+        final XPathContextMajor c2 = context.newContext();
+        c2.setOrigin(loop);
+        c2.setStackFrame(map, slots.clone());
+        final SequenceOutputter seq = new SequenceOutputter(controller, to - from);
+        PipelineConfiguration pipe = controller.makePipelineConfiguration();
+        pipe.setHostLanguage(loop.getHostLanguage());
+        seq.setPipelineConfiguration(pipe);
+        c2.setTemporaryReceiver(seq);
+        return pool.submit(new Callable<List>() {
+            public List call() throws XPathException {
+                processItems(items, from, to, c2);
+                seq.close();
+                return seq.getList();
+            }
+        });
+    }
+
+    /**
+     * Evaluate the body of the loop for a range of items in the input sequence, writing the results
+     * to the current receiver of the supplied context. This method is called on a worker thread.
+     * @param items the items in the input sequence
+     * @param from the position in the list of the first item to be processed (zero-based)
+     * @param to the position in the list after the last item to be processed
+     * @param context a new dynamic context for the exclusive use of this range of items. It has its
+     * own copy of the current stack frame.
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    protected abstract void processItems(List<Item> items, int from, int to, XPathContextMajor context)
+            throws XPathException;
+
+    /**
+     * Prepare for parallel evaluation by evaluating, on the calling thread, all the values that the
+     * tasks will share: global variables, local variables declared outside the loop, and tunnel parameters.
+     * Lazily-evaluated values are replaced by their materialized values, because a Closure cannot be
+     * evaluated by several threads at once.
+     * @param context the dynamic context of the loop expression
+     * @return true if all the values were evaluated successfully. If any of them fails, false is
+     * returned, and the loop is evaluated sequentially, so that the error is reported only if the
+     * value is actually needed.
+     */
+
+    private boolean prepare(XPathContext context) {
+        Controller controller = context.getController();
+        try {
+            // fix the value of current-dateTime() before any thread can ask for it
+            controller.getCurrentDateTime();
+            Bindery bindery = controller.getBindery();
+            for (int i=0; i<globals.length; i++) {
+                GlobalVariable var = globals[i];
+                ValueRepresentation value = ground(var.evaluateVariable(context));
+                bindery.setGlobalVariable(var.getSlotNumber(), value);
+            }
+            ValueRepresentation[] slots = context.getStackFrame().getStackFrameValues();
+            for (int i=0; i<outerSlots.length; i++) {
+                int slot = outerSlots[i];
+                if (slot >= 0 && slot < slots.length) {
+                    slots[slot] = ground(slots[slot]);
+                }
+            }
+            ParameterSet tunnel = context.getTunnelParameters();
+            if (tunnel != null) {
+                tunnel.materializeValues();
+            }
+            return true;
+        } catch (XPathException err) {
+            return false;
+        }
+    }
+
+    /**
+     * Replace a lazily-evaluated value by its materialized value
+     * @param value the value of a variable
+     * @return a value that can safely be read by several threads at once
+     * @throws XPathException if evaluation of the value fails
+     */
+
+    private static ValueRepresentation ground(ValueRepresentation value) throws XPathException {
+        if (value instanceof Closure) {
+            return ((Closure)value).reduce();
+        } else if (value instanceof IndexedValue &&
+                ((IndexedValue)value).getUnderlyingValue() instanceof Closure) {
+            return new IndexedValue(((Closure)((IndexedValue)value).getUnderlyingValue()).reduce());
+        } else {
+            return value;
+        }
+    }
+
+    /**
+     * Get the slot numbers of local variables that are referenced within the body of the loop
+     * but declared outside it
+     * @param body the body of the loop
+     * @return the slot numbers of the variables
+     */
+
+    private static int[] getOuterSlots(Expression body) {
+        HashSet subExpressions = new HashSet();
+        ExpressionTool.gatherAllSubExpressions(body, subExpressions);
+        List<Integer> slots = new ArrayList<Integer>();
+        for (Iterator it = subExpressions.iterator(); it.hasNext();) {
+            Expression e = (Expression)it.next();
+            if (e instanceof LocalVariableReference) {
+                Binding binding = ((LocalVariableReference)e).getBinding();
+                if (!subExpressions.contains(binding)) {
+                    slots.add(new Integer(((LocalVariableReference)e).getSlotNumber()));
+                }
+            }
+        }
+        int[] result = new int[slots.size()];
+        for (int i=0; i<result.length; i++) {
+            result[i] = slots.get(i).intValue();
+        }
+        return result;
+    }
+
+    /**
+     * Determine whether an expression can safely be evaluated for different items at the same time on
+     * different threads. The analysis follows calls on templates and functions, and references to global
+     * variables and attribute sets.
+     * @param exp the expression to be tested
+     * @param currentMode the mode that will be current when the expression is evaluated, if known
+     * @param visited the components (functions, templates, modes, global variables, and attribute sets)
+     * that have already been analyzed
+     * @param globals a list to which the global variables referenced by the expression are added
+     * @param exec the executable containing the expression
+     * @return true if the expression can be evaluated in parallel
+     */
+
+    private static boolean isSafe(Expression exp, Mode currentMode, HashSet<Object> visited,
+                                  List<GlobalVariable> globals, Executable exec) {
+        if (exp instanceof ResultDocument || exp instanceof Message || exp instanceof TraceWrapper ||
+                exp instanceof Assign || exp instanceof Trace ||
+                exp instanceof Document || exp instanceof Doc || exp instanceof DocAvailable ||
+                exp instanceof Collection || exp instanceof UnparsedText ||
+                (exp instanceof FunctionCall && !(exp instanceof SystemFunction) &&
+                        !(exp instanceof UserFunctionCall))) {
+            return false;
+        }
+        if (exp instanceof VariableReference) {
+            Binding binding = ((VariableReference)exp).getBinding();
+            if (binding instanceof GlobalVariable && visited.add(binding)) {
+                GlobalVariable var = (GlobalVariable)binding;
+                globals.add(var);
+                Expression select = var.getSelectExpression();
+                if (select != null && !isSafe(select, null, visited, globals, exec)) {
+                    return false;
+                }
+            }
+        } else if (exp instanceof UserFunctionCall) {
+            UserFunction fn = ((UserFunctionCall)exp).getFunction();
+            if (fn == null || fn.isMemoFunction() || fn.getBody() == null) {
+                return false;
+            }
+            if (visited.add(fn) && !isSafe(fn.getBody(), null, visited, globals, exec)) {
+                return false;
+            }
+        } else if (exp instanceof CallTemplate) {
+            Template target = ((CallTemplate)exp).getStaticTarget();
+            if (target == null) {
+                return false;
+            }
+            if (visited.add(Arrays.asList(new Object[]{target, currentMode})) &&
+                    target.getBody() != null && !isSafe(target.getBody(), currentMode, visited, globals, exec)) {
+                return false;
+            }
+        } else if (exp instanceof ApplyTemplates) {
+            Mode mode = ((ApplyTemplates)exp).getMode();
+            if (((ApplyTemplates)exp).usesCurrentMode()) {
+                mode = currentMode;
+            }
+            if (mode == null) {
+                return false;
+            }
+            if (visited.add(mode)) {
+                List<RuleTarget> targets = mode.getRuleTargets();
+                for (int i=0; i<targets.size(); i++) {
+                    RuleTarget target = targets.get(i);
+                    if (!(target instanceof Template)) {
+                        return false;
+                    }
+                    Expression body = ((Template)target).getBody();
+                    if (body != null && !isSafe(body, mode, visited, globals, exec)) {
+                        return false;
+                    }
+                }
+            }
+        } else if (exp instanceof UseAttributeSets) {
+            AttributeSet[] sets = ((UseAttributeSets)exp).getAttributeSets();
+            if (!isSafe(sets, visited, globals, exec)) {
+                return false;
+            }
+        } else if (exp instanceof KeyFn) {
+            StructuredQName keyName = ((KeyFn)exp).getStaticKeyName();
+            if (keyName == null || exec == null) {
+                return false;
+            }
+            KeyDefinitionSet keySet = exec.getKeyManager().getKeyDefinitionSet(keyName);
+            if (keySet == null || visited.add(keySet) && !isSafe(keySet, visited, globals, exec)) {
+                return false;
+            }
+        }
+        for (Iterator it = exp.iterateSubExpressions(); it.hasNext();) {
+            if (!isSafe((Expression)it.next(), currentMode, visited, globals, exec)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determine whether the expansion of a list of attribute sets can safely be evaluated in parallel
+     * @param sets the attribute sets
+     * @param visited the components that have already been analyzed
+     * @param globals a list to which the global variables referenced by the attribute sets are added
+     * @param exec the executable containing the attribute sets
+     * @return true if the attribute sets can be expanded in parallel
+     */
+
+    private static boolean isSafe(AttributeSet[] sets, HashSet<Object> visited,
+                                  List<GlobalVariable> globals, Executable exec) {
+        if (sets == null) {
+            return true;
+        }
+        for (int i=0; i<sets.length; i++) {
+            if (visited.add(sets[i])) {
+                if (sets[i].getBody() != null && !isSafe(sets[i].getBody(), null, visited, globals, exec)) {
+                    return false;
+                }
+                if (!isSafe(sets[i].getUseAttributeSets(), visited, globals, exec)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determine whether the indexes for a key can safely be built while evaluating a loop in parallel.
+     * The index might be built on any of the worker threads.
+     * @param keySet the definitions of the key
+     * @param visited the components that have already been analyzed
+     * @param globals a list to which the global variables referenced by the key definitions are added
+     * @param exec the executable containing the key definitions
+     * @return true if the indexes can be built in parallel
+     */
+
+    private static boolean isSafe(KeyDefinitionSet keySet, HashSet<Object> visited,
+                                  List<GlobalVariable> globals, Executable exec) {
+        List<KeyDefinition> defs = keySet.getKeyDefinitions();
+        for (int i=0; i<defs.size(); i++) {
+            KeyDefinition def = defs.get(i);
+            if (!(def.getUse() instanceof Expression) ||
+                    !isSafe((Expression)def.getUse(), null, visited, globals, exec)) {
+                return false;
+            }
+            if (def.getMatch() instanceof Pattern) {
+                for (Iterator it = ((Pattern)def.getMatch()).iterateSubExpressions(); it.hasNext();) {
+                    if (!isSafe((Expression)it.next(), null, visited, globals, exec)) {
+                        return false;
+                    }
+                }
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * An iterator over a range of the items in a list, used as the focus when evaluating the body of a loop
+     * that sets the context item, such as xsl:for-each. The position and size of the focus are those of the
+     * whole list, so that the functions position() and last() give the same results as when the loop
+     * is evaluated sequentially.
+     */
+
+    public static class FocusIterator extends ListIterator {
+
+        private int last;
+
+        /**
+         * Create an iterator over a range of items in a list
+         * @param list the list of items, which defines the focus
+         * @param from the position in the list of the first item to be delivered (zero-based)
+         * @param to the position in the list after the last item to be delivered
+         */
+
+        public FocusIterator(List list, int from, int to) {
+            super(list, to);
+            last = list.size();
+            for (int i=0; i<from; i++) {
+                next();
+            }
+        }
+
+        /**
+         * Get the last position, that is, the size of the whole list
+         */
+
+        public int getLastPosition() {
+            return last;
+        }
+
+        /**
+         * Get properties of this iterator. The iterator is not grounded, because it delivers only
+         * part of the sequence that defines the focus.
+         */
+
+        public int getProperties() {
+            return LAST_POSITION_FINDER | LOOKAHEAD;
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -404,6 +404,22 @@ public class SlashExpression extends Expression
         return "SlashExpression".hashCode() + start.hashCode() + step.hashCode();
     }
 
+    /**
+     * Add a representation of this expression to a PathMap. The PathMap captures a map of the nodes visited
+     * by an expression in a source tree. The step is evaluated with the nodes selected by the start
+     * expression as its context, so (unlike the default implementation) it must be attached to the
+     * path map nodes reached by the start expression.
+     * @param pathMap        the PathMap to which the expression should be added
+     * @param pathMapNodeSet the PathMapNodeSet to which the paths embodied in this expression should be added
+     * @return the pathMapNode representing the focus established by this expression, in the case where this
+     *         expression is the first operand of a path expression or filter expression
+     */
+
+    public PathMap.PathMapNodeSet addToPathMap(PathMap pathMap, PathMap.PathMapNodeSet pathMapNodeSet) {
+        PathMap.PathMapNodeSet target = start.addToPathMap(pathMap, pathMapNodeSet);
+        return step.addToPathMap(pathMap, target);
+    }
+
     /**
      * Iterate the path-expression in a given context
      * @param context the evaluation context
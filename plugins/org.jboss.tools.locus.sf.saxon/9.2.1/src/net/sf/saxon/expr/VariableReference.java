@@ -2,6 +2,7 @@ package net.sf.saxon.expr;
 
 import net.sf.saxon.instruct.Executable;
 import net.sf.saxon.instruct.GlobalParam;
+import net.sf.saxon.instruct.GlobalVariable;
 import net.sf.saxon.instruct.UserFunctionParameter;
 import net.sf.saxon.om.Item;
 import net.sf.saxon.om.NodeInfo;
@@ -389,7 +390,16 @@ public class VariableReference extends Expression implements BindingReference {
      */
 
     public PathMap.PathMapNodeSet addToPathMap(PathMap pathMap, PathMap.PathMapNodeSet pathMapNodeSet) {
-        return pathMap.getPathForVariable(getBinding());
+        PathMap.PathMapNodeSet result = pathMap.getPathForVariable(getBinding());
+        if (result == null && getBinding() instanceof GlobalVariable && !(getBinding() instanceof GlobalParam)) {
+            // the paths used by a global variable are added to the path map when the first reference is found
+            Expression select = ((GlobalVariable)getBinding()).getSelectExpression();
+            if (select != null) {
+                result = select.addToPathMap(pathMap, null);
+                pathMap.registerPathForVariable(getBinding(), result);
+            }
+        }
+        return result;
     }
 
     /**
@@ -3,6 +3,7 @@ package net.sf.saxon.functions;
 import net.sf.saxon.*;
 import net.sf.saxon.event.*;
 import net.sf.saxon.expr.*;
+import net.sf.saxon.instruct.Executable;
 import net.sf.saxon.om.*;
 import net.sf.saxon.sort.DocumentOrderIterator;
 import net.sf.saxon.sort.GlobalOrderComparer;
@@ -22,6 +23,7 @@ import java.io.FileNotFoundException;
 import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
 
 
 /**
@@ -300,6 +302,20 @@ public class Document extends SystemFunction {
                 throw err;
             }
             
+            // See if the document is in the cache shared with other transformations
+
+            DocumentCache cache = config.getDocumentCache();
+            Object cacheVariant = null;
+            if (cache != null) {
+                cacheVariant = makeCacheVariant(controller);
+                DocumentInfo cachedDoc = cache.find(documentKey, cacheVariant);
+                if (cachedDoc != null) {
+                    controller.registerDocument(cachedDoc, documentKey);
+                    controller.addUnavailableOutputDestination(documentKey);
+                    return getFragment(cachedDoc, fragmentId, c);
+                }
+            }
+
             // Get a Source from the URIResolver
 
             Source source = resolveURI(href, baseURI, documentKey, controller);
@@ -324,7 +340,13 @@ public class Document extends SystemFunction {
                 options.setSchemaValidationMode(controller.getSchemaValidationMode());
                 PathMap map = controller.getPathMapForDocumentProjection();
                 if (map != null) {
-                    PathMap.PathMapRoot pathRoot = map.getRootForDocument(documentKey);
+                    PathMap.PathMapRoot pathRoot;
+                    try {
+                        pathRoot = map.getRootForDocument(documentKey);
+                    } catch (IllegalStateException err) {
+                        // the document is accessed from more than one place: don't attempt projection
+                        pathRoot = null;
+                    }
                     if (pathRoot != null && !pathRoot.isReturnable() && !pathRoot.hasUnknownDependencies()) {
                         options.addFilter(config.makeDocumentProjector(pathRoot));
                     }
@@ -335,6 +357,10 @@ public class Document extends SystemFunction {
                 if (options.isPleaseCloseAfterUse()) {
                     ParseOptions.close(source);
                 }
+                // a projected document contains only what this transformation needs, so it can't be shared
+                if (cache != null && options.getFilters() == null) {
+                    cache.add(documentKey, cacheVariant, newdoc);
+                }
             }
             controller.registerDocument(newdoc, documentKey);
             controller.addUnavailableOutputDestination(documentKey);
@@ -355,6 +381,30 @@ public class Document extends SystemFunction {
         }
     }
 
+    /**
+     * Make an object representing the options that affect how a document is built by a given
+     * transformation or query. A document held in the shared {@link DocumentCache} is only reused
+     * by a transformation that would have built the same tree. The URIResolvers are compared using
+     * <code>equals()</code>, which for most resolvers means that the same resolver object must be in use.
+     * @param controller the controller for the transformation or query
+     * @return an object that is equal to the variant of any other transformation that builds
+     * documents in the same way
+     */
+
+    private static Object makeCacheVariant(Controller controller) {
+        Executable exec = controller.getExecutable();
+        return Arrays.asList(new Object[] {
+                // space stripping rules are specific to the stylesheet
+                (exec.stripsWhitespace() ? exec : null),
+                Boolean.valueOf(exec.stripsInputTypeAnnotations()),
+                new Integer(controller.getSchemaValidationMode()),
+                new Integer(controller.getTreeModel()),
+                // a different URIResolver may supply a different document for the same URI
+                controller.getURIResolver(),
+                controller.getStandardURIResolver()
+        });
+    }
+
     /**
      * Call the URIResolver to resolve a URI
      * @param href the supplied relative URI, stripped of any fragment identifier
@@ -121,7 +121,8 @@ public class Matches extends SystemFunction {
             try {
                 final int xmlVersion = c.getConfiguration().getXMLVersion();
                 int flagBits = JRegularExpression.setFlags(flags);
-                re = new JRegularExpression(pat.getStringValueCS(), xmlVersion, RegularExpression.XPATH_SYNTAX, flagBits);
+                re = c.getConfiguration().getRegexCache().getRegularExpression(
+                        pat.getStringValueCS(), xmlVersion, RegularExpression.XPATH_SYNTAX, flagBits);
 
             } catch (XPathException err) {
                 XPathException de = new XPathException(err);
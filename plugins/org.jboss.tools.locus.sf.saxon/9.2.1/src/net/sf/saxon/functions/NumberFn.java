@@ -46,18 +46,17 @@ public class NumberFn extends SystemFunction implements ItemMappingFunction {
     }
 
     /**
-     * Add a representation of a doc() call or similar function to a PathMap.
-     * This is a convenience method called by the addToPathMap() methods for doc(), document(), collection()
-     * and similar functions. These all create a new root expression in the path map.
+     * Add a representation of this expression to a PathMap. The PathMap captures a map of the nodes visited
+     * by an expression in a source tree. The function atomizes its argument, so the nodes it selects are
+     * marked as atomized.
      *
      * @param pathMap      the PathMap to which the expression should be added
      * @param pathMapNodes the node in the PathMap representing the focus at the point where this expression
      *                     is called. Set to null if this expression appears at the top level.
-     * @return the pathMapNode representing the focus established by this expression, in the case where this
-     *         expression is the first operand of a path expression or filter expression
+     * @return null, because the result of the function is atomic
      */
 
-    public PathMap.PathMapNodeSet addDocToPathMap(PathMap pathMap, PathMap.PathMapNodeSet pathMapNodes) {
+    public PathMap.PathMapNodeSet addToPathMap(PathMap pathMap, PathMap.PathMapNodeSet pathMapNodes) {
         PathMap.PathMapNodeSet result = argument[0].addToPathMap(pathMap, pathMapNodes);
         if (result != null) {
             result.setAtomized();
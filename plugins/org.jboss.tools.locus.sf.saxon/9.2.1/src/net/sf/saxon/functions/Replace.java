@@ -128,7 +128,8 @@ public class Replace extends SystemFunction {
             try {
                 final int xmlVersion = c.getConfiguration().getXMLVersion();
                 int flagBits = JRegularExpression.setFlags(flags);
-                re = new JRegularExpression(arg1.getStringValueCS(), xmlVersion, RegularExpression.XPATH_SYNTAX, flagBits);
+                re = c.getConfiguration().getRegexCache().getRegularExpression(
+                        arg1.getStringValueCS(), xmlVersion, RegularExpression.XPATH_SYNTAX, flagBits);
 
             } catch (XPathException err) {
                 XPathException de = new XPathException(err);
@@ -9,6 +9,7 @@ import net.sf.saxon.expr.*;
 import net.sf.saxon.om.*;
 import net.sf.saxon.pattern.NodeKindTest;
 import net.sf.saxon.trans.Err;
+import net.sf.saxon.trans.WorkerPool;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.value.AnyURIValue;
 import net.sf.saxon.value.ObjectValue;
@@ -23,6 +24,9 @@ import javax.xml.transform.stream.StreamSource;
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
  * This class implements the default collection URI Resolver.
@@ -37,6 +41,9 @@ import java.net.URISyntaxException;
  * <li><p>select=pattern determines which files in the directory are selected.</p></li>
  * <li><p>on-error=fail|warn|ignore determines the action taken if processing of a file fails</p></li>
  * <li><p>parser=qualified.class.name selects the parser (XMLReader) to be used to read the files</p></li>
+ * <li><p>threads=n causes up to n files to be parsed in parallel, ahead of the point where they are needed,
+ * using the threads of the {@link WorkerPool} owned by the Configuration. The documents are still delivered,
+ * and numbered for the purpose of document order, in the same order as when they are parsed sequentially.</p></li>
  * </ul>
  * <p>
  * Otherwise, the resolver attempts to dereference the URI to obtain a catalog file. This is an XML file
@@ -209,6 +216,17 @@ public class StandardCollectionURIResolver implements CollectionURIResolver {
         }
         FileExpander expander = new FileExpander(params, newPipe);
         SequenceIterator base = new ArrayIterator(fileValues);
+
+        // If the URI requested parallel parsing, the expander delivers the files in the collection without
+        // parsing them, and the documents are parsed in the worker pool. This is not done if we are already
+        // running on a worker thread, because waiting for other tasks could then cause deadlock.
+
+        int threads = (params == null ? 1 : params.getThreads());
+        if (threads > 1 && !WorkerPool.isWorkerThread()) {
+            expander.prefetch = true;
+            return new PrefetchingIterator(new MappingIterator(base, expander), expander, threads,
+                    controller.getConfiguration().getWorkerPool());
+        }
         return new MappingIterator(base, expander);
     }
 
@@ -329,6 +347,7 @@ public class StandardCollectionURIResolver implements CollectionURIResolver {
         int onError = URIQueryParameters.ON_ERROR_FAIL;
         FilenameFilter filter = null;
         PipelineConfiguration pipe;
+        boolean prefetch = false;   // true if the documents are parsed by a PrefetchingIterator
 
         public FileExpander(URIQueryParameters params, PipelineConfiguration pipe) {
             this.params = params;
@@ -388,11 +407,33 @@ public class StandardCollectionURIResolver implements CollectionURIResolver {
                     }
 
                     FileExpander expander = new FileExpander(params, pipe);
+                    expander.prefetch = prefetch;
                     return new MappingIterator(new ArrayIterator(fileValues), expander);
                 } else {
                     return null;
                 }
-            } else if (unparsed) {
+            } else if (prefetch) {
+                // the file will be parsed later by the PrefetchingIterator
+                return SingletonIterator.makeIterator(item);
+            } else {
+                try {
+                    return SingletonIterator.makeIterator(load(file));
+                } catch (XPathException err) {
+                    handleError(err);
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * Read or parse one file in the collection. This method may be called on several threads at once.
+         * @param file the file to be read
+         * @return the document node of the parsed document, or a text node if unparsed=yes was requested
+         * @throws XPathException if the file cannot be read or parsed
+         */
+
+        public NodeInfo load(File file) throws XPathException {
+            if (unparsed) {
                 try {
                     Reader reader = new FileReader(file);
                     NameChecker checker = pipe.getConfiguration().getNameChecker();
@@ -401,76 +442,188 @@ public class StandardCollectionURIResolver implements CollectionURIResolver {
                     TextFragmentValue doc = new TextFragmentValue(content, uri);
                     doc.setSystemId(file.toURI().toString());
                     doc.setConfiguration(pipe.getConfiguration());
-                    return SingletonIterator.makeIterator(doc);
+                    return doc;
                 } catch (IOException err) {
-                    if (onError == URIQueryParameters.ON_ERROR_IGNORE) {
-                        return null;
-                    } else if (onError == URIQueryParameters.ON_ERROR_WARNING) {
+                    throw new XPathException("Failed to read " + file.getPath(), err);
+                }
+            } else {
+                Source source = new StreamSource(file.toURI().toString());
+                ParseOptions options = new ParseOptions();
+                if (validation != Validation.STRIP && validation != Validation.PRESERVE) {
+                    options.setSchemaValidationMode(validation);
+                }
+                if (xinclude != null) {
+                    options.setXIncludeAware(xinclude.booleanValue());
+                }
+                if (parser != null) {
+                    if (prefetch) {
+                        // an XMLReader cannot be used by two threads at once, so each parse uses a new instance
                         try {
-                            XPathException warn = new XPathException("Failed to read " + file.getPath(), err);
-                            pipe.getErrorListener().warning(warn);
-                            XPathException supp = new XPathException("The document will be excluded from the collection");
-                            pipe.getErrorListener().warning(supp);
-                        } catch (TransformerException err2) {
-                            //
+                            options.setXMLReader((XMLReader)parser.getClass().newInstance());
+                        } catch (Exception err) {
+                            throw new XPathException("Failed to instantiate parser " + parser.getClass().getName(), err);
                         }
-                        return null;
                     } else {
-                        throw new XPathException("Failed to read " + file.getPath(), err);
+                        options.setXMLReader(parser);
                     }
                 }
-            } else {
-                try {
-                    Source source = new StreamSource(file.toURI().toString());
-                    ParseOptions options = new ParseOptions();
-                    if (validation != Validation.STRIP && validation != Validation.PRESERVE) {
-                        options.setSchemaValidationMode(validation);
-                    }
-                    if (xinclude != null) {
-                        options.setXIncludeAware(xinclude.booleanValue());
+
+                Stripper stripper;
+                if (params != null) {
+                    int stripSpace = params.getStripSpace();
+                    switch (strip) {
+                        case Whitespace.ALL: {
+                            // the stripper holds state, so it cannot be shared between documents
+                            stripper = new AllElementStripper();
+                            stripper.setStripAll();
+                            options.addFilter(stripper);
+                            break;
+                        }
+                        case Whitespace.IGNORABLE:
+                        case Whitespace.NONE:
+                            options.setStripSpace(stripSpace);
                     }
-                    if (parser != null) {
-                        options.setXMLReader(parser);
+                }
+                return pipe.getConfiguration().buildDocument(source, options);
+            }
+        }
+
+        /**
+         * Handle a failure to read or parse one of the files in the collection, according to the
+         * on-error=fail|warning|ignore parameter
+         * @param err the error that occurred
+         * @throws XPathException if on-error=fail was requested (the default)
+         */
+
+        public void handleError(XPathException err) throws XPathException {
+            if (onError == URIQueryParameters.ON_ERROR_IGNORE) {
+                // no action
+            } else if (onError == URIQueryParameters.ON_ERROR_WARNING) {
+                try {
+                    if (!err.hasBeenReported()) {
+                        pipe.getErrorListener().warning(err);
+                        XPathException supp = new XPathException("The document will be excluded from the collection");
+                        supp.setLocator(err.getLocator());
+                        pipe.getErrorListener().warning(supp);
                     }
+                } catch (TransformerException err2) {
+                    //
+                }
+            } else {
+                throw err;
+            }
+        }
+    }
+
+    /**
+     * Iterator over the documents in a directory collection that parses the documents in parallel,
+     * ahead of the point where they are needed. The number of documents that have been submitted for parsing
+     * but not yet delivered is limited, so that memory use remains bounded however large the collection
+     * is. The documents are delivered in the same order as when the collection is read sequentially, and
+     * errors are reported (or ignored) in the same order.
+     */
+
+    private static class PrefetchingIterator implements SequenceIterator {
+
+        private SequenceIterator files;
+        private FileExpander expander;
+        private int threads;
+        private WorkerPool pool;
+        private LinkedList<Future<NodeInfo>> pending = new LinkedList<Future<NodeInfo>>();
+        private boolean exhausted = false;
+        private Item current = null;
+        private int position = 0;
 
-                    Stripper stripper;
-                    if (params != null) {
-                        int stripSpace = params.getStripSpace();
-                        switch (strip) {
-                            case Whitespace.ALL: {
-                                stripper = AllElementStripper.getInstance();
-                                stripper.setStripAll();
-                                options.addFilter(stripper);
-                                break;
+        /**
+         * Create a PrefetchingIterator
+         * @param files iterator over the files in the collection, wrapped as ObjectValue items
+         * @param expander the FileExpander used to parse the files
+         * @param threads the maximum number of files that have been submitted for parsing but not
+         * yet delivered
+         * @param pool the pool of worker threads used to parse the files
+         */
+
+        public PrefetchingIterator(SequenceIterator files, FileExpander expander, int threads, WorkerPool pool) {
+            this.files = files;
+            this.expander = expander;
+            this.threads = threads;
+            this.pool = pool;
+        }
+
+        public Item next() throws XPathException {
+            while (true) {
+                while (!exhausted && pending.size() < threads) {
+                    Item item = files.next();
+                    if (item == null) {
+                        exhausted = true;
+                        break;
+                    }
+                    final File file = (File)((ObjectValue)item).getObject();
+                    // The document number is allocated here, on the consuming thread, so that the documents
+                    // are numbered in the order they are delivered, not the order in which parsing finishes
+                    final DocumentNumberAllocator allocator =
+                            expander.pipe.getConfiguration().getDocumentNumberAllocator();
+                    final int documentNumber = allocator.allocateDocumentNumber();
+                    pending.addLast(pool.submit(new Callable<NodeInfo>() {
+                        public NodeInfo call() throws XPathException {
+                            allocator.setNextDocumentNumber(documentNumber);
+                            try {
+                                NodeInfo doc = expander.load(file);
+                                // a text fragment allocates its number lazily, so force it now
+                                doc.getDocumentNumber();
+                                return doc;
+                            } finally {
+                                allocator.setNextDocumentNumber(-1);
                             }
-                            case Whitespace.IGNORABLE:
-                            case Whitespace.NONE:
-                                options.setStripSpace(stripSpace);
                         }
-                    }
-                    DocumentInfo doc = pipe.getConfiguration().buildDocument(source, options);
-                    return SingletonIterator.makeIterator(doc);
+                    }));
+                }
+                if (pending.isEmpty()) {
+                    current = null;
+                    position = -1;
+                    return null;
+                }
+                try {
+                    current = WorkerPool.getResult(pending.removeFirst());
+                    position++;
+                    return current;
                 } catch (XPathException err) {
-                    if (onError == URIQueryParameters.ON_ERROR_IGNORE) {
-                        return null;
-                    } else if (onError == URIQueryParameters.ON_ERROR_WARNING) {
-                        try {
-                            if (!err.hasBeenReported()) {
-                                pipe.getErrorListener().warning(err);
-                                XPathException supp = new XPathException("The document will be excluded from the collection");
-                                supp.setLocator(err.getLocator());
-                                pipe.getErrorListener().warning(supp);
-                            }
-                        } catch (TransformerException err2) {
-                            //
+                    boolean failed = true;
+                    try {
+                        expander.handleError(err);
+                        failed = false;
+                    } finally {
+                        if (failed) {
+                            close();
                         }
-                        return null;
-                    } else {
-                        throw err;
                     }
                 }
             }
         }
+
+        public Item current() {
+            return current;
+        }
+
+        public int position() {
+            return position;
+        }
+
+        public void close() {
+            while (!pending.isEmpty()) {
+                pending.removeFirst().cancel(false);
+            }
+            exhausted = true;
+            files.close();
+        }
+
+        public SequenceIterator getAnother() throws XPathException {
+            return new PrefetchingIterator(files.getAnother(), expander, threads, pool);
+        }
+
+        public int getProperties() {
+            return 0;
+        }
     }
 
 
@@ -65,6 +65,16 @@ public abstract class SystemFunction extends FunctionCall {
         return details;
     }
 
+    /**
+     * Get the operation code. This distinguishes the different functions that are implemented
+     * by the same class, for example true() and false()
+     * @return the operation code
+     */
+
+    public int getOperation() {
+        return operation;
+    }
+
     /**
     * Method called during static type checking
     */
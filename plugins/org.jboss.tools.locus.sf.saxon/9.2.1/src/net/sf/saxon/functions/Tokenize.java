@@ -124,7 +124,8 @@ public class Tokenize extends SystemFunction  {
             try {
                 final int xmlVersion = c.getConfiguration().getXMLVersion();
                 int flagBits = JRegularExpression.setFlags(flags);
-                re = new JRegularExpression(pattern, xmlVersion, RegularExpression.XPATH_SYNTAX, flagBits);   
+                re = c.getConfiguration().getRegexCache().getRegularExpression(
+                        pattern, xmlVersion, RegularExpression.XPATH_SYNTAX, flagBits);
 
             } catch (XPathException err) {
                 XPathException de = new XPathException(err);
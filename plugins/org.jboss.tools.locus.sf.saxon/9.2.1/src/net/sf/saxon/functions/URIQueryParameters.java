@@ -27,6 +27,7 @@ public class URIQueryParameters {
     XMLReader parser = null;
     Boolean xinclude = null;
     boolean unparsed;
+    int threads = 1;
 
     public static final int ON_ERROR_FAIL = 1;
     public static final int ON_ERROR_WARNING = 2;
@@ -102,6 +103,15 @@ public class URIQueryParameters {
                         } else if (value.equals("fail")) {
                             onError = new Integer(ON_ERROR_FAIL);
                         }
+                    } else if (keyword.equals("threads")) {
+                        try {
+                            int n = Integer.parseInt(value);
+                            if (n > 0) {
+                                threads = n;
+                            }
+                        } catch (NumberFormatException err) {
+                            // ignore the parameter
+                        }
                     } else if (keyword.equals("parser")) {
                         try {
                             if (config == null) {
@@ -188,6 +198,15 @@ public class URIQueryParameters {
         return parser;
     }
 
+    /**
+     * Get the value of the threads=n parameter, the number of files in a collection that may be
+     * parsed in parallel, or 1 if unspecified
+     */
+
+    public int getThreads() {
+        return threads;
+    }
+
     public static class RegexFilter implements FilenameFilter {
 
         private Pattern pattern;
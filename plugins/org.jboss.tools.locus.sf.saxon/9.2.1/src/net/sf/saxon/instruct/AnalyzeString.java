@@ -431,7 +431,8 @@ public class AnalyzeString extends Instruction {
             final Platform platform = Configuration.getPlatform();
             final int xmlVersion = context.getConfiguration().getXMLVersion();
             int flagBits = JRegularExpression.setFlags(flagstr);
-            re = new JRegularExpression(regex.evaluateAsString(context), xmlVersion, RegularExpression.XPATH_SYNTAX, flagBits);   
+            re = context.getConfiguration().getRegexCache().getRegularExpression(
+                    regex.evaluateAsString(context), xmlVersion, RegularExpression.XPATH_SYNTAX, flagBits);
             if (re.matches("")) {
                 dynamicError("The regular expression must not be one that matches a zero-length string",
                         "XTDE1150", context);
@@ -3,6 +3,8 @@ package net.sf.saxon.instruct;
 import net.sf.saxon.event.ReceiverOptions;
 import net.sf.saxon.event.SequenceReceiver;
 import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.om.NameCodeHolder;
+import net.sf.saxon.om.NameCodeMap;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.trans.Err;
 import net.sf.saxon.type.SimpleType;
@@ -18,7 +20,7 @@ import net.sf.saxon.value.Whitespace;
  * Abstract class for fixed and computed attribute constructor expressions
  */
 
-public abstract class AttributeCreator extends SimpleNodeConstructor {
+public abstract class AttributeCreator extends SimpleNodeConstructor implements NameCodeHolder {
 
     private SimpleType schemaType;
     private int annotation;
@@ -181,6 +183,17 @@ public abstract class AttributeCreator extends SimpleNodeConstructor {
         //return null;
     }
 
+
+    /**
+     * Translate the type annotation of the attribute into the codes of a different NamePool.
+     * Subclasses that hold further codes must translate them too.
+     * @param map the mapping between the two NamePools
+     */
+
+    public void remapNameCodes(NameCodeMap map) {
+        annotation = map.mapNameCode(annotation);
+    }
+
 }
 
 //
@@ -45,6 +45,15 @@ public class AttributeSet extends Procedure {
         this.useAttributeSets = useAttributeSets;
     }
 
+    /**
+     * Get the attribute sets used by this attribute set
+     * @return the set of attribute sets used by this attribute set, or null if there are none
+     */
+
+    public AttributeSet[] getUseAttributeSets() {
+        return useAttributeSets;
+    }
+
     /**
      * Set the stack frame map which allocates slots to variables declared in this attribute set
      * @param stackFrameMap the stack frame map
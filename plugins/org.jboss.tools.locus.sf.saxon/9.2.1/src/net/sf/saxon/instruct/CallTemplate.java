@@ -352,6 +352,16 @@ public class CallTemplate extends Instruction {
         }
     }
 
+    /**
+     * Get the template that is called, if this is known statically
+     * @return the called template, or null if the name of the template is computed at run-time
+     * (Saxon extension)
+     */
+
+    public Template getStaticTarget() {
+        return (calledTemplateExpression == null ? template : null);
+    }
+
 
     public StructuredQName getObjectName() {
         return (template==null ? null : template.getTemplateName());
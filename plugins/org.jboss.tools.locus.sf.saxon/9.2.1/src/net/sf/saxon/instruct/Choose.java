@@ -358,10 +358,19 @@ public class Choose extends Instruction {
         }
         Expression e = removeRedundantBranches(visitor);
         if (e instanceof Choose) {
-            return visitor.getConfiguration().getOptimizer().trySwitch((Choose)e, visitor.getStaticContext());
-        } else {
-            return e;
+            Optimizer opt = visitor.getConfiguration().getOptimizer();
+            e = opt.trySwitch((Choose)e, visitor.getStaticContext());
+            if (e == this) {
+                for (int i=0; i<conditions.length; i++) {
+                    Expression c = opt.compileToByteCode(conditions[i]);
+                    if (c != conditions[i]) {
+                        conditions[i] = c;
+                        adoptChildExpression(c);
+                    }
+                }
+            }
         }
+        return e;
     }
 
     /**
@@ -741,6 +750,27 @@ public class Choose extends Instruction {
     */
 
     public TailCall processLeavingTail(XPathContext context) throws XPathException {
+        int i = choose(context);
+        if (i >= 0) {
+            if (actions[i] instanceof TailCallReturner) {
+                return ((TailCallReturner)actions[i]).processLeavingTail(context);
+            } else {
+                actions[i].process(context);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decide which branch of the conditional is to be evaluated, by evaluating the conditions in turn
+     * until one is found that is true
+     * @param context the dynamic evaluation context
+     * @return the index of the first condition that is true, or -1 if none of the conditions is true
+     * @throws XPathException if a dynamic error occurs evaluating one of the conditions
+     */
+
+    protected int choose(XPathContext context) throws XPathException {
         for (int i=0; i<conditions.length; i++) {
             final boolean b;
             try {
@@ -750,15 +780,10 @@ public class Choose extends Instruction {
                 throw e;
             }
             if (b) {
-                if (actions[i] instanceof TailCallReturner) {
-                    return ((TailCallReturner)actions[i]).processLeavingTail(context);
-                } else {
-                    actions[i].process(context);
-                    return null;
-                }
+                return i;
             }
         }
-        return null;
+        return -1;
     }
 
     /**
@@ -777,19 +802,8 @@ public class Choose extends Instruction {
      */
 
     public Item evaluateItem(XPathContext context) throws XPathException {
-        for (int i=0; i<conditions.length; i++) {
-            final boolean b;
-            try {
-                b = conditions[i].effectiveBooleanValue(context);
-            } catch (XPathException e) {
-                e.maybeSetLocation(conditions[i]);
-                throw e;
-            }
-            if (b) {
-                return actions[i].evaluateItem(context);
-            }
-        }
-        return null;
+        int i = choose(context);
+        return (i < 0 ? null : actions[i].evaluateItem(context));
     }
 
     /**
@@ -810,19 +824,8 @@ public class Choose extends Instruction {
      */
 
     public SequenceIterator iterate(XPathContext context) throws XPathException {
-        for (int i=0; i<conditions.length; i++) {
-            final boolean b;
-            try {
-                b = conditions[i].effectiveBooleanValue(context);
-            } catch (XPathException e) {
-                e.maybeSetLocation(conditions[i]);
-                throw e;
-            }
-            if (b) {
-                return (actions[i]).iterate(context);
-            }
-        }
-        return EmptyIterator.getInstance();
+        int i = choose(context);
+        return (i < 0 ? EmptyIterator.getInstance() : actions[i].iterate(context));
     }
 
 
@@ -850,19 +853,8 @@ public class Choose extends Instruction {
      */
 
     public EventIterator iterateEvents(XPathContext context) throws XPathException {
-        for (int i=0; i<conditions.length; i++) {
-            final boolean b;
-            try {
-                b = conditions[i].effectiveBooleanValue(context);
-            } catch (XPathException e) {
-                e.maybeSetLocation(conditions[i]);
-                throw e;
-            }
-            if (b) {
-                return (actions[i]).iterateEvents(context);
-            }
-        }
-        return EmptyEventIterator.getInstance();
+        int i = choose(context);
+        return (i < 0 ? EmptyEventIterator.getInstance() : actions[i].iterateEvents(context));
     }
 
 
@@ -876,18 +868,9 @@ public class Choose extends Instruction {
      */
 
     public void evaluatePendingUpdates(XPathContext context, PendingUpdateList pul) throws XPathException {
-        for (int i=0; i<conditions.length; i++) {
-            final boolean b;
-            try {
-                b = conditions[i].effectiveBooleanValue(context);
-            } catch (XPathException e) {
-                e.maybeSetLocation(conditions[i]);
-                throw e;
-            }
-            if (b) {
-                actions[i].evaluatePendingUpdates(context, pul);
-                return;
-            }
+        int i = choose(context);
+        if (i >= 0) {
+            actions[i].evaluatePendingUpdates(context, pul);
         }
     }
 }
@@ -65,8 +65,8 @@ public class Executable implements Serializable {
     // location map for expressions in this executable
     private LocationMap locationMap;
 
-    // hash table of query library modules
-    private HashMap<String, List<QueryModule>> queryLibraryModules;
+    // hash table of query library modules (used only during compilation, so not saved with a compiled query)
+    private transient HashMap<String, List<QueryModule>> queryLibraryModules;
 
     // flag to indicate that source documents are to have their type annotations stripped
     private boolean stripsInputTypeAnnotations;
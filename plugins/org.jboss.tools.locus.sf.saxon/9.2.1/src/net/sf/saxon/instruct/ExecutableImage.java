@@ -0,0 +1,172 @@
+package net.sf.saxon.instruct;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.Version;
+import net.sf.saxon.om.NameCodeHolder;
+import net.sf.saxon.om.NameCodeMap;
+import net.sf.saxon.om.NamePool;
+import net.sf.saxon.trans.XPathException;
+
+import java.io.*;
+
+/**
+ * This class saves a compiled stylesheet or query to a binary image, and reloads it. Loading a saved
+ * image is much faster than compiling the stylesheet or query from source. The image is written using
+ * Java serialization, and can only be loaded by the same release of Saxon that saved it.
+ *
+ * <p>The compiled code refers to names using integer name codes, which are meaningful only within the
+ * NamePool that was used during compilation. The image therefore contains a copy of that NamePool. When
+ * the image is loaded, the names in the saved NamePool are imported into the NamePool of the target
+ * Configuration, using {@link NamePool#importNames}, so that they have the same codes as they had when
+ * the code was compiled; and all references to the saved NamePool within the compiled code are replaced
+ * by references to the target NamePool. This succeeds if the target NamePool is new, or if all the images
+ * loaded into it were compiled using the same NamePool. If the target NamePool has allocated different
+ * codes to the same names, for example because unrelated documents have already been built using it,
+ * the codes cannot be preserved: instead, each object in the compiled code that holds name codes, and
+ * that implements {@link NameCodeHolder}, translates them to the codes used in the target NamePool as
+ * it is loaded.</p>
+ *
+ * <p>Because an image can only be loaded by the release of Saxon that saved it, the image does not contain
+ * the full serialization descriptors of the classes it uses, only their names; the descriptors are taken
+ * from the classes themselves when the image is loaded. This makes an image smaller, and much faster
+ * to load, than the same objects written using standard Java serialization.</p>
+ */
+
+public class ExecutableImage {
+
+    private static final int MAGIC = 0x53584558;     // "SXEX"
+    private static final int VERSION = 1;
+
+    private ExecutableImage() {
+        // not instantiated
+    }
+
+    /**
+     * Save compiled code to a binary image
+     * @param compiled the compiled code, for example a {@link net.sf.saxon.PreparedStylesheet}
+     * @param pool the NamePool that was used to compile the code
+     * @param stream the output stream to which the image is to be written. The stream is not closed.
+     * @throws XPathException if the compiled code cannot be serialized, or if an I/O error occurs
+     */
+
+    public static void save(Serializable compiled, NamePool pool, OutputStream stream) throws XPathException {
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(stream, 65536)) {
+                protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+                    writeUTF(desc.getName());
+                }
+            };
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(Version.getProductVersion());
+            out.writeObject(pool);
+            out.writeObject(compiled);
+            out.flush();
+        } catch (NotSerializableException err) {
+            throw new XPathException("Compiled code cannot be saved: class " + err.getMessage() +
+                    " is not serializable", err);
+        } catch (IOException err) {
+            throw new XPathException("Failed to save compiled code: " + err.getMessage(), err);
+        }
+    }
+
+    /**
+     * Load compiled code from a binary image. The caller is responsible for attaching the loaded code
+     * to the Configuration (the links to the Configuration are not saved in the image).
+     * @param stream the input stream from which the image is to be read. The stream is not closed.
+     * @param config the Configuration into which the compiled code is being loaded. The names used in
+     * the compiled code are imported into the NamePool of this Configuration.
+     * @return the compiled code, as supplied to the {@link #save} method
+     * @throws XPathException if the stream does not contain an image saved by this release of Saxon,
+     * or if an I/O error occurs
+     */
+
+    public static Object load(InputStream stream, final Configuration config) throws XPathException {
+        try {
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(stream, 65536)) {
+                private NameCodeMap map;
+                {
+                    enableResolveObject(true);
+                }
+                protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+                    String name = readUTF();
+                    ObjectStreamClass desc = ObjectStreamClass.lookup(loadClass(name));
+                    if (desc == null) {
+                        throw new InvalidClassException(name, "Class is not serializable");
+                    }
+                    return desc;
+                }
+                protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                    return loadClass(desc.getName());
+                }
+                protected Object resolveObject(Object obj) throws IOException {
+                    if (obj instanceof NamePool && obj != config.getNamePool()) {
+                        if (map == null && !config.getNamePool().importNames((NamePool)obj)) {
+                            // the codes differ, so they must be translated as the compiled code is read
+                            map = new NameCodeMap((NamePool)obj, config.getNamePool());
+                        }
+                        return config.getNamePool();
+                    }
+                    if (map != null && obj instanceof NameCodeHolder) {
+                        ((NameCodeHolder)obj).remapNameCodes(map);
+                    }
+                    return obj;
+                }
+            };
+            if (in.readInt() != MAGIC) {
+                throw new XPathException("The supplied input is not a saved Saxon executable");
+            }
+            int version = in.readInt();
+            String product = in.readUTF();
+            if (version != VERSION || !product.equals(Version.getProductVersion())) {
+                throw new XPathException("The saved executable was created by Saxon " + product +
+                        ", and cannot be loaded by Saxon " + Version.getProductVersion());
+            }
+            in.readObject();            // the NamePool, which is resolved to the target NamePool
+            return in.readObject();
+        } catch (ClassNotFoundException err) {
+            throw new XPathException("Failed to load compiled code: class " + err.getMessage() + " not found", err);
+        } catch (IOException err) {
+            throw new XPathException("Failed to load compiled code: " + err.getMessage(), err);
+        }
+    }
+
+    /**
+     * Load a class used in a saved image. The class is loaded using the class loader that loaded Saxon,
+     * or failing that, the context class loader of the current thread.
+     * @param name the name of the class, as returned by {@link Class#getName}
+     * @return the class
+     * @throws ClassNotFoundException if the class cannot be loaded
+     */
+
+    private static Class<?> loadClass(String name) throws ClassNotFoundException {
+        try {
+            return Class.forName(name, false, ExecutableImage.class.getClassLoader());
+        } catch (ClassNotFoundException err) {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            if (loader == null) {
+                throw err;
+            }
+            return Class.forName(name, false, loader);
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -282,6 +282,18 @@ public final class FixedAttribute extends AttributeCreator {
         out.endElement();
     }
 
+
+    /**
+     * Translate the name code of the attribute, and its type annotation, into the codes of a
+     * different NamePool
+     * @param map the mapping between the two NamePools
+     */
+
+    public void remapNameCodes(NameCodeMap map) {
+        super.remapNameCodes(map);
+        nameCode = map.mapNameCode(nameCode);
+    }
+
 }
 
 //
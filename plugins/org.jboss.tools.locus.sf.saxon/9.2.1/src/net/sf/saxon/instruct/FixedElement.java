@@ -3,6 +3,8 @@ package net.sf.saxon.instruct;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.event.Receiver;
 import net.sf.saxon.expr.*;
+import net.sf.saxon.om.NameCodeHolder;
+import net.sf.saxon.om.NameCodeMap;
 import net.sf.saxon.om.NamePool;
 import net.sf.saxon.om.QNameException;
 import net.sf.saxon.om.StandardNames;
@@ -26,7 +28,7 @@ import java.util.Iterator;
  * known statically.
 */
 
-public class FixedElement extends ElementCreator {
+public class FixedElement extends ElementCreator implements NameCodeHolder {
 
     private int nameCode;
     protected int[] namespaceCodes = null;
@@ -533,6 +535,18 @@ public class FixedElement extends ElementCreator {
         content.explain(out);
         out.endElement();
     }
+
+    /**
+     * Translate the name code of the element, and the codes of the namespaces to be output, into
+     * the codes of a different NamePool
+     * @param map the mapping between the two NamePools
+     */
+
+    public void remapNameCodes(NameCodeMap map) {
+        nameCode = map.mapNameCode(nameCode);
+        namespaceCodes = map.mapNamespaceCodes(namespaceCodes);
+    }
+
 }
 
 //
@@ -2,6 +2,7 @@ package net.sf.saxon.instruct;
 import net.sf.saxon.Controller;
 import net.sf.saxon.expr.*;
 import net.sf.saxon.om.Item;
+import net.sf.saxon.om.ListIterator;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.om.StandardNames;
 import net.sf.saxon.trace.ExpressionPresenter;
@@ -12,6 +13,7 @@ import net.sf.saxon.type.SchemaType;
 import net.sf.saxon.type.TypeHierarchy;
 
 import java.util.Iterator;
+import java.util.List;
 
 
 /**
@@ -23,6 +25,7 @@ public class ForEach extends Instruction implements ContextMappingFunction {
     private Expression select;
     private Expression action;
     private boolean containsTailCall;
+    private transient volatile ParallelLoop parallelLoop;
 
     /**
      * Create an xsl:for-each instruction
@@ -291,6 +294,21 @@ public class ForEach extends Instruction implements ContextMappingFunction {
         Controller controller = context.getController();
         SequenceIterator iter = select.iterate(context);
 
+        if (!containsTailCall && ParallelLoop.isEnabled(context)) {
+            ParallelLoop loop = parallelLoop;
+            if (loop == null) {
+                loop = new ParallelForEach();
+                parallelLoop = loop;
+            }
+            if (loop.isSafe()) {
+                List<Item> items = ParallelLoop.readAll(iter);
+                if (loop.process(items, context)) {
+                    return null;
+                }
+                iter = new ListIterator(items);
+            }
+        }
+
         XPathContextMajor c2 = context.newContext();
         c2.setOrigin(this);
         c2.setCurrentIterator(iter);
@@ -386,6 +404,27 @@ public class ForEach extends Instruction implements ContextMappingFunction {
         out.endElement();
     }
 
+    /**
+     * Parallel evaluation of the xsl:for-each instruction, used when multithreading is enabled
+     */
+
+    private class ParallelForEach extends ParallelLoop {
+
+        public ParallelForEach() {
+            super(ForEach.this, action);
+        }
+
+        protected void processItems(List<Item> items, int from, int to, XPathContextMajor context)
+                throws XPathException {
+            SequenceIterator iter = new FocusIterator(items, from, to);
+            context.setCurrentIterator(iter);
+            context.setCurrentTemplateRule(null);
+            while (iter.next() != null) {
+                action.process(context);
+            }
+        }
+    }
+
 }
 
 //
@@ -152,6 +152,18 @@ public abstract class GeneralVariable extends Instruction implements Binding {
         referenceCount = refCount;
     }
 
+    /**
+     * Indicate that the variable should be indexable, because it is used in a filter expression
+     * that can be evaluated using an index
+     */
+
+    public void setIndexedVariable() {
+        referenceCount = FilterExpression.FILTERED;
+        if (evaluationMode != ExpressionTool.UNDECIDED && !isAssignable()) {
+            evaluationMode = ExpressionTool.MAKE_INDEXED_VARIABLE;
+        }
+    }
+
     /**
      * Get the evaluation mode of the variable
      * @return the evaluation mode (a constant in {@link ExpressionTool}
@@ -45,7 +45,7 @@ import java.util.Stack;
  * These are attribute value templates, so they may need to be computed at run-time.
  */
 
-public class ResultDocument extends Instruction implements DivisibleInstruction {
+public class ResultDocument extends Instruction implements DivisibleInstruction, NameCodeHolder {
 
     private Expression href;
     private Expression formatExpression;    // null if format was known at compile time
@@ -823,6 +823,17 @@ public class ResultDocument extends Instruction implements DivisibleInstruction
             setSerializationProperty(props, uri, local, val, resolver, false, c.getConfiguration());
         }
     }
+
+    /**
+     * Translate the fingerprints identifying the serialization attributes into the codes of a
+     * different NamePool
+     * @param map the mapping between the two NamePools
+     */
+
+    public void remapNameCodes(NameCodeMap map) {
+        serializationAttributes = map.mapKeys(serializationAttributes);
+    }
+
 }
 
 //
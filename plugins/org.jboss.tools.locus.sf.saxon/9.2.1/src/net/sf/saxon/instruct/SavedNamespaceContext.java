@@ -1,4 +1,6 @@
 package net.sf.saxon.instruct;
+import net.sf.saxon.om.NameCodeHolder;
+import net.sf.saxon.om.NameCodeMap;
 import net.sf.saxon.om.NamePool;
 import net.sf.saxon.om.NamespaceConstant;
 import net.sf.saxon.om.NamespaceResolver;
@@ -14,7 +16,7 @@ import java.util.Iterator;
   * in the context of a name pool
   */
 
-public final class SavedNamespaceContext implements Serializable, NamespaceResolver {
+public final class SavedNamespaceContext implements Serializable, NamespaceResolver, NameCodeHolder {
 
     // TODO: static context can't vary within an XPath expression. Therefore, save the
     // NamespaceContext at the outermost expression level if any subexpression needs it.
@@ -118,6 +120,17 @@ public final class SavedNamespaceContext implements Serializable, NamespaceResol
     }
 
 
+
+    /**
+     * Translate the saved namespace codes into the codes of a different NamePool
+     * @param map the mapping between the two NamePools
+     */
+
+    public void remapNameCodes(NameCodeMap map) {
+        namespaceCodes = map.mapNamespaceCodes(namespaceCodes);
+        namePool = map.getTargetPool();
+    }
+
 }
 
 //
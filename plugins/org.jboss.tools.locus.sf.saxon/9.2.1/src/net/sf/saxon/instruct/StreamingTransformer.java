@@ -0,0 +1,544 @@
+package net.sf.saxon.instruct;
+
+import net.sf.saxon.event.PipelineConfiguration;
+import net.sf.saxon.event.Receiver;
+import net.sf.saxon.expr.XPathContextMajor;
+import net.sf.saxon.om.*;
+import net.sf.saxon.pattern.NodeTest;
+import net.sf.saxon.tinytree.TinyBuilder;
+import net.sf.saxon.trace.Location;
+import net.sf.saxon.trans.Mode;
+import net.sf.saxon.trans.Rule;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.Type;
+
+import java.util.ArrayList;
+
+/**
+ * A StreamingTransformer applies the template rules of a streamable mode to a source document that is
+ * supplied as a stream of events, without building a tree for the whole document. It is a Receiver: the
+ * events generated by parsing the source document are sent to it directly.
+ *
+ * <p>Each node is matched against the template rules of the mode at the point where it is first notified,
+ * using a skeleton tree (a "stub") containing the node itself together with the start tags (name, namespaces
+ * and attributes) of its ancestors. The action then depends on how the selected template was classified
+ * when the stylesheet was compiled (see {@link TemplateInversion}):</p>
+ *
+ * <ul>
+ * <li>For a motionless template, the template is evaluated against the stub, and the content of the
+ * element is skipped.</li>
+ * <li>For a streamed template, the part of the template before the xsl:apply-templates instruction is
+ * evaluated against the stub, the selected children are then processed in the same way as they are read,
+ * and the rest of the template is evaluated when the end tag is notified.</li>
+ * <li>For a grounded template, a tree is built for the subtree rooted at the element, and the template
+ * is evaluated against this tree when the end tag is notified.</li>
+ * <li>If there is no matching template rule, the built-in rule is used: the children are processed in the
+ * same mode, and text nodes are copied to the result.</li>
+ * </ul>
+ *
+ * <p>The memory used therefore depends on the depth of the document and on the size of the subtrees
+ * processed by grounded templates, but not on the overall size of the document.</p>
+ */
+
+public class StreamingTransformer implements Receiver {
+
+    private PipelineConfiguration pipe;
+    private String systemId;
+    private Frame top;
+    private ArrayList<Frame> frames = new ArrayList<Frame>(20);
+    private Frame pendingElement = null;
+    private FastStringBuffer pendingText = new FastStringBuffer(FastStringBuffer.SMALL);
+    private int pendingTextLocation = 0;
+    private int skipDepth = 0;
+    private TinyBuilder subtreeBuilder = null;
+    private Frame subtreeFrame = null;
+    private int subtreeDepth = 0;
+
+    private static final int[] STUB_SIZE = {20, 4, 20, 64};
+
+    /**
+     * Create a StreamingTransformer
+     * @param context the initial context for the transformation; the receiver of this context is the
+     * destination for the principal result
+     * @param mode the initial mode, which must be streamable
+     */
+
+    public StreamingTransformer(XPathContextMajor context, Mode mode) {
+        pipe = context.getController().makePipelineConfiguration();
+        top = new Frame();
+        top.context = context;
+        top.mode = mode;
+    }
+
+    public void setPipelineConfiguration(PipelineConfiguration pipe) {
+        this.pipe = pipe;
+    }
+
+    public PipelineConfiguration getPipelineConfiguration() {
+        return pipe;
+    }
+
+    public void setSystemId(String systemId) {
+        this.systemId = systemId;
+    }
+
+    public String getSystemId() {
+        return systemId;
+    }
+
+    public void open() throws XPathException {
+        frames.clear();
+        skipDepth = 0;
+        subtreeBuilder = null;
+    }
+
+    public void startDocument(int properties) throws XPathException {
+        Frame f = new Frame();
+        f.nameCode = -1;
+        startNode(f);
+    }
+
+    public void endDocument() throws XPathException {
+        if (skipDepth > 0) {
+            skipDepth--;
+        } else if (subtreeBuilder != null) {
+            subtreeDepth--;
+            finishSubtree();
+        } else {
+            endNode();
+        }
+    }
+
+    public void setUnparsedEntity(String name, String systemID, String publicID) throws XPathException {
+        // no action: unparsed entities are not available to a streamed transformation
+    }
+
+    public void startElement(int nameCode, int typeCode, int locationId, int properties) throws XPathException {
+        if (skipDepth > 0) {
+            skipDepth++;
+        } else if (subtreeBuilder != null) {
+            subtreeBuilder.startElement(nameCode, typeCode, locationId, properties);
+            subtreeDepth++;
+        } else {
+            flushText();
+            Frame f = new Frame();
+            f.nameCode = nameCode;
+            f.typeCode = typeCode;
+            f.locationId = locationId;
+            f.properties = properties;
+            pendingElement = f;
+        }
+    }
+
+    public void namespace(int namespaceCode, int properties) throws XPathException {
+        if (skipDepth > 0) {
+            // no action
+        } else if (subtreeBuilder != null) {
+            subtreeBuilder.namespace(namespaceCode, properties);
+        } else {
+            pendingElement.addNamespace(namespaceCode);
+        }
+    }
+
+    public void attribute(int nameCode, int typeCode, CharSequence value, int locationId, int properties)
+            throws XPathException {
+        if (skipDepth > 0) {
+            // no action
+        } else if (subtreeBuilder != null) {
+            subtreeBuilder.attribute(nameCode, typeCode, value, locationId, properties);
+        } else {
+            if (pendingElement.attributes == null) {
+                pendingElement.attributes = new AttributeCollectionImpl(pipe.getConfiguration());
+            }
+            pendingElement.attributes.addAttribute(nameCode, typeCode, value.toString(), locationId, properties);
+        }
+    }
+
+    public void startContent() throws XPathException {
+        if (skipDepth > 0) {
+            // no action
+        } else if (subtreeBuilder != null) {
+            subtreeBuilder.startContent();
+        } else {
+            Frame f = pendingElement;
+            pendingElement = null;
+            startNode(f);
+        }
+    }
+
+    public void endElement() throws XPathException {
+        if (skipDepth > 0) {
+            skipDepth--;
+        } else if (subtreeBuilder != null) {
+            subtreeBuilder.endElement();
+            if (--subtreeDepth == 0) {
+                finishSubtree();
+            }
+        } else {
+            endNode();
+        }
+    }
+
+    public void characters(CharSequence chars, int locationId, int properties) throws XPathException {
+        if (skipDepth > 0) {
+            // no action
+        } else if (subtreeBuilder != null) {
+            subtreeBuilder.characters(chars, locationId, properties);
+        } else {
+            if (pendingText.length() == 0) {
+                pendingTextLocation = locationId;
+            }
+            pendingText.append(chars);
+        }
+    }
+
+    public void processingInstruction(String name, CharSequence data, int locationId, int properties)
+            throws XPathException {
+        if (skipDepth > 0) {
+            // no action
+        } else if (subtreeBuilder != null) {
+            subtreeBuilder.processingInstruction(name, data, locationId, properties);
+        } else {
+            flushText();
+            Frame parent = currentFrame();
+            if (parent.nodeTest != null || parent.mode.hasRulesForNodeKind(Type.PROCESSING_INSTRUCTION)) {
+                TinyBuilder builder = startStub();
+                builder.processingInstruction(name, data, locationId, properties);
+                applyTemplates(finishStub(builder, frames.size()), parent);
+            }
+        }
+    }
+
+    public void comment(CharSequence content, int locationId, int properties) throws XPathException {
+        if (skipDepth > 0) {
+            // no action
+        } else if (subtreeBuilder != null) {
+            subtreeBuilder.comment(content, locationId, properties);
+        } else {
+            flushText();
+            Frame parent = currentFrame();
+            if (parent.nodeTest != null || parent.mode.hasRulesForNodeKind(Type.COMMENT)) {
+                TinyBuilder builder = startStub();
+                builder.comment(content, locationId, properties);
+                applyTemplates(finishStub(builder, frames.size()), parent);
+            }
+        }
+    }
+
+    public void close() throws XPathException {
+        // no action
+    }
+
+    public boolean usesTypeAnnotations() {
+        return false;
+    }
+
+    /**
+     * Get the frame for the node whose children are currently being processed
+     * @return the innermost open frame, or the initial frame if the document node has not yet been notified
+     */
+
+    private Frame currentFrame() {
+        return (frames.isEmpty() ? top : frames.get(frames.size() - 1));
+    }
+
+    /**
+     * Process a text node, consisting of all the character data notified since the last event of any other kind
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    private void flushText() throws XPathException {
+        if (pendingText.length() == 0) {
+            return;
+        }
+        String text = pendingText.toString();
+        pendingText.setLength(0);
+        Frame parent = currentFrame();
+        if (parent.nodeTest == null && !parent.mode.hasRulesForNodeKind(Type.TEXT)) {
+            // short cut: the built-in template rule copies the text to the result
+            parent.context.getReceiver().characters(text, 0, 0);
+            return;
+        }
+        TinyBuilder builder = startStub();
+        builder.characters(text, pendingTextLocation, 0);
+        applyTemplates(finishStub(builder, frames.size()), parent);
+    }
+
+    /**
+     * Apply template rules to a node that has no children: a text, comment, or processing instruction node
+     * @param node the node, in a stub tree
+     * @param parent the frame for the parent of the node
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    private void applyTemplates(NodeInfo node, Frame parent) throws XPathException {
+        if (parent.nodeTest != null && !parent.nodeTest.matches(node)) {
+            return;
+        }
+        XPathContextMajor c2 = parent.context.newContext();
+        c2.setCurrentMode(parent.mode);
+        setFocus(c2, node);
+        Rule rule = parent.mode.getRule(node, c2);
+        if (rule == null) {
+            ApplyTemplates.defaultAction(node, parent.params, parent.tunnelParams, c2, 0);
+        } else {
+            Template template = (Template)rule.getAction();
+            prepareContext(c2, rule, template, parent);
+            applyTemplate(template, c2);
+        }
+    }
+
+    /**
+     * Process an element or document node whose start tag (including attributes and namespaces) is complete
+     * @param f the frame for the new node
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    private void startNode(Frame f) throws XPathException {
+        Frame parent = currentFrame();
+        int kind = (f.nameCode == -1 ? Type.DOCUMENT : Type.ELEMENT);
+        if (parent.nodeTest != null &&
+                !parent.nodeTest.matches(kind, f.nameCode & NamePool.FP_MASK, f.typeCode)) {
+            skipDepth = 1;
+            return;
+        }
+        NodeInfo node;
+        if (kind == Type.DOCUMENT) {
+            TinyBuilder builder = startStub();
+            node = finishStub(builder, 0);
+        } else {
+            TinyBuilder builder = startStub();
+            f.replayStartTag(builder);
+            builder.endElement();
+            node = finishStub(builder, frames.size());
+        }
+        XPathContextMajor c2 = parent.context.newContext();
+        c2.setCurrentMode(parent.mode);
+        setFocus(c2, node);
+        Rule rule = parent.mode.getRule(node, c2);
+        if (rule == null) {
+            // built-in template rule: process the children in the same mode, passing the parameters on
+            c2.setOriginatingConstructType(Location.BUILT_IN_TEMPLATE);
+            f.context = c2;
+            f.mode = parent.mode;
+            f.params = parent.params;
+            f.tunnelParams = parent.tunnelParams;
+            frames.add(f);
+            return;
+        }
+        Template template = (Template)rule.getAction();
+        prepareContext(c2, rule, template, parent);
+        TemplateInversion inversion = template.getInversion();
+        switch (inversion == null ? TemplateInversion.GROUNDED : inversion.getKind()) {
+            case TemplateInversion.MOTIONLESS:
+                applyTemplate(template, c2);
+                skipDepth = 1;
+                break;
+            case TemplateInversion.STREAMED:
+                TemplateInversion.Activation activation = inversion.processLeft(c2);
+                if (activation == null) {
+                    skipDepth = 1;
+                } else {
+                    f.context = c2;
+                    f.inversion = inversion;
+                    f.activation = activation;
+                    f.mode = activation.getMode();
+                    f.nodeTest = activation.getNodeTest();
+                    f.params = activation.getParameters();
+                    f.tunnelParams = activation.getTunnelParameters();
+                    frames.add(f);
+                }
+                break;
+            default:
+                // grounded: build the subtree, and evaluate the template once it is complete
+                f.context = c2;
+                f.template = template;
+                subtreeFrame = f;
+                subtreeBuilder = startTree(null);
+                f.replayStartTag(subtreeBuilder);
+                subtreeDepth = 1;
+        }
+    }
+
+    /**
+     * Process the end of an element or document node whose children were processed in streaming mode
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    private void endNode() throws XPathException {
+        flushText();
+        Frame f = frames.remove(frames.size() - 1);
+        if (f.activation != null) {
+            f.inversion.processRight(f.activation);
+        }
+    }
+
+    /**
+     * Evaluate a grounded template once the subtree rooted at its context node has been built
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    private void finishSubtree() throws XPathException {
+        Frame f = subtreeFrame;
+        TinyBuilder builder = subtreeBuilder;
+        subtreeFrame = null;
+        subtreeBuilder = null;
+        NodeInfo node = finishStub(builder, (f.nameCode == -1 ? 0 : frames.size()));
+        setFocus(f.context, node);
+        applyTemplate(f.template, f.context);
+    }
+
+    private void prepareContext(XPathContextMajor c2, Rule rule, Template template, Frame parent) {
+        c2.openStackFrame(template.getStackFrameMap());
+        c2.setLocalParameters(parent.params);
+        c2.setTunnelParameters(parent.tunnelParams);
+        c2.setOriginatingConstructType(Location.TEMPLATE);
+        c2.setCurrentTemplateRule(rule);
+    }
+
+    private static void setFocus(XPathContextMajor context, NodeInfo node) {
+        UnfailingIterator iter = SingletonIterator.makeIterator(node);
+        iter.next();
+        context.setCurrentIterator(iter);
+    }
+
+    private static void applyTemplate(Template template, XPathContextMajor context) throws XPathException {
+        TailCall tc = template.applyLeavingTail(context);
+        while (tc != null) {
+            tc = tc.processLeavingTail();
+        }
+    }
+
+    /**
+     * Start a small tree holding the start tags of the open elements, to which a single node is then added
+     * @return the builder for the tree
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    private TinyBuilder startStub() throws XPathException {
+        return startTree(STUB_SIZE);
+    }
+
+    /**
+     * Start a tree holding the start tags of the open elements
+     * @param sizes the size parameters for the tree, or null to use the defaults
+     * @return the builder for the tree
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    private TinyBuilder startTree(int[] sizes) throws XPathException {
+        TinyBuilder builder = new TinyBuilder();
+        if (sizes != null) {
+            builder.setSizeParameters(sizes);
+        }
+        builder.setPipelineConfiguration(pipe);
+        builder.setSystemId(systemId);
+        builder.open();
+        builder.startDocument(0);
+        for (int i=0; i<frames.size(); i++) {
+            frames.get(i).replayStartTag(builder);
+        }
+        return builder;
+    }
+
+    /**
+     * Complete a tree started using {@link #startTree}, and locate the node that was added to it
+     * @param builder the builder for the tree
+     * @param depth the depth of the required node: zero for the document node, and otherwise one more
+     * than the number of open elements
+     * @return the required node
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    private NodeInfo finishStub(TinyBuilder builder, int depth) throws XPathException {
+        for (int i=frames.size()-1; i>=0; i--) {
+            if (frames.get(i).nameCode != -1) {
+                builder.endElement();
+            }
+        }
+        builder.endDocument();
+        builder.close();
+        NodeInfo node = builder.getCurrentRoot();
+        for (int i=0; i<depth; i++) {
+            node = (NodeInfo)node.iterateAxis(Axis.CHILD).next();
+        }
+        return node;
+    }
+
+    /**
+     * The information maintained for an element or document node: its start tag, and the way in which
+     * its children are being processed
+     */
+
+    private static class Frame {
+        int nameCode = -1;
+        int typeCode;
+        int locationId;
+        int properties;
+        int[] namespaces;
+        int namespaceCount = 0;
+        AttributeCollectionImpl attributes;
+
+        XPathContextMajor context;
+        Mode mode;
+        NodeTest nodeTest;
+        ParameterSet params;
+        ParameterSet tunnelParams;
+        TemplateInversion inversion;
+        TemplateInversion.Activation activation;
+        Template template;
+
+        void addNamespace(int nscode) {
+            if (namespaces == null) {
+                namespaces = new int[4];
+            } else if (namespaceCount == namespaces.length) {
+                int[] n2 = new int[namespaceCount * 2];
+                System.arraycopy(namespaces, 0, n2, 0, namespaceCount);
+                namespaces = n2;
+            }
+            namespaces[namespaceCount++] = nscode;
+        }
+
+        /**
+         * Send the start tag of the element to a receiver. Nothing is sent for a document node.
+         * @param out the receiver
+         * @throws XPathException if a dynamic error occurs
+         */
+
+        void replayStartTag(Receiver out) throws XPathException {
+            if (nameCode == -1) {
+                return;
+            }
+            out.startElement(nameCode, typeCode, locationId, properties);
+            for (int i=0; i<namespaceCount; i++) {
+                out.namespace(namespaces[i], 0);
+            }
+            if (attributes != null) {
+                for (int i=0; i<attributes.getLength(); i++) {
+                    out.attribute(attributes.getNameCode(i), attributes.getTypeAnnotation(i),
+                            attributes.getValue(i), attributes.getLocationId(i), attributes.getProperties(i));
+                }
+            }
+            out.startContent();
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,209 @@
+package net.sf.saxon.instruct;
+
+import net.sf.saxon.expr.ComparisonExpression;
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.expr.ExpressionTool;
+import net.sf.saxon.expr.ExpressionVisitor;
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.trace.ExpressionPresenter;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.ItemType;
+import net.sf.saxon.value.StringValue;
+
+import java.util.HashMap;
+
+/**
+ * A Switch is a conditional expression (xsl:choose, or a chain of XQuery if-then-else expressions) in which
+ * every condition compares the same expression, the subject, with one or more string literals: for example
+ * <code>xsl:when test="@code = 'X'"</code>. Instead of evaluating the conditions in turn, the Switch evaluates
+ * the subject once and looks up its value in a hash table that maps each literal to the first branch that
+ * tests for it, so the time taken to select a branch does not depend on the number of branches.
+ *
+ * <p>The class is created by the {@link net.sf.saxon.expr.Optimizer#trySwitch} method. It retains the original
+ * conditions, which are evaluated in the ordinary way if the value of the subject turns out at run-time not
+ * to be a string (or untyped atomic value or URI). This ensures that the results, including any type errors,
+ * are the same as for the original conditional expression.</p>
+ */
+
+public class Switch extends Choose {
+
+    private HashMap<String, Integer> index;
+    private boolean subjectIsFirstOperand;
+    private boolean singletonSubject;
+    private boolean hasDefault;
+
+    /**
+     * Create a Switch
+     * @param conditions the conditions to be tested, in order. Each condition, except possibly the last,
+     * must be a comparison of the subject with a literal
+     * @param actions the actions to be taken when the corresponding condition is true
+     * @param index a map from the value of each literal to the (zero-based) number of the first
+     * condition that compares the subject with that literal
+     * @param subjectIsFirstOperand true if the subject is the first operand of the comparison in the
+     * first condition, false if it is the second operand
+     * @param singletonSubject true if the conditions are value comparisons (using "eq"), so that
+     * the subject must be a single item
+     * @param hasDefault true if the last condition is the constant true() (an xsl:otherwise branch)
+     */
+
+    public Switch(Expression[] conditions, Expression[] actions,
+                  HashMap<String, Integer> index, boolean subjectIsFirstOperand,
+                  boolean singletonSubject, boolean hasDefault) {
+        super(conditions, actions);
+        this.index = index;
+        this.subjectIsFirstOperand = subjectIsFirstOperand;
+        this.singletonSubject = singletonSubject;
+        this.hasDefault = hasDefault;
+    }
+
+    /**
+     * Type-check the expression. If this causes any of the conditions to be rewritten, the expression
+     * reverts to an ordinary Choose, since the hash table might no longer be valid; the optimizer
+     * will then decide afresh whether a switch can be used.
+     */
+
+    public Expression typeCheck(ExpressionVisitor visitor, ItemType contextItemType) throws XPathException {
+        Expression[] original = getConditions().clone();
+        Expression e = super.typeCheck(visitor, contextItemType);
+        if (e == this && !conditionsUnchanged(original)) {
+            Choose choose = new Choose(getConditions(), getActions());
+            ExpressionTool.copyLocationInfo(this, choose);
+            return choose;
+        }
+        return e;
+    }
+
+    /**
+     * Optimize the expression. If this causes any of the conditions to be rewritten, the optimizer
+     * decides afresh whether a switch can be used.
+     */
+
+    public Expression optimize(ExpressionVisitor visitor, ItemType contextItemType) throws XPathException {
+        Expression[] original = getConditions().clone();
+        Expression e = super.optimize(visitor, contextItemType);
+        if (e == this && !conditionsUnchanged(original)) {
+            Choose choose = new Choose(getConditions(), getActions());
+            ExpressionTool.copyLocationInfo(this, choose);
+            return visitor.getConfiguration().getOptimizer().trySwitch(choose, visitor.getStaticContext());
+        }
+        return e;
+    }
+
+    private boolean conditionsUnchanged(Expression[] original) {
+        Expression[] conditions = getConditions();
+        if (conditions.length != original.length) {
+            return false;
+        }
+        for (int i=0; i<conditions.length; i++) {
+            if (conditions[i] != original[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy an expression. This makes a deep copy.
+     * @return the copy of the original expression
+     */
+
+    public Expression copy() {
+        Expression[] conditions = getConditions();
+        Expression[] actions = getActions();
+        Expression[] c2 = new Expression[conditions.length];
+        Expression[] a2 = new Expression[conditions.length];
+        for (int c=0; c<conditions.length; c++) {
+            c2[c] = conditions[c].copy();
+            a2[c] = actions[c].copy();
+        }
+        return new Switch(c2, a2, index, subjectIsFirstOperand, singletonSubject, hasDefault);
+    }
+
+    /**
+     * Decide which branch of the conditional is to be evaluated, by looking up the value of
+     * the subject in the hash table
+     * @param context the dynamic evaluation context
+     * @return the index of the first condition that is true, or -1 if none of the conditions is true
+     * @throws XPathException if a dynamic error occurs evaluating the subject
+     */
+
+    protected int choose(XPathContext context) throws XPathException {
+        Expression[] conditions = getConditions();
+        Expression first = conditions[0];
+        if (!(first instanceof ComparisonExpression)) {
+            // the first condition has been rewritten, for example by promoting it out of a loop
+            return super.choose(context);
+        }
+        Expression subject = ((ComparisonExpression)first).getOperands()[subjectIsFirstOperand ? 0 : 1];
+        int branch = Integer.MAX_VALUE;
+        int count = 0;
+        try {
+            SequenceIterator iter = subject.iterate(context);
+            while (true) {
+                Item item = iter.next();
+                if (item == null) {
+                    break;
+                }
+                if (!(item instanceof StringValue) || (singletonSubject && ++count > 1)) {
+                    // let the conditions report any type error
+                    iter.close();
+                    return super.choose(context);
+                }
+                Integer b = index.get(((StringValue)item).getStringValue());
+                if (b != null && b.intValue() < branch) {
+                    branch = b.intValue();
+                }
+            }
+        } catch (XPathException e) {
+            e.maybeSetLocation(first);
+            throw e;
+        }
+        if (branch != Integer.MAX_VALUE) {
+            return branch;
+        } else {
+            return (hasDefault ? conditions.length - 1 : -1);
+        }
+    }
+
+    /**
+     * Diagnostic print of expression structure. The abstract expression tree
+     * is written to the supplied output destination.
+     */
+
+    public void explain(ExpressionPresenter out) {
+        Expression[] conditions = getConditions();
+        Expression[] actions = getActions();
+        out.startElement("switch");
+        out.emitAttribute("cases", index.size() + "");
+        for (int i=0; i<conditions.length; i++) {
+            out.startSubsidiaryElement("when");
+            conditions[i].explain(out);
+            out.endSubsidiaryElement();
+            out.startSubsidiaryElement("then");
+            actions[i].explain(out);
+            out.endSubsidiaryElement();
+        }
+        out.endElement();
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
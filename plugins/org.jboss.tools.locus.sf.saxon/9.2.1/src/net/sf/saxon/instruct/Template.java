@@ -37,6 +37,7 @@ public class Template extends Procedure implements RuleTarget {
     private boolean bodyIsTailCallReturner;
     private SequenceType requiredType;
     private boolean streamable;
+    private TemplateInversion inversion;
 
     /**
      * Create a template
@@ -186,6 +187,26 @@ public class Template extends Procedure implements RuleTarget {
         return streamable;
     }
 
+    /**
+     * Set the inversion of this template, which determines how it is evaluated when the input
+     * document is streamed
+     * @param inversion the result of analyzing the template body for streaming
+     */
+
+    public void setInversion(TemplateInversion inversion) {
+        this.inversion = inversion;
+    }
+
+    /**
+     * Get the inversion of this template
+     * @return the inversion of this template, or null if the template does not belong to a
+     * streamable mode
+     */
+
+    public TemplateInversion getInversion() {
+        return inversion;
+    }
+
     /**
      * Get the local parameter with a given parameter id
      * @param id the parameter id
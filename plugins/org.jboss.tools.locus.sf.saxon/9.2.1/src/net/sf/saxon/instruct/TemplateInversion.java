@@ -0,0 +1,668 @@
+package net.sf.saxon.instruct;
+
+import net.sf.saxon.expr.*;
+import net.sf.saxon.functions.NamePart;
+import net.sf.saxon.om.Axis;
+import net.sf.saxon.pattern.*;
+import net.sf.saxon.trans.Mode;
+import net.sf.saxon.trans.RuleTarget;
+import net.sf.saxon.trans.SaxonErrorCode;
+import net.sf.saxon.trans.XPathException;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A TemplateInversion holds the result of analyzing a template rule in a streamable mode, to decide how
+ * the template can be evaluated when the source document is supplied as a stream of events rather than as a
+ * tree. The analysis puts the template into one of three categories:
+ *
+ * <ul>
+ * <li>MOTIONLESS: the template needs to know nothing about the context node other than its name, its attributes
+ * and namespaces, and the names and attributes of its ancestors. The template is evaluated when the start tag of
+ * the element is notified, and the content of the element is then skipped.</li>
+ * <li>STREAMED: the body of the template contains exactly one xsl:apply-templates instruction that selects the
+ * children of the context node, in the current mode or another streamable mode; everything else in the body is
+ * motionless, and the apply-templates instruction is reached only through constructs that can be split into
+ * a part executed before the children and a part executed after them (literal result elements, xsl:element,
+ * xsl:copy, xsl:document, local variables, sequences of instructions, and conditionals whose conditions are
+ * motionless). The part before the children is evaluated at the start tag, the children are then processed
+ * as they are read, and the rest of the template is evaluated at the end tag.</li>
+ * <li>GROUNDED: the template navigates only within the subtree rooted at the context node. The subtree is
+ * built in memory while it is read, and the template is evaluated against it in the ordinary way.</li>
+ * </ul>
+ *
+ * <p>A template that fits none of these categories cannot be used in a streamable mode, and is reported
+ * as a static error (SXST0060). The same rules apply to the predicates in the match pattern, which must be
+ * motionless and must not be positional.</p>
+ *
+ * <p>Ancestors of the context node are visible to a streamed template, but only with their names and
+ * attributes: their children and string values are not available.</p>
+ */
+
+public class TemplateInversion implements Serializable {
+
+    /**
+     * The template needs no access to the children of the context node
+     */
+
+    public static final int MOTIONLESS = 0;
+
+    /**
+     * The template processes the children of the context node using a single xsl:apply-templates instruction
+     */
+
+    public static final int STREAMED = 1;
+
+    /**
+     * The template needs access to the whole subtree rooted at the context node
+     */
+
+    public static final int GROUNDED = 2;
+
+    private static final int NO_HOLE = 0;
+    private static final int HOLE = 1;
+    private static final int NOT_STREAMABLE = 2;
+
+    private Template template;
+    private int kind;
+    private IdentityHashMap<Expression, Expression> path;
+
+    private TemplateInversion(Template template) {
+        this.template = template;
+    }
+
+    /**
+     * Analyze a template rule in a streamable mode
+     * @param template the template rule to be analyzed
+     * @return a TemplateInversion indicating how the template is to be evaluated against streamed input
+     * @throws XPathException if the template cannot be evaluated against streamed input
+     */
+
+    public static TemplateInversion makeInversion(Template template) throws XPathException {
+        TemplateInversion inv = new TemplateInversion(template);
+        Pattern pattern = template.getMatchPattern();
+        if (pattern != null && !inv.isStreamablePattern(pattern)) {
+            throw inv.notStreamable("The match pattern is not streamable: it must not use positional " +
+                    "predicates, and its predicates must not refer to the children or string value of the node");
+        }
+        Expression body = template.getBody();
+        if (body == null) {
+            inv.kind = MOTIONLESS;
+            return inv;
+        }
+        inv.path = new IdentityHashMap<Expression, Expression>();
+        int state = inv.analyze(body);
+        if (state == NO_HOLE) {
+            inv.kind = MOTIONLESS;
+            inv.path = null;
+        } else if (state == HOLE) {
+            inv.kind = STREAMED;
+        } else if (inv.isGrounded(body, new HashSet<Procedure>())) {
+            inv.kind = GROUNDED;
+            inv.path = null;
+        } else {
+            throw inv.notStreamable("The template body navigates outside the subtree rooted at the context node");
+        }
+        return inv;
+    }
+
+    /**
+     * Get the way in which the template is evaluated against streamed input
+     * @return one of {@link #MOTIONLESS}, {@link #STREAMED}, or {@link #GROUNDED}
+     */
+
+    public int getKind() {
+        return kind;
+    }
+
+    /**
+     * Get the template rule that this inversion applies to
+     * @return the template rule
+     */
+
+    public Template getTemplate() {
+        return template;
+    }
+
+    private XPathException notStreamable(String reason) {
+        XPathException err = new XPathException("Template rule is not streamable. " + reason);
+        err.setErrorCode(SaxonErrorCode.SXST0060);
+        err.setLocator(template);
+        err.setIsStaticError(true);
+        return err;
+    }
+
+    /**
+     * Test whether a match pattern can be evaluated against a node of a streamed document
+     * @param pattern the pattern to be tested
+     * @return true if the pattern uses no positional predicates, and its predicates are motionless
+     */
+
+    private boolean isStreamablePattern(Pattern pattern) {
+        if (pattern instanceof UnionPattern) {
+            return isStreamablePattern(((UnionPattern)pattern).getLHS()) &&
+                    isStreamablePattern(((UnionPattern)pattern).getRHS());
+        } else if (pattern instanceof LocationPathPattern) {
+            LocationPathPattern lpp = (LocationPathPattern)pattern;
+            if (lpp.hasPositionalFilter()) {
+                return false;
+            }
+            Expression[] filters = lpp.getFilters();
+            if (filters != null) {
+                for (int i=0; i<filters.length; i++) {
+                    if (filters[i] != null && !isMotionless(filters[i], new HashSet<Procedure>())) {
+                        return false;
+                    }
+                }
+            }
+            return (lpp.getParentPattern() == null || isStreamablePattern(lpp.getParentPattern())) &&
+                    (lpp.getAncestorPattern() == null || isStreamablePattern(lpp.getAncestorPattern()));
+        } else {
+            return pattern instanceof NodeTestPattern;
+        }
+    }
+
+    /**
+     * Analyze an expression on the path from the template body to the apply-templates instruction
+     * that processes the children
+     * @param exp the expression to be analyzed
+     * @return NO_HOLE if the expression is motionless, HOLE if it contains an apply-templates instruction
+     * that can process the children in streaming mode, NOT_STREAMABLE otherwise
+     */
+
+    private int analyze(Expression exp) {
+        if (exp instanceof ApplyTemplates && isStreamedApplyTemplates((ApplyTemplates)exp)) {
+            path.put(exp, exp);
+            return HOLE;
+        } else if (exp instanceof Block) {
+            Expression[] children = ((Block)exp).getChildren();
+            int state = NO_HOLE;
+            for (int i=0; i<children.length; i++) {
+                int s = analyze(children[i]);
+                if (s == NOT_STREAMABLE || (s == HOLE && state == HOLE)) {
+                    return NOT_STREAMABLE;
+                }
+                if (s == HOLE) {
+                    state = HOLE;
+                }
+            }
+            if (state == HOLE) {
+                path.put(exp, exp);
+            }
+            return state;
+        } else if (exp instanceof Choose && !(exp instanceof Switch)) {
+            Expression[] conditions = ((Choose)exp).getConditions();
+            Expression[] actions = ((Choose)exp).getActions();
+            for (int i=0; i<conditions.length; i++) {
+                if (!isMotionless(conditions[i], new HashSet<Procedure>())) {
+                    return NOT_STREAMABLE;
+                }
+            }
+            int state = NO_HOLE;
+            for (int i=0; i<actions.length; i++) {
+                int s = analyze(actions[i]);
+                if (s == NOT_STREAMABLE) {
+                    return NOT_STREAMABLE;
+                }
+                if (s == HOLE) {
+                    state = HOLE;
+                }
+            }
+            if (state == HOLE) {
+                path.put(exp, exp);
+            }
+            return state;
+        } else if (exp instanceof ParentNodeConstructor || exp instanceof LetExpression) {
+            Expression content = (exp instanceof LetExpression ?
+                    ((LetExpression)exp).getAction() :
+                    ((ParentNodeConstructor)exp).getContentExpression());
+            for (Iterator<Expression> it = exp.iterateSubExpressions(); it.hasNext();) {
+                Expression sub = it.next();
+                if (sub != content && !isMotionless(sub, new HashSet<Procedure>())) {
+                    return NOT_STREAMABLE;
+                }
+            }
+            int state = analyze(content);
+            if (state == HOLE) {
+                path.put(exp, exp);
+            }
+            return state;
+        } else {
+            return (isMotionless(exp, new HashSet<Procedure>()) ? NO_HOLE : NOT_STREAMABLE);
+        }
+    }
+
+    /**
+     * Test whether an apply-templates instruction can process the children of the context node
+     * as they are read from the input stream
+     * @param at the apply-templates instruction
+     * @return true if it selects children of the context node, in a streamable mode, with motionless parameters
+     */
+
+    private boolean isStreamedApplyTemplates(ApplyTemplates at) {
+        Expression select = at.getSelectExpression();
+        if (!(select instanceof AxisExpression && ((AxisExpression)select).getAxis() == Axis.CHILD)) {
+            return false;
+        }
+        if (!(at.usesCurrentMode() || at.getMode().isStreamable())) {
+            return false;
+        }
+        for (Iterator<Expression> it = at.iterateSubExpressions(); it.hasNext();) {
+            Expression sub = it.next();
+            if (sub != select && !isMotionless(sub, new HashSet<Procedure>())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Test whether an expression is motionless: that is, whether it can be evaluated knowing only the
+     * name, attributes, and namespaces of the context node, and the names and attributes of its ancestors
+     * @param exp the expression to be tested
+     * @param visited procedures (named templates and attribute sets) that have already been examined;
+     * these are assumed to be motionless, to prevent infinite recursion
+     * @return true if the expression is motionless
+     */
+
+    private boolean isMotionless(Expression exp, HashSet<Procedure> visited) {
+        if (exp instanceof AxisExpression) {
+            byte axis = ((AxisExpression)exp).getAxis();
+            return axis == Axis.ATTRIBUTE || axis == Axis.NAMESPACE;
+        } else if (exp instanceof ContextItemExpression) {
+            return false;
+        } else if (exp instanceof ApplyImports || exp instanceof NextMatch) {
+            return false;
+        } else if (exp instanceof ApplyTemplates) {
+            ApplyTemplates at = (ApplyTemplates)exp;
+            if (!at.usesCurrentMode() && !at.getMode().isStreamable() &&
+                    !areTemplatesGrounded(at.getMode(), new HashSet<Procedure>())) {
+                return false;
+            }
+            return areSubExpressionsMotionless(exp, visited);
+        } else if (exp instanceof CallTemplate) {
+            Template target = ((CallTemplate)exp).getStaticTarget();
+            if (target == null) {
+                return false;
+            }
+            if (!visited.contains(target)) {
+                visited.add(target);
+                if (target.getBody() != null && !isMotionless(target.getBody(), visited)) {
+                    return false;
+                }
+            }
+            return areSubExpressionsMotionless(exp, visited);
+        } else if (exp instanceof UseAttributeSets) {
+            return areAttributeSetsMotionless(((UseAttributeSets)exp).getAttributeSets(), visited);
+        } else if (exp instanceof NamePart) {
+            Expression[] args = ((NamePart)exp).getArguments();
+            if (args.length == 1 && args[0] instanceof ContextItemExpression) {
+                return true;
+            }
+        } else if (exp instanceof Copy) {
+            return areSubExpressionsMotionless(exp, visited);
+        }
+        if ((exp.getIntrinsicDependencies() &
+                (StaticProperty.DEPENDS_ON_FOCUS | StaticProperty.DEPENDS_ON_CURRENT_ITEM)) != 0) {
+            return false;
+        }
+        return areSubExpressionsMotionless(exp, visited);
+    }
+
+    private boolean areSubExpressionsMotionless(Expression exp, HashSet<Procedure> visited) {
+        List<Expression> sameFocus = new ArrayList<Expression>(4);
+        for (Iterator<Expression> it = exp.iterateSameFocusSubExpressions(); it.hasNext();) {
+            sameFocus.add(it.next());
+        }
+        for (Iterator<Expression> it = exp.iterateSubExpressions(); it.hasNext();) {
+            Expression sub = it.next();
+            if (containsIdentical(sameFocus, sub)) {
+                if (!isMotionless(sub, visited)) {
+                    return false;
+                }
+            } else {
+                // the subexpression is evaluated with a different focus, consisting of nodes selected by
+                // a motionless expression, that is, attributes and namespaces of the nodes on the ancestor
+                // path. These nodes have no children, so any expression that stays within the subtree
+                // of its context node is acceptable.
+                if (!isGrounded(sub, new HashSet<Procedure>())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean areAttributeSetsMotionless(AttributeSet[] sets, HashSet<Procedure> visited) {
+        if (sets == null) {
+            return true;
+        }
+        for (int i=0; i<sets.length; i++) {
+            if (!visited.contains(sets[i])) {
+                visited.add(sets[i]);
+                if (sets[i].getBody() != null && !isMotionless(sets[i].getBody(), visited)) {
+                    return false;
+                }
+                if (!areAttributeSetsMotionless(sets[i].getUseAttributeSets(), visited)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Test whether an expression is grounded: that is, whether it can be evaluated knowing only the
+     * subtree rooted at the context node (together with the names and attributes of its ancestors)
+     * @param exp the expression to be tested
+     * @param visited procedures (named templates, attribute sets, and template rules) that have already
+     * been examined; these are assumed to be grounded, to prevent infinite recursion
+     * @return true if the expression is grounded
+     */
+
+    private boolean isGrounded(Expression exp, HashSet<Procedure> visited) {
+        if (exp instanceof AxisExpression) {
+            return Axis.isSubtreeAxis[((AxisExpression)exp).getAxis()];
+        } else if (exp instanceof ParentNodeExpression) {
+            // ".." is not an AxisExpression, but like the parent axis it leaves the subtree
+            return false;
+        } else if (exp instanceof ApplyTemplates) {
+            ApplyTemplates at = (ApplyTemplates)exp;
+            if (!at.usesCurrentMode() && !at.getMode().isStreamable() &&
+                    !areTemplatesGrounded(at.getMode(), visited)) {
+                return false;
+            }
+            return areSubExpressionsGrounded(exp, visited);
+        } else if (exp instanceof CallTemplate) {
+            Template target = ((CallTemplate)exp).getStaticTarget();
+            if (target == null) {
+                return false;
+            }
+            if (!visited.contains(target)) {
+                visited.add(target);
+                if (target.getBody() != null && !isGrounded(target.getBody(), visited)) {
+                    return false;
+                }
+            }
+            return areSubExpressionsGrounded(exp, visited);
+        } else if (exp instanceof ApplyImports || exp instanceof NextMatch) {
+            // the template rules invoked are in the same (streamable) mode, and are checked in their own right
+            return areSubExpressionsGrounded(exp, visited);
+        } else if (exp instanceof UseAttributeSets) {
+            return areAttributeSetsGrounded(((UseAttributeSets)exp).getAttributeSets(), visited);
+        } else if (exp instanceof NumberInstruction) {
+            return false;
+        }
+        if ((exp.getIntrinsicDependencies() &
+                (StaticProperty.DEPENDS_ON_CONTEXT_DOCUMENT |
+                 StaticProperty.DEPENDS_ON_POSITION |
+                 StaticProperty.DEPENDS_ON_LAST)) != 0) {
+            return false;
+        }
+        return areSubExpressionsGrounded(exp, visited);
+    }
+
+    private boolean areSubExpressionsGrounded(Expression exp, HashSet<Procedure> visited) {
+        for (Iterator<Expression> it = exp.iterateSubExpressions(); it.hasNext();) {
+            if (!isGrounded(it.next(), visited)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean areAttributeSetsGrounded(AttributeSet[] sets, HashSet<Procedure> visited) {
+        if (sets == null) {
+            return true;
+        }
+        for (int i=0; i<sets.length; i++) {
+            if (!visited.contains(sets[i])) {
+                visited.add(sets[i]);
+                if (sets[i].getBody() != null && !isGrounded(sets[i].getBody(), visited)) {
+                    return false;
+                }
+                if (!areAttributeSetsGrounded(sets[i].getUseAttributeSets(), visited)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean areTemplatesGrounded(Mode mode, HashSet<Procedure> visited) {
+        List<RuleTarget> targets = mode.getRuleTargets();
+        for (int i=0; i<targets.size(); i++) {
+            RuleTarget target = targets.get(i);
+            if (target instanceof Template) {
+                Template t = (Template)target;
+                if (!visited.contains(t)) {
+                    visited.add(t);
+                    if (t.getBody() != null && !isGrounded(t.getBody(), visited)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsIdentical(List<Expression> list, Expression exp) {
+        for (int i=0; i<list.size(); i++) {
+            if (list.get(i) == exp) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * For a STREAMED template, evaluate the part of the template body that precedes the processing of
+     * the children of the context node
+     * @param context the context for evaluating the template: the focus is set to the context node, the
+     * stack frame is allocated, and the parameters are available
+     * @return an Activation holding the state needed to evaluate the rest of the template body after the
+     * children have been processed, or null if the evaluation of the template body finished without reaching
+     * the xsl:apply-templates instruction, in which case the children are not needed.
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    public Activation processLeft(XPathContextMajor context) throws XPathException {
+        Activation activation = new Activation(context);
+        if (left(template.getBody(), activation)) {
+            return activation;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * For a STREAMED template, evaluate the part of the template body that follows the processing of
+     * the children of the context node
+     * @param activation the Activation returned by the call on {@link #processLeft}
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    public void processRight(Activation activation) throws XPathException {
+        XPathContext context = activation.context;
+        List<Resume> pending = activation.pending;
+        // the resume points were added innermost first
+        for (int p=0; p<pending.size(); p++) {
+            Resume r = pending.get(p);
+            if (r.instruction instanceof Block) {
+                Expression[] children = ((Block)r.instruction).getChildren();
+                for (int i=r.next; i<children.length; i++) {
+                    children[i].process(context);
+                }
+            } else {
+                ((DivisibleInstruction)r.instruction).processRight(activation.contextStack, activation.state);
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * Evaluate an expression on the path to the apply-templates instruction, up to the point where the
+     * children are needed
+     * @param exp the expression to be evaluated
+     * @param activation the state of the evaluation
+     * @return true if the apply-templates instruction was reached; false if evaluation of the expression
+     * was completed without reaching it
+     * @throws XPathException if a dynamic error occurs
+     */
+
+    private boolean left(Expression exp, Activation activation) throws XPathException {
+        XPathContextMajor context = activation.context;
+        if (!path.containsKey(exp)) {
+            exp.process(context);
+            return false;
+        } else if (exp instanceof ApplyTemplates) {
+            activation.setApplyTemplates((ApplyTemplates)exp);
+            return true;
+        } else if (exp instanceof Block) {
+            Expression[] children = ((Block)exp).getChildren();
+            for (int i=0; i<children.length; i++) {
+                if (left(children[i], activation)) {
+                    if (i+1 < children.length) {
+                        activation.pending.add(new Resume(exp, i+1));
+                    }
+                    return true;
+                }
+            }
+            return false;
+        } else if (exp instanceof Choose) {
+            int i = ((Choose)exp).choose(context);
+            return i >= 0 && left(((Choose)exp).getActions()[i], activation);
+        } else if (exp instanceof LetExpression) {
+            LetExpression let = (LetExpression)exp;
+            context.setLocalVariable(let.getLocalSlotNumber(),
+                    ExpressionTool.eagerEvaluate(let.getSequence(), context));
+            return left(let.getAction(), activation);
+        } else {
+            // a ParentNodeConstructor
+            DivisibleInstruction inst = (DivisibleInstruction)exp;
+            inst.processLeft(activation.contextStack, activation.state);
+            if (left(((ParentNodeConstructor)exp).getContentExpression(), activation)) {
+                activation.pending.add(new Resume(exp, 0));
+                return true;
+            } else {
+                inst.processRight(activation.contextStack, activation.state);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * The state of evaluation of a STREAMED template while the children of its context node are being
+     * processed
+     */
+
+    public static class Activation {
+
+        private XPathContextMajor context;
+        private Stack<XPathContext> contextStack = new Stack<XPathContext>();
+        private Stack state = new Stack();
+        private List<Resume> pending = new ArrayList<Resume>(4);
+        private Mode mode;
+        private NodeTest nodeTest;
+        private ParameterSet parameters;
+        private ParameterSet tunnelParameters;
+
+        private Activation(XPathContextMajor context) {
+            this.context = context;
+            contextStack.push(context);
+        }
+
+        private void setApplyTemplates(ApplyTemplates at) throws XPathException {
+            if (at.usesCurrentMode()) {
+                mode = context.getCurrentMode();
+                if (mode == null) {
+                    mode = context.getController().getRuleManager().getDefaultMode();
+                }
+            } else {
+                mode = at.getMode();
+            }
+            nodeTest = ((AxisExpression)at.getSelectExpression()).getNodeTest();
+            parameters = Instruction.assembleParams(context, at.getActualParams());
+            tunnelParameters = Instruction.assembleTunnelParams(context, at.getTunnelParams());
+        }
+
+        /**
+         * Get the context in which the template is being evaluated
+         * @return the context of the template
+         */
+
+        public XPathContextMajor getContext() {
+            return context;
+        }
+
+        /**
+         * Get the mode in which the children are to be processed
+         * @return the mode used by the xsl:apply-templates instruction
+         */
+
+        public Mode getMode() {
+            return mode;
+        }
+
+        /**
+         * Get the node test used to select the children to be processed
+         * @return the node test, or null if all children are to be processed
+         */
+
+        public NodeTest getNodeTest() {
+            return nodeTest;
+        }
+
+        /**
+         * Get the non-tunnel parameters to be passed to the template rules that process the children
+         * @return the parameters
+         */
+
+        public ParameterSet getParameters() {
+            return parameters;
+        }
+
+        /**
+         * Get the tunnel parameters to be passed to the template rules that process the children
+         * @return the tunnel parameters
+         */
+
+        public ParameterSet getTunnelParameters() {
+            return tunnelParameters;
+        }
+    }
+
+    /**
+     * A point at which evaluation of the template body is to resume once the children have been processed
+     */
+
+    private static class Resume {
+        Expression instruction;
+        int next;
+
+        public Resume(Expression instruction, int next) {
+            this.instruction = instruction;
+            this.next = next;
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -24,6 +24,15 @@ public class UseAttributeSets extends Instruction {
         attributeSets = sets;
     }
 
+    /**
+     * Get the attribute sets to be expanded
+     * @return the attribute sets
+     */
+
+    public AttributeSet[] getAttributeSets() {
+        return attributeSets;
+    }
+
     /**
      * Simplify an expression. This performs any static optimization (by rewriting the expression
      * as a different expression). The default implementation does nothing.
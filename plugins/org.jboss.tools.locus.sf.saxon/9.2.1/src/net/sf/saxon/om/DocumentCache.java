@@ -0,0 +1,355 @@
+package net.sf.saxon.om;
+
+import net.sf.saxon.tinytree.TinyDocumentImpl;
+import net.sf.saxon.tinytree.TinyTree;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of source documents that is shared by all the transformations and queries run under
+ * one {@link net.sf.saxon.Configuration}. Unlike the {@link DocumentPool}, which belongs to a single
+ * {@link net.sf.saxon.Controller} and only ensures that a document is loaded at most once during one
+ * transformation, the DocumentCache allows documents read using the doc() and document() functions
+ * (typically lookup tables) to be reused by later transformations without being parsed again.
+ *
+ * <p>The cache is not used unless it has been registered with the Configuration, using
+ * {@link net.sf.saxon.Configuration#setDocumentCache}. It is bounded both by the number of documents and by
+ * an estimate of the memory they occupy; when either limit is exceeded, the least recently used documents
+ * are discarded. Documents can be removed explicitly by URI, and the cache can optionally check the
+ * modification time of documents held in local files, discarding any document whose file has changed since
+ * it was loaded.</p>
+ *
+ * <p>A document may be built differently depending on the stylesheet or query that reads it
+ * (for example, because of xsl:strip-space declarations or schema validation). For this reason each entry
+ * is identified by the absolute URI of the document together with a "variant" object supplied by the caller,
+ * which represents the options used to build the tree; documents are only shared between callers that supply
+ * equal variants. The variants supplied by the doc() and document() functions include the URIResolvers
+ * and the tree model in use, so entries are shared only between callers that use the same resolvers and
+ * build the same kind of tree.</p>
+ *
+ * <p>All methods are synchronized, so the cache can be used concurrently from many threads. Documents
+ * held in the cache are shared between threads and must not be modified. For this reason only TinyTree
+ * documents are cached: the structures that a TinyTree builds on demand (the index of elements by name and
+ * the preceding-sibling index) are safe for concurrent use, and caching of typed values, which is not, is
+ * disabled when the document is added to the cache. Documents using other tree models are not added.</p>
+ *
+ * @since 9.2
+ */
+
+public final class DocumentCache {
+
+    private int maxEntries;
+    private long maxSize;
+    private boolean checkModificationTime = false;
+    private long currentSize = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    private LinkedHashMap<Key, Entry> map = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    /**
+     * Create a document cache
+     * @param maxEntries the maximum number of documents to be held in the cache
+     * @param maxSize the maximum total size of the documents held in the cache, in bytes, as estimated
+     * by {@link #estimateSize(DocumentInfo)}. Supply -1 to impose no limit on the size.
+     */
+
+    public DocumentCache(int maxEntries, long maxSize) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxSize = (maxSize < 0 ? Long.MAX_VALUE : maxSize);
+    }
+
+    /**
+     * Say whether the modification time of documents loaded from local files should be checked
+     * each time the document is retrieved from the cache. If the file has been modified since the document was
+     * loaded, the entry is discarded, and the document will be parsed again. The default is false.
+     * @param check true if the modification time is to be checked
+     */
+
+    public synchronized void setCheckModificationTime(boolean check) {
+        checkModificationTime = check;
+    }
+
+    /**
+     * Ask whether the modification time of documents loaded from local files is checked
+     * each time the document is retrieved from the cache
+     * @return true if the modification time is checked
+     */
+
+    public synchronized boolean isCheckModificationTime() {
+        return checkModificationTime;
+    }
+
+    /**
+     * Get a document from the cache
+     * @param uri the absolute URI of the document
+     * @param variant an object representing the options used to build the document, or null.
+     * @return the cached document, or null if there is no document in the cache with the given URI and variant
+     */
+
+    public synchronized DocumentInfo find(String uri, Object variant) {
+        Key key = new Key(uri, variant);
+        Entry entry = map.get(key);
+        if (entry != null && checkModificationTime && entry.modified != getModificationTime(uri)) {
+            remove(key);
+            invalidations++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.doc;
+    }
+
+    /**
+     * Add a document to the cache. If this causes the cache to exceed its limits, the least recently
+     * used documents are discarded. A document whose estimated size exceeds the size limit on its own
+     * is not added, nor is a document that is not a TinyTree.
+     * @param uri the absolute URI of the document
+     * @param variant an object representing the options used to build the document, or null.
+     * @param doc the document to be added
+     */
+
+    public synchronized void add(String uri, Object variant, DocumentInfo doc) {
+        if (!(doc instanceof TinyDocumentImpl)) {
+            return;
+        }
+        long size = estimateSize(doc);
+        if (size > maxSize) {
+            return;
+        }
+        ((TinyDocumentImpl)doc).getTree().setTypedValueCaching(false);
+        Key key = new Key(uri, variant);
+        remove(key);
+        Entry entry = new Entry();
+        entry.doc = doc;
+        entry.size = size;
+        entry.modified = (checkModificationTime ? getModificationTime(uri) : -1L);
+        map.put(key, entry);
+        currentSize += size;
+        Iterator<Entry> iter = map.values().iterator();
+        while ((map.size() > maxEntries || currentSize > maxSize) && iter.hasNext()) {
+            Entry eldest = iter.next();
+            iter.remove();
+            currentSize -= eldest.size;
+            evictions++;
+        }
+    }
+
+    /**
+     * Remove all variants of the document with a given URI from the cache
+     * @param uri the absolute URI of the document
+     */
+
+    public synchronized void invalidate(String uri) {
+        Iterator<Map.Entry<Key, Entry>> iter = map.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Key, Entry> e = iter.next();
+            if (e.getKey().uri.equals(uri)) {
+                iter.remove();
+                currentSize -= e.getValue().size;
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Remove all documents from the cache. The statistics are not reset.
+     */
+
+    public synchronized void clear() {
+        map.clear();
+        currentSize = 0;
+    }
+
+    private void remove(Key key) {
+        Entry old = map.remove(key);
+        if (old != null) {
+            currentSize -= old.size;
+        }
+    }
+
+    /**
+     * Get the number of documents currently held in the cache
+     * @return the number of entries
+     */
+
+    public synchronized int getEntryCount() {
+        return map.size();
+    }
+
+    /**
+     * Get the estimated total size of the documents currently held in the cache
+     * @return the estimated size in bytes
+     */
+
+    public synchronized long getEstimatedSize() {
+        return currentSize;
+    }
+
+    /**
+     * Get the number of calls on {@link #find} that returned a document
+     * @return the number of cache hits
+     */
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Get the number of calls on {@link #find} that did not return a document
+     * @return the number of cache misses
+     */
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Get the number of documents that have been discarded to keep the cache within its limits
+     * @return the number of evictions
+     */
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Get the number of documents that have been discarded because they were explicitly invalidated, or
+     * because the file they were loaded from had been modified
+     * @return the number of invalidations
+     */
+
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    /**
+     * Reset the hit, miss, eviction and invalidation counts to zero
+     */
+
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        invalidations = 0;
+    }
+
+    /**
+     * Produce a summary of the cache statistics, for diagnostics
+     * @return a string containing the statistics
+     */
+
+    public synchronized String toString() {
+        return "DocumentCache: " + map.size() + " documents, " + currentSize + " bytes, " +
+                hits + " hits, " + misses + " misses, " + evictions + " evictions, " +
+                invalidations + " invalidations";
+    }
+
+    /**
+     * Estimate the memory occupied by a document. The estimate is based on the sizes of the arrays
+     * used to hold a TinyTree; for other tree models, the size is taken as zero, so that only the
+     * limit on the number of entries applies.
+     * @param doc the document
+     * @return the estimated size of the document in bytes
+     */
+
+    public static long estimateSize(DocumentInfo doc) {
+        if (doc instanceof TinyDocumentImpl) {
+            TinyTree tree = ((TinyDocumentImpl)doc).getTree();
+            CharSequence comments = tree.getCommentBuffer();
+            return 19L * tree.getNumberOfNodes() +
+                    28L * tree.getNumberOfAttributes() +
+                    8L * tree.getNumberOfNamespaces() +
+                    2L * (tree.getCharacterBuffer().length() + (comments == null ? 0 : comments.length()));
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Get the modification time of the file identified by a URI
+     * @param uri the absolute URI
+     * @return the modification time, or -1 if the URI does not identify a local file
+     */
+
+    private static long getModificationTime(String uri) {
+        if (!uri.startsWith("file:")) {
+            return -1L;
+        }
+        try {
+            return new File(new URI(uri)).lastModified();
+        } catch (URISyntaxException e) {
+            return -1L;
+        } catch (IllegalArgumentException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * The key of an entry in the cache: the URI of the document together with the variant
+     */
+
+    private static final class Key {
+
+        String uri;
+        Object variant;
+
+        public Key(String uri, Object variant) {
+            this.uri = uri;
+            this.variant = variant;
+        }
+
+        public boolean equals(Object other) {
+            return other instanceof Key &&
+                    ((Key)other).uri.equals(uri) &&
+                    (variant == null ? ((Key)other).variant == null : variant.equals(((Key)other).variant));
+        }
+
+        public int hashCode() {
+            return uri.hashCode() ^ (variant == null ? 0 : variant.hashCode());
+        }
+    }
+
+    /**
+     * An entry in the cache
+     */
+
+    private static final class Entry {
+        DocumentInfo doc;
+        long size;
+        long modified;
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
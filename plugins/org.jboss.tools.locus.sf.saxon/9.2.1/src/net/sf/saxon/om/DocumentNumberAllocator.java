@@ -9,6 +9,7 @@ import java.io.Serializable;
 public class DocumentNumberAllocator implements Serializable {
 
     private int nextDocumentNumber = 0;
+    private transient ThreadLocal<Integer> reservedNumber;
 
     /**
      * Allocate a unique document number
@@ -16,8 +17,38 @@ public class DocumentNumberAllocator implements Serializable {
      */
 
     public synchronized int allocateDocumentNumber() {
+        if (reservedNumber != null) {
+            Integer reserved = reservedNumber.get();
+            if (reserved != null) {
+                reservedNumber.remove();
+                return reserved.intValue();
+            }
+        }
         return nextDocumentNumber++;
     }
+
+    /**
+     * Cause the next call on {@link #allocateDocumentNumber} from the current thread to return a number
+     * that was allocated earlier. This is used when documents are built in parallel on worker threads,
+     * so that the documents are numbered (and therefore sorted into document order) in the order in
+     * which they were requested, rather than the order in which they happen to be built.
+     * @param number a document number previously obtained from {@link #allocateDocumentNumber}, or -1
+     * to cancel any reservation made for the current thread
+     * @since 9.2
+     */
+
+    public synchronized void setNextDocumentNumber(int number) {
+        if (number < 0) {
+            if (reservedNumber != null) {
+                reservedNumber.remove();
+            }
+        } else {
+            if (reservedNumber == null) {
+                reservedNumber = new ThreadLocal<Integer>();
+            }
+            reservedNumber.set(new Integer(number));
+        }
+    }
 }
 
 //
@@ -0,0 +1,40 @@
+package net.sf.saxon.om;
+
+/**
+ * This interface is implemented by objects in compiled code that hold integer codes allocated in a
+ * {@link NamePool}: name codes, fingerprints, URI codes, or namespace codes. When compiled code is loaded
+ * from a saved image into a Configuration whose NamePool has allocated different codes to the same names,
+ * each such object is asked to translate its codes into the codes used by the target NamePool.
+ */
+
+public interface NameCodeHolder {
+
+    /**
+     * Replace every NamePool code held by this object by the code allocated to the same name (or URI,
+     * or namespace) in another NamePool. This method is called once for each object, immediately after
+     * it has been loaded; the objects it refers to are translated separately.
+     * @param map the mapping from the codes of the NamePool used to compile the code to the codes of
+     * the NamePool into which the code is being loaded
+     */
+
+    public void remapNameCodes(NameCodeMap map);
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -0,0 +1,188 @@
+package net.sf.saxon.om;
+
+import net.sf.saxon.sort.IntHashMap;
+import net.sf.saxon.sort.IntHashSet;
+import net.sf.saxon.sort.IntIterator;
+import net.sf.saxon.sort.IntToIntHashMap;
+
+/**
+ * A NameCodeMap translates the codes allocated in one NamePool (the source pool) into the codes
+ * allocated to the same names in another NamePool (the target pool). Names, URIs, and namespaces that
+ * are not yet present in the target pool are added to it. This is used when compiled code is loaded
+ * from a saved image into a Configuration whose NamePool has allocated codes differently from the
+ * NamePool that was used to compile it: see {@link NameCodeHolder}.
+ *
+ * <p>A NameCodeMap is not thread-safe; it is used by a single thread while loading the compiled code.</p>
+ */
+
+public class NameCodeMap {
+
+    private NamePool source;
+    private NamePool target;
+    private IntToIntHashMap nameCodes = new IntToIntHashMap(256);
+    private IntToIntHashMap namespaceCodes = new IntToIntHashMap(32);
+
+    /**
+     * Create a mapping between the codes of two NamePools
+     * @param source the NamePool in which the codes to be translated were allocated
+     * @param target the NamePool to whose codes they are to be translated
+     */
+
+    public NameCodeMap(NamePool source, NamePool target) {
+        this.source = source;
+        this.target = target;
+        nameCodes.setDefaultValue(-1);
+        namespaceCodes.setDefaultValue(-1);
+    }
+
+    /**
+     * Get the NamePool whose codes are translated
+     * @return the source NamePool
+     */
+
+    public NamePool getSourcePool() {
+        return source;
+    }
+
+    /**
+     * Get the NamePool into whose codes the codes are translated
+     * @return the target NamePool
+     */
+
+    public NamePool getTargetPool() {
+        return target;
+    }
+
+    /**
+     * Translate a name code or a fingerprint. A fingerprint is simply a name code with no prefix,
+     * so it translates to a fingerprint.
+     * @param nameCode the name code or fingerprint in the source pool. Negative values, which are used
+     * to mean "no name", are returned unchanged.
+     * @return the name code or fingerprint of the same name in the target pool
+     */
+
+    public int mapNameCode(int nameCode) {
+        if (nameCode < 0) {
+            return nameCode;
+        }
+        if ((nameCode & NamePool.USER_DEFINED_MASK) == 0 && !NamePool.isPrefixed(nameCode)) {
+            // a predefined name has the same fingerprint in every NamePool
+            return nameCode;
+        }
+        int result = nameCodes.get(nameCode);
+        if (result >= 0) {
+            return result;
+        }
+        result = target.allocate(
+                source.getPrefix(nameCode), source.getURI(nameCode), source.getLocalName(nameCode));
+        nameCodes.put(nameCode, result);
+        return result;
+    }
+
+    /**
+     * Translate a URI code
+     * @param uriCode the URI code in the source pool
+     * @return the code of the same URI in the target pool
+     */
+
+    public short mapURICode(short uriCode) {
+        if (uriCode < 0) {
+            return uriCode;
+        }
+        return target.allocateCodeForURI(source.getURIFromURICode(uriCode));
+    }
+
+    /**
+     * Translate a namespace code, representing a binding of a prefix to a URI
+     * @param namespaceCode the namespace code in the source pool. Negative values are returned unchanged.
+     * @return the namespace code of the same binding in the target pool
+     */
+
+    public int mapNamespaceCode(int namespaceCode) {
+        if (namespaceCode < 0) {
+            return namespaceCode;
+        }
+        int result = namespaceCodes.get(namespaceCode);
+        if (result >= 0) {
+            return result;
+        }
+        result = target.allocateNamespaceCode(
+                source.getPrefixFromNamespaceCode(namespaceCode), source.getURIFromNamespaceCode(namespaceCode));
+        namespaceCodes.put(namespaceCode, result);
+        return result;
+    }
+
+    /**
+     * Translate an array of namespace codes
+     * @param codes the namespace codes in the source pool. May be null. The array is not modified,
+     * since it may be shared with other objects that translate it in turn.
+     * @return a new array holding the corresponding namespace codes in the target pool, or null
+     * if the supplied array is null
+     */
+
+    public int[] mapNamespaceCodes(int[] codes) {
+        if (codes == null) {
+            return null;
+        }
+        int[] result = new int[codes.length];
+        for (int i=0; i<codes.length; i++) {
+            result[i] = mapNamespaceCode(codes[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Translate the keys of a map whose keys are name codes or fingerprints
+     * @param map the map whose keys are codes in the source pool. May be null.
+     * @return a new map holding the same values, whose keys are the corresponding codes in the target pool
+     */
+
+    public <T> IntHashMap<T> mapKeys(IntHashMap<T> map) {
+        if (map == null) {
+            return null;
+        }
+        IntHashMap<T> result = new IntHashMap<T>(Math.max(map.size(), 8));
+        IntIterator keys = map.keyIterator();
+        while (keys.hasNext()) {
+            int key = keys.next();
+            result.put(mapNameCode(key), map.get(key));
+        }
+        return result;
+    }
+
+    /**
+     * Translate a set of name codes or fingerprints
+     * @param set the set of codes in the source pool. May be null.
+     * @return a new set holding the corresponding codes in the target pool
+     */
+
+    public IntHashSet mapNameCodes(IntHashSet set) {
+        if (set == null) {
+            return null;
+        }
+        IntHashSet result = new IntHashSet(Math.max(set.size(), 8));
+        IntIterator codes = set.iterator();
+        while (codes.hasNext()) {
+            result.add(mapNameCode(codes.next()));
+        }
+        return result;
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -5,6 +5,8 @@ import net.sf.saxon.value.Whitespace;
 
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * A NamePool holds a collection of expanded names, each containing a namespace URI,
@@ -39,12 +41,13 @@ import java.util.HashMap;
  * mainly to names in the XSLT and XML Schema namespaces: constants representing these names
  * are found in {@link StandardNames}.
  *
- * <p>Operations that update the NamePool, or that have the potential to update it, are
- * synchronized. Read-only operations are done without synchronization. Although technically
- * unsafe, this has not led to any problems in practice. Performance problems due to excessive
- * contention on the NamePool have occasionally been observed: if this happens, the best strategy
- * is to consider splitting the workload to use multiple Configurations each with a separate
- * NamePool.</p>
+ * <p>Read-only operations are done without synchronization, and so is the allocation of names:
+ * the hash chains are append-only, and a new entry is added to the end of a chain using an atomic
+ * compare-and-set, so that many threads can allocate names concurrently without blocking each other.
+ * The only operations that take a lock are those that register a namespace URI or prefix that has
+ * not been seen before, which in practice are rare. The tables of URIs and prefixes are published
+ * to unsynchronized readers through volatile fields, which are always written after the array
+ * contents that they make visible.</p>
  *
  * <h3>Internal organization of the NamePool</h3>
  *
@@ -114,9 +117,12 @@ public class NamePool implements Serializable {
      */
 
     private static class NameEntry implements Serializable {
-        String localName;
-        short uriCode;
-        NameEntry nextEntry;	// link to next NameEntry with the same hashcode
+        final String localName;
+        final short uriCode;
+        volatile NameEntry nextEntry;	// link to next NameEntry with the same hashcode
+
+        static final AtomicReferenceFieldUpdater<NameEntry, NameEntry> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(NameEntry.class, NameEntry.class, "nextEntry");
 
         public NameEntry(short uriCode, String localName) {
             this.uriCode = uriCode;
@@ -126,17 +132,21 @@ public class NamePool implements Serializable {
 
     }
 
-    NameEntry[] hashslots = new NameEntry[1024];
+    final AtomicReferenceArray<NameEntry> hashslots = new AtomicReferenceArray<NameEntry>(1024);
 
-    String[] prefixes = new String[100];
-    short prefixesUsed = 0;
-    String[] uris = new String[100];
-    short[][] prefixCodesForUri = new short[100][0];
-    short urisUsed = 0;
+    // The following fields are only updated while holding the lock on the NamePool. Array elements
+    // are always written before the volatile field (the array reference or the count of entries used)
+    // that publishes them, and readers must read the count before the array.
+
+    volatile String[] prefixes = new String[100];
+    volatile short prefixesUsed = 0;
+    volatile String[] uris = new String[100];
+    volatile short[][] prefixCodesForUri = new short[100][0];
+    volatile short urisUsed = 0;
 
     // General purpose cache for data held by clients of the namePool
 
-    private HashMap<Class, Object> clientData;
+    private transient HashMap<Class, Object> clientData;
 
     /**
      * Create a NamePool
@@ -182,7 +192,7 @@ public class NamePool implements Serializable {
     private NameEntry getNameEntry(int nameCode) {
         int hash = nameCode & 0x3ff;
         int depth = (nameCode >> 10) & 0x3ff;
-        NameEntry entry = hashslots[hash];
+        NameEntry entry = hashslots.get(hash);
 
         for (int i = 1; i < depth; i++) {
             if (entry == null) {
@@ -203,30 +213,53 @@ public class NamePool implements Serializable {
      *         identifies both the prefix and the URI.
      */
 
-    public synchronized int allocateNamespaceCode(String prefix, String uri) {
+    public int allocateNamespaceCode(String prefix, String uri) {
         //System.err.println("allocate nscode for " + prefix + " = " + uri);
 
         short prefixCode = allocateCodeForPrefix(prefix);
-        short uriCode = allocateCodeForURIInternal(uri);
+        short uriCode = allocateCodeForURI(uri);
 
         if (prefixCode != 0) {
             // ensure the prefix is in the list of prefixes used with this URI
-            final short[] prefixCodes = prefixCodesForUri[uriCode];
-            if (search(prefixCodes, prefixCode) < 0) {
-                if (prefixes.length == MAX_PREFIXES_PER_URI) {
-                    throw new NamePoolLimitException("NamePool limit exceeded: max " +
-                                    MAX_PREFIXES_PER_URI + " prefixes per URI");
-                }
-                short[] p2 = new short[prefixCodes.length + 1];
-                System.arraycopy(prefixCodes, 0, p2, 0, prefixCodes.length);
-                p2[prefixCodes.length] = prefixCode;
-                prefixCodesForUri[uriCode] = p2;
-            }
+            allocatePrefixIndex(uriCode, prefixCode);
         }
 
         return (prefixCode << 16) + uriCode;
     }
 
+    /**
+     * Get the index of a prefix among all the prefixes used with a given URI, adding it to the
+     * list if it is not already present
+     * @param uriCode the integer code identifying the URI
+     * @param prefixCode the integer code identifying the prefix, which must not be zero
+     * @return the prefix index, as used in the top bits of a name code: that is, one plus the
+     * position of the prefix in the list of prefixes used with this URI
+     */
+
+    private int allocatePrefixIndex(short uriCode, short prefixCode) {
+        int prefixPosition = search(prefixCodesForUri[uriCode], prefixCode);
+        if (prefixPosition < 0) {
+            synchronized (this) {
+                final short[][] pcu = prefixCodesForUri;
+                final short[] prefixCodes = pcu[uriCode];
+                prefixPosition = search(prefixCodes, prefixCode);
+                if (prefixPosition < 0) {
+                    if (prefixCodes.length == MAX_PREFIXES_PER_URI) {
+                        throw new NamePoolLimitException("NamePool limit exceeded: max " +
+                                MAX_PREFIXES_PER_URI + " prefixes per URI");
+                    }
+                    short[] p2 = new short[prefixCodes.length + 1];
+                    System.arraycopy(prefixCodes, 0, p2, 0, prefixCodes.length);
+                    p2[prefixCodes.length] = prefixCode;
+                    pcu[uriCode] = p2;
+                    prefixCodesForUri = pcu;    // volatile write publishes the new element
+                    prefixPosition = prefixCodes.length;
+                }
+            }
+        }
+        return prefixPosition + 1;
+    }
+
     /**
      * Get the existing namespace code for a namespace prefix/URI pair.
      * @param prefix the namespace prefix. May be "" for the default namespace
@@ -330,40 +363,47 @@ public class NamePool implements Serializable {
      * @return an integer code that uniquely identifies this URI within the namepool.
      */
 
-    public synchronized short allocateCodeForURI(String uri) {
+    public short allocateCodeForURI(String uri) {
         //System.err.println("allocateCodeForURI");
-        return allocateCodeForURIInternal(uri);
+        if (uri == null) {
+            return NamespaceConstant.NULL_CODE;
+        }
+        short code = getCodeForURI(uri);
+        if (code >= 0) {
+            return code;
+        }
+        return addURI(uri);
     }
 
     /**
-     * Allocate the uri code for a given URI; create one if not found. This non-synchronized
-     * version of the external method is provided to avoid the overhead of synchronizing a second time.
-     * @param uri The namespace URI. Supply "" or null for the "null namespace"
+     * Add a URI to the table of URIs, unless another thread has added it in the meantime.
+     * This is the only part of the allocation of a URI code that needs to be synchronized.
+     * @param uri The namespace URI
      * @return an integer code that uniquely identifies this URI within the namepool.
      */
 
-    private short allocateCodeForURIInternal(String uri) {
-        if (uri == null) {
-            return NamespaceConstant.NULL_CODE;
-        }
-        for (short j = 0; j < urisUsed; j++) {
-            if (uris[j].equals(uri)) {
+    private synchronized short addURI(String uri) {
+        final short used = urisUsed;
+        String[] u = uris;
+        for (short j = 0; j < used; j++) {
+            if (u[j].equals(uri)) {
                 return j;
             }
         }
-        if (urisUsed >= uris.length) {
-            if (urisUsed > 32000) {
+        if (used >= u.length) {
+            if (used > 32000) {
                 throw new NamePoolLimitException("Too many namespace URIs");
             }
-            short[][] p = new short[urisUsed * 2][0];
-            String[] u = new String[urisUsed * 2];
-            System.arraycopy(prefixCodesForUri, 0, p, 0, urisUsed);
-            System.arraycopy(uris, 0, u, 0, urisUsed);
+            short[][] p = new short[used * 2][0];
+            String[] u2 = new String[used * 2];
+            System.arraycopy(prefixCodesForUri, 0, p, 0, used);
+            System.arraycopy(u, 0, u2, 0, used);
             prefixCodesForUri = p;
-            uris = u;
+            uris = u = u2;
         }
-        uris[urisUsed] = uri;
-        return urisUsed++;
+        u[used] = uri;
+        urisUsed = (short)(used + 1);
+        return used;
     }
 
 
@@ -374,8 +414,10 @@ public class NamePool implements Serializable {
      */
 
     public short getCodeForURI(String uri) {
-        for (short j = 0; j < urisUsed; j++) {
-            if (uris[j].equals(uri)) {
+        final short used = urisUsed;
+        final String[] u = uris;
+        for (short j = 0; j < used; j++) {
+            if (u[j].equals(uri)) {
                 return j;
             }
         }
@@ -390,7 +432,6 @@ public class NamePool implements Serializable {
      */
 
     private short allocateCodeForPrefix(String prefix) {
-        // Not synchronized, because it's always called from a synchronized method
         // exploit knowledge of the standard prefixes to shorten the search
         if (prefix.length() == 0) {
             return NamespaceConstant.NULL_CODE;
@@ -403,21 +444,41 @@ public class NamePool implements Serializable {
             start = NamespaceConstant.XSI_CODE + 1;
         }
 
-        for (short i=start; i < prefixesUsed; i++) {
-            if (prefixes[i].equals(prefix)) {
+        final short used = prefixesUsed;
+        final String[] p = prefixes;
+        for (short i=start; i < used; i++) {
+            if (p[i].equals(prefix)) {
                 return i;
             }
         }
-        if (prefixesUsed >= prefixes.length) {
-            if (prefixesUsed > 32000) {
+        return addPrefix(prefix);
+    }
+
+    /**
+     * Add a prefix to the table of prefixes, unless another thread has added it in the meantime
+     * @param prefix the namespace prefix to be added
+     * @return the numeric code for this prefix
+     */
+
+    private synchronized short addPrefix(String prefix) {
+        final short used = prefixesUsed;
+        String[] p = prefixes;
+        for (short i=0; i < used; i++) {
+            if (p[i].equals(prefix)) {
+                return i;
+            }
+        }
+        if (used >= p.length) {
+            if (used > 32000) {
                 throw new NamePoolLimitException("Too many namespace prefixes");
             }
-            String[] p = new String[prefixesUsed * 2];
-            System.arraycopy(prefixes, 0, p, 0, prefixesUsed);
-            prefixes = p;
+            String[] p2 = new String[used * 2];
+            System.arraycopy(p, 0, p2, 0, used);
+            prefixes = p = p2;
         }
-        prefixes[prefixesUsed] = prefix;
-        return prefixesUsed++;
+        p[used] = prefix;
+        prefixesUsed = (short)(used + 1);
+        return used;
     }
 
     /**
@@ -427,8 +488,10 @@ public class NamePool implements Serializable {
      */
 
     public short getCodeForPrefix(String prefix) {
-        for (short i = 0; i < prefixesUsed; i++) {
-            if (prefixes[i].equals(prefix)) {
+        final short used = prefixesUsed;
+        final String[] p = prefixes;
+        for (short i = 0; i < used; i++) {
+            if (p[i].equals(prefix)) {
                 return i;
             }
         }
@@ -494,7 +557,7 @@ public class NamePool implements Serializable {
      *         The Name itself may be retrieved using the getName(int) method
      */
 
-    public synchronized int allocate(String prefix, String uri, String localName) {
+    public int allocate(String prefix, String uri, String localName) {
         //System.err.println("Allocate " + prefix + " : " + uri + " : " + localName);
         short prefixCode = allocateCodeForPrefix(prefix);
         if (NamespaceConstant.isReserved(uri) || NamespaceConstant.SAXON.equals(uri)) {
@@ -505,78 +568,62 @@ public class NamePool implements Serializable {
                 if (prefix.length() == 0) {
                     pindex = 0;
                 } else {
-                    final short[] prefixCodes = prefixCodesForUri[uriCode];
-                    int prefixPosition = search(prefixCodes, prefixCode);
-                    if (prefixPosition < 0) {
-                        if (prefixCodes.length == MAX_PREFIXES_PER_URI) {
-                            throw new NamePoolLimitException("NamePool limit exceeded: max " +
-                                    MAX_PREFIXES_PER_URI + " prefixes per URI");
-                        }
-                        short[] p2 = new short[prefixCodes.length + 1];
-                        System.arraycopy(prefixCodes, 0, p2, 0, prefixCodes.length);
-                        p2[prefixCodes.length] = prefixCode;
-                        prefixCodesForUri[uriCode] = p2;
-                        prefixPosition = prefixCodes.length;
-                    }
-                    pindex = prefixPosition + 1;
+                    pindex = allocatePrefixIndex(uriCode, prefixCode);
                 }
                 return (pindex << 20) + fp;
             }
         }
         // otherwise register the name in this NamePool
-        short uriCode = allocateCodeForURIInternal(uri);
+        short uriCode = allocateCodeForURI(uri);
 
         int hash = (localName.hashCode() & 0x7fffffff) % 1023;
         int depth = 1;
 
-        final short[] prefixCodes = prefixCodesForUri[uriCode];
         int prefixIndex;
         if (prefix.length() == 0) {
             prefixIndex = 0;
         } else {
-            int prefixPosition = search(prefixCodes, prefixCode);
-            if (prefixPosition < 0) {
-                if (prefixCodes.length == MAX_PREFIXES_PER_URI) {
-                    throw new NamePoolLimitException("NamePool limit exceeded: max " +
-                                    MAX_PREFIXES_PER_URI + " prefixes per URI");
-                }
-                short[] p2 = new short[prefixCodes.length + 1];
-                System.arraycopy(prefixCodes, 0, p2, 0, prefixCodes.length);
-                p2[prefixCodes.length] = prefixCode;
-                prefixCodesForUri[uriCode] = p2;
-                prefixPosition = prefixCodes.length;
-            }
-            prefixIndex = prefixPosition + 1;
+            prefixIndex = allocatePrefixIndex(uriCode, prefixCode);
         }
 
-        NameEntry entry;
+        // Entries are only ever appended to the end of a hash chain, so the depth of an entry, and
+        // hence its fingerprint, never changes once it is visible. If two threads race to append to
+        // the same chain, the loser of the compare-and-set simply carries on down the chain, where it
+        // may find that the winner has added the very name it was looking for.
 
-        if (hashslots[hash] == null) {
-            entry = new NameEntry(uriCode, localName);
-            hashslots[hash] = entry;
-        } else {
-            entry = hashslots[hash];
-            while (true) {
-                boolean sameLocalName = (entry.localName.equals(localName));
-                boolean sameURI = (entry.uriCode == uriCode);
+        NameEntry newEntry = null;
+        NameEntry entry = hashslots.get(hash);
+        if (entry == null) {
+            newEntry = new NameEntry(uriCode, localName);
+            if (hashslots.compareAndSet(hash, null, newEntry)) {
+                return ((prefixIndex << 20) + (depth << 10) + hash);
+            }
+            entry = hashslots.get(hash);
+        }
 
-                if (sameLocalName && sameURI) {
-                    // may need to add a new prefix to the entry
-                    break;
+        while (true) {
+            boolean sameLocalName = (entry.localName.equals(localName));
+            boolean sameURI = (entry.uriCode == uriCode);
+
+            if (sameLocalName && sameURI) {
+                break;
+            }
+            NameEntry next = entry.nextEntry;
+            if (next == null) {
+                if (depth + 1 >= 1024) {
+                    throw new NamePoolLimitException("Saxon name pool is full");
+                }
+                if (newEntry == null) {
+                    newEntry = new NameEntry(uriCode, localName);
+                }
+                if (NameEntry.NEXT.compareAndSet(entry, null, newEntry)) {
+                    next = newEntry;
                 } else {
-                    NameEntry next = entry.nextEntry;
-                    depth++;
-                    if (depth >= 1024) {
-                        throw new NamePoolLimitException("Saxon name pool is full");
-                    }
-                    if (next == null) {
-                        entry.nextEntry = new NameEntry(uriCode, localName);
-                        break;
-                    } else {
-                        entry = next;
-                    }
+                    next = entry.nextEntry;
                 }
             }
+            entry = next;
+            depth++;
         }
         // System.err.println("name code = " + prefixIndex + "/" + depth + "/" + hash);
         return ((prefixIndex << 20) + (depth << 10) + hash);
@@ -654,7 +701,7 @@ public class NamePool implements Serializable {
             return "";
         }
         short uriCode = getURICode(nameCode);
-        return prefixes[prefixCodesForUri[uriCode][prefixIndex-1]];
+        return getPrefixWithIndex(uriCode, prefixIndex);
     }
 
     /**
@@ -807,13 +854,7 @@ public class NamePool implements Serializable {
                 // otherwise, look for the name in this namepool
                 }
             }
-            uriCode = -1;
-            for (short j = 0; j < urisUsed; j++) {
-                if (uris[j].equals(uri)) {
-                    uriCode = j;
-                    break;
-                }
-            }
+            uriCode = getCodeForURI(uri);
             if (uriCode == -1) {
                 return -1;
             }
@@ -822,13 +863,12 @@ public class NamePool implements Serializable {
         int hash = (localName.hashCode() & 0x7fffffff) % 1023;
         int depth = 1;
 
-        NameEntry entry;
+        NameEntry entry = hashslots.get(hash);
 
-        if (hashslots[hash] == null) {
+        if (entry == null) {
             return -1;
         }
 
-        entry = hashslots[hash];
         while (true) {
             if (entry.uriCode == uriCode && entry.localName.equals(localName)) {
                 break;
@@ -904,6 +944,75 @@ public class NamePool implements Serializable {
         }
     }
 
+    /**
+     * Add to this NamePool all the names, namespace URIs, and prefixes that are present in another NamePool,
+     * allocating them the same codes as they have in the other NamePool. This is possible only if the codes
+     * allocated in the two pools are consistent: that is, if every entry that is present in both pools has
+     * the same code in each. This is always the case if this NamePool is new, or if both pools contain
+     * only entries copied from a third pool, for example a pool that was used to compile several stylesheets
+     * whose compiled forms were saved separately. After a successful call, any name code, URI code, or namespace
+     * code that is valid in the other NamePool identifies the same name in this NamePool.
+     * @param other the NamePool whose entries are to be imported. This pool must not be modified during the call.
+     * @return true if the entries were imported; false if the two pools have allocated different codes to the
+     * same entry, in which case codes allocated in the other pool cannot be used with this pool. In this case
+     * some of the entries in the other pool may nevertheless have been added to this pool.
+     */
+
+    public synchronized boolean importNames(NamePool other) {
+        // URIs and prefixes are allocated codes sequentially
+        final short otherUris = other.urisUsed;
+        for (short u = 0; u < otherUris; u++) {
+            String uri = other.uris[u];
+            if (u < urisUsed ? !uris[u].equals(uri) : addURI(uri) != u) {
+                return false;
+            }
+        }
+        final short otherPrefixes = other.prefixesUsed;
+        for (short p = 0; p < otherPrefixes; p++) {
+            String prefix = other.prefixes[p];
+            if (p < prefixesUsed ? !prefixes[p].equals(prefix) : addPrefix(prefix) != p) {
+                return false;
+            }
+        }
+        for (short u = 0; u < otherUris; u++) {
+            short[] otherCodes = other.prefixCodesForUri[u];
+            for (int i = 0; i < otherCodes.length; i++) {
+                if (allocatePrefixIndex(u, otherCodes[i]) != i + 1) {
+                    return false;
+                }
+            }
+        }
+        // Each hash chain in the other pool must be the same as, or an extension of, the corresponding chain
+        // in this pool; any extra entries are appended, so that they have the same depth in both chains
+        for (int h = 0; h < 1024; h++) {
+            NameEntry source = other.hashslots.get(h);
+            if (source == null) {
+                continue;
+            }
+            NameEntry target = hashslots.get(h);
+            if (target == null) {
+                hashslots.compareAndSet(h, null, new NameEntry(source.uriCode, source.localName));
+                target = hashslots.get(h);
+            }
+            while (true) {
+                if (target.uriCode != source.uriCode || !target.localName.equals(source.localName)) {
+                    return false;
+                }
+                source = source.nextEntry;
+                if (source == null) {
+                    break;
+                }
+                NameEntry next = target.nextEntry;
+                if (next == null) {
+                    NameEntry.NEXT.compareAndSet(target, null, new NameEntry(source.uriCode, source.localName));
+                    next = target.nextEntry;
+                }
+                target = next;
+            }
+        }
+        return true;
+    }
+
     /**
      * Save client data on behalf of a user of the namepool
      * @param key the class that is maintaining private data in the name pool
@@ -937,7 +1046,7 @@ public class NamePool implements Serializable {
     public synchronized void diagnosticDump() {
         System.err.println("Contents of NamePool " + this);
         for (int i = 0; i < 1024; i++) {
-            NameEntry entry = hashslots[i];
+            NameEntry entry = hashslots.get(i);
             int depth = 0;
             while (entry != null) {
                 System.err.println("Fingerprint " + depth + '/' + i);
@@ -970,7 +1079,7 @@ public class NamePool implements Serializable {
         int slots = 0;
         int entries = 0;
         for (int i = 0; i < 1024; i++) {
-            NameEntry entry = hashslots[i];
+            NameEntry entry = hashslots.get(i);
             if (entry != null) slots++;
             while (entry != null) {
                 entry = entry.nextEntry;
@@ -3,6 +3,7 @@ package net.sf.saxon.om;
 import net.sf.saxon.event.Builder;
 import net.sf.saxon.tinytree.TinyBuilder;
 import net.sf.saxon.tinytree.TinyBuilderCondensed;
+import net.sf.saxon.tinytree.TinyBuilderOffHeap;
 import net.sf.saxon.tree.TreeBuilder;
 
 import java.io.Serializable;
@@ -34,6 +35,14 @@ public abstract class TreeModel implements Serializable {
      */
     public final static TreeModel TINY_TREE_CONDENSED = new TinyTreeCondensed();
 
+    /**
+     * The off-heap TinyTree implementation. This is a variant of the TinyTree that holds
+     * text content and attribute values outside the Java heap, which reduces the heap size and
+     * garbage collection costs for very large documents. Access to the character content is
+     * a little slower than with the TinyTree.
+     */
+    public final static TreeModel TINY_TREE_OFF_HEAP = new TinyTreeOffHeap();
+
     /**
      * The LinkedTree. This takes more memory than the TinyTree. The main advantage
      * of this model is that it is updateable: the nodes in a LinkedTree can be modified
@@ -60,7 +69,7 @@ public abstract class TreeModel implements Serializable {
     /**
      * Get the tree model corresponding to a given integer constant
      * @param symbolicValue one of the constants {@link Builder#TINY_TREE},
-     * {@link Builder#TINY_TREE_CONDENSED}, or {@link Builder#LINKED_TREE}
+     * {@link Builder#TINY_TREE_CONDENSED}, {@link Builder#TINY_TREE_OFF_HEAP}, or {@link Builder#LINKED_TREE}
      * @return the corresponding TreeModel
      */
 
@@ -70,6 +79,8 @@ public abstract class TreeModel implements Serializable {
                 return TreeModel.TINY_TREE;
             case Builder.TINY_TREE_CONDENSED:
                 return TreeModel.TINY_TREE_CONDENSED;
+            case Builder.TINY_TREE_OFF_HEAP:
+                return TreeModel.TINY_TREE_OFF_HEAP;
             case Builder.LINKED_TREE:
                 return TreeModel.LINKED_TREE;
             default:
@@ -108,6 +119,15 @@ public abstract class TreeModel implements Serializable {
         }
     }
 
+    private static class TinyTreeOffHeap extends TreeModel {
+        public Builder makeBuilder() {
+            return new TinyBuilderOffHeap();
+        }
+        public int getSymbolicValue() {
+            return Builder.TINY_TREE_OFF_HEAP;
+        }
+    }
+
     private static class LinkedTree extends TreeModel {
         public Builder makeBuilder() {
             return new TreeBuilder();
@@ -1,6 +1,8 @@
 package net.sf.saxon.pattern;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.functions.Nilled;
+import net.sf.saxon.om.NameCodeHolder;
+import net.sf.saxon.om.NameCodeMap;
 import net.sf.saxon.om.NamePool;
 import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.StandardNames;
@@ -15,7 +17,7 @@ import net.sf.saxon.type.*;
   * @author Michael H. Kay
   */
 
-public class ContentTypeTest extends NodeTest {
+public class ContentTypeTest extends NodeTest implements NameCodeHolder {
 
 	private int kind;          // element or attribute
     private SchemaType schemaType;
@@ -272,6 +274,16 @@ public class ContentTypeTest extends NodeTest {
                 ((ContentTypeTest)other).matchDTDTypes == matchDTDTypes;
     }
 
+
+    /**
+     * Translate the fingerprint of the required type into the codes of a different NamePool
+     * @param map the mapping between the two NamePools
+     */
+
+    public void remapNameCodes(NameCodeMap map) {
+        requiredType = map.mapNameCode(requiredType);
+    }
+
 }
 
 //
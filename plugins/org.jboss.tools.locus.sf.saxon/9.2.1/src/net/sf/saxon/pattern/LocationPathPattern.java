@@ -106,6 +106,17 @@ public final class LocationPathPattern extends Pattern {
         return filters;
     }
 
+    /**
+     * Ask whether the last step in the pattern has a positional filter, for example a[1] or
+     * a[position() = last()]. Testing such a pattern requires access to the siblings of the node.
+     * The result is meaningful only after the pattern has been analyzed.
+     * @return true if the pattern has a positional filter
+     */
+
+    public boolean hasPositionalFilter() {
+        return specialFilter;
+    }
+
     /**
      * Get the pattern applying to the parent node, if there is one
      * @return the parent pattern, for example if the pattern is a/b[1]/c then the parent
@@ -1,6 +1,8 @@
 package net.sf.saxon.pattern;
 
 import net.sf.saxon.om.FingerprintedNode;
+import net.sf.saxon.om.NameCodeHolder;
+import net.sf.saxon.om.NameCodeMap;
 import net.sf.saxon.om.NamePool;
 import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.StructuredQName;
@@ -18,7 +20,7 @@ import net.sf.saxon.type.TypeHierarchy;
   * @author Michael H. Kay
   */
 
-public class NameTest extends NodeTest implements QNameTest {
+public class NameTest extends NodeTest implements QNameTest, NameCodeHolder {
 
 	private int nodeKind;
 	private int fingerprint;
@@ -244,6 +246,17 @@ public class NameTest extends NodeTest implements QNameTest {
     }
 
 
+
+    /**
+     * Translate the fingerprint of the required name into the codes of a different NamePool
+     * @param map the mapping between the two NamePools
+     */
+
+    public void remapNameCodes(NameCodeMap map) {
+        fingerprint = map.mapNameCode(fingerprint);
+        namePool = map.getTargetPool();
+    }
+
 }
 
 //
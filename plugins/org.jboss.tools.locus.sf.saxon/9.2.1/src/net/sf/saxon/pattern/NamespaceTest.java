@@ -1,4 +1,6 @@
 package net.sf.saxon.pattern;
+import net.sf.saxon.om.NameCodeHolder;
+import net.sf.saxon.om.NameCodeMap;
 import net.sf.saxon.om.NamePool;
 import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.StructuredQName;
@@ -13,7 +15,7 @@ import net.sf.saxon.tinytree.TinyTree;
   * @author Michael H. Kay
   */
 
-public final class NamespaceTest extends NodeTest implements QNameTest {
+public final class NamespaceTest extends NodeTest implements QNameTest, NameCodeHolder {
 
 	private NamePool namePool;
 	private int nodeKind;
@@ -154,6 +156,17 @@ public final class NamespaceTest extends NodeTest implements QNameTest {
                 ((NamespaceTest)other).uriCode == uriCode;
     }
 
+
+    /**
+     * Translate the code of the required namespace URI into the codes of a different NamePool
+     * @param map the mapping between the two NamePools
+     */
+
+    public void remapNameCodes(NameCodeMap map) {
+        uriCode = map.mapURICode(uriCode);
+        namePool = map.getTargetPool();
+    }
+
 }
 
 //
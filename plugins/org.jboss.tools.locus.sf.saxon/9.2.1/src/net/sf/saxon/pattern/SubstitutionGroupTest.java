@@ -1,4 +1,6 @@
 package net.sf.saxon.pattern;
+import net.sf.saxon.om.NameCodeHolder;
+import net.sf.saxon.om.NameCodeMap;
 import net.sf.saxon.om.NamePool;
 import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.sort.IntHashSet;
@@ -18,7 +20,7 @@ import net.sf.saxon.type.Type;
   * @author Michael H. Kay
   */
 
-public class SubstitutionGroupTest extends NodeTest {
+public class SubstitutionGroupTest extends NodeTest implements NameCodeHolder {
 
 	private int head;
     private IntHashSet group;
@@ -156,6 +158,18 @@ public class SubstitutionGroupTest extends NodeTest {
 
 
 
+
+    /**
+     * Translate the fingerprints of the head of the substitution group and of its members into
+     * the codes of a different NamePool
+     * @param map the mapping between the two NamePools
+     */
+
+    public void remapNameCodes(NameCodeMap map) {
+        head = map.mapNameCode(head);
+        group = map.mapNameCodes(group);
+    }
+
 }
 
 //
@@ -12,6 +12,7 @@ import net.sf.saxon.sort.IntArraySet;
 import net.sf.saxon.sort.StringCollator;
 import net.sf.saxon.trace.ExpressionPresenter;
 import net.sf.saxon.trans.DecimalFormatManager;
+import net.sf.saxon.trans.ModuleDependencies;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.type.*;
 import net.sf.saxon.value.SequenceType;
@@ -55,6 +56,7 @@ public class QueryModule implements StaticContext {
                              // This is needed *only* to implement the rules banning cyclic imports
     private FunctionLibraryList functionLibraryList;
     private XQueryFunctionLibrary globalFunctionLibrary;      // used only on a top-level module
+    private ModuleDependencies moduleDependencies;            // used only on a top-level module
     private int localFunctionLibraryNr;
     private int importedFunctionLibraryNr;
     private int unboundFunctionLibraryNr;
@@ -83,6 +85,7 @@ public class QueryModule implements StaticContext {
         config = sqc.getConfiguration();
         isMainModule = true;
         topModule = this;
+        moduleDependencies = new ModuleDependencies();
         activeNamespaces = new Stack<ActiveNamespace>();
         baseURI = sqc.getBaseURI();
         try {
@@ -111,6 +114,7 @@ public class QueryModule implements StaticContext {
         importers = null;
         if (importer == null) {
             topModule = this;
+            moduleDependencies = new ModuleDependencies();
         } else {
             topModule = importer.topModule;
             userQueryContext = importer.userQueryContext;
@@ -523,6 +527,16 @@ public class QueryModule implements StaticContext {
         return topModule;
     }
 
+    /**
+     * Get the record of the library modules that have been read in the course of compiling the query,
+     * with their modification times. This is held on the top-level module.
+     * @return the module dependencies of the query
+     */
+
+    public ModuleDependencies getModuleDependencies() {
+        return topModule.moduleDependencies;
+    }
+
     /**
      * Get the Executable, an object representing the compiled query and its environment.
      * <p/>
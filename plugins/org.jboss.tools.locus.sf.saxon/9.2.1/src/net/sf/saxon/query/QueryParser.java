@@ -13,6 +13,7 @@ import net.sf.saxon.style.AttributeValueTemplate;
 import net.sf.saxon.sxpath.IndependentContext;
 import net.sf.saxon.trace.Location;
 import net.sf.saxon.trans.Err;
+import net.sf.saxon.trans.ModuleDependencies;
 import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.type.*;
 import net.sf.saxon.value.*;
@@ -1213,6 +1214,7 @@ public class QueryParser extends ExpressionParser {
                 } catch (IOException e) {
                     throw new XPathException("Failure while closing file for imported query module");
                 }
+                ((QueryModule)env).getModuleDependencies().add(baseURI);
                 QueryModule.makeQueryModule(
                         baseURI, executable, (QueryModule)env, queryText, mImport.namespaceURI,
                         disableCycleChecks);
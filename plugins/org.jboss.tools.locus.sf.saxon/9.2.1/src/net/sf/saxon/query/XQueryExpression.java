@@ -8,12 +8,15 @@ import net.sf.saxon.evpull.EventIterator;
 import net.sf.saxon.evpull.EventIteratorToReceiver;
 import net.sf.saxon.expr.*;
 import net.sf.saxon.instruct.Executable;
+import net.sf.saxon.instruct.ExecutableImage;
 import net.sf.saxon.instruct.GlobalVariable;
 import net.sf.saxon.instruct.SlotManager;
 import net.sf.saxon.om.*;
 import net.sf.saxon.trace.ExpressionPresenter;
 import net.sf.saxon.trace.TraceListener;
+import net.sf.saxon.trans.ModuleDependencies;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.ItemType;
 import net.sf.saxon.type.Type;
 import net.sf.saxon.value.DateTimeValue;
 import net.sf.saxon.value.Value;
@@ -22,6 +25,7 @@ import javax.xml.transform.ErrorListener;
 import javax.xml.transform.Result;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.stream.StreamResult;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.*;
 
@@ -38,7 +42,10 @@ public class XQueryExpression implements Container {
     private Expression expression;
     private SlotManager stackFrameMap;
     private Executable executable;
-    private QueryModule staticContext;
+    private transient QueryModule staticContext;    // null if the query was loaded from a saved image
+    private ItemType requiredContextItemType;
+    private int revalidationMode;
+    private ModuleDependencies moduleDependencies;
     private PathMap pathMap;
     private boolean allowDocumentProjection;
     private boolean isUpdating;
@@ -83,6 +90,9 @@ public class XQueryExpression implements Container {
         executable.setConfiguration(config);
         executable.setCollationTable(mainModule.getUserQueryContext().getAllCollations());
         staticContext = mainModule;
+        requiredContextItemType = mainModule.getUserQueryContext().getRequiredContextItemType();
+        revalidationMode = mainModule.getRevalidationMode();
+        moduleDependencies = mainModule.getModuleDependencies();
         isUpdating = exp.isUpdatingExpression();
     }
 
@@ -181,11 +191,49 @@ public class XQueryExpression implements Container {
      *
      * @return the QueryModule object representing the static context of the main module of the query.
      *         This is available for inspection, but must not be modified or reused by the application.
+     *         The static context is not saved with a compiled query, so this method returns null if the
+     *         query was loaded using {@link #load}.
      */
     public QueryModule getStaticContext() {
         return staticContext;
     }
 
+    /**
+     * Save this compiled query as a binary image, which can later be reloaded using {@link #load},
+     * avoiding the cost of compiling the query again. The image can only be loaded by the same release
+     * of Saxon. The static context of the query is not saved.
+     * @param stream the output stream to which the image is to be written. The stream is not closed.
+     * @throws XPathException if the query cannot be saved, for example because it contains references
+     * to objects that cannot be serialized, or if an I/O error occurs
+     * @since 9.2
+     */
+
+    public void save(OutputStream stream) throws XPathException {
+        ExecutableImage.save(this, executable.getConfiguration().getNamePool(), stream);
+    }
+
+    /**
+     * Load a compiled query from a binary image written using {@link #save}
+     * @param stream the input stream from which the image is to be read. The stream is not closed.
+     * @param config the Configuration in which the query is to be run. The names used in the query
+     * are added to the NamePool of this Configuration, and the compiled code is adjusted if the codes
+     * allocated to them differ from the codes used when the query was compiled.
+     * @return the compiled query
+     * @throws XPathException if the input is not a compiled query saved by this release of Saxon,
+     * or if an I/O error occurs
+     * @since 9.2
+     */
+
+    public static XQueryExpression load(InputStream stream, Configuration config) throws XPathException {
+        Object obj = ExecutableImage.load(stream, config);
+        if (!(obj instanceof XQueryExpression)) {
+            throw new XPathException("The saved executable is not a compiled query");
+        }
+        XQueryExpression exp = (XQueryExpression)obj;
+        exp.executable.setConfiguration(config);
+        return exp;
+    }
+
     /**
      * Get a list containing the names of the external variables in the query.
      * <p/>
@@ -297,7 +345,7 @@ public class XQueryExpression implements Container {
             XPathContextMajor context = controller.newXPathContext();
 
             if (contextItem != null) {
-                if (!staticContext.getUserQueryContext().getRequiredContextItemType().matchesItem(
+                if (!requiredContextItemType.matchesItem(
                         contextItem, false, env.getConfiguration())) {
                     throw new XPathException("The supplied context item does not match the required context item type");
                 }
@@ -343,6 +391,9 @@ public class XQueryExpression implements Container {
         controller.addTraceListener(env.getTraceListener());
         controller.setTraceFunctionDestination(env.getTraceFunctionDestination());
         controller.setSchemaValidationMode(env.getSchemaValidationMode());
+        if (allowDocumentProjection) {
+            controller.setUseDocumentProjection(getPathMap());
+        }
         DateTimeValue currentDateTime = env.getCurrentDateTime();
         if (currentDateTime != null) {
             try {
@@ -379,9 +430,6 @@ public class XQueryExpression implements Container {
         Controller controller = newController();
         initializeController(env, controller);
 
-        if (allowDocumentProjection) {
-            controller.setUseDocumentProjection(getPathMap());
-        }
         Properties actualProperties = validateOutputProperties(controller, outputProperties);
 
         //controller.defineGlobalParameters();
@@ -567,7 +615,7 @@ public class XQueryExpression implements Container {
             PendingUpdateList pul = config.newPendingUpdateList();
             context.openStackFrame(stackFrameMap);
             expression.evaluatePendingUpdates(context, pul);
-            pul.apply(context, staticContext.getRevalidationMode());
+            pul.apply(context, revalidationMode);
             return pul.getAffectedTrees();
             // Only mark a document for rewriting to disk if it is in the document pool,
             // that is, if it was supplied using doc() or similar functions.
@@ -625,7 +673,7 @@ public class XQueryExpression implements Container {
             PendingUpdateList pul = config.newPendingUpdateList();
             context.openStackFrame(stackFrameMap);
             expression.evaluatePendingUpdates(context, pul);
-            pul.apply(context, staticContext.getRevalidationMode());
+            pul.apply(context, revalidationMode);
             for (Iterator iter = pul.getAffectedTrees().iterator(); iter.hasNext();) {
                 NodeInfo node = (NodeInfo)iter.next();
                 agent.update(node, controller);
@@ -649,7 +697,7 @@ public class XQueryExpression implements Container {
 
         if (contextItem != null) {
             // Check the type of the context item against the API-defined required type
-            if (!staticContext.getUserQueryContext().getRequiredContextItemType().matchesItem(
+            if (!requiredContextItemType.matchesItem(
                     contextItem, false, dynamicEnv.getConfiguration())) {
                 throw new XPathException("The supplied context item does not match the required context item type");
             }
@@ -745,9 +793,11 @@ public class XQueryExpression implements Container {
 
     public void explain(ExpressionPresenter out) {
         out.startElement("query");
-        staticContext.getExecutable().getKeyManager().explainKeys(out);
-        staticContext.getExecutable().explainGlobalVariables(out);
-        staticContext.explainGlobalFunctions(out);
+        executable.getKeyManager().explainKeys(out);
+        executable.explainGlobalVariables(out);
+        if (staticContext != null) {
+            staticContext.explainGlobalFunctions(out);
+        }
         out.startElement("body");
         expression.explain(out);
         out.endElement();
@@ -764,29 +814,73 @@ public class XQueryExpression implements Container {
     }
 
     /**
-     * Get the path map for the query expression
+     * Get the record of the modules that were read when the query was compiled, together with their
+     * modification times. This allows a cache of compiled queries to determine whether the query is
+     * still up to date.
+     * @return the module dependencies of the query
+     * @since 9.2
+     */
+
+    public ModuleDependencies getModuleDependencies() {
+        return moduleDependencies;
+    }
+
+    /**
+     * Get the path map for the query expression. The paths in the map are reduced to use downwards
+     * axes only, as required for document projection; once constructed, the path map is not modified,
+     * so it can be shared by concurrent executions of the query.
      *
      * @return the path map (which is constructed if this has not already been done)
      */
 
-    public PathMap getPathMap() {
+    public synchronized PathMap getPathMap() {
         if (pathMap == null) {
-            pathMap = new PathMap(expression);
-        }
-        HashMap map = executable.getCompiledGlobalVariables();
-        if (map != null) {
-            Iterator iter = map.values().iterator();
-            while (iter.hasNext()) {
-                GlobalVariable var = (GlobalVariable)iter.next();
-                Expression select = var.getSelectExpression();
-                if (select != null) {
-                    select.addToPathMap(pathMap, null);
+            PathMap map = new PathMap(expression);
+            HashMap globals = executable.getCompiledGlobalVariables();
+            if (globals != null) {
+                Iterator iter = globals.values().iterator();
+                while (iter.hasNext()) {
+                    GlobalVariable var = (GlobalVariable)iter.next();
+                    Expression select = var.getSelectExpression();
+                    if (select != null && map.getPathForVariable(var) == null) {
+                        map.registerPathForVariable(var, select.addToPathMap(map, null));
+                    }
                 }
             }
+            PathMap.PathMapRoot[] roots = map.getPathMapRoots();
+            for (int i=0; i<roots.length; i++) {
+                map.reduceToDownwardsAxes(roots[i]);
+            }
+            pathMap = map;
         }
         return pathMap;
     }
 
+    /**
+     * Get a filter that performs document projection on the context document of the query, if this
+     * is possible. Document projection must have been enabled using {@link #setAllowDocumentProjection}.
+     *
+     * @return a filter to be inserted between the parser and the tree builder when the context document
+     * is built, or null if document projection is not enabled, or if the paths used by the query to
+     * navigate from the context item cannot be analyzed.
+     */
+
+    public ProxyReceiver makeDocumentProjector() {
+        if (!allowDocumentProjection || !usesContextItem()) {
+            return null;
+        }
+        PathMap.PathMapRoot contextRoot;
+        try {
+            contextRoot = getPathMap().getContextRoot();
+        } catch (IllegalStateException err) {
+            return null;
+        }
+        if (contextRoot == null || contextRoot.hasUnknownDependencies()) {
+            return null;
+        }
+        return executable.getConfiguration().makeDocumentProjector(contextRoot);
+    }
+
     /**
      * Get the LocationProvider allowing location identifiers to be resolved.
      */
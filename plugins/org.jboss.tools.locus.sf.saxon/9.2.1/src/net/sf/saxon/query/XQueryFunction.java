@@ -29,7 +29,7 @@ public class XQueryFunction implements InstructionInfo, Container, Declaration {
     private UserFunction compiledFunction = null;
     private boolean memoFunction;
     private NamespaceResolver namespaceResolver;
-    private QueryModule staticContext;
+    private transient QueryModule staticContext;    // used only during compilation
     private boolean isUpdating = false;
 
     /**
@@ -240,7 +240,8 @@ public class XQueryFunction implements InstructionInfo, Container, Declaration {
 
     /**
      * Get the static context for this function
-     * @return the static context for the module in which the function is declared
+     * @return the static context for the module in which the function is declared, or null if the
+     * function is part of a compiled query that has been loaded from a saved image
      */
 
     public StaticContext getStaticContext() {
@@ -0,0 +1,224 @@
+package net.sf.saxon.regex;
+
+import net.sf.saxon.trans.XPathException;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A RegexCache holds compiled regular expressions so that they can be reused. It is used by the functions
+ * matches(), replace() and tokenize(), and by the xsl:analyze-string instruction, when the regular expression
+ * or the flags are not known until run-time: for example, when the regular expression is read from the source
+ * document. Without the cache, the regular expression would be translated to Java syntax and compiled
+ * afresh on every call.
+ *
+ * <p>A single RegexCache is owned by the {@link net.sf.saxon.Configuration}, and it may therefore be
+ * used by many threads concurrently: all methods are synchronized. The compiled regular expressions
+ * themselves are immutable, and can safely be shared. The cache is bounded in size: when it is full, the
+ * regular expression that has been least recently used is discarded.</p>
+ *
+ * <p>The cache keeps a count of the number of hits and misses, which can be used to decide whether the
+ * size of the cache is appropriate for the workload.</p>
+ */
+
+public class RegexCache {
+
+    /**
+     * The default maximum number of regular expressions held in the cache
+     */
+
+    public static final int DEFAULT_CAPACITY = 100;
+
+    private int capacity;
+    private LinkedHashMap<Key, RegularExpression> map;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Create a RegexCache
+     * @param capacity the maximum number of regular expressions to be held in the cache. The value
+     * zero means that no regular expressions are cached.
+     */
+
+    public RegexCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Regex cache size must not be negative");
+        }
+        this.capacity = capacity;
+        map = new LinkedHashMap<Key, RegularExpression>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, RegularExpression> eldest) {
+                return size() > RegexCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Get a compiled regular expression, using a previously compiled regular expression from the
+     * cache if there is one, and otherwise compiling it and adding it to the cache
+     * @param regex the source text of the regular expression, in XML Schema or XPath syntax
+     * @param xmlVersion indicates whether \i and \c have their XML 1.0 or XML 1.1 meanings
+     * @param syntax indicates whether XPath, XML Schema, or Java native regular expression syntax is to be used
+     * @param flagBits the flags argument translated to the Java bit-significant integer representation
+     * @return the compiled regular expression
+     * @throws XPathException if the syntax of the regular expression or flags is incorrect. Regular
+     * expressions that fail to compile are not cached.
+     */
+
+    public RegularExpression getRegularExpression(CharSequence regex, int xmlVersion, int syntax, int flagBits)
+            throws XPathException {
+        Key key = new Key(regex.toString(), xmlVersion, syntax, flagBits);
+        synchronized (this) {
+            RegularExpression re = map.get(key);
+            if (re != null) {
+                hits++;
+                return re;
+            }
+            misses++;
+        }
+        // Compile outside the lock, so that other threads are not held up. If two threads compile the
+        // same regular expression at the same time, both results are equally usable.
+        RegularExpression re = new JRegularExpression(key.regex, xmlVersion, syntax, flagBits);
+        synchronized (this) {
+            if (capacity > 0) {
+                map.put(key, re);
+            }
+        }
+        return re;
+    }
+
+    /**
+     * Set the maximum number of regular expressions held in the cache. If the cache currently holds
+     * more than this number, the least recently used entries are discarded.
+     * @param capacity the maximum number of regular expressions to be held in the cache. The value
+     * zero means that no regular expressions are cached.
+     */
+
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Regex cache size must not be negative");
+        }
+        this.capacity = capacity;
+        Iterator<Key> iter = map.keySet().iterator();
+        while (map.size() > capacity) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    /**
+     * Get the maximum number of regular expressions held in the cache
+     * @return the capacity of the cache
+     */
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of regular expressions currently held in the cache
+     * @return the number of entries in the cache
+     */
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /**
+     * Get the number of requests that were satisfied from the cache
+     * @return the number of cache hits since the cache was created or the statistics were last reset
+     */
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Get the number of requests that required a regular expression to be compiled
+     * @return the number of cache misses since the cache was created or the statistics were last reset
+     */
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Get the proportion of requests that were satisfied from the cache
+     * @return the number of hits divided by the total number of requests, or zero if there have
+     * been no requests
+     */
+
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return (total == 0 ? 0.0 : (double)hits / (double)total);
+    }
+
+    /**
+     * Reset the hit and miss counts to zero
+     */
+
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * Remove all regular expressions from the cache. The statistics are not affected.
+     */
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    /**
+     * The key of an entry in the cache: the regular expression, together with all the
+     * other information that affects how it is compiled
+     */
+
+    private static class Key {
+
+        String regex;
+        int xmlVersion;
+        int syntax;
+        int flagBits;
+
+        public Key(String regex, int xmlVersion, int syntax, int flagBits) {
+            this.regex = regex;
+            this.xmlVersion = xmlVersion;
+            this.syntax = syntax;
+            this.flagBits = flagBits;
+        }
+
+        public boolean equals(Object obj) {
+            if (obj instanceof Key) {
+                Key k = (Key)obj;
+                return flagBits == k.flagBits && syntax == k.syntax &&
+                        xmlVersion == k.xmlVersion && regex.equals(k.regex);
+            }
+            return false;
+        }
+
+        public int hashCode() {
+            return regex.hashCode() ^ (flagBits << 4) ^ (syntax << 2) ^ xmlVersion;
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -8,7 +8,11 @@ import net.sf.saxon.expr.JPConverter;
 import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.TreeModel;
 import net.sf.saxon.om.Validation;
+import net.sf.saxon.tinytree.TinyDocumentImpl;
+import net.sf.saxon.tinytree.TinyTreeImage;
+import net.sf.saxon.tinytree.TinyTreeImageSource;
 import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.Type;
 
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
@@ -298,6 +302,9 @@ public class DocumentBuilder {
      *   <p>Saxon also accepts an instance of {@link javax.xml.transform.stax.StAXSource} or
      *  {@link net.sf.saxon.pull.PullSource}, which can be used to supply a document that is to be parsed
      *  using a StAX parser.</p>
+     *   <p>An instance of {@link TinyTreeImageSource} loads a tree image previously written using
+     *  {@link #saveTreeImage}. The loaded tree is used directly unless the options of this DocumentBuilder
+     *  (for example schema validation, or a tree model other than the TinyTree) require it to be copied.</p>
      *   <p>(9.2) This method no longer accepts an instance of {@link net.sf.saxon.AugmentedSource}, because of
      *  confusion over interactions between the properties of the AugmentedSource and the properties
      *  of this DocumentBuilder.</p>
@@ -350,6 +357,34 @@ public class DocumentBuilder {
         return build(new StreamSource(file));
     }
 
+    /**
+     * Save a document as a binary tree image. The image can later be reloaded, much faster than the
+     * original XML could be parsed, by supplying a {@link TinyTreeImageSource} to {@link #build(Source)}.
+     * If the document is not already a TinyTree, it is copied to a TinyTree first.
+     * @param document the document node of the tree to be saved
+     * @param file the file to which the tree image will be written
+     * @throws SaxonApiException if the supplied node is not a document node, or if the image
+     * cannot be written
+     * @since 9.2
+     */
+
+    public void saveTreeImage(XdmNode document, File file) throws SaxonApiException {
+        NodeInfo node = document.getUnderlyingNode();
+        if (node.getNodeKind() != Type.DOCUMENT) {
+            throw new SaxonApiException("Only a document node can be saved as a tree image");
+        }
+        try {
+            if (!(node instanceof TinyDocumentImpl)) {
+                ParseOptions options = new ParseOptions();
+                options.setModel(TreeModel.TINY_TREE);
+                node = config.buildDocument(node, options);
+            }
+            TinyTreeImage.save((TinyDocumentImpl)node, file);
+        } catch (XPathException e) {
+            throw new SaxonApiException(e);
+        }
+    }
+
      /**
      * Create a node by wrapping a recognized external node from a supported object model.
      *
@@ -29,6 +29,7 @@ public class Processor {
 
     private Configuration config;
     private SchemaManager schemaManager;
+    private XsltExecutableCache xsltExecutableCache;
 
     /**
      * Create a Processor
@@ -114,6 +115,27 @@ public class Processor {
         return new XQueryCompiler(this);
     }
 
+    /**
+     * Set a cache to hold the stylesheets compiled using XsltCompilers created by this Processor. By default
+     * there is no cache, and a stylesheet is compiled afresh each time {@link XsltCompiler#compile} is called.
+     * @param cache the cache to be used, or null if compiled stylesheets are not to be cached
+     * @since 9.2
+     */
+
+    public void setXsltExecutableCache(XsltExecutableCache cache) {
+        xsltExecutableCache = cache;
+    }
+
+    /**
+     * Get the cache that holds the stylesheets compiled using XsltCompilers created by this Processor
+     * @return the cache, or null if compiled stylesheets are not cached
+     * @since 9.2
+     */
+
+    public XsltExecutableCache getXsltExecutableCache() {
+        return xsltExecutableCache;
+    }
+
    /**
       * Register an extension function that is to be made available within any stylesheet, query,
       * or XPath expression compiled under the control of this processor. This method
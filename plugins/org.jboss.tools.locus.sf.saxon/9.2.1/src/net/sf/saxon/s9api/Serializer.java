@@ -2,6 +2,7 @@ package net.sf.saxon.s9api;
 
 import net.sf.saxon.Configuration;
 import net.sf.saxon.Controller;
+import net.sf.saxon.event.ChannelOutputStream;
 import net.sf.saxon.event.PipelineConfiguration;
 import net.sf.saxon.event.Receiver;
 import net.sf.saxon.event.SaxonOutputKeys;
@@ -15,6 +16,7 @@ import java.io.OutputStream;
 import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.WritableByteChannel;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
@@ -283,6 +285,27 @@ public class Serializer implements Destination {
         mustClose = false;
     }
 
+    /**
+     * Set the destination of the serialized output, as a WritableByteChannel, for example a
+     * {@link java.nio.channels.FileChannel}.
+     *
+     * <p>The output is collected in large direct buffers, which are written to the channel using
+     * gathering writes where the channel supports them. All the output has been written to the channel
+     * when the serialization is complete.</p>
+     *
+     * <p>Closing the channel after use is the responsibility of the caller.</p>
+     *
+     * <p>Calling this method has the side-effect of setting the OutputWriter and OutputFile to null.
+     * The OutputStream is set to a {@link ChannelOutputStream} that writes to the channel.</p>
+     *
+     * @param channel the channel to which the serialized XML output will be written.
+     * @since 9.2
+     */
+
+    public void setOutputChannel(WritableByteChannel channel) {
+        setOutputStream(new ChannelOutputStream(channel));
+    }
+
     /**
      * Set the destination of the serialized output, as a File.
      *
@@ -1,6 +1,7 @@
 package net.sf.saxon.s9api;
 
 import net.sf.saxon.expr.StaticContext;
+import net.sf.saxon.sxpath.ExpressionCache;
 import net.sf.saxon.sxpath.IndependentContext;
 import net.sf.saxon.sxpath.XPathEvaluator;
 import net.sf.saxon.sxpath.XPathExpression;
@@ -29,6 +30,9 @@ import java.util.Iterator;
  * the XPathCompiler to its initial state; instead, simply create a new
  * XPathCompiler.</p>
  *
+ * <p>If caching is enabled, using {@link #setCaching}, an expression that is compiled more than once using
+ * the same XPathCompiler is compiled only the first time; subsequent calls return the same XPathExecutable.</p>
+ *
  * @since 9.0
  */
 
@@ -36,6 +40,7 @@ public class XPathCompiler {
 
     private Processor processor;
     private IndependentContext env;
+    private ExpressionCache<XPathExecutable> cache;
     //private ArrayList<XPathVariable> declaredVariables = new ArrayList<XPathVariable>();
 
     /**
@@ -60,6 +65,7 @@ public class XPathCompiler {
 
     public void setBackwardsCompatible(boolean option) {
         env.setBackwardsCompatibilityMode(option);
+        clearCache();
     }
 
     /**
@@ -86,6 +92,7 @@ public class XPathCompiler {
             throw new IllegalArgumentException("Supplied base URI must be absolute");
         }
         env.setBaseURI(uri.toString());
+        clearCache();
     }
 
     /**
@@ -120,6 +127,7 @@ public class XPathCompiler {
 
     public void declareNamespace(String prefix, String uri) {
         env.declareNamespace(prefix, uri);
+        clearCache();
     }
 
     /**
@@ -142,6 +150,7 @@ public class XPathCompiler {
     public void importSchemaNamespace(String uri) {
         env.getImportedSchemaNamespaces().add(uri);
         env.getExecutable().setSchemaAware(true);
+        clearCache();
     }
 
     /**
@@ -155,6 +164,7 @@ public class XPathCompiler {
 
     public void setAllowUndeclaredVariables(boolean allow) {
         env.setAllowUndeclaredVariables(allow);
+        clearCache();
     }
 
     /**
@@ -183,6 +193,7 @@ public class XPathCompiler {
     public void declareVariable(QName qname) {
         env.declareVariable(qname.getNamespaceURI(), qname.getLocalName());
         //declaredVariables.add(var);
+        clearCache();
     }
 
     /**
@@ -205,6 +216,49 @@ public class XPathCompiler {
                 SequenceType.makeSequenceType(
                         itemType.getUnderlyingItemType(), occurrences.getCardinality()));
         //declaredVariables.add(var);
+        clearCache();
+    }
+
+    /**
+     * Say whether compiled expressions are to be cached. If caching is enabled, the XPathCompiler retains
+     * the compiled form of each expression compiled using {@link #compile}; when the same expression is compiled
+     * again, the existing XPathExecutable is returned, without parsing and type-checking the expression a second
+     * time. The cache is bounded in size: when it is full, the expression that was least recently used is discarded.
+     *
+     * <p>Any change to the static context held by this XPathCompiler (for example, declaring a namespace or a
+     * variable) clears the cache. Changes made directly to the underlying static context, obtained using
+     * {@link #getUnderlyingStaticContext}, are not detected, and should not be made while caching is enabled.</p>
+     * @param caching true if compiled expressions are to be cached; false if the cache is to be discarded
+     * (the default)
+     * @since 9.2
+     */
+
+    public void setCaching(boolean caching) {
+        if (!caching) {
+            cache = null;
+        } else if (cache == null) {
+            cache = new ExpressionCache<XPathExecutable>(ExpressionCache.DEFAULT_CAPACITY);
+        }
+    }
+
+    /**
+     * Ask whether compiled expressions are cached
+     * @return true if caching has been enabled using {@link #setCaching}
+     * @since 9.2
+     */
+
+    public boolean isCaching() {
+        return cache != null;
+    }
+
+    /**
+     * Discard any cached expressions, because the static context has changed
+     */
+
+    private void clearCache() {
+        if (cache != null) {
+            cache.clear();
+        }
     }
 
     /**
@@ -218,6 +272,13 @@ public class XPathCompiler {
      */
 
     public XPathExecutable compile(String source) throws SaxonApiException {
+        ExpressionCache<XPathExecutable> cache = this.cache;
+        if (cache != null) {
+            XPathExecutable exec = cache.get(source);
+            if (exec != null) {
+                return exec;
+            }
+        }
         IndependentContext ic = env;
         if (ic.isAllowUndeclaredVariables()) {
             // self-declaring variables modify the static context. The XPathCompiler must not change state
@@ -233,7 +294,11 @@ public class XPathCompiler {
             XPathEvaluator eval = new XPathEvaluator(processor.getUnderlyingConfiguration());
             eval.setStaticContext(ic);
             XPathExpression cexp = eval.createExpression(source);
-            return new XPathExecutable(cexp, processor, ic);
+            XPathExecutable exec = new XPathExecutable(cexp, processor, ic);
+            if (cache != null) {
+                cache.put(source, exec);
+            }
+            return exec;
         } catch (XPathException e) {
             throw new SaxonApiException(e);
         }
@@ -2,6 +2,7 @@ package net.sf.saxon.s9api;
 
 import net.sf.saxon.query.ModuleURIResolver;
 import net.sf.saxon.query.StaticQueryContext;
+import net.sf.saxon.query.XQueryExpression;
 import net.sf.saxon.trans.XPathException;
 
 import javax.xml.transform.ErrorListener;
@@ -29,6 +30,7 @@ public class XQueryCompiler {
     private StaticQueryContext env;
     private ItemType requiredContextItemType;
     private String encoding;
+    private XQueryExecutableCache cache;
 
     /**
      * Protected constructor
@@ -273,6 +275,30 @@ public class XQueryCompiler {
         return requiredContextItemType;
     }
 
+    /**
+     * Set a cache of compiled queries to be used by this XQueryCompiler. When a query supplied as a
+     * <code>String</code> or a <code>File</code> is compiled, the cache is searched for a query with the
+     * same text, or read from the same unmodified file, compiled with the same static context; if one is found,
+     * it is returned without compiling the query again. Otherwise the query is compiled and added to the cache.
+     * The same cache may be used by several XQueryCompilers belonging to the same Processor.
+     * @param cache the cache of compiled queries, or null if no cache is to be used (the default)
+     * @since 9.2
+     */
+
+    public void setXQueryExecutableCache(XQueryExecutableCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Get the cache of compiled queries used by this XQueryCompiler
+     * @return the cache of compiled queries, or null if no cache is in use
+     * @since 9.2
+     */
+
+    public XQueryExecutableCache getXQueryExecutableCache() {
+        return cache;
+    }
+
     /**
      * Compile a library module supplied as a string. The code generated by compiling the library is available
      * for importing by all subsequent compilations using the same XQueryCompiler; it is identified by an
@@ -380,8 +406,21 @@ public class XQueryCompiler {
      */
 
     public XQueryExecutable compile(String query) throws SaxonApiException {
+        XQueryExecutableCache.Key key = (cache == null ? null :
+                XQueryExecutableCache.makeKey(processor, query, false, null, env));
+        if (key != null) {
+            XQueryExecutable exec = cache.get(key);
+            if (exec != null) {
+                return exec;
+            }
+        }
         try {
-            return new XQueryExecutable(processor, env.compileQuery(query));
+            long start = System.nanoTime();
+            XQueryExecutable exec = new XQueryExecutable(processor, env.compileQuery(query));
+            if (key != null) {
+                cache.put(key, exec, System.nanoTime() - start);
+            }
+            return exec;
         } catch (XPathException e) {
             throw new SaxonApiException(e);
         }
@@ -400,12 +439,29 @@ public class XQueryCompiler {
 
     public XQueryExecutable compile(File query) throws SaxonApiException, IOException {
         FileInputStream stream = null;
+        String uri = query.toURI().toString();
+        String savedBaseUri = env.getBaseURI();
         try {
+            env.setBaseURI(uri);
+            XQueryExecutableCache.Key key = (cache == null ? null :
+                    XQueryExecutableCache.makeKey(processor, uri, true, encoding, env));
+            if (key != null) {
+                XQueryExecutable exec = cache.get(key);
+                if (exec != null) {
+                    env.setBaseURI(savedBaseUri);
+                    return exec;
+                }
+            }
+            long start = System.nanoTime();
+            long modified = query.lastModified();
             stream = new FileInputStream(query);
-            String savedBaseUri = env.getBaseURI();
-            env.setBaseURI(query.toURI().toString());
-            XQueryExecutable exec =
-                    new XQueryExecutable(processor, env.compileQuery(stream, encoding));
+            XQueryExpression exp = env.compileQuery(stream, encoding);
+            exp.getModuleDependencies().add(uri);
+            XQueryExecutable exec = new XQueryExecutable(processor, exp);
+            if (key != null && query.lastModified() == modified) {
+                // the file was not modified while it was being compiled
+                cache.put(key, exec, System.nanoTime() - start);
+            }
             env.setBaseURI(savedBaseUri);
             return exec;
         } catch (XPathException e) {
@@ -453,6 +509,30 @@ public class XQueryCompiler {
         }
     }
 
+    /**
+     * Load a compiled query from a binary image previously written using {@link XQueryExecutable#export}.
+     * The query is not compiled again, so the static context held by this XQueryCompiler is ignored.
+     *
+     * <p>The names used in the query are added to the NamePool of the Processor. Loading is fastest if the
+     * Processor is new, or if all the queries and stylesheets loaded into it were compiled using the same
+     * Processor, because the names then keep the codes they had when the query was compiled; otherwise
+     * the codes in the compiled query are translated as it is loaded.</p>
+     * @param stream the input stream from which the image is to be read. The stream is not closed.
+     * @return an XQueryExecutable representing the compiled query
+     * @throws SaxonApiException if the input is not a compiled query saved by this release of Saxon,
+     * or if an I/O error occurs
+     * @since 9.2
+     */
+
+    public XQueryExecutable importExecutable(InputStream stream) throws SaxonApiException {
+        try {
+            return new XQueryExecutable(processor,
+                    XQueryExpression.load(stream, processor.getUnderlyingConfiguration()));
+        } catch (XPathException e) {
+            throw new SaxonApiException(e);
+        }
+    }
+
     /**
      * Get the underlying {@link net.sf.saxon.query.StaticQueryContext} object that maintains the static context
      * information on behalf of this XQueryCompiler. This method provides an escape hatch to internal Saxon
@@ -1,5 +1,7 @@
 package net.sf.saxon.s9api;
 
+import net.sf.saxon.event.ParseOptions;
+import net.sf.saxon.event.ProxyReceiver;
 import net.sf.saxon.event.Receiver;
 import net.sf.saxon.om.Item;
 import net.sf.saxon.om.NodeInfo;
@@ -100,7 +102,10 @@ public class XQueryEvaluator implements Iterable<XdmItem> {
      *
      * <p>In all other cases a new Saxon tree is built, by calling
      * {@link net.sf.saxon.s9api.DocumentBuilder#build(javax.xml.transform.Source)}, and the document
-     * node of this tree is then used as the context item for the query.</p>
+     * node of this tree is then used as the context item for the query. If document projection has been
+     * enabled for the query (see {@link XQueryExpression#setAllowDocumentProjection}), and the paths used by
+     * the query can be analyzed, the tree contains only those parts of the document that the query
+     * can reach.</p>
      * @param source the source document to act as the initial context item for the query.
      */
 
@@ -110,7 +115,18 @@ public class XQueryEvaluator implements Iterable<XdmItem> {
         } else if (source instanceof DOMSource) {
             setContextItem(processor.newDocumentBuilder().wrap(source));
         } else {
-            setContextItem(processor.newDocumentBuilder().build(source));
+            ProxyReceiver projector = expression.makeDocumentProjector();
+            if (projector == null) {
+                setContextItem(processor.newDocumentBuilder().build(source));
+            } else {
+                ParseOptions options = new ParseOptions();
+                options.addFilter(projector);
+                try {
+                    setContextItem(new XdmNode(processor.getUnderlyingConfiguration().buildDocument(source, options)));
+                } catch (XPathException e) {
+                    throw new SaxonApiException(e);
+                }
+            }
         }
     }
 
@@ -0,0 +1,339 @@
+package net.sf.saxon.s9api;
+
+import net.sf.saxon.query.ModuleURIResolver;
+import net.sf.saxon.query.StaticQueryContext;
+import net.sf.saxon.om.NamespaceResolver;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An XQueryExecutableCache holds compiled queries, so that a query that is compiled repeatedly
+ * using an {@link XQueryCompiler} is compiled only once. The cache is used only if it has been
+ * registered with the XQueryCompiler by calling {@link XQueryCompiler#setXQueryExecutableCache}; the same
+ * cache may be registered with several XQueryCompilers belonging to the same {@link Processor}.
+ *
+ * <p>Only queries supplied as a <code>String</code> or as a <code>File</code> are cached. A compiled
+ * query is found in the cache if the same query text, or the same file, is compiled again with the same
+ * static context. The static context is compared using the properties that can be set on the XQueryCompiler
+ * (the base URI, encoding, declared namespaces, required context item type, ModuleURIResolver, language
+ * version, and the updating, schema-awareness and tracing options), together with the prolog defaults held in the
+ * underlying {@link StaticQueryContext}. A query compiled using a static context that declares external
+ * variables is not cached.</p>
+ *
+ * <p>A compiled query is discarded and the query is recompiled if the file containing the query, or any of the
+ * library modules that it imports, has been modified since it was compiled. This check is possible only for
+ * modules read from files; modules read from other URIs are assumed not to change, and when they do, the
+ * application should call {@link #invalidate}.</p>
+ *
+ * <p>The cache holds at most a given number of compiled queries; when it is full, the query that
+ * was least recently used is discarded. A query that fails to compile is not cached.</p>
+ *
+ * <p>The cache is thread-safe. If two threads compile the same query at the same time, both may compile it,
+ * in which case the query compiled later replaces the other in the cache. Note that warnings reported
+ * during compilation are not reported again when the compiled query is found in the cache.</p>
+ * @since 9.2
+ */
+
+public class XQueryExecutableCache {
+
+    private int maximumSize;
+    private LinkedHashMap<Key, XQueryExecutable> map;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long compilations = 0;
+    private long compileTime = 0;       // in nanoseconds
+
+    /**
+     * Create a cache of compiled queries
+     * @param maximumSize the maximum number of compiled queries held in the cache
+     * @throws IllegalArgumentException if the maximum size is less than one
+     */
+
+    public XQueryExecutableCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Cache size must be at least one");
+        }
+        this.maximumSize = maximumSize;
+        map = new LinkedHashMap<Key, XQueryExecutable>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, XQueryExecutable> eldest) {
+                if (size() > XQueryExecutableCache.this.maximumSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the maximum number of compiled queries held in the cache
+     * @return the maximum size of the cache
+     */
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Get the number of compiled queries currently held in the cache
+     * @return the number of entries in the cache
+     */
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /**
+     * Remove from the cache every compiled query that uses a given module, either as its main module
+     * (if the query was compiled from a file) or as a library module that it imports, directly or indirectly.
+     * The query will be recompiled when it is next requested.
+     * @param systemId the system ID of the module. A relative URI is resolved against the
+     * current working directory.
+     * @return the number of compiled queries that were removed
+     */
+
+    public synchronized int invalidate(String systemId) {
+        int count = 0;
+        for (Iterator<XQueryExecutable> it = map.values().iterator(); it.hasNext();) {
+            XQueryExecutable exec = it.next();
+            if (exec.getUnderlyingCompiledQuery().getModuleDependencies().contains(systemId)) {
+                it.remove();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Remove all compiled queries from the cache. The statistics are not reset.
+     */
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    /**
+     * Get the number of requests that were satisfied from the cache
+     * @return the number of cache hits
+     */
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Get the number of requests for a cacheable query that could not be satisfied from the cache,
+     * either because the query had not been compiled or because one of its modules had been modified since
+     * it was compiled
+     * @return the number of cache misses
+     */
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Get the number of compiled queries that have been discarded because the cache was full
+     * @return the number of evictions
+     */
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Get the number of queries that have been compiled successfully and added to the cache
+     * @return the number of compilations
+     */
+
+    public synchronized long getCompilationCount() {
+        return compilations;
+    }
+
+    /**
+     * Get the total time spent compiling the queries that were added to the cache
+     * @return the total compilation time, in milliseconds
+     */
+
+    public synchronized long getTotalCompileTime() {
+        return compileTime / 1000000L;
+    }
+
+    /**
+     * Make the key that identifies a query in the cache
+     * @param processor the Processor that owns the XQueryCompiler
+     * @param query the text of the query, or the absolute URI of the file containing the query
+     * @param isFile true if the query is identified by the URI of a file
+     * @param encoding the encoding set on the XQueryCompiler, or null
+     * @param env the static context held by the XQueryCompiler
+     * @return the key, or null if the query cannot be cached
+     */
+
+    static Key makeKey(Processor processor, String query, boolean isFile, String encoding,
+                       StaticQueryContext env) {
+        if (env.iterateDeclaredGlobalVariables().hasNext()) {
+            return null;
+        }
+        return new Key(processor, query, isFile, encoding, env);
+    }
+
+    /**
+     * Get a compiled query from the cache. A compiled query whose modules have been modified
+     * since it was compiled is removed from the cache.
+     * @param key the key of the query, as returned by {@link #makeKey}
+     * @return the compiled query, or null if there is no up-to-date compiled query in the cache
+     */
+
+    XQueryExecutable get(Key key) {
+        XQueryExecutable exec;
+        synchronized (this) {
+            exec = map.get(key);
+            if (exec == null) {
+                misses++;
+                return null;
+            }
+        }
+        // check the modification times without holding the lock, since this involves file system access
+        if (exec.getUnderlyingCompiledQuery().getModuleDependencies().isUpToDate()) {
+            synchronized (this) {
+                hits++;
+            }
+            return exec;
+        }
+        synchronized (this) {
+            if (map.get(key) == exec) {
+                map.remove(key);
+            }
+            misses++;
+        }
+        return null;
+    }
+
+    /**
+     * Add a compiled query to the cache
+     * @param key the key of the query, as returned by {@link #makeKey}
+     * @param exec the compiled query
+     * @param nanos the time taken to compile the query, in nanoseconds
+     */
+
+    synchronized void put(Key key, XQueryExecutable exec, long nanos) {
+        map.put(key, exec);
+        compilations++;
+        compileTime += nanos;
+    }
+
+    /**
+     * The key of an entry in the cache: the query text or file, together with those properties of
+     * the static context that affect the compiled query. The properties are copied, because the
+     * static context may be modified after the query has been compiled.
+     */
+
+    static class Key {
+
+        private Processor processor;
+        private String query;
+        private boolean isFile;
+        private String encoding;
+        private net.sf.saxon.type.ItemType requiredContextItemType;
+        private String baseURI;
+        private ModuleURIResolver moduleURIResolver;
+        private NamespaceResolver externalNamespaceResolver;
+        private HashMap<String, String> namespaces = new HashMap<String, String>(10);
+        private String defaultFunctionNamespace;
+        private String defaultElementNamespace;
+        private String defaultCollationName;
+        private String languageVersion;
+        private int constructionMode;
+        private boolean compileWithTracing;
+        private boolean updating;
+        private boolean schemaAware;
+        private boolean inheritNamespaces;
+        private boolean preserveNamespaces;
+        private boolean preserveBoundarySpace;
+        private boolean emptyLeast;
+
+        Key(Processor processor, String query, boolean isFile, String encoding, StaticQueryContext env) {
+            this.processor = processor;
+            this.query = query;
+            this.isFile = isFile;
+            this.encoding = encoding;
+            requiredContextItemType = env.getRequiredContextItemType();
+            baseURI = env.getBaseURI();
+            moduleURIResolver = env.getModuleURIResolver();
+            externalNamespaceResolver = env.getExternalNamespaceResolver();
+            for (Iterator<String> prefixes = env.iterateDeclaredPrefixes(); prefixes.hasNext();) {
+                String prefix = prefixes.next();
+                namespaces.put(prefix, env.getNamespaceForPrefix(prefix));
+            }
+            defaultFunctionNamespace = env.getDefaultFunctionNamespace();
+            defaultElementNamespace = env.getDefaultElementNamespace();
+            defaultCollationName = env.getDefaultCollationName();
+            languageVersion = env.getLanguageVersion();
+            constructionMode = env.getConstructionMode();
+            compileWithTracing = env.isCompileWithTracing();
+            updating = env.isUpdatingEnabled();
+            schemaAware = env.isSchemaAware();
+            inheritNamespaces = env.isInheritNamespaces();
+            preserveNamespaces = env.isPreserveNamespaces();
+            preserveBoundarySpace = env.isPreserveBoundarySpace();
+            emptyLeast = env.isEmptyLeast();
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)obj;
+            return query.equals(k.query) &&
+                    isFile == k.isFile &&
+                    processor == k.processor &&
+                    moduleURIResolver == k.moduleURIResolver &&
+                    externalNamespaceResolver == k.externalNamespaceResolver &&
+                    constructionMode == k.constructionMode &&
+                    compileWithTracing == k.compileWithTracing &&
+                    updating == k.updating &&
+                    schemaAware == k.schemaAware &&
+                    inheritNamespaces == k.inheritNamespaces &&
+                    preserveNamespaces == k.preserveNamespaces &&
+                    preserveBoundarySpace == k.preserveBoundarySpace &&
+                    emptyLeast == k.emptyLeast &&
+                    same(encoding, k.encoding) &&
+                    same(requiredContextItemType, k.requiredContextItemType) &&
+                    same(baseURI, k.baseURI) &&
+                    same(defaultFunctionNamespace, k.defaultFunctionNamespace) &&
+                    same(defaultElementNamespace, k.defaultElementNamespace) &&
+                    same(defaultCollationName, k.defaultCollationName) &&
+                    same(languageVersion, k.languageVersion) &&
+                    namespaces.equals(k.namespaces);
+        }
+
+        public int hashCode() {
+            return query.hashCode() ^ (baseURI == null ? 0 : baseURI.hashCode()) ^ namespaces.size();
+        }
+
+        private static boolean same(Object a, Object b) {
+            return (a == null ? b == null : a.equals(b));
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Contributor(s):
+//
@@ -3,11 +3,13 @@ package net.sf.saxon.s9api;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.PreparedStylesheet;
 import net.sf.saxon.trans.CompilerInfo;
+import net.sf.saxon.trans.XPathException;
 
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.URIResolver;
+import java.io.InputStream;
 
 /**
  *  An XsltCompiler object allows XSLT 2.0 stylesheets to be compiled. The compiler holds information that
@@ -165,17 +167,59 @@ public class XsltCompiler {
      * the exception that is thrown will <b>not</b> contain details of the actual errors found in the stylesheet. These
      * will instead be notified to the registered ErrorListener. The default ErrorListener displays error messages
      * on the standard error output.
+     *
+     * <p>If an {@link XsltExecutableCache} has been registered with the Processor, and the stylesheet has
+     * already been compiled with the same options and has not since been modified, the stylesheet is not compiled
+     * again, and the existing XsltExecutable is returned.</p>
      */
 
     public XsltExecutable compile(Source source) throws SaxonApiException {
+        XsltExecutableCache cache = processor.getXsltExecutableCache();
+        String systemId = (cache == null ? null : XsltExecutableCache.getCacheableSystemId(source));
+        if (systemId != null) {
+            XsltExecutable exec = cache.get(systemId, compilerInfo, config);
+            if (exec != null) {
+                return exec;
+            }
+        }
         try {
+            long start = System.nanoTime();
             PreparedStylesheet pss = PreparedStylesheet.compile(source, config, compilerInfo);
-            return new XsltExecutable(processor, pss);
+            XsltExecutable exec = new XsltExecutable(processor, pss);
+            if (systemId != null) {
+                cache.put(systemId, compilerInfo, config, exec, System.nanoTime() - start);
+            }
+            return exec;
         } catch (TransformerConfigurationException e) {
             throw new SaxonApiException(e);
         }
     }
 
+    /**
+     * Load a compiled stylesheet from a binary image previously written using {@link XsltExecutable#export}.
+     * The stylesheet is not compiled again; the compile-time options of this XsltCompiler are ignored, except
+     * that the OutputURIResolver and message receiver class are used when the stylesheet is run.
+     *
+     * <p>The names used in the stylesheet are added to the NamePool of the Processor. Loading is fastest if the
+     * Processor is new, or if all the stylesheets and queries loaded into it were compiled using the same
+     * Processor, because the names then keep the codes they had when the stylesheet was compiled; otherwise
+     * the codes in the compiled stylesheet are translated as it is loaded.</p>
+     * @param stream the input stream from which the image is to be read. The stream is not closed.
+     * @return an XsltExecutable, which represents the compiled stylesheet
+     * @throws SaxonApiException if the input is not a compiled stylesheet saved by this release of Saxon,
+     * or if an I/O error occurs
+     * @since 9.2
+     */
+
+    public XsltExecutable importExecutable(InputStream stream) throws SaxonApiException {
+        try {
+            PreparedStylesheet pss = PreparedStylesheet.load(stream, config, new CompilerInfo(compilerInfo));
+            return new XsltExecutable(processor, pss);
+        } catch (XPathException e) {
+            throw new SaxonApiException(e);
+        }
+    }
+
 }
 
 //
@@ -4,6 +4,10 @@ import net.sf.saxon.Controller;
 import net.sf.saxon.PreparedStylesheet;
 import net.sf.saxon.Configuration;
 import net.sf.saxon.trace.ExpressionPresenter;
+import net.sf.saxon.trans.XPathException;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
 
 /**
  * An XsltExecutable represents the compiled form of a stylesheet.
@@ -13,6 +17,11 @@ import net.sf.saxon.trace.ExpressionPresenter;
  *  It is simplest to load a new XsltTransformer each time the stylesheet is to be run.
  *  However, the XsltTransformer is serially reusable within a single thread. </p>
  *
+ * <p>An application that runs the same stylesheet many times, each time on a small input, can
+ * reduce the cost of each run by setting a transformer pool size (see {@link #setTransformerPoolSize}).
+ * Each XsltTransformer should then be released by calling {@link XsltTransformer#release} when
+ * the transformation is finished, so that its resources can be reused by a subsequent call on {@link #load}.</p>
+ *
  * <p>An XsltExecutable is created by using one of the <code>compile</code> methods on the
  * {@link XsltCompiler} class.</p>
  */
@@ -20,6 +29,8 @@ public class XsltExecutable {
 
     Processor processor;
     PreparedStylesheet pss;
+    private int poolSize = 0;
+    private ArrayList<Controller> pool = new ArrayList<Controller>();
 
     protected XsltExecutable(Processor processor, PreparedStylesheet pss) {
         this.processor = processor;
@@ -33,7 +44,82 @@ public class XsltExecutable {
      */
 
     public XsltTransformer load() {
-        return new XsltTransformer(processor, (Controller)pss.newTransformer());
+        Controller controller = null;
+        synchronized (pool) {
+            int n = pool.size();
+            if (n > 0) {
+                controller = pool.remove(n - 1);
+            }
+        }
+        if (controller == null) {
+            controller = (Controller)pss.newTransformer();
+        }
+        XsltTransformer transformer = new XsltTransformer(processor, controller);
+        transformer.executable = this;
+        return transformer;
+    }
+
+    /**
+     * Set the maximum number of transformers held in the pool of released transformers.
+     * When an {@link XsltTransformer} is released by calling {@link XsltTransformer#release}, its
+     * underlying Controller is reset to its initial state and is held in the pool, provided that the
+     * pool is not already full; a subsequent call on {@link #load} then reuses a Controller from the pool
+     * in preference to creating a new one. This saves the cost of creating the Controller and the objects
+     * that it uses for each transformation, which is significant when the transformations are small and
+     * run at a high rate.
+     *
+     * <p>A pooled Controller retains no state from the transformation in which it was last used: in
+     * particular, its stylesheet parameters, initial mode and template, listeners and resolvers are
+     * reset, and its document pool is cleared. The pool may be used by many threads concurrently.</p>
+     * @param size the maximum number of released transformers held in the pool. The default is zero,
+     * which means that released transformers are not reused.
+     * @throws IllegalArgumentException if the size is negative
+     * @since 9.2
+     */
+
+    public void setTransformerPoolSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Transformer pool size must not be negative");
+        }
+        synchronized (pool) {
+            poolSize = size;
+            while (pool.size() > size) {
+                pool.remove(pool.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Get the maximum number of transformers held in the pool of released transformers
+     * @return the maximum size of the pool, or zero if released transformers are not reused
+     * @since 9.2
+     */
+
+    public int getTransformerPoolSize() {
+        synchronized (pool) {
+            return poolSize;
+        }
+    }
+
+    /**
+     * Return the Controller of a released XsltTransformer to the pool, if there is room for it.
+     * @param controller the Controller of the released XsltTransformer
+     */
+
+    void release(Controller controller) {
+        synchronized (pool) {
+            if (pool.size() >= poolSize) {
+                return;
+            }
+        }
+        controller.reset();
+        controller.clearDocumentPool();
+        controller.setBaseOutputURI(null);
+        synchronized (pool) {
+            if (pool.size() < poolSize) {
+                pool.add(controller);
+            }
+        }
     }
 
     /**
@@ -49,6 +135,28 @@ public class XsltExecutable {
         pss.explain(new ExpressionPresenter(config, destination.getReceiver(config)));
     }
 
+    /**
+     * Save the compiled stylesheet as a binary image. The image can be loaded using
+     * {@link XsltCompiler#importExecutable}, which is much faster than compiling the stylesheet from source.
+     *
+     * <p>The image can only be loaded by the same release of Saxon. The names used in the stylesheet are
+     * imported into the NamePool of the Processor that loads it, which should therefore be a new Processor,
+     * or one that is used only to load stylesheets and queries that were all compiled using the same
+     * Processor.</p>
+     * @param stream the output stream to which the image is written. The stream is not closed.
+     * @throws SaxonApiException if the stylesheet cannot be saved, for example because it contains
+     * references to objects that cannot be serialized, or if an I/O error occurs
+     * @since 9.2
+     */
+
+    public void export(OutputStream stream) throws SaxonApiException {
+        try {
+            pss.save(stream);
+        } catch (XPathException e) {
+            throw new SaxonApiException(e);
+        }
+    }
+
     /**
      * Get the underlying implementation object representing the compiled stylesheet. This provides
      * an escape hatch into lower-level APIs. The object returned by this method may change from release
@@ -0,0 +1,346 @@
+package net.sf.saxon.s9api;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.OutputURIResolver;
+import net.sf.saxon.expr.Optimizer;
+import net.sf.saxon.functions.ResolveURI;
+import net.sf.saxon.trans.CompilerInfo;
+import net.sf.saxon.trans.ModuleDependencies;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An XsltExecutableCache holds compiled stylesheets, so that a stylesheet that is compiled repeatedly
+ * using an {@link XsltCompiler} is compiled only once. The cache is used only if it has been
+ * registered with the {@link Processor} by calling {@link Processor#setXsltExecutableCache}.
+ *
+ * <p>A compiled stylesheet is found in the cache if the same principal stylesheet module is compiled
+ * again with the same compile-time options. The principal module is identified by its absolute system ID;
+ * only a stylesheet that is supplied as a {@link StreamSource} or {@link SAXSource} that contains
+ * a system ID, but no input stream, reader, or XML reader, is cached, because only then is the
+ * content of the stylesheet determined by its system ID. The compile-time options that must match are
+ * the URIResolver and OutputURIResolver (which are compared by identity), the recovery policy, the
+ * message receiver class, and the schema-awareness, tracing, and version-warning options, together with
+ * the options of the {@link net.sf.saxon.Configuration} that affect the compiled code: the optimization
+ * level, the use of indexed filters, the inlining threshold, and the byte code generation options.</p>
+ *
+ * <p>A compiled stylesheet is discarded and the stylesheet is recompiled if any of its stylesheet modules
+ * (the principal module and the modules it includes or imports, directly or indirectly) has been modified
+ * since it was compiled. This check is possible only for modules read from files; modules read from other
+ * URIs are assumed not to change, and when they do, the application should call {@link #invalidate}.
+ * Other resources read during compilation, for example schemas imported using xsl:import-schema, are
+ * not checked.</p>
+ *
+ * <p>The cache holds at most a given number of compiled stylesheets; when it is full, the stylesheet that
+ * was least recently used is discarded. A stylesheet that fails to compile is not cached.</p>
+ *
+ * <p>The cache is thread-safe. If two threads compile the same stylesheet at the same time, both may
+ * compile it, in which case the stylesheet compiled later replaces the other in the cache.
+ * Note that warnings reported during compilation are not reported again when the compiled stylesheet
+ * is found in the cache.</p>
+ * @since 9.2
+ */
+
+public class XsltExecutableCache {
+
+    private int maximumSize;
+    private LinkedHashMap<Key, XsltExecutable> map;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long compilations = 0;
+    private long compileTime = 0;       // in nanoseconds
+
+    /**
+     * Create a cache of compiled stylesheets
+     * @param maximumSize the maximum number of compiled stylesheets held in the cache
+     * @throws IllegalArgumentException if the maximum size is less than one
+     */
+
+    public XsltExecutableCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Cache size must be at least one");
+        }
+        this.maximumSize = maximumSize;
+        map = new LinkedHashMap<Key, XsltExecutable>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, XsltExecutable> eldest) {
+                if (size() > XsltExecutableCache.this.maximumSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the maximum number of compiled stylesheets held in the cache
+     * @return the maximum size of the cache
+     */
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Get the number of compiled stylesheets currently held in the cache
+     * @return the number of entries in the cache
+     */
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /**
+     * Remove from the cache every compiled stylesheet that uses a given stylesheet module, either as its
+     * principal module or as a module that it includes or imports. The stylesheet will be recompiled when it
+     * is next requested.
+     * @param systemId the system ID of the stylesheet module. A relative URI is resolved against the
+     * current working directory.
+     * @return the number of compiled stylesheets that were removed
+     */
+
+    public synchronized int invalidate(String systemId) {
+        int count = 0;
+        for (Iterator<XsltExecutable> it = map.values().iterator(); it.hasNext();) {
+            XsltExecutable exec = it.next();
+            if (exec.getUnderlyingCompiledStylesheet().getModuleDependencies().contains(systemId)) {
+                it.remove();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Remove all compiled stylesheets from the cache. The statistics are not reset.
+     */
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    /**
+     * Get the number of requests that were satisfied from the cache
+     * @return the number of cache hits
+     */
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Get the number of requests for a cacheable stylesheet that could not be satisfied from the cache,
+     * either because the stylesheet had not been compiled or because it had been modified since it was compiled
+     * @return the number of cache misses
+     */
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Get the number of compiled stylesheets that have been discarded because the cache was full
+     * @return the number of evictions
+     */
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Get the number of stylesheets that have been compiled successfully and added to the cache
+     * @return the number of compilations
+     */
+
+    public synchronized long getCompilationCount() {
+        return compilations;
+    }
+
+    /**
+     * Get the total time spent compiling the stylesheets that were added to the cache
+     * @return the total compilation time, in milliseconds
+     */
+
+    public synchronized long getTotalCompileTime() {
+        return compileTime / 1000000L;
+    }
+
+    /**
+     * Get the system ID that identifies a stylesheet in the cache
+     * @param source the Source of the principal stylesheet module
+     * @return the absolute system ID of the stylesheet, or null if the stylesheet cannot be cached
+     */
+
+    static String getCacheableSystemId(Source source) {
+        String systemId;
+        if (source instanceof StreamSource) {
+            StreamSource ss = (StreamSource)source;
+            if (ss.getInputStream() != null || ss.getReader() != null) {
+                return null;
+            }
+            systemId = ss.getSystemId();
+        } else if (source instanceof SAXSource) {
+            SAXSource ss = (SAXSource)source;
+            if (ss.getXMLReader() != null || ss.getInputSource() == null ||
+                    ss.getInputSource().getByteStream() != null || ss.getInputSource().getCharacterStream() != null) {
+                return null;
+            }
+            systemId = ss.getInputSource().getSystemId();
+        } else {
+            return null;
+        }
+        if (systemId == null) {
+            return null;
+        }
+        try {
+            return ResolveURI.makeAbsolute(systemId, null).toString();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get a compiled stylesheet from the cache. A compiled stylesheet whose modules have been modified
+     * since it was compiled is removed from the cache.
+     * @param systemId the absolute system ID of the principal stylesheet module
+     * @param info the compile-time options
+     * @param config the Configuration used to compile the stylesheet
+     * @return the compiled stylesheet, or null if there is no up-to-date compiled stylesheet in the cache
+     */
+
+    XsltExecutable get(String systemId, CompilerInfo info, Configuration config) {
+        Key key = new Key(systemId, info, config);
+        XsltExecutable exec;
+        synchronized (this) {
+            exec = map.get(key);
+            if (exec == null) {
+                misses++;
+                return null;
+            }
+        }
+        // check the modification times without holding the lock, since this involves file system access
+        if (exec.getUnderlyingCompiledStylesheet().getModuleDependencies().isUpToDate()) {
+            synchronized (this) {
+                hits++;
+            }
+            return exec;
+        }
+        synchronized (this) {
+            if (map.get(key) == exec) {
+                map.remove(key);
+            }
+            misses++;
+        }
+        return null;
+    }
+
+    /**
+     * Add a compiled stylesheet to the cache
+     * @param systemId the absolute system ID of the principal stylesheet module
+     * @param info the compile-time options used to compile the stylesheet
+     * @param config the Configuration used to compile the stylesheet
+     * @param exec the compiled stylesheet
+     * @param nanos the time taken to compile the stylesheet, in nanoseconds
+     */
+
+    synchronized void put(String systemId, CompilerInfo info, Configuration config, XsltExecutable exec, long nanos) {
+        map.put(new Key(systemId, info, config), exec);
+        compilations++;
+        compileTime += nanos;
+    }
+
+    /**
+     * The key of an entry in the cache: the system ID of the principal stylesheet module, together
+     * with those compile-time options that affect the compiled stylesheet. The options are copied, because
+     * the CompilerInfo and the Configuration may be modified after the stylesheet has been compiled.
+     */
+
+    private static class Key {
+
+        private String systemId;
+        private URIResolver uriResolver;
+        private OutputURIResolver outputURIResolver;
+        private boolean compileWithTracing;
+        private int recoveryPolicy;
+        private boolean schemaAware;
+        private boolean versionWarning;
+        private String messageReceiverClassName;
+        private int optimizationLevel;
+        private boolean indexedFilters;
+        private int inliningThreshold;
+        private boolean generateByteCode;
+        private int byteCodeThreshold;
+        private boolean verifyByteCode;
+
+        public Key(String systemId, CompilerInfo info, Configuration config) {
+            this.systemId = systemId;
+            uriResolver = info.getURIResolver();
+            outputURIResolver = info.getOutputURIResolver();
+            compileWithTracing = info.isCompileWithTracing();
+            recoveryPolicy = info.getRecoveryPolicy();
+            schemaAware = info.isSchemaAware();
+            versionWarning = info.isVersionWarning();
+            messageReceiverClassName = info.getMessageReceiverClassName();
+            Optimizer optimizer = config.getOptimizer();
+            optimizationLevel = optimizer.getOptimizationLevel();
+            indexedFilters = optimizer.isIndexedFilters();
+            inliningThreshold = config.getInliningThreshold();
+            generateByteCode = config.isGenerateByteCode();
+            byteCodeThreshold = config.getByteCodeThreshold();
+            verifyByteCode = config.isVerifyByteCode();
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)obj;
+            return systemId.equals(k.systemId) &&
+                    uriResolver == k.uriResolver &&
+                    outputURIResolver == k.outputURIResolver &&
+                    compileWithTracing == k.compileWithTracing &&
+                    recoveryPolicy == k.recoveryPolicy &&
+                    schemaAware == k.schemaAware &&
+                    versionWarning == k.versionWarning &&
+                    optimizationLevel == k.optimizationLevel &&
+                    indexedFilters == k.indexedFilters &&
+                    inliningThreshold == k.inliningThreshold &&
+                    generateByteCode == k.generateByteCode &&
+                    byteCodeThreshold == k.byteCodeThreshold &&
+                    verifyByteCode == k.verifyByteCode &&
+                    (messageReceiverClassName == null ?
+                            k.messageReceiverClassName == null :
+                            messageReceiverClassName.equals(k.messageReceiverClassName));
+        }
+
+        public int hashCode() {
+            return systemId.hashCode() ^ recoveryPolicy ^
+                    (uriResolver == null ? 0 : System.identityHashCode(uriResolver));
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Contributor(s):
+//
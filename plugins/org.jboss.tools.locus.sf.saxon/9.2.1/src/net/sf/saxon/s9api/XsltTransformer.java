@@ -7,12 +7,15 @@ import net.sf.saxon.event.TransformerReceiver;
 import net.sf.saxon.om.NodeInfo;
 import net.sf.saxon.om.ValueRepresentation;
 import net.sf.saxon.trace.TraceListener;
+import net.sf.saxon.trans.Mode;
 import net.sf.saxon.trans.XPathException;
 
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
 
 /**
  * An <code>XsltTransformer</code> represents a compiled and loaded stylesheet ready for execution.
@@ -36,7 +39,9 @@ public class XsltTransformer implements Destination {
     private Processor processor;
     private Controller controller;
     private NodeInfo initialContextNode;
+    private Source initialSource;       // a StreamSource or SAXSource that has not yet been read
     private Destination destination;
+    XsltExecutable executable;
 
     /**
      * Protected constructor
@@ -139,6 +144,13 @@ public class XsltTransformer implements Destination {
      * <p>If the source is an instance of {@link javax.xml.transform.dom.DOMSource}, the DOM node identified
      * by the DOMSource is wrapped as a Saxon node, and this is then used as the context item</p>
      *
+     * <p>If the source is a {@link javax.xml.transform.stream.StreamSource} or a
+     * {@link javax.xml.transform.sax.SAXSource}, it is not read until the transformation starts. If the
+     * initial mode is then a streamable mode (declared using <code>saxon:mode streamable="yes"</code>), the
+     * document is streamed through the template rules without building a tree, and the source is consumed:
+     * it must be supplied again before the next transformation. Otherwise a tree is built, as described below,
+     * and this tree is used by this and any later transformations.</p>
+     *
      * <p>In all other cases a new Saxon tree is built, by calling
      * {@link net.sf.saxon.s9api.DocumentBuilder#build(javax.xml.transform.Source)}, and the document
      * node of this tree is then used as the context item for the query.</p>
@@ -151,6 +163,9 @@ public class XsltTransformer implements Destination {
             setInitialContextNode(new XdmNode((NodeInfo)source));
         } else if (source instanceof DOMSource) {
             setInitialContextNode(processor.newDocumentBuilder().wrap(source));
+        } else if (source instanceof StreamSource || source instanceof SAXSource) {
+            initialContextNode = null;
+            initialSource = source;
         } else {
             setInitialContextNode(processor.newDocumentBuilder().build(source));
         }
@@ -166,11 +181,13 @@ public class XsltTransformer implements Destination {
 
     public void setInitialContextNode(XdmNode node) {
         initialContextNode = (node == null ? null : node.getUnderlyingNode());
+        initialSource = null;
     }
 
     /**
      * Get the initial context node for the transformation, if one has been set
-     * @return the initial context node, or null if none has been set. This will not necessarily
+     * @return the initial context node, or null if none has been set, or if the source was supplied
+     * to {@link #setSource} as a StreamSource or SAXSource that has not yet been read. This will not necessarily
      * be the same {@link XdmNode} instance as was supplied, but it will be an XdmNode object that represents
      * the same underlying node.
      */
@@ -351,10 +368,14 @@ public class XsltTransformer implements Destination {
      * Perform the transformation. If this method is used, a destination must have been supplied
      * previously
      * @throws SaxonApiException if any dynamic error occurs during the transformation
-     * @throws IllegalStateException if no destination has been supplied
+     * @throws IllegalStateException if no destination has been supplied, or if the XsltTransformer
+     * has been released
      */
 
     public void transform() throws SaxonApiException {
+        if (controller == null) {
+            throw new IllegalStateException("The XsltTransformer has been released");
+        }
         if (destination == null) {
             throw new IllegalStateException("No destination has been supplied");
         }
@@ -366,7 +387,17 @@ public class XsltTransformer implements Destination {
             } else {
                 receiver = destination.getReceiver(controller.getConfiguration());
             }
-            controller.transform(initialContextNode, receiver);
+            if (initialSource != null && isStreamingInitialMode()) {
+                Source source = initialSource;
+                initialSource = null;           // the source can only be read once
+                controller.transform(source, receiver);
+            } else {
+                if (initialSource != null) {
+                    initialContextNode = processor.newDocumentBuilder().build(initialSource).getUnderlyingNode();
+                    initialSource = null;
+                }
+                controller.transform(initialContextNode, receiver);
+            }
             if (destination instanceof Serializer) {
                 ((Serializer)destination).close();
             }
@@ -375,6 +406,21 @@ public class XsltTransformer implements Destination {
         }
     }
 
+    /**
+     * Determine whether the transformation will start by applying templates in a streamable mode
+     * @return true if there is no initial named template, and the initial mode is streamable
+     */
+
+    private boolean isStreamingInitialMode() {
+        if (controller.getInitialTemplate() != null) {
+            return false;
+        }
+        QName modeName = getInitialMode();
+        Mode mode = controller.getExecutable().getRuleManager().getMode(
+                (modeName == null ? null : modeName.getStructuredQName()), false);
+        return mode != null && mode.isStreamable();
+    }
+
    /**
      * Return a Receiver which can be used to supply the principal source document for the transformation.
      * This method is intended primarily for internal use, though it can also
@@ -418,7 +464,31 @@ public class XsltTransformer implements Destination {
 
     public Controller getUnderlyingController() {
         return controller;
-    }    
+    }
+
+    /**
+     * Release this XsltTransformer, indicating that the application will make no further use of it.
+     * If a transformer pool has been enabled for the {@link XsltExecutable} from which the XsltTransformer
+     * was loaded (see {@link XsltExecutable#setTransformerPoolSize}), its resources are reset and reused
+     * by a subsequent call on {@link XsltExecutable#load}; otherwise they are left to the garbage collector.
+     * <p>After calling this method, the application must not use the XsltTransformer, or any Controller
+     * obtained from it using {@link #getUnderlyingController}. Calling this method more than once has
+     * no effect.</p>
+     * @since 9.2
+     */
+
+    public void release() {
+        if (controller != null) {
+            Controller c = controller;
+            controller = null;
+            initialContextNode = null;
+            initialSource = null;
+            destination = null;
+            if (executable != null) {
+                executable.release(c);
+            }
+        }
+    }
 }
 
 //
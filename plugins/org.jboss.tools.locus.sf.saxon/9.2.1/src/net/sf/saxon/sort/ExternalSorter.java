@@ -0,0 +1,391 @@
+package net.sf.saxon.sort;
+
+import net.sf.saxon.tinytree.TinyNodeImpl;
+import net.sf.saxon.tinytree.TinyTree;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.AtomicType;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.type.BuiltInType;
+import net.sf.saxon.type.Type;
+import net.sf.saxon.value.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * An ExternalSorter holds the sorted runs of an external sort. When a {@link SortedIterator} is sorting
+ * more items than the configured threshold, it sorts the records (each containing an item, its sort key
+ * values, and its position in the input sequence) in runs, and passes each run to the ExternalSorter,
+ * which writes it to a temporary file. When the input is exhausted, the runs are merged, and the records
+ * are read back in sorted order. Because records with equal sort keys are ordered by their position in
+ * the input, the sort remains stable.
+ *
+ * <p>Atomic values and nodes in a {@link TinyTree} are written to the file: a node is represented by its
+ * node number, and is reconstructed when it is read back, which requires the tree itself to remain in memory.
+ * Any other item (for example a node in a different tree model) is retained in memory, and the file
+ * contains only a reference to it.</p>
+ *
+ * <p>The temporary files are deleted as soon as the merge has opened them, where the platform allows a file
+ * that is open to be deleted; otherwise they are deleted when the merge finishes, whether the merged records
+ * have all been read or a failure has occurred, or when {@link #close} is called. They are not registered for
+ * deletion when the Java VM exits, since in a long-running server that registration is itself a leak.</p>
+ */
+
+public class ExternalSorter {
+
+    private static final int EMPTY = 0;
+    private static final int NODE = 1;
+    private static final int INTEGER = 2;
+    private static final int DOUBLE = 3;
+    private static final int FLOAT = 4;
+    private static final int ATOMIC = 5;
+    private static final int OBJECT = 6;
+    private static final int RETAINED = 7;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private SortedIterator sorter;
+    private int keyCount;
+    private int recordSize;
+    private List<File> runs = new ArrayList<File>();
+    private List<TinyTree> trees = new ArrayList<TinyTree>();
+    private HashMap<TinyTree, Integer> treeNumbers = new HashMap<TinyTree, Integer>();
+    private List<Object> retained = new ArrayList<Object>();
+    private PriorityQueue<RunReader> merge = null;
+    private List<RunReader> readers = null;
+
+    /**
+     * Create an ExternalSorter
+     * @param sorter the SortedIterator whose records are to be sorted. This is used to compare records
+     * when the runs are merged.
+     * @param keyCount the number of sort keys in each record
+     */
+
+    public ExternalSorter(SortedIterator sorter, int keyCount) {
+        this.sorter = sorter;
+        this.keyCount = keyCount;
+        recordSize = keyCount + 2;
+    }
+
+    /**
+     * Get the number of runs that have been written
+     * @return the number of runs
+     */
+
+    public int getNumberOfRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Write a sorted run of records to a temporary file
+     * @param records an array holding the records. Each record consists of the item, the values of its
+     * sort keys (null representing an empty sequence), and its position in the input sequence, as an Integer.
+     * @param stride the number of array entries occupied by each record. This may be larger than the number
+     * of entries that are written.
+     * @param count the number of records to be written
+     * @throws XPathException if the file cannot be written
+     */
+
+    public void writeRun(Object[] records, int stride, int count) throws XPathException {
+        File file = null;
+        try {
+            file = File.createTempFile("saxon", ".sort");
+            runs.add(file);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+            try {
+                for (int r=0; r<count; r++) {
+                    int k = r*stride;
+                    writeValue(records[k], out);
+                    for (int n=1; n<=keyCount; n++) {
+                        writeValue(records[k+n], out);
+                    }
+                    out.writeInt(((Integer)records[k+keyCount+1]).intValue());
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            close();
+            throw new XPathException("Failed to write sort run to temporary file" +
+                    (file == null ? "" : " " + file.getPath()) + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Start merging the runs that have been written. After calling this method, no more runs may be written.
+     * @throws XPathException if the files cannot be read
+     * @throws ClassCastException if sort key values are found that cannot be compared
+     */
+
+    public void startMerge() throws XPathException {
+        merge = new PriorityQueue<RunReader>(Math.max(runs.size(), 1), new Comparator<RunReader>() {
+            public int compare(RunReader a, RunReader b) {
+                return sorter.compareRecords(a.record, 0, b.record, 0);
+            }
+        });
+        readers = new ArrayList<RunReader>(runs.size());
+        boolean started = false;
+        try {
+            for (int i=0; i<runs.size(); i++) {
+                RunReader reader = new RunReader(runs.get(i));
+                readers.add(reader);
+                if (reader.advance()) {
+                    merge.add(reader);
+                }
+            }
+            started = true;
+        } catch (IOException e) {
+            throw new XPathException("Failed to read sort run from temporary file: " + e.getMessage(), e);
+        } finally {
+            if (started) {
+                // The files are no longer needed by name. Deleting them now means they are not left behind if
+                // the caller abandons the iteration; on platforms where an open file cannot be deleted, this
+                // fails, and the files are deleted when the merge finishes.
+                for (Iterator<File> it = runs.iterator(); it.hasNext();) {
+                    if (it.next().delete()) {
+                        it.remove();
+                    }
+                }
+            } else {
+                close();
+            }
+        }
+    }
+
+    /**
+     * Get the next record in sorted order
+     * @return an array containing the next record (the item, the values of its sort keys, and its
+     * position in the input sequence), or null if there are no more records
+     * @throws XPathException if a file cannot be read
+     * @throws ClassCastException if sort key values are found that cannot be compared
+     */
+
+    public Object[] next() throws XPathException {
+        boolean finished = true;
+        try {
+            RunReader reader = merge.poll();
+            if (reader == null) {
+                return null;
+            }
+            Object[] record = reader.record;
+            if (reader.advance()) {
+                merge.add(reader);
+            }
+            finished = false;
+            return record;
+        } catch (IOException e) {
+            throw new XPathException("Failed to read sort run from temporary file: " + e.getMessage(), e);
+        } finally {
+            if (finished) {
+                // the merge is complete, or has failed: release the files
+                close();
+            }
+        }
+    }
+
+    /**
+     * Close any files that are open, and delete the temporary files
+     */
+
+    public void close() {
+        if (readers != null) {
+            for (int i=0; i<readers.size(); i++) {
+                readers.get(i).close();
+            }
+            readers = null;
+        }
+        for (int i=0; i<runs.size(); i++) {
+            runs.get(i).delete();
+        }
+        runs.clear();
+        retained.clear();
+    }
+
+    /**
+     * Write an item or sort key value
+     * @param value the value to be written
+     * @param out the destination
+     * @throws IOException if the value cannot be written
+     */
+
+    private void writeValue(Object value, DataOutputStream out) throws IOException {
+        if (value == null) {
+            out.writeByte(EMPTY);
+        } else if (value instanceof TinyNodeImpl &&
+                ((TinyNodeImpl)value).getNodeKind() != Type.ATTRIBUTE &&
+                ((TinyNodeImpl)value).getNodeKind() != Type.NAMESPACE) {
+            TinyTree tree = ((TinyNodeImpl)value).getTree();
+            Integer treeNr = treeNumbers.get(tree);
+            if (treeNr == null) {
+                treeNr = new Integer(trees.size());
+                trees.add(tree);
+                treeNumbers.put(tree, treeNr);
+            }
+            out.writeByte(NODE);
+            out.writeInt(treeNr.intValue());
+            out.writeInt(((TinyNodeImpl)value).getNodeNumber());
+        } else if (value.getClass() == ObjectValue.class &&
+                isWritable(((ObjectValue)value).getObject())) {
+            out.writeByte(OBJECT);
+            writeValue(((ObjectValue)value).getObject(), out);
+        } else if (value instanceof Int64Value) {
+            out.writeByte(INTEGER);
+            out.writeInt(((AtomicValue)value).getTypeLabel().getFingerprint());
+            out.writeLong(((Int64Value)value).longValue());
+        } else if (value.getClass() == DoubleValue.class) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((DoubleValue)value).getDoubleValue());
+        } else if (value.getClass() == FloatValue.class) {
+            out.writeByte(FLOAT);
+            out.writeFloat(((FloatValue)value).getFloatValue());
+        } else if (isWritable(value)) {
+            out.writeByte(ATOMIC);
+            out.writeInt(((AtomicValue)value).getTypeLabel().getFingerprint());
+            byte[] bytes = ((AtomicValue)value).getStringValue().getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else {
+            out.writeByte(RETAINED);
+            out.writeInt(retained.size());
+            retained.add(value);
+        }
+    }
+
+    /**
+     * Determine whether a value can be written to a file and reconstructed from it
+     * @param value the value
+     * @return true if the value is a node in a TinyTree other than an attribute or namespace, or an
+     * atomic value of a built-in type that can be reconstructed from its string value
+     */
+
+    private static boolean isWritable(Object value) {
+        if (value instanceof TinyNodeImpl) {
+            int kind = ((TinyNodeImpl)value).getNodeKind();
+            return kind != Type.ATTRIBUTE && kind != Type.NAMESPACE;
+        } else if (value instanceof AtomicValue) {
+            AtomicType type = ((AtomicValue)value).getTypeLabel();
+            return type instanceof BuiltInAtomicType &&
+                    !(value instanceof ObjectValue) &&
+                    !(value instanceof QualifiedNameValue);
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Read an item or sort key value
+     * @param in the source
+     * @return the value that was written
+     * @throws IOException if the value cannot be read
+     * @throws XPathException if the value cannot be reconstructed
+     */
+
+    private Object readValue(DataInputStream in) throws IOException, XPathException {
+        int tag = in.readByte();
+        switch (tag) {
+            case EMPTY:
+                return null;
+            case NODE: {
+                TinyTree tree = trees.get(in.readInt());
+                return tree.getNode(in.readInt());
+            }
+            case OBJECT:
+                return new ObjectValue(readValue(in));
+            case INTEGER: {
+                BuiltInAtomicType type = (BuiltInAtomicType)BuiltInType.getSchemaType(in.readInt());
+                long value = in.readLong();
+                return (type == BuiltInAtomicType.INTEGER ? new Int64Value(value) : new Int64Value(value, type, false));
+            }
+            case DOUBLE:
+                return new DoubleValue(in.readDouble());
+            case FLOAT:
+                return new FloatValue(in.readFloat());
+            case ATOMIC: {
+                BuiltInAtomicType type = (BuiltInAtomicType)BuiltInType.getSchemaType(in.readInt());
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return StringValue.convertStringToBuiltInType(new String(bytes, "UTF-8"), type, null).asAtomic();
+            }
+            case RETAINED:
+                return retained.get(in.readInt());
+            default:
+                throw new IOException("Corrupt sort run: unknown value tag " + tag);
+        }
+    }
+
+    /**
+     * A RunReader reads the records of one run in turn
+     */
+
+    private class RunReader {
+
+        private DataInputStream in;
+        private Object[] record;
+
+        public RunReader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        }
+
+        /**
+         * Read the next record of the run
+         * @return true if a record was read, false if the run is exhausted
+         * @throws IOException if the file cannot be read
+         * @throws XPathException if a value cannot be reconstructed
+         */
+
+        public boolean advance() throws IOException, XPathException {
+            if (in == null) {
+                return false;
+            }
+            Object[] r = new Object[recordSize];
+            try {
+                r[0] = readValue(in);
+            } catch (EOFException e) {
+                close();
+                return false;
+            }
+            for (int n=1; n<=keyCount; n++) {
+                r[n] = readValue(in);
+            }
+            r[keyCount+1] = new Integer(in.readInt());
+            record = r;
+            return true;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore the failure
+                }
+                in = null;
+            }
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
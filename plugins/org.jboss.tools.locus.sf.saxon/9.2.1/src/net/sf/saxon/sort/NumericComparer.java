@@ -51,31 +51,8 @@ public class NumericComparer implements AtomicComparer, java.io.Serializable {
     */
 
     public int compareAtomicValues(AtomicValue a, AtomicValue b) {
-        double d1, d2;
-
-        if (a instanceof NumericValue) {
-            d1 = ((NumericValue)a).getDoubleValue();
-        } else if (a == null) {
-            d1 = Double.NaN;
-        } else {
-            try {
-                d1 = Value.stringToNumber(a.getStringValueCS());
-            } catch (NumberFormatException err) {
-                d1 = Double.NaN;
-            }
-        }
-
-        if (b instanceof NumericValue) {
-            d2 = ((NumericValue)b).getDoubleValue();
-        } else if (b == null) {
-            d2 = Double.NaN;
-        } else {
-            try {
-                d2 = Value.stringToNumber(b.getStringValueCS());
-            } catch (NumberFormatException err) {
-                d2 = Double.NaN;
-            }
-        }
+        double d1 = getNumericValue(a);
+        double d2 = getNumericValue(b);
 
         if (Double.isNaN(d1)) {
             if (Double.isNaN(d2)) {
@@ -93,6 +70,26 @@ public class NumericComparer implements AtomicComparer, java.io.Serializable {
 
     }
 
+    /**
+     * Get the value of an item as a double, in the form used for comparison by this comparer
+     * @param a the item (null represents an empty sequence)
+     * @return the numeric value of the item, or NaN if the item is empty or cannot be converted to a number
+     */
+
+    public static double getNumericValue(AtomicValue a) {
+        if (a instanceof NumericValue) {
+            return ((NumericValue)a).getDoubleValue();
+        } else if (a == null) {
+            return Double.NaN;
+        } else {
+            try {
+                return Value.stringToNumber(a.getStringValueCS());
+            } catch (NumberFormatException err) {
+                return Double.NaN;
+            }
+        }
+    }
+
     /**
      * Compare two AtomicValue objects for equality according to the rules for their data type. UntypedAtomic
      * values are compared by converting to the type of the other operand.
@@ -0,0 +1,390 @@
+package net.sf.saxon.sort;
+
+import net.sf.saxon.trans.WorkerPool;
+import net.sf.saxon.trans.XPathException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * A RecordSorter sorts a set of records, identified by their record numbers 0 to n-1, and delivers
+ * an array containing the record numbers in sorted order. The records themselves are not moved during
+ * the sort, which means that the comparison of two records can safely be done on several threads at once.
+ *
+ * <p>The algorithm is a merge sort, which is stable. For large inputs, if a pool of worker threads is
+ * supplied, the records are divided into contiguous ranges which are sorted in parallel, and the sorted
+ * ranges are then merged, also in parallel where possible.</p>
+ *
+ * <p>The comparison of records is done by a {@link RecordComparer}. As well as a comparer that delegates
+ * to a {@link Sortable}, this class provides comparers that handle the common case where the first sort
+ * key is an integer, a double, or a string compared by Unicode codepoint: these compare the key values held
+ * in a primitive array, and only consult the Sortable when the first sort key values are equal.</p>
+ */
+
+public class RecordSorter {
+
+    /**
+     * The minimum number of records for which the sort is done in parallel
+     */
+
+    public static final int PARALLEL_THRESHOLD = 50000;
+
+    // Ranges smaller than this are sorted using an insertion sort
+    private static final int SMALL = 12;
+
+    private RecordSorter() {
+    }
+
+    /**
+     * Sort a set of records
+     * @param count the number of records
+     * @param comparer the comparer used to compare two records, identified by their record numbers. The comparer
+     * must define a total ordering: two distinct records must never compare equal.
+     * @param pool a pool of worker threads to be used for sorting in parallel, or null if the sort is to be
+     * done entirely on the current thread
+     * @return an array of length count containing the record numbers in sorted order
+     * @throws XPathException if a worker thread is interrupted
+     */
+
+    public static int[] sort(int count, RecordComparer comparer, WorkerPool pool) throws XPathException {
+        int[] order = new int[count];
+        for (int i=0; i<count; i++) {
+            order[i] = i;
+        }
+        int[] work = new int[count];
+        System.arraycopy(order, 0, work, 0, count);
+        if (pool == null || count < PARALLEL_THRESHOLD || pool.getNumberOfThreads() < 2) {
+            mergeSort(work, order, 0, count, comparer);
+            return order;
+        }
+
+        // divide the records into a number of ranges that is a power of two, so that they can be
+        // merged in pairs
+
+        int ranges = 2;
+        while (ranges < pool.getNumberOfThreads()) {
+            ranges *= 2;
+        }
+        int[] bounds = new int[ranges + 1];
+        for (int r=0; r<=ranges; r++) {
+            bounds[r] = (int)(((long)count * r) / ranges);
+        }
+
+        List<Future<Object>> tasks = new ArrayList<Future<Object>>(ranges);
+        for (int r=0; r<ranges; r++) {
+            tasks.add(pool.submit(new SortTask(work, order, bounds[r], bounds[r+1], comparer)));
+        }
+        waitForAll(tasks);
+
+        int[] source = order;
+        int[] target = work;
+        for (int width=1; width<ranges; width*=2) {
+            tasks.clear();
+            for (int r=0; r<ranges; r+=2*width) {
+                tasks.add(pool.submit(new MergeTask(source, target,
+                        bounds[r], bounds[r+width], bounds[r+2*width], comparer)));
+            }
+            waitForAll(tasks);
+            int[] temp = source;
+            source = target;
+            target = temp;
+        }
+        return source;
+    }
+
+    /**
+     * Wait for a number of tasks to finish. If any task fails, the exception is rethrown.
+     * @param tasks the Futures representing the tasks
+     * @throws XPathException if a task fails, or if the thread is interrupted
+     */
+
+    private static void waitForAll(List<Future<Object>> tasks) throws XPathException {
+        for (int t=0; t<tasks.size(); t++) {
+            WorkerPool.getResult(tasks.get(t));
+        }
+    }
+
+    /**
+     * Sort a range of an array of record numbers. On entry the source and destination arrays must contain
+     * the same values in this range; on exit the destination array contains them in sorted order, and the
+     * source array has been used as working space.
+     * @param src the source array
+     * @param dest the destination array
+     * @param low the start of the range (inclusive)
+     * @param high the end of the range (exclusive)
+     * @param comparer the comparer used to compare two records
+     */
+
+    private static void mergeSort(int[] src, int[] dest, int low, int high, RecordComparer comparer) {
+
+        // Insertion sort on smallest ranges
+        if (high - low < SMALL) {
+            for (int i=low; i<high; i++) {
+                for (int j=i; j>low && comparer.compare(dest[j-1], dest[j]) > 0; j--) {
+                    int temp = dest[j];
+                    dest[j] = dest[j-1];
+                    dest[j-1] = temp;
+                }
+            }
+            return;
+        }
+
+        // Recursively sort halves of dest into src
+        int mid = (low + high) >>> 1;
+        mergeSort(dest, src, low, mid, comparer);
+        mergeSort(dest, src, mid, high, comparer);
+
+        // If the list is already sorted, just copy from src to dest
+        if (comparer.compare(src[mid-1], src[mid]) <= 0) {
+            System.arraycopy(src, low, dest, low, high - low);
+            return;
+        }
+
+        merge(src, dest, low, mid, high, comparer);
+    }
+
+    /**
+     * Merge two adjacent sorted ranges of one array into the same positions of another array.
+     * Records in the first range precede equal records in the second.
+     * @param src the array containing the two sorted ranges
+     * @param dest the array to which the merged range is written
+     * @param low the start of the first range (inclusive)
+     * @param mid the end of the first range (exclusive) and the start of the second range (inclusive)
+     * @param high the end of the second range (exclusive)
+     * @param comparer the comparer used to compare two records
+     */
+
+    private static void merge(int[] src, int[] dest, int low, int mid, int high, RecordComparer comparer) {
+        int p = low;
+        int q = mid;
+        for (int i=low; i<high; i++) {
+            if (q >= high || (p < mid && comparer.compare(src[p], src[q]) <= 0)) {
+                dest[i] = src[p++];
+            } else {
+                dest[i] = src[q++];
+            }
+        }
+    }
+
+    /**
+     * Task to sort one range of the records on a worker thread
+     */
+
+    private static class SortTask implements Callable<Object> {
+
+        private int[] src;
+        private int[] dest;
+        private int low;
+        private int high;
+        private RecordComparer comparer;
+
+        public SortTask(int[] src, int[] dest, int low, int high, RecordComparer comparer) {
+            this.src = src;
+            this.dest = dest;
+            this.low = low;
+            this.high = high;
+            this.comparer = comparer;
+        }
+
+        public Object call() {
+            mergeSort(src, dest, low, high, comparer);
+            return null;
+        }
+    }
+
+    /**
+     * Task to merge two adjacent sorted ranges of the records on a worker thread
+     */
+
+    private static class MergeTask implements Callable<Object> {
+
+        private int[] src;
+        private int[] dest;
+        private int low;
+        private int mid;
+        private int high;
+        private RecordComparer comparer;
+
+        public MergeTask(int[] src, int[] dest, int low, int mid, int high, RecordComparer comparer) {
+            this.src = src;
+            this.dest = dest;
+            this.low = low;
+            this.mid = mid;
+            this.high = high;
+            this.comparer = comparer;
+        }
+
+        public Object call() {
+            if (mid > low && mid < high && comparer.compare(src[mid-1], src[mid]) <= 0) {
+                System.arraycopy(src, low, dest, low, high - low);
+            } else {
+                merge(src, dest, low, mid, high, comparer);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Convert a double to a long, in such a way that the ordering of the longs is the same as the
+     * ordering of the doubles. Negative zero is treated as equal to positive zero. The value must
+     * not be NaN.
+     * @param d the double to be converted
+     * @return a long that sorts in the same position as the double
+     */
+
+    public static long doubleToSortKey(double d) {
+        if (d == 0) {
+            // eliminate negative zero
+            d = 0.0;
+        }
+        long bits = Double.doubleToLongBits(d);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    /**
+     * A RecordComparer compares two records, identified by their record numbers
+     */
+
+    public static abstract class RecordComparer {
+
+        /**
+         * Compare two records
+         * @param a the record number of the first record
+         * @param b the record number of the second record
+         * @return <0 if record a sorts before record b, >0 if it sorts after; 0 only if a and b are the same record
+         */
+
+        public abstract int compare(int a, int b);
+    }
+
+    /**
+     * A RecordComparer that delegates to a Sortable, in which the position of each record is its
+     * record number
+     */
+
+    public static class SortableComparer extends RecordComparer {
+
+        private Sortable sortable;
+
+        /**
+         * Create a comparer that delegates to a Sortable
+         * @param sortable the Sortable, whose compare() method defines a total ordering of the records
+         */
+
+        public SortableComparer(Sortable sortable) {
+            this.sortable = sortable;
+        }
+
+        public int compare(int a, int b) {
+            return sortable.compare(a, b);
+        }
+    }
+
+    /**
+     * A RecordComparer that compares the records using a first sort key that is held as an array of longs.
+     * Records whose first sort key values are equal are compared using a Sortable; or if there is no
+     * Sortable, they are returned in order of their record numbers.
+     */
+
+    public static class LongKeyComparer extends RecordComparer {
+
+        private long[] keys;
+        private boolean descending;
+        private Sortable tieBreaker;
+
+        /**
+         * Create a comparer using keys held as longs
+         * @param keys the first sort key of each record, indexed by record number
+         * @param descending true if the records are to be sorted in descending order of the keys
+         * @param tieBreaker the Sortable used to compare records whose keys are equal, or null if
+         * such records are to be sorted by record number
+         */
+
+        public LongKeyComparer(long[] keys, boolean descending, Sortable tieBreaker) {
+            this.keys = keys;
+            this.descending = descending;
+            this.tieBreaker = tieBreaker;
+        }
+
+        public int compare(int a, int b) {
+            long x = keys[a];
+            long y = keys[b];
+            if (x != y) {
+                return ((x < y) != descending) ? -1 : +1;
+            }
+            return (tieBreaker == null ? a - b : tieBreaker.compare(a, b));
+        }
+    }
+
+    /**
+     * A RecordComparer that compares the records using a first sort key that is held as an array of strings,
+     * compared by Unicode codepoint. The strings must not contain surrogate pairs. A null entry represents
+     * an empty key. Records whose first sort key values are equal are compared using a Sortable; or if
+     * there is no Sortable, they are returned in order of their record numbers.
+     */
+
+    public static class StringKeyComparer extends RecordComparer {
+
+        private String[] keys;
+        private boolean descending;
+        private boolean emptyGreatest;
+        private Sortable tieBreaker;
+
+        /**
+         * Create a comparer using keys held as strings
+         * @param keys the first sort key of each record, indexed by record number. A null entry represents
+         * an empty key.
+         * @param descending true if the records are to be sorted in descending order of the keys
+         * @param emptyGreatest true if empty keys sort after all other keys (before taking into account
+         * the descending option); false if they sort before all other keys
+         * @param tieBreaker the Sortable used to compare records whose keys are equal, or null if
+         * such records are to be sorted by record number
+         */
+
+        public StringKeyComparer(String[] keys, boolean descending, boolean emptyGreatest, Sortable tieBreaker) {
+            this.keys = keys;
+            this.descending = descending;
+            this.emptyGreatest = emptyGreatest;
+            this.tieBreaker = tieBreaker;
+        }
+
+        public int compare(int a, int b) {
+            String x = keys[a];
+            String y = keys[b];
+            int c;
+            if (x == null) {
+                c = (y == null ? 0 : (emptyGreatest ? +1 : -1));
+            } else if (y == null) {
+                c = (emptyGreatest ? -1 : +1);
+            } else {
+                // without surrogate pairs, UTF-16 order is the same as codepoint order
+                c = x.compareTo(y);
+            }
+            if (c != 0) {
+                return (descending ? -c : c);
+            }
+            return (tieBreaker == null ? a - b : tieBreaker.compare(a, b));
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
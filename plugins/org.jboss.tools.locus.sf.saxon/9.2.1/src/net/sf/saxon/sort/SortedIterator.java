@@ -7,15 +7,20 @@ import net.sf.saxon.om.Item;
 import net.sf.saxon.om.LookaheadIterator;
 import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.trace.Location;
-import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.trans.NoDynamicContextException;
+import net.sf.saxon.trans.WorkerPool;
+import net.sf.saxon.trans.XPathException;
 import net.sf.saxon.value.AtomicValue;
+import net.sf.saxon.value.DoubleValue;
+import net.sf.saxon.value.Int64Value;
+import net.sf.saxon.value.StringValue;
 
 /**
 * Class to do a sorted iteration
 */
 
-public class SortedIterator implements SequenceIterator, LastPositionFinder, LookaheadIterator, Sortable {
+public class SortedIterator
+        implements SequenceIterator, LastPositionFinder, LookaheadIterator, Sortable, Cloneable {
 
     // the items to be sorted
     protected SequenceIterator base;
@@ -45,6 +50,19 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
     // The host language (XSLT, XQuery, XPath). Used only to decide which error code to use on dynamic errors.
     private int hostLanguage;
 
+    // The maximum number of records held in memory, or zero if there is no limit. If there are more records
+    // than this, sorted runs of records are written to temporary files and then merged.
+    protected int runSize = 0;
+
+    // The number of records that have been written to temporary files
+    protected int spilled = 0;
+
+    // The object holding the sorted runs, if any have been written
+    private ExternalSorter externalSorter = null;
+
+    // The item most recently read from the merged runs
+    private Item currentItem = null;
+
     private SortedIterator(){}
 
     /**
@@ -67,6 +85,7 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
             this.comparators[n] = comparators[n].provideContext(context);
         }
         recordSize = comparators.length + 2;
+        runSize = context.getConfiguration().getExternalSortThreshold();
 
         // Avoid doing the sort until the user wants the first item. This is because
         // sometimes the user only wants to know whether the collection is empty.
@@ -131,6 +150,9 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
             doSort();
         }
         if (position < count) {
+            if (externalSorter != null) {
+                return nextMerged();
+            }
             return (Item)nodeKeys[(position++)*recordSize];
         } else {
             position = -1;
@@ -142,9 +164,35 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
         if (position < 1) {
             return null;
         }
+        if (externalSorter != null) {
+            return currentItem;
+        }
         return (Item)nodeKeys[(position-1)*recordSize];
     }
 
+    /**
+     * Get the next item from the merged runs, when an external sort has been done
+     * @return the next item in sorted order
+     * @throws XPathException if the runs cannot be read, or if non-comparable sort key values are found
+     */
+
+    private Item nextMerged() throws XPathException {
+        Object[] record;
+        try {
+            record = externalSorter.next();
+        } catch (ClassCastException e) {
+            externalSorter.close();
+            throw makeNonComparableError(e);
+        }
+        position++;
+        currentItem = (Item)record[0];
+        if (position == count) {
+            // delete the temporary files as soon as possible
+            externalSorter.close();
+        }
+        return currentItem;
+    }
+
     public int position() {
         return position;
     }
@@ -157,6 +205,9 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
     }
 
     public void close() {
+        if (externalSorter != null) {
+            externalSorter.close();
+        }
     }
 
     public SequenceIterator getAnother() throws XPathException {
@@ -165,6 +216,25 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
         if (count<0) {
             doSort();
         }
+        if (externalSorter != null) {
+            // the sorted records are not held in memory, so the new iterator has to repeat the sort
+            SortedIterator s;
+            try {
+                s = (SortedIterator)clone();
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError(e);
+            }
+            s.base = base.getAnother();
+            s.context = context.newMinorContext();
+            s.context.setCurrentIterator(s.base);
+            s.nodeKeys = null;
+            s.count = -1;
+            s.position = 0;
+            s.spilled = 0;
+            s.externalSorter = null;
+            s.currentItem = null;
+            return s;
+        }
         SortedIterator s = new SortedIterator();
         // the new iterator is the same as the old ...
         s.base = base.getAnother();
@@ -206,6 +276,9 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
         } else {
             allocated = 100;
         }
+        if (runSize > 0 && allocated > runSize) {
+            allocated = runSize;
+        }
 
         nodeKeys = new Object[allocated * recordSize];
         count = 0;
@@ -217,6 +290,9 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
             if (item == null) {
                 break;
             }
+            if (count == runSize && runSize > 0) {
+                writeRun();
+            }
             if (count==allocated) {
                 allocated *= 2;
                 Object[] nk2 = new Object[allocated * recordSize];
@@ -231,7 +307,7 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
                 nodeKeys[k+n+1] = sortKeyEvaluator.evaluateSortKey(n, context);
             }
             // make the sort stable by adding the record number
-            nodeKeys[k+comparators.length+1] = new Integer(count);
+            nodeKeys[k+comparators.length+1] = new Integer(spilled + count);
             count++;
         }
 
@@ -245,27 +321,221 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
     }
 
     private void doSort() throws XPathException {
-        buildArray();
+        boolean built = false;
+        try {
+            buildArray();
+            built = true;
+        } finally {
+            if (!built && externalSorter != null) {
+                // evaluating the input or the sort keys failed after some runs were written
+                externalSorter.close();
+            }
+        }
+        if (externalSorter != null) {
+            // write the records still in memory as the last run, and start merging the runs
+            writeRun();
+            count = spilled;
+            nodeKeys = null;
+            try {
+                externalSorter.startMerge();
+            } catch (ClassCastException e) {
+                externalSorter.close();
+                throw makeNonComparableError(e);
+            }
+            return;
+        }
         if (count<2) return;
 
         // sort the array
 
         //QuickSort.sort(this, 0, count-1);
         try {
-            GenericSorter.quickSort(0, count, this);
+            sortRecords();
         } catch (ClassCastException e) {
             //e.printStackTrace();
-            XPathException err = new XPathException("Non-comparable types found while sorting: " + e.getMessage());
-            if (hostLanguage == Configuration.XSLT) {
-                err.setErrorCode("XTDE1030");
-            } else {
-                err.setErrorCode("XPTY0004");
-            }
-            throw err;
+            throw makeNonComparableError(e);
         }
         //GenericSorter.mergeSort(0, count, this);
     }
 
+    /**
+     * Sort the records currently held in memory, and write them to a temporary file as a sorted run.
+     * The array is then cleared so that it can be reused for the next run. This is called while building
+     * the array, when the number of records reaches the external sort threshold.
+     * @throws XPathException if the file cannot be written, or if non-comparable sort key values are found
+     */
+
+    protected void writeRun() throws XPathException {
+        if (externalSorter == null) {
+            externalSorter = new ExternalSorter(this, comparators.length);
+        }
+        int length = nodeKeys.length;
+        if (count > 1) {
+            try {
+                sortRecords();
+            } catch (ClassCastException e) {
+                externalSorter.close();
+                throw makeNonComparableError(e);
+            }
+        }
+        externalSorter.writeRun(nodeKeys, recordSize, count);
+        spilled += count;
+        count = 0;
+        nodeKeys = new Object[length];
+    }
+
+    /**
+     * Make the exception to be thrown when sort key values are found that cannot be compared
+     * @param e the ClassCastException thrown by the comparer
+     * @return the exception to be thrown
+     */
+
+    private XPathException makeNonComparableError(ClassCastException e) {
+        XPathException err = new XPathException("Non-comparable types found while sorting: " + e.getMessage());
+        if (hostLanguage == Configuration.XSLT) {
+            err.setErrorCode("XTDE1030");
+        } else {
+            err.setErrorCode("XPTY0004");
+        }
+        return err;
+    }
+
+    /**
+     * Sort the records in the nodeKeys array. If the values of the first sort key allow it, they are
+     * compared as primitive values without calling the AtomicComparer. If there are enough records
+     * and multithreading is enabled, the sort is done in parallel.
+     * @throws XPathException if a worker thread is interrupted
+     */
+
+    private void sortRecords() throws XPathException {
+        RecordSorter.RecordComparer comparer = makePrimitiveKeyComparer();
+        WorkerPool pool = null;
+        Configuration config = context.getConfiguration();
+        if (count >= RecordSorter.PARALLEL_THRESHOLD && config.isMultiThreading() && !WorkerPool.isWorkerThread()) {
+            pool = config.getWorkerPool();
+        }
+        if (comparer == null) {
+            if (pool == null) {
+                GenericSorter.quickSort(0, count, this);
+                return;
+            }
+            comparer = new RecordSorter.SortableComparer(this);
+        }
+        int[] order = RecordSorter.sort(count, comparer, pool);
+        Object[] sorted = new Object[count * recordSize];
+        for (int i=0; i<count; i++) {
+            System.arraycopy(nodeKeys, order[i]*recordSize, sorted, i*recordSize, recordSize);
+        }
+        nodeKeys = sorted;
+    }
+
+    /**
+     * Extract the values of the first sort key into a primitive array, if they are all of a kind that
+     * can be compared without calling the AtomicComparer: that is, if they are all integers, or all doubles,
+     * or all strings compared by Unicode codepoint, or if the comparer compares them as numbers.
+     * Doubles are held as longs that sort in the same order.
+     * @return a comparer that uses the extracted keys, consulting the full set of sort keys only when the
+     * first keys are equal; or null if the keys are not suitable
+     */
+
+    private RecordSorter.RecordComparer makePrimitiveKeyComparer() {
+        AtomicComparer comp = comparators[0];
+        boolean descending = false;
+        boolean emptyGreatest = false;
+        if (comp instanceof DescendingComparer) {
+            descending = true;
+            comp = ((DescendingComparer)comp).getBaseComparer();
+        }
+        if (comp instanceof EmptyGreatestComparer) {
+            emptyGreatest = true;
+            comp = ((EmptyGreatestComparer)comp).getBaseComparer();
+        }
+        Sortable tieBreaker = (comparators.length == 1 ? null : this);
+
+        if (comp instanceof NumericComparer) {
+            // empty values and values that are not numbers are all treated as NaN, which sorts first
+            long[] keys = new long[count];
+            for (int i=0; i<count; i++) {
+                double d = NumericComparer.getNumericValue((AtomicValue)nodeKeys[i*recordSize + 1]);
+                keys[i] = (Double.isNaN(d) ? Long.MIN_VALUE : RecordSorter.doubleToSortKey(d));
+            }
+            return new RecordSorter.LongKeyComparer(keys, descending, tieBreaker);
+        }
+
+        boolean numeric = comp instanceof DoubleSortComparer || comp instanceof ComparableAtomicValueComparer ||
+                comp instanceof AtomicSortComparer;
+        boolean codepoint = comp instanceof CodepointCollatingComparer ||
+                (comp instanceof AtomicSortComparer &&
+                        ((AtomicSortComparer)comp).getStringCollator() instanceof CodepointCollator);
+        if (!(numeric || codepoint)) {
+            return null;
+        }
+
+        // find the first non-empty key to decide which kind of key array to use
+        Object first = null;
+        for (int i=0; i<count && first == null; i++) {
+            first = nodeKeys[i*recordSize + 1];
+        }
+
+        if (numeric && first instanceof Int64Value) {
+            // empty values sort before (or after) all integers; they must be distinguishable from
+            // integers at the extremes of the range
+            long empty = (emptyGreatest ? Long.MAX_VALUE : Long.MIN_VALUE);
+            long[] keys = new long[count];
+            for (int i=0; i<count; i++) {
+                Object key = nodeKeys[i*recordSize + 1];
+                if (key == null) {
+                    keys[i] = empty;
+                } else if (key instanceof Int64Value) {
+                    long v = ((Int64Value)key).longValue();
+                    if (v == empty) {
+                        return null;
+                    }
+                    keys[i] = v;
+                } else {
+                    return null;
+                }
+            }
+            return new RecordSorter.LongKeyComparer(keys, descending, tieBreaker);
+
+        } else if (numeric && first != null && first.getClass() == DoubleValue.class &&
+                !(comp instanceof ComparableAtomicValueComparer)) {
+            // empty values sort before NaN, which sorts before all other doubles (or after, if empty greatest)
+            long empty = (emptyGreatest ? Long.MAX_VALUE : Long.MIN_VALUE);
+            long nan = (emptyGreatest ? Long.MAX_VALUE - 1 : Long.MIN_VALUE + 1);
+            long[] keys = new long[count];
+            for (int i=0; i<count; i++) {
+                Object key = nodeKeys[i*recordSize + 1];
+                if (key == null) {
+                    keys[i] = empty;
+                } else if (key.getClass() == DoubleValue.class) {
+                    double d = ((DoubleValue)key).getDoubleValue();
+                    keys[i] = (Double.isNaN(d) ? nan : RecordSorter.doubleToSortKey(d));
+                } else {
+                    return null;
+                }
+            }
+            return new RecordSorter.LongKeyComparer(keys, descending, tieBreaker);
+
+        } else if (codepoint && first instanceof StringValue) {
+            String[] keys = new String[count];
+            for (int i=0; i<count; i++) {
+                Object key = nodeKeys[i*recordSize + 1];
+                if (key == null) {
+                    keys[i] = null;
+                } else if (key instanceof StringValue && !((StringValue)key).containsSurrogatePairs()) {
+                    keys[i] = ((StringValue)key).getStringValue();
+                } else {
+                    return null;
+                }
+            }
+            return new RecordSorter.StringKeyComparer(keys, descending, emptyGreatest, tieBreaker);
+
+        } else {
+            return null;
+        }
+    }
+
     /**
     * Compare two items in sorted sequence
     * (needed to implement the Sortable interface)
@@ -273,12 +543,26 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
     */
 
     public int compare(int a, int b) {
-        int a1 = a*recordSize + 1;
-        int b1 = b*recordSize + 1;
+        return compareRecords(nodeKeys, a*recordSize, nodeKeys, b*recordSize);
+    }
+
+    /**
+     * Compare two records, which may be held in different arrays
+     * @param x the array holding the first record
+     * @param xStart the position of the first record in its array
+     * @param y the array holding the second record
+     * @param yStart the position of the second record in its array
+     * @return <0 if the first record sorts before the second, 0 if they are the same record,
+     * >0 if the first record sorts after the second
+     */
+
+    int compareRecords(Object[] x, int xStart, Object[] y, int yStart) {
+        int a1 = xStart + 1;
+        int b1 = yStart + 1;
         try {
             for (int i=0; i<comparators.length; i++) {
                 int comp = comparators[i].compareAtomicValues(
-                        (AtomicValue)nodeKeys[a1+i], (AtomicValue)nodeKeys[b1+i]);
+                        (AtomicValue)x[a1+i], (AtomicValue)y[b1+i]);
                 if (comp != 0) {
                     // we have found a difference, so we can return
                     return comp;
@@ -290,8 +574,8 @@ public class SortedIterator implements SequenceIterator, LastPositionFinder, Loo
 
         // all sort keys equal: return the items in their original order
 
-        return ((Integer)nodeKeys[a1+comparators.length]).intValue() -
-                ((Integer)nodeKeys[b1+comparators.length]).intValue();
+        return ((Integer)x[a1+comparators.length]).intValue() -
+                ((Integer)y[b1+comparators.length]).intValue();
     }
 
     /**
@@ -54,6 +54,9 @@ public class SortedTupleIterator extends SortedIterator {
                 break;
             }
             ValueRepresentation[] tuple = (ValueRepresentation[])tupleObject.getObject();
+            if (count == runSize && runSize > 0) {
+                writeRun();
+            }
             if (count==allocated) {
                 allocated *= 2;
                 Object[] nk2 = new Object[allocated * recordSize];
@@ -77,7 +80,7 @@ public class SortedTupleIterator extends SortedIterator {
                     nodeKeys[k+n] = v;
                 }
             }
-            nodeKeys[k+comparators.length+1] = new Integer(count);
+            nodeKeys[k+comparators.length+1] = new Integer(spilled + count);
             count++;
         }
     }
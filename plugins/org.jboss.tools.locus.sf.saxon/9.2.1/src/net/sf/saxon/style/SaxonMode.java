@@ -0,0 +1,106 @@
+package net.sf.saxon.style;
+
+import net.sf.saxon.expr.Expression;
+import net.sf.saxon.instruct.Executable;
+import net.sf.saxon.om.AttributeCollection;
+import net.sf.saxon.om.NamespaceException;
+import net.sf.saxon.om.StandardNames;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.trans.Mode;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.Whitespace;
+
+/**
+ * A saxon:mode element in the stylesheet. This is a top-level declaration that defines properties
+ * of a mode, for example:
+ *
+ * <p><code>&lt;saxon:mode name="m" streamable="yes"/&gt;</code></p>
+ *
+ * <p>The only property currently defined is <code>streamable</code>. When a streamable mode is the initial
+ * mode of a transformation and the source document is supplied as a StreamSource or SAXSource, the
+ * template rules are applied to the document as it is parsed, without first building a tree. Every template
+ * rule in a streamable mode must satisfy the rules described in
+ * {@link net.sf.saxon.instruct.TemplateInversion}; this is checked at compile time.</p>
+ */
+
+public class SaxonMode extends StyleElement {
+
+    private StructuredQName modeName;
+    private boolean streamable = false;
+
+    public void prepareAttributes() throws XPathException {
+
+        String nameAtt = null;
+        String streamableAtt = null;
+
+        AttributeCollection atts = getAttributeList();
+
+        for (int a=0; a<atts.getLength(); a++) {
+            int nc = atts.getNameCode(a);
+            String f = getNamePool().getClarkName(nc);
+            if (f==StandardNames.NAME) {
+                nameAtt = Whitespace.trim(atts.getValue(a));
+            } else if (f.equals("streamable")) {
+                streamableAtt = Whitespace.trim(atts.getValue(a));
+            } else {
+                checkUnknownAttribute(nc);
+            }
+        }
+
+        if (nameAtt == null || nameAtt.equals("#default")) {
+            modeName = Mode.DEFAULT_MODE_NAME;
+        } else {
+            try {
+                modeName = makeQName(nameAtt);
+            } catch (NamespaceException err) {
+                compileError(err.getMessage(), "XTSE0280");
+                modeName = Mode.DEFAULT_MODE_NAME;
+            } catch (XPathException err) {
+                compileError(err.getMessage(), err.getErrorCodeLocalPart());
+                modeName = Mode.DEFAULT_MODE_NAME;
+            }
+        }
+
+        if (streamableAtt != null) {
+            if (streamableAtt.equals("yes")) {
+                streamable = true;
+            } else if (streamableAtt.equals("no")) {
+                streamable = false;
+            } else {
+                compileError("streamable must be 'yes' or 'no'", "XTSE0020");
+            }
+        }
+    }
+
+    public void validate() throws XPathException {
+        checkTopLevel(null);
+        checkEmpty();
+        if (streamable) {
+            Mode mode = getPrincipalStylesheet().getRuleManager().getMode(modeName, true);
+            mode.setStreamable(true);
+        }
+    }
+
+    public Expression compile(Executable exec) throws XPathException {
+        return null;
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -111,6 +111,14 @@ public class StyleNodeFactory implements NodeFactory {
 
         short uriCode = namePool.getURICode(nameCode);
 
+        if (parent instanceof XSLStylesheet && f == StandardNames.SAXON_MODE) {
+            SaxonMode m = new SaxonMode();
+            m.setNamespaceDeclarations(namespaces, namespacesUsed);
+            m.initialise(nameCode, typeCode, attlist, parent, sequence);
+            m.setLocation(baseURI, lineNumber, columnNumber);
+            return m;
+        }
+
         if (parent instanceof XSLStylesheet && uriCode != 0 && uriCode != NamespaceConstant.XSLT_CODE) {
             DataElement d = new DataElement();
             d.setNamespaceDeclarations(namespaces, namespacesUsed);
@@ -0,0 +1,145 @@
+package net.sf.saxon.sxpath;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An ExpressionCache holds compiled XPath expressions, so that an application that compiles the same
+ * expression repeatedly (for example, because it evaluates XPath expressions supplied as strings) does
+ * not need to parse and type-check the expression each time. It is used by the s9api
+ * {@link net.sf.saxon.s9api.XPathCompiler} and by the JAXP {@link net.sf.saxon.xpath.XPathFactoryImpl}
+ * when caching has been enabled.
+ *
+ * <p>An entry in the cache is identified by a key, which must contain the text of the expression together
+ * with every property of the static context that affects its compilation; the key class must implement
+ * <code>equals()</code> and <code>hashCode()</code> accordingly. The compiled expressions held in the cache
+ * must be immutable, since they may be used in several threads at once.</p>
+ *
+ * <p>The cache may be used by many threads concurrently: all methods are synchronized, and the lock is not
+ * held while an expression is being compiled. The cache is bounded in size: when it is full, the expression
+ * that has been least recently used is discarded.</p>
+ *
+ * @param <T> the class of the compiled expressions held in the cache
+ * @since 9.2
+ */
+
+public class ExpressionCache<T> {
+
+    /**
+     * The default maximum number of expressions held in the cache
+     */
+
+    public static final int DEFAULT_CAPACITY = 200;
+
+    private int capacity;
+    private LinkedHashMap<Object, T> map;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Create an ExpressionCache
+     * @param capacity the maximum number of compiled expressions to be held in the cache
+     * @throws IllegalArgumentException if the capacity is less than one
+     */
+
+    public ExpressionCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Expression cache size must be at least one");
+        }
+        this.capacity = capacity;
+        map = new LinkedHashMap<Object, T>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Object, T> eldest) {
+                return size() > ExpressionCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Get a compiled expression from the cache
+     * @param key the key identifying the expression and its static context
+     * @return the compiled expression, or null if it is not in the cache
+     */
+
+    public synchronized T get(Object key) {
+        T exp = map.get(key);
+        if (exp == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return exp;
+    }
+
+    /**
+     * Add a compiled expression to the cache. An expression that fails to compile should not be added.
+     * @param key the key identifying the expression and its static context
+     * @param exp the compiled expression
+     */
+
+    public synchronized void put(Object key, T exp) {
+        map.put(key, exp);
+    }
+
+    /**
+     * Get the maximum number of expressions held in the cache
+     * @return the capacity of the cache
+     */
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of expressions currently held in the cache
+     * @return the number of entries in the cache
+     */
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /**
+     * Get the number of requests that were satisfied from the cache
+     * @return the number of cache hits
+     */
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Get the number of requests that required an expression to be compiled
+     * @return the number of cache misses
+     */
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Remove all expressions from the cache. The statistics are not affected.
+     */
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -125,7 +125,7 @@ final class AttributeEnumeration extends AxisIteratorImpl {
         if (currentNodeNr == -1) {
             throw new NullPointerException();
         }
-        return tree.attValue[currentNodeNr];
+        return tree.getAttributeValue(currentNodeNr);
     }
 
     /**
@@ -0,0 +1,204 @@
+package net.sf.saxon.tinytree;
+
+import net.sf.saxon.om.FastStringBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * This is an implementation of the CharSequence interface in which the characters are held
+ * outside the Java heap, in a list of direct buffers (the individual buffers are known
+ * as segments). The segments have a fixed size of 256K characters.
+ *
+ * <p>It is used by the off-heap variant of the TinyTree to hold the text content and attribute
+ * values of very large documents. Keeping the characters out of the heap means that they
+ * neither inflate the old generation nor need to be copied when the buffer grows: as with the
+ * {@link LargeStringBuffer}, expanding the buffer only involves expanding the list of segments.</p>
+ *
+ * <p>Each call on {@link #subSequence} copies the requested characters back into the heap. This makes
+ * access to the content somewhat slower than with a {@link LargeStringBuffer}; the copies are short-lived,
+ * and are normally reclaimed by a minor garbage collection.</p>
+ */
+
+public final class OffHeapStringBuffer implements CharSequence {
+
+    private final static int BITS = 18;
+    private final static int SEGLEN = 1<<BITS;
+    private final static int MASK = SEGLEN - 1;
+
+    private CharBuffer[] data;
+    private int length;         // total length of the CharSequence
+    private int segmentsUsed;
+
+    /**
+     * Create an empty OffHeapStringBuffer. No off-heap memory is allocated until the first
+     * characters are appended.
+     */
+
+    public OffHeapStringBuffer() {
+        data = new CharBuffer[4];
+        segmentsUsed = 0;
+        length = 0;
+    }
+
+    /**
+     * Allocate a new segment and add it to the index. Note this only involves expanding the
+     * index (the list of segments), it does not cause any character data to be copied.
+     * @return the new segment
+     */
+
+    private CharBuffer addSegment() {
+        CharBuffer seg = ByteBuffer.allocateDirect(SEGLEN*2).asCharBuffer();
+        int segs = data.length;
+        if (segmentsUsed + 1 > segs) {
+            CharBuffer[] d2 = new CharBuffer[segs*2];
+            System.arraycopy(data, 0, d2, 0, segmentsUsed);
+            data = d2;
+        }
+        data[segmentsUsed++] = seg;
+        return seg;
+    }
+
+    /**
+     * Append a CharSequence to this OffHeapStringBuffer
+     * @param s the data to be appended
+     */
+
+    public void append(CharSequence s) {
+        if (s instanceof CompressedWhitespace) {
+            FastStringBuffer fsb = new FastStringBuffer(FastStringBuffer.SMALL);
+            ((CompressedWhitespace)s).uncompress(fsb);
+            s = fsb;
+        }
+        final int len = s.length();
+        char[] chunk = null;
+        int done = 0;
+        while (done < len) {
+            int segOffset = length & MASK;
+            CharBuffer seg = (segOffset == 0 ? addSegment() : data[length>>BITS]);
+            int n = Math.min(len - done, SEGLEN - segOffset);
+            seg.position(segOffset);
+            if (s instanceof String) {
+                seg.put((String)s, done, done + n);
+            } else {
+                if (chunk == null) {
+                    chunk = new char[Math.min(len, SEGLEN)];
+                }
+                if (s instanceof CharSlice) {
+                    ((CharSlice)s).getChars(done, done + n, chunk, 0);
+                } else if (s instanceof FastStringBuffer) {
+                    ((FastStringBuffer)s).getChars(done, done + n, chunk, 0);
+                } else {
+                    for (int i=0; i<n; i++) {
+                        chunk[i] = s.charAt(done + i);
+                    }
+                }
+                seg.put(chunk, 0, n);
+            }
+            done += n;
+            length += n;
+        }
+    }
+
+    /**
+     * Returns the length of this character sequence.  The length is the number
+     * of 16-bit UTF-16 characters in the sequence.
+     * @return the number of characters in this sequence
+     */
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns the character at the specified index.
+     * @param index the index of the character to be returned
+     * @return the specified character
+     * @throws IndexOutOfBoundsException if the <tt>index</tt> argument is negative or not less than
+     *                                   <tt>length()</tt>
+     */
+
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(index + "");
+        }
+        return data[index>>BITS].get(index&MASK);
+    }
+
+    /**
+     * Returns a new character sequence that is a subsequence of this sequence. The characters are
+     * copied into the Java heap.
+     * @param start the start index, inclusive
+     * @param end   the end index, exclusive
+     * @return the specified subsequence
+     * @throws IndexOutOfBoundsException if <tt>start</tt> or <tt>end</tt> are negative,
+     *                                   if <tt>end</tt> is greater than <tt>length()</tt>,
+     *                                   or if <tt>start</tt> is greater than <tt>end</tt>
+     */
+
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException(start + "," + end);
+        }
+        char[] chars = new char[end - start];
+        int done = 0;
+        while (start + done < end) {
+            int pos = start + done;
+            int n = Math.min(end - pos, SEGLEN - (pos & MASK));
+            // use a duplicate so that concurrent readers do not disturb each other's position
+            CharBuffer seg = data[pos>>BITS].duplicate();
+            seg.position(pos & MASK);
+            seg.get(chars, done, n);
+            done += n;
+        }
+        return new CharSlice(chars);
+    }
+
+    /**
+     * Convert to a string
+     */
+
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+
+    /**
+     * Compare equality
+     */
+
+    public boolean equals(Object other) {
+        return other instanceof CharSequence && toString().equals(other.toString());
+    }
+
+    /**
+     * Generate a hash code
+     */
+
+    public int hashCode() {
+        // Same algorithm as String#hashCode(), but not cached
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + charAt(i);
+        }
+        return h;
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -241,7 +241,7 @@ public class TinyAttributeCollection implements AttributeCollection {
      */
 
     public String getValue(int index) {
-        CharSequence cs = tree.attValue[firstAttribute + index];
+        CharSequence cs = tree.getAttributeValue(firstAttribute + index);
         return (cs==null ? null : cs.toString());
     }
 
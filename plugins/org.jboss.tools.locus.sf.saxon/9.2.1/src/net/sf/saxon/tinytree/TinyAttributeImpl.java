@@ -81,7 +81,7 @@ final class TinyAttributeImpl extends TinyNodeImpl {
     */
 
     public CharSequence getStringValueCS() {
-        return tree.attValue[nodeNr];
+        return tree.getAttributeValue(nodeNr);
     }
 
     /**
@@ -90,7 +90,7 @@ final class TinyAttributeImpl extends TinyNodeImpl {
     */
 
     public String getStringValue() {
-        return tree.attValue[nodeNr].toString();
+        return tree.getAttributeValue(nodeNr).toString();
     }
 
 	/**
@@ -0,0 +1,42 @@
+package net.sf.saxon.tinytree;
+
+import net.sf.saxon.trans.XPathException;
+
+/**
+ * Variant of the TinyBuilder to create a tiny tree in which the text content and attribute values
+ * are held outside the Java heap. This is intended for very large documents, where holding the character
+ * data on the heap would cause excessive garbage collection activity.
+ */
+public class TinyBuilderOffHeap extends TinyBuilder {
+
+    /**
+     * Open the event stream
+     */
+
+    public void open() throws XPathException {
+        super.open();
+        getTree().setOffHeapStorage();
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version
+// 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may
+// obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations
+// under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael Kay,
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All
+// Rights Reserved.
+//
+// Contributor(s): none.
+//
@@ -195,7 +195,7 @@ public final class TinyDocumentImpl extends TinyParentNodeImpl
     * element type, it remembers the result for next time.
     */
 
-    AxisIterator getAllElements(int fingerprint) {
+    synchronized AxisIterator getAllElements(int fingerprint) {
     	if (elementList==null) {
     	    elementList = new IntHashMap<List<TinyElementImpl>>(20);
     	}
@@ -279,6 +279,15 @@ public final class TinyDocumentImpl extends TinyParentNodeImpl
         return node;
     }
 
+    /**
+     * Get the table of IDs registered for elements in this document
+     * @return a map from ID values to element nodes, or null if there are no IDs
+     */
+
+    HashMap<String, NodeInfo> getIdTable() {
+        return idTable;
+    }
+
     /**
     * Set an unparsed entity URI associated with this document. For system use only, while
     * building the document.
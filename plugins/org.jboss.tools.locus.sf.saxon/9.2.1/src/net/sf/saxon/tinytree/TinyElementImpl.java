@@ -238,7 +238,7 @@ public final class TinyElementImpl extends TinyParentNodeImpl {
         if (a<0) return null;
         while (a < tree.numberOfAttributes && tree.attParent[a] == nodeNr) {
             if ((tree.attCode[a] & 0xfffff) == fingerprint ) {
-                return tree.attValue[a].toString();
+                return tree.getAttributeValue(a).toString();
             }
             a++;
         }
@@ -356,7 +356,7 @@ public final class TinyElementImpl extends TinyParentNodeImpl {
                             if (disallowNamespaceSensitiveContent) {
                                 checkNotNamespaceSensitive(config, attType);
                             }
-                            receiver.attribute(attCode, attType, tree.attValue[att], locationId, 0);
+                            receiver.attribute(attCode, attType, tree.getAttributeValue(att), locationId, 0);
                             att++;
                         }
                     }
@@ -70,7 +70,7 @@ public final class TinyTree {
     protected int[] nameCode;
 
     // the prior array indexes preceding-siblings; it is constructed only when required
-    protected int[] prior = null;
+    protected volatile int[] prior = null;
 
     // the typeCode array holds type codes for element nodes; it is constructed only
     // if at least one element has a type other than untyped, or has an IDREF property.
@@ -100,8 +100,12 @@ public final class TinyTree {
     // attCode is the nameCode representing the attribute name
     protected int[] attCode;
 
-    // attValue is the string value of the attribute
+    // attValue is the string value of the attribute. It is null if attribute values are held off-heap,
+    // in which case the values are held end-to-end in attValueBuffer, and attValueEnd holds the offset
+    // in this buffer of the end of each value (the start being the end of the previous value)
     protected CharSequence[] attValue;
+    private OffHeapStringBuffer attValueBuffer = null;
+    private int[] attValueEnd = null;
 
     // attTypedValue is the typed vlaue of the attribute, maintained only if the attribute type is
     // something other than string, untypedAtomic, or anyURI. It is maintained lazily on first reference
@@ -190,6 +194,35 @@ public final class TinyTree {
         charBuffer = (characters > 65000 ? new LargeStringBuffer() : new FastStringBuffer(characters));
     }
 
+    /**
+     * Request that the character content of the tree (the text of text nodes, and the values of attributes)
+     * be held outside the Java heap. This must be called before any nodes are added to the tree. It is
+     * intended for very large documents: it reduces the size of the heap, and in particular of the
+     * old generation, at the cost of copying characters back into the heap whenever they are accessed.
+     */
+
+    public void setOffHeapStorage() {
+        if (isOffHeapStorage()) {
+            return;
+        }
+        if (numberOfNodes != 0 || numberOfAttributes != 0) {
+            throw new IllegalStateException("Off-heap storage must be requested before the tree is built");
+        }
+        charBuffer = new OffHeapStringBuffer();
+        attValueBuffer = new OffHeapStringBuffer();
+        attValueEnd = new int[attParent.length];
+        attValue = null;
+    }
+
+    /**
+     * Ask whether the character content of the tree is held outside the Java heap
+     * @return true if {@link #setOffHeapStorage} has been called
+     */
+
+    public boolean isOffHeapStorage() {
+        return attValueBuffer != null;
+    }
+
     /**
      * Set the Configuration that contains this document
      * @param config the Saxon configuration
@@ -201,6 +234,17 @@ public final class TinyTree {
         addNamespace(0, NamespaceConstant.XML_NAMESPACE_CODE);
     }
 
+    /**
+     * Say whether the typed values of nodes may be cached in the tree. The cache is not synchronized,
+     * so it must be disabled before the tree is shared between threads.
+     * @param allow false if the typed values of nodes are not to be cached
+     */
+
+    public void setTypedValueCaching(boolean allow) {
+        allowTypedValueCache = allow && config.isLicensedFeature(Configuration.LicenseFeature.SCHEMA_VALIDATION)
+                && config.useTypedValueCache();
+    }
+
     /**
      * Get the configuration previously set using setConfiguration
      * @return the Saxon configuration
@@ -277,15 +321,13 @@ public final class TinyTree {
 
             int[] attParent2 = new int[k];
             int[] attCode2 = new int[k];
-            CharSequence[] attValue2 = new String[k];
 
             System.arraycopy(attParent, 0, attParent2, 0, numberOfAttributes);
             System.arraycopy(attCode, 0, attCode2, 0, numberOfAttributes);
-            System.arraycopy(attValue, 0, attValue2, 0, numberOfAttributes);
 
             attParent = attParent2;
             attCode = attCode2;
-            attValue = attValue2;
+            copyAttributeValues(k);
 
             if (attTypeCode != null) {
                 int[] attTypeCode2 = new int[k];
@@ -301,6 +343,23 @@ public final class TinyTree {
         }
     }
 
+    /**
+     * Reallocate the arrays holding attribute values (or the offsets of attribute values, if held off-heap)
+     * @param k the new size of the arrays
+     */
+
+    private void copyAttributeValues(int k) {
+        if (attValue != null) {
+            CharSequence[] attValue2 = new String[k];
+            System.arraycopy(attValue, 0, attValue2, 0, numberOfAttributes);
+            attValue = attValue2;
+        } else {
+            int[] attValueEnd2 = new int[k];
+            System.arraycopy(attValueEnd, 0, attValueEnd2, 0, numberOfAttributes);
+            attValueEnd = attValueEnd2;
+        }
+    }
+
     private void ensureNamespaceCapacity() {
         if (namespaceParent.length < numberOfNamespaces+1) {
             int k = numberOfNamespaces*2;
@@ -329,6 +388,51 @@ public final class TinyTree {
         return addNode(Type.DOCUMENT, 0, documentList.size()-1, 0, -1);
     }
 
+    /**
+     * Register a document node whose entry in the node arrays has been loaded by
+     * {@link #setNodeArrays}, rather than being added using {@link #addDocumentNode}
+     * @param doc the document node
+     */
+
+    void registerDocumentNode(TinyDocumentImpl doc) {
+        documentList.add(doc);
+    }
+
+    /**
+     * Replace the node arrays wholesale. This is used when a tree is reloaded from a saved image
+     * (see {@link TinyTreeImage}). The supplied arrays must describe a complete tree, including the
+     * final stopper node.
+     * @param nodes the number of nodes (excluding attribute and namespace nodes)
+     * @param nodeKind the array of node kinds
+     * @param depth the array of node depths
+     * @param next the array of next-sibling (or parent) pointers
+     * @param alpha the array of alpha values
+     * @param beta the array of beta values
+     * @param nameCode the array of name codes, which must be valid in the NamePool of this tree's Configuration
+     */
+
+    void setNodeArrays(int nodes, byte[] nodeKind, short[] depth, int[] next, int[] alpha, int[] beta, int[] nameCode) {
+        this.nodeKind = nodeKind;
+        this.depth = depth;
+        this.next = next;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.nameCode = nameCode;
+        numberOfNodes = nodes;
+        documentNumber = config.getDocumentNumberAllocator().allocateDocumentNumber();
+        rootIndexUsed = 0;
+        for (int i=0; i<nodes; i++) {
+            if (depth[i] == 0 && nodeKind[i] != Type.STOPPER) {
+                if (rootIndexUsed == rootIndex.length) {
+                    int[] r2 = new int[rootIndexUsed * 2];
+                    System.arraycopy(rootIndex, 0, r2, 0, rootIndexUsed);
+                    rootIndex = r2;
+                }
+                rootIndex[rootIndexUsed++] = i;
+            }
+        }
+    }
+
     /**
      * Add a node to the tree
      * @param kind          The kind of the node. This must be a document, element, text, comment,
@@ -382,8 +486,16 @@ public final class TinyTree {
             } else {
                 ((FastStringBuffer)charBuffer).append(chars);
             }
-        } else {
+        } else if (charBuffer instanceof LargeStringBuffer) {
             ((LargeStringBuffer)charBuffer).append(chars);
+        } else if (charBuffer instanceof OffHeapStringBuffer) {
+            ((OffHeapStringBuffer)charBuffer).append(chars);
+        } else {
+            // a read-only buffer, for example one mapped from a saved tree image: copy it first
+            LargeStringBuffer lsb = new LargeStringBuffer();
+            lsb.append(charBuffer.toString());
+            lsb.append(chars);
+            charBuffer = lsb;
         }
     }
 
@@ -463,21 +575,19 @@ public final class TinyTree {
             if (k==0) {
                 attParent = IntArraySet.EMPTY_INT_ARRAY;
                 attCode = IntArraySet.EMPTY_INT_ARRAY;
-                attValue = EMPTY_STRING_ARRAY;
+                attValue = (attValue == null ? null : EMPTY_STRING_ARRAY);
                 attTypeCode = null;
             }
 
             int[] attParent2 = new int[k];
             int[] attCode2 = new int[k];
-            CharSequence[] attValue2 = new String[k];
 
             System.arraycopy(attParent, 0, attParent2, 0, numberOfAttributes);
             System.arraycopy(attCode, 0, attCode2, 0, numberOfAttributes);
-            System.arraycopy(attValue, 0, attValue2, 0, numberOfAttributes);
 
             attParent = attParent2;
             attCode = attCode2;
-            attValue = attValue2;
+            copyAttributeValues(k);
 
             if (attTypeCode != null) {
                 int[] attTypeCode2 = new int[k];
@@ -647,15 +757,15 @@ public final class TinyTree {
         if (attTypedValue == null || attTypedValue[nodeNr] == null) {
             int annotation = getAttributeAnnotation(nodeNr);
             if ((annotation & NodeInfo.IS_DTD_TYPE) != 0) {
-                return new UntypedAtomicValue(attValue[nodeNr]);
+                return new UntypedAtomicValue(getAttributeValue(nodeNr));
             }
             annotation &= NamePool.FP_MASK;
             if (annotation == StandardNames.XS_UNTYPED_ATOMIC) {
-                return new UntypedAtomicValue(attValue[nodeNr]);
+                return new UntypedAtomicValue(getAttributeValue(nodeNr));
             } else if (annotation == StandardNames.XS_STRING) {
-                return new StringValue(attValue[nodeNr]);
+                return new StringValue(getAttributeValue(nodeNr));
             } else if (annotation == StandardNames.XS_ANY_URI) {
-                return new AnyURIValue(attValue[nodeNr]);
+                return new AnyURIValue(getAttributeValue(nodeNr));
             } else {
                 SchemaType stype = getConfiguration().getSchemaType(annotation);
                 if (stype == null) {
@@ -694,11 +804,11 @@ public final class TinyTree {
         if (attTypedValue == null || attTypedValue[nodeNr] == null) {
             int annotation = getAttributeAnnotation(nodeNr) & NamePool.FP_MASK;
             if (annotation == StandardNames.XS_UNTYPED_ATOMIC) {
-                return new UntypedAtomicValue(attValue[nodeNr]);
+                return new UntypedAtomicValue(getAttributeValue(nodeNr));
             } else if (annotation == StandardNames.XS_STRING) {
-                return new StringValue(attValue[nodeNr]);
+                return new StringValue(getAttributeValue(nodeNr));
             } else if (annotation == StandardNames.XS_ANY_URI) {
-                return new AnyURIValue(attValue[nodeNr]);
+                return new AnyURIValue(getAttributeValue(nodeNr));
             } else {
                 SchemaType stype = getConfiguration().getSchemaType(annotation);
                 if (stype == null) {
@@ -764,14 +874,16 @@ public final class TinyTree {
     }
 
     private synchronized void makePriorIndex() {
-        prior = new int[numberOfNodes];
-        Arrays.fill(prior, 0, numberOfNodes, -1);
+        // build the index before publishing it, so that other threads reading the tree never see it incomplete
+        int[] p = new int[numberOfNodes];
+        Arrays.fill(p, 0, numberOfNodes, -1);
         for (int i=0; i<numberOfNodes; i++) {
             int nextNode = next[i];
             if (nextNode > i) {
-                prior[nextNode] = i;
+                p[nextNode] = i;
             }
         }
+        prior = p;
     }
 
     /**
@@ -789,7 +901,6 @@ public final class TinyTree {
         ensureAttributeCapacity();
         attParent[numberOfAttributes] = parent;
         attCode[numberOfAttributes] = nameCode;
-        this.attValue[numberOfAttributes] = attValue;
 
         if (typeCode == -1) {
             // this shouldn't happen any more
@@ -827,7 +938,7 @@ public final class TinyTree {
 
                 // Make an exception to our usual policy of storing the original string value.
                 // This is because xml:id processing applies whitespace trimming at an earlier stage
-                this.attValue[numberOfAttributes] = id;
+                attValue = id;
                 
                 if (root.getConfiguration().getNameChecker().isValidNCName(id)) {
                     NodeInfo e = getNode(parent);
@@ -847,6 +958,13 @@ public final class TinyTree {
 
         // Note that an attTypes array will be created for all attributes if any ID or IDREF is reported.
 
+        if (attValueBuffer == null) {
+            this.attValue[numberOfAttributes] = attValue;
+        } else {
+            attValueBuffer.append(attValue);
+            attValueEnd[numberOfAttributes] = attValueBuffer.length();
+        }
+
         numberOfAttributes++;
     }
 
@@ -1264,7 +1382,7 @@ public final class TinyTree {
 		}
 		System.err.println("    attr  parent    name    value");
 		for (int i=0; i<numberOfAttributes; i++) {
-		    System.err.println(n8(i) + n8(attParent[i]) + n8(attCode[i]) + "    " + attValue[i]);
+		    System.err.println(n8(i) + n8(attParent[i]) + n8(attCode[i]) + "    " + getAttributeValue(i));
 		}
 		System.err.println("      ns  parent  prefix     uri");
 		for (int i=0; i<numberOfNamespaces; i++) {
@@ -1480,9 +1598,31 @@ public final class TinyTree {
      */
 
     public CharSequence[] getAttributeValueArray() {
+        if (attValue == null) {
+            // values are held off-heap: materialize them
+            CharSequence[] values = new CharSequence[numberOfAttributes];
+            for (int i=0; i<numberOfAttributes; i++) {
+                values[i] = getAttributeValue(i);
+            }
+            return values;
+        }
         return attValue;
     }
 
+    /**
+     * Get the string value of an attribute, given its attribute number
+     * @param attNr the number of the attribute within the tree
+     * @return the string value of the attribute
+     */
+
+    public CharSequence getAttributeValue(int attNr) {
+        if (attValue != null) {
+            return attValue[attNr];
+        }
+        int start = (attNr == 0 ? 0 : attValueEnd[attNr - 1]);
+        return attValueBuffer.subSequence(start, attValueEnd[attNr]);
+    }
+
     /**
      * Get the array used to hold the namespace codes of namespace declarations
      * @return an array of integer namespace codes
@@ -0,0 +1,451 @@
+package net.sf.saxon.tinytree;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.om.*;
+import net.sf.saxon.sort.IntHashMap;
+import net.sf.saxon.sort.IntIterator;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.Type;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * This class saves a TinyTree to a compact binary image, and reloads it. Reloading a saved image
+ * is much faster than parsing the original XML: the node, attribute and namespace arrays are read
+ * with bulk copies from a memory-mapped file, and the text content of the document is used directly
+ * from the mapped file without being copied into the Java heap.
+ *
+ * <p>Name codes and namespace codes are only meaningful within a particular NamePool, so the image
+ * contains a table giving the expanded names of all the names that it uses; when the image is loaded
+ * these names are allocated in the NamePool of the target Configuration, and the codes in the
+ * node and attribute arrays are translated accordingly. This means that an image can be saved by one
+ * Java VM and loaded by another.</p>
+ *
+ * <p>Only a tree containing a single document node can be saved. Line numbers and cached typed
+ * values are not saved.</p>
+ */
+
+public class TinyTreeImage {
+
+    private static final int MAGIC = 0x53585454;     // "SXTT"
+    private static final int VERSION = 1;
+
+    private TinyTreeImage() {
+        // not instantiated
+    }
+
+    /**
+     * Save a document to a binary image
+     * @param doc the document to be saved, which must be the only document in its TinyTree
+     * @param file the file to which the image is to be written
+     * @throws XPathException if the document cannot be saved, or if an I/O error occurs
+     */
+
+    public static void save(TinyDocumentImpl doc, File file) throws XPathException {
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                save(doc, out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException err) {
+            throw new XPathException("Failed to write tree image " + file + ": " + err.getMessage(), err);
+        }
+    }
+
+    /**
+     * Save a document to a binary image
+     * @param doc the document to be saved, which must be the only document in its TinyTree
+     * @param stream the output stream to which the image is to be written. The stream is not closed.
+     * @throws XPathException if the document cannot be saved, or if an I/O error occurs
+     */
+
+    public static void save(TinyDocumentImpl doc, OutputStream stream) throws XPathException {
+        TinyTree tree = doc.getTree();
+        if (doc.nodeNr != 0 || tree.rootIndexUsed != 1) {
+            throw new XPathException("Only a tree containing a single document node can be saved as an image");
+        }
+        NamePool pool = tree.getNamePool();
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 65536));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, doc.getSystemId());
+            writeString(out, doc.getBaseURI());
+
+            int nodes = tree.numberOfNodes;
+            int atts = tree.numberOfAttributes;
+
+            // Table of names used in the tree, keyed by name code (or by fingerprint, for type annotations)
+
+            IntHashMap<Object> names = new IntHashMap<Object>(256);
+            for (int i=0; i<nodes; i++) {
+                int kind = tree.nodeKind[i];
+                if ((kind == Type.ELEMENT || kind == Type.PROCESSING_INSTRUCTION) && tree.nameCode[i] != -1) {
+                    names.put(tree.nameCode[i], "");
+                }
+                if (tree.typeCodeArray != null) {
+                    addTypeName(names, tree.typeCodeArray[i]);
+                }
+            }
+            for (int i=0; i<atts; i++) {
+                names.put(tree.attCode[i], "");
+                if (tree.attTypeCode != null) {
+                    addTypeName(names, tree.attTypeCode[i]);
+                }
+            }
+            out.writeInt(names.size());
+            for (IntIterator it = names.keyIterator(); it.hasNext();) {
+                int code = it.next();
+                out.writeInt(code);
+                writeString(out, pool.getPrefix(code));
+                writeString(out, pool.getURI(code));
+                writeString(out, pool.getLocalName(code));
+            }
+
+            // Node arrays
+
+            out.writeInt(nodes);
+            out.write(tree.nodeKind, 0, nodes);
+            for (int i=0; i<nodes; i++) {
+                out.writeShort(tree.depth[i]);
+            }
+            writeInts(out, tree.next, nodes);
+            writeInts(out, tree.alpha, nodes);
+            writeInts(out, tree.beta, nodes);
+            writeInts(out, tree.nameCode, nodes);
+            out.writeBoolean(tree.typeCodeArray != null);
+            if (tree.typeCodeArray != null) {
+                writeInts(out, tree.typeCodeArray, nodes);
+            }
+
+            // Attribute arrays
+
+            out.writeInt(atts);
+            writeInts(out, tree.attParent, atts);
+            writeInts(out, tree.attCode, atts);
+            out.writeBoolean(tree.attTypeCode != null);
+            if (tree.attTypeCode != null) {
+                writeInts(out, tree.attTypeCode, atts);
+            }
+            int end = 0;
+            for (int i=0; i<atts; i++) {
+                end += tree.getAttributeValue(i).length();
+                out.writeInt(end);
+            }
+            for (int i=0; i<atts; i++) {
+                out.writeChars(tree.getAttributeValue(i).toString());
+            }
+
+            // Namespace declarations
+
+            int namespaces = tree.numberOfNamespaces;
+            out.writeInt(namespaces);
+            writeInts(out, tree.namespaceParent, namespaces);
+            for (int i=0; i<namespaces; i++) {
+                int nscode = tree.namespaceCode[i];
+                writeString(out, pool.getPrefixFromNamespaceCode(nscode));
+                writeString(out, pool.getURIFromNamespaceCode(nscode));
+            }
+            out.writeBoolean(tree.usesNamespaces);
+
+            // Character content
+
+            writeChars(out, tree.getCharacterBuffer());
+            CharSequence comments = tree.getCommentBuffer();
+            writeChars(out, comments == null ? "" : comments);
+
+            // IDs and unparsed entities
+
+            HashMap<String, NodeInfo> ids = doc.getIdTable();
+            out.writeInt(ids == null ? 0 : ids.size());
+            if (ids != null) {
+                for (Map.Entry<String, NodeInfo> entry : ids.entrySet()) {
+                    writeString(out, entry.getKey());
+                    out.writeInt(((TinyNodeImpl)entry.getValue()).nodeNr);
+                }
+            }
+            int entities = 0;
+            for (Iterator<String> it = doc.getUnparsedEntityNames(); it.hasNext(); it.next()) {
+                entities++;
+            }
+            out.writeInt(entities);
+            for (Iterator<String> it = doc.getUnparsedEntityNames(); it.hasNext();) {
+                String name = it.next();
+                String[] details = doc.getUnparsedEntity(name);
+                writeString(out, name);
+                writeString(out, details[0]);
+                writeString(out, details[1]);
+            }
+            out.flush();
+        } catch (IOException err) {
+            throw new XPathException("Failed to write tree image: " + err.getMessage(), err);
+        }
+    }
+
+    /**
+     * Load a document from a saved binary image
+     * @param file the file containing the image
+     * @param config the Configuration into which the document is to be loaded
+     * @return the document node of the loaded tree
+     * @throws XPathException if the file is not a valid tree image, or if an I/O error occurs
+     */
+
+    public static TinyDocumentImpl load(File file, Configuration config) throws XPathException {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new XPathException("Tree image " + file + " is too large to be loaded");
+                }
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return load(buffer, config);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException err) {
+            throw new XPathException("Failed to read tree image " + file + ": " + err.getMessage(), err);
+        }
+    }
+
+    /**
+     * Load a document from a saved binary image held in a buffer
+     * @param buffer the buffer containing the image, positioned at its start. The text content of the loaded
+     * document is a view of this buffer, so it must not subsequently be modified.
+     * @param config the Configuration into which the document is to be loaded
+     * @return the document node of the loaded tree
+     * @throws XPathException if the buffer does not contain a valid tree image
+     */
+
+    public static TinyDocumentImpl load(ByteBuffer buffer, Configuration config) throws XPathException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new XPathException("Not a Saxon tree image");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new XPathException("Unsupported tree image version " + version);
+            }
+            String systemId = readString(buffer);
+            String baseURI = readString(buffer);
+
+            // Allocate the names in the target NamePool
+
+            NamePool pool = config.getNamePool();
+            int nameCount = buffer.getInt();
+            IntHashMap<Integer> codeMap = new IntHashMap<Integer>(nameCount * 2);
+            for (int i=0; i<nameCount; i++) {
+                int oldCode = buffer.getInt();
+                String prefix = readString(buffer);
+                String uri = readString(buffer);
+                String local = readString(buffer);
+                codeMap.put(oldCode, pool.allocate(prefix, uri, local));
+            }
+
+            TinyTree tree = new TinyTree(1, 0, 1, 0);
+            tree.setConfiguration(config);
+            TinyDocumentImpl doc = new TinyDocumentImpl(tree);
+
+            // Node arrays
+
+            int nodes = buffer.getInt();
+            byte[] nodeKind = new byte[nodes];
+            buffer.get(nodeKind);
+            short[] depth = new short[nodes];
+            buffer.asShortBuffer().get(depth);
+            buffer.position(buffer.position() + nodes*2);
+            int[] next = readInts(buffer, nodes);
+            int[] alpha = readInts(buffer, nodes);
+            int[] beta = readInts(buffer, nodes);
+            int[] nameCode = readInts(buffer, nodes);
+            for (int i=0; i<nodes; i++) {
+                int kind = nodeKind[i];
+                if ((kind == Type.ELEMENT || kind == Type.PROCESSING_INSTRUCTION) && nameCode[i] != -1) {
+                    nameCode[i] = mapCode(codeMap, nameCode[i]);
+                }
+            }
+            if (buffer.get() != 0) {
+                int[] typeCodes = readInts(buffer, nodes);
+                for (int i=0; i<nodes; i++) {
+                    typeCodes[i] = mapTypeCode(codeMap, typeCodes[i]);
+                }
+                tree.typeCodeArray = typeCodes;
+            }
+            tree.setNodeArrays(nodes, nodeKind, depth, next, alpha, beta, nameCode);
+            tree.registerDocumentNode(doc);
+
+            // Attribute arrays
+
+            int atts = buffer.getInt();
+            tree.attParent = readInts(buffer, atts);
+            int[] attCode = readInts(buffer, atts);
+            for (int i=0; i<atts; i++) {
+                attCode[i] = mapCode(codeMap, attCode[i]);
+            }
+            tree.attCode = attCode;
+            if (buffer.get() != 0) {
+                int[] attTypeCode = readInts(buffer, atts);
+                for (int i=0; i<atts; i++) {
+                    attTypeCode[i] = mapTypeCode(codeMap, attTypeCode[i]);
+                }
+                tree.attTypeCode = attTypeCode;
+            }
+            int[] ends = readInts(buffer, atts);
+            int totalLength = (atts == 0 ? 0 : ends[atts-1]);
+            char[] attChars = new char[totalLength];
+            buffer.asCharBuffer().get(attChars);
+            buffer.position(buffer.position() + totalLength*2);
+            CharSequence[] attValue = new String[atts];
+            int start = 0;
+            for (int i=0; i<atts; i++) {
+                attValue[i] = new String(attChars, start, ends[i] - start);
+                start = ends[i];
+            }
+            tree.attValue = attValue;
+            tree.numberOfAttributes = atts;
+
+            // Namespace declarations
+
+            int namespaces = buffer.getInt();
+            tree.namespaceParent = readInts(buffer, namespaces);
+            int[] namespaceCode = new int[namespaces];
+            for (int i=0; i<namespaces; i++) {
+                String prefix = readString(buffer);
+                String uri = readString(buffer);
+                namespaceCode[i] = pool.allocateNamespaceCode(prefix, uri);
+            }
+            tree.namespaceCode = namespaceCode;
+            tree.numberOfNamespaces = namespaces;
+            tree.usesNamespaces = (buffer.get() != 0);
+
+            // Character content: text is used in situ, comments are copied
+
+            tree.charBuffer = readChars(buffer);
+            CharSequence comments = readChars(buffer);
+            if (comments.length() > 0) {
+                tree.commentBuffer = new FastStringBuffer(comments);
+            }
+
+            doc.setSystemId(systemId);
+            doc.setBaseURI(baseURI);
+
+            // IDs and unparsed entities
+
+            int ids = buffer.getInt();
+            for (int i=0; i<ids; i++) {
+                String id = readString(buffer);
+                doc.registerID(tree.getNode(buffer.getInt()), id);
+            }
+            int entities = buffer.getInt();
+            for (int i=0; i<entities; i++) {
+                String name = readString(buffer);
+                String uri = readString(buffer);
+                String publicId = readString(buffer);
+                doc.setUnparsedEntity(name, uri, publicId);
+            }
+            return doc;
+        } catch (RuntimeException err) {
+            // typically BufferUnderflowException or IndexOutOfBoundsException
+            throw new XPathException("Tree image is corrupt: " + err, err);
+        }
+    }
+
+    private static void addTypeName(IntHashMap<Object> names, int typeCode) {
+        int fp = typeCode & NamePool.FP_MASK;
+        if ((fp & NamePool.USER_DEFINED_MASK) != 0) {
+            names.put(fp, "");
+        }
+    }
+
+    private static int mapCode(IntHashMap<Integer> codeMap, int code) throws XPathException {
+        Integer newCode = codeMap.get(code);
+        if (newCode == null) {
+            throw new XPathException("Tree image is corrupt: name code " + code + " is not in the name table");
+        }
+        return newCode.intValue();
+    }
+
+    private static int mapTypeCode(IntHashMap<Integer> codeMap, int typeCode) throws XPathException {
+        int fp = typeCode & NamePool.FP_MASK;
+        if ((fp & NamePool.USER_DEFINED_MASK) == 0) {
+            return typeCode;
+        }
+        return (typeCode & ~NamePool.FP_MASK) | (mapCode(codeMap, fp) & NamePool.FP_MASK);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(s.length());
+            out.writeChars(s);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        buffer.asCharBuffer().get(chars);
+        buffer.position(buffer.position() + length*2);
+        return new String(chars);
+    }
+
+    private static void writeChars(DataOutputStream out, CharSequence chars) throws IOException {
+        int length = chars.length();
+        out.writeInt(length);
+        for (int start = 0; start < length; start += 65536) {
+            out.writeChars(chars.subSequence(start, Math.min(length, start + 65536)).toString());
+        }
+    }
+
+    private static CharSequence readChars(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        CharBuffer chars = buffer.asCharBuffer();
+        chars.limit(length);
+        buffer.position(buffer.position() + length*2);
+        return chars;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values, int count) throws IOException {
+        for (int i=0; i<count; i++) {
+            out.writeInt(values[i]);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count*4);
+        return values;
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
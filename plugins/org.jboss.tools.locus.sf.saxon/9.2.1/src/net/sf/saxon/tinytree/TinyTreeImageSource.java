@@ -0,0 +1,90 @@
+package net.sf.saxon.tinytree;
+
+import net.sf.saxon.Configuration;
+import net.sf.saxon.trans.XPathException;
+
+import javax.xml.transform.Source;
+import java.io.File;
+
+/**
+ * An implementation of the JAXP Source class that supplies a document in the form of a binary
+ * tree image previously saved using {@link TinyTreeImage#save}. Wherever Saxon accepts a Source,
+ * this causes the saved TinyTree to be loaded directly, without parsing any XML.
+ * @since 9.2
+ */
+public class TinyTreeImageSource implements Source {
+
+    private File file;
+    private String systemId;
+
+    /**
+     * Create a TinyTreeImageSource
+     * @param file the file containing the saved tree image
+     */
+
+    public TinyTreeImageSource(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Get the file containing the saved tree image
+     * @return the file supplied when this Source was created
+     */
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Set the system identifier for this Source. This is used as the system identifier of the loaded
+     * document in place of the system identifier that was saved with the image.
+     * @param systemId The system identifier as a URL string.
+     */
+
+    public void setSystemId(String systemId) {
+        this.systemId = systemId;
+    }
+
+    /**
+     * Get the system identifier that was set with setSystemId.
+     * @return The system identifier that was set with setSystemId, or null
+     *         if setSystemId was not called.
+     */
+
+    public String getSystemId() {
+        return systemId;
+    }
+
+    /**
+     * Load the document from the saved tree image
+     * @param config the Configuration into which the document is to be loaded
+     * @return the document node of the loaded tree
+     * @throws XPathException if the image cannot be read
+     */
+
+    public TinyDocumentImpl load(Configuration config) throws XPathException {
+        TinyDocumentImpl doc = TinyTreeImage.load(file, config);
+        if (systemId != null) {
+            doc.setSystemId(systemId);
+        }
+        return doc;
+    }
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
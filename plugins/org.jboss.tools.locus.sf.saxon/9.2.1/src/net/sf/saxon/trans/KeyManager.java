@@ -2,9 +2,10 @@ package net.sf.saxon.trans;
 
 import net.sf.saxon.Configuration;
 import net.sf.saxon.expr.*;
-import net.sf.saxon.functions.StringFn;
-import net.sf.saxon.functions.SystemFunction;
-import net.sf.saxon.functions.Tokenize;
+import net.sf.saxon.functions.*;
+import net.sf.saxon.functions.Collection;
+import net.sf.saxon.instruct.GlobalVariable;
+import net.sf.saxon.instruct.Instruction;
 import net.sf.saxon.instruct.SlotManager;
 import net.sf.saxon.om.*;
 import net.sf.saxon.om.ListIterator;
@@ -25,6 +26,8 @@ import net.sf.saxon.value.UntypedAtomicValue;
 import java.io.Serializable;
 import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
   * KeyManager manages the set of key definitions in a stylesheet, and the indexes
@@ -69,6 +72,12 @@ import java.util.*;
  * it is not an error if the use expression returns a mixture of say numbers and dates, provided that the
  * sought value is untypedAtomic).</li>
  * </ul>
+ *
+ * <p>Indexes are built on demand, the first time they are needed. If several threads need the same index
+ * at the same time, one of them builds it while the others wait; indexes for different documents or different
+ * keys can be built concurrently. If multithreading is enabled in the Configuration, an index with a large number
+ * of entries is built by evaluating the use expression for different parts of the document on different
+ * threads, provided that the use expression is simple enough to be evaluated safely in this way.</p>
   *
   * @author Michael H. Kay
   */
@@ -85,6 +94,14 @@ public class KeyManager implements Serializable {
                                      // to the HashMap that is the actual index
                                      // of key/value pairs.
 
+    private transient HashMap<Thread, IndexUnderConstruction> waitingThreads;
+                                     // one entry for each thread that is waiting for another thread
+                                     // to finish building an index, identifying the index it is waiting for.
+                                     // Used to detect circularities involving more than one thread.
+
+    // Minimum number of nodes matching a key definition for the index to be built in parallel
+    private static final int PARALLEL_THRESHOLD = 10000;
+
     // TODO: if the document is a temporary tree, or if saxon:discard-document() has been used, create an
     // index that is owned by the document node and that disappears when the document node disappears.
 
@@ -193,7 +210,7 @@ public class KeyManager implements Serializable {
      * @return the index in question, as a HashMap mapping a key value onto a ArrayList of nodes
     */
 
-    private synchronized HashMap buildIndex(KeyDefinitionSet keySet,
+    private HashMap buildIndex(KeyDefinitionSet keySet,
                                             BuiltInAtomicType itemType,
                                             Set<BuiltInAtomicType> foundItemTypes,
                                             DocumentInfo doc,
@@ -245,6 +262,26 @@ public class KeyManager implements Serializable {
         }
 
         SequenceIterator iter = match.selectNodes(doc, xc);
+
+        Configuration config = context.getConfiguration();
+        if (isFirst && config.isMultiThreading() && !WorkerPool.isWorkerThread() &&
+                isSafeForParallelEvaluation(keydef.getUse())) {
+            List<NodeInfo> nodes = new ArrayList<NodeInfo>(1000);
+            while (true) {
+                Item item = iter.next();
+                if (item == null) {
+                    break;
+                }
+                nodes.add((NodeInfo)item);
+            }
+            if (nodes.size() >= PARALLEL_THRESHOLD) {
+                constructIndexInParallel(
+                        nodes, index, keydef, soughtItemType, foundItemTypes, context, config.getWorkerPool());
+                return;
+            }
+            iter = new ListIterator(nodes);
+        }
+
         while (true) {
             Item item = iter.next();
             if (item == null) {
@@ -254,6 +291,113 @@ public class KeyManager implements Serializable {
         }
     }
 
+    /**
+     * Process one key definition to add entries to an index, dividing the work between the threads
+     * of a worker pool. The nodes matching the key definition are divided into contiguous ranges, each
+     * range is indexed separately, and the results are then merged. Because the ranges are merged in order,
+     * the lists of nodes in the index remain in document order.
+     * @param nodes the nodes matching the key definition, in document order
+     * @param index the index to be built, which must initially be empty
+     * @param keydef the key definition used to build the index
+     * @param soughtItemType the primitive type of the value that the user is searching for
+     * @param foundItemTypes Optional (may be null): if supplied, a Set to be populated with the set of
+     * primitive types actually found for the use expression
+     * @param context the XPath dynamic evaluation context
+     * @param pool the pool of worker threads
+     */
+
+    private void constructIndexInParallel(  final List<NodeInfo> nodes,
+                                            HashMap<Object, List<NodeInfo>> index,
+                                            final KeyDefinition keydef,
+                                            final BuiltInAtomicType soughtItemType,
+                                            Set<BuiltInAtomicType> foundItemTypes,
+                                            XPathContext context,
+                                            WorkerPool pool) throws XPathException {
+        int tasks = pool.getNumberOfThreads() * 4;
+        int rangeSize = (nodes.size() + tasks - 1) / tasks;
+        final boolean collectTypes = (foundItemTypes != null);
+        List<Future<IndexPart>> parts = new ArrayList<Future<IndexPart>>(tasks);
+        for (int start = 0; start < nodes.size(); start += rangeSize) {
+            final int from = start;
+            final int to = Math.min(start + rangeSize, nodes.size());
+            // each task has its own context, created on this thread
+            final XPathContextMajor xc = context.newContext();
+            xc.setOrigin(keydef);
+            SlotManager map = keydef.getStackFrameMap();
+            if (map != null) {
+                xc.openStackFrame(map);
+            }
+            parts.add(pool.submit(new Callable<IndexPart>() {
+                public IndexPart call() throws XPathException {
+                    IndexPart part = new IndexPart();
+                    part.index = new HashMap<Object, List<NodeInfo>>(100);
+                    part.foundItemTypes = (collectTypes ? new HashSet<BuiltInAtomicType>(10) : null);
+                    for (int i=from; i<to; i++) {
+                        processKeyNode(nodes.get(i), soughtItemType, part.foundItemTypes, keydef, part.index, xc, true);
+                    }
+                    return part;
+                }
+            }));
+        }
+        for (int p=0; p<parts.size(); p++) {
+            IndexPart part = WorkerPool.getResult(parts.get(p));
+            for (Iterator<Map.Entry<Object, List<NodeInfo>>> it = part.index.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<Object, List<NodeInfo>> entry = it.next();
+                List<NodeInfo> existing = index.get(entry.getKey());
+                if (existing == null) {
+                    index.put(entry.getKey(), entry.getValue());
+                } else {
+                    // the ranges are disjoint, so there are no duplicates to eliminate
+                    existing.addAll(entry.getValue());
+                }
+            }
+            if (collectTypes) {
+                foundItemTypes.addAll(part.foundItemTypes);
+            }
+        }
+    }
+
+    /**
+     * Determine whether the use expression of a key definition can safely be evaluated for different
+     * nodes at the same time on different threads. This is a conservative test: it excludes expressions
+     * that call stylesheet or extension functions, reference global variables (which are evaluated lazily),
+     * load documents, use other keys, produce trace output, or contain instructions.
+     * @param use the use expression of the key definition
+     * @return true if the expression can be evaluated in parallel
+     */
+
+    private static boolean isSafeForParallelEvaluation(SequenceIterable use) {
+        if (!(use instanceof Expression)) {
+            return false;
+        }
+        HashSet subExpressions = new HashSet();
+        ExpressionTool.gatherAllSubExpressions((Expression)use, subExpressions);
+        for (Iterator it = subExpressions.iterator(); it.hasNext();) {
+            Expression e = (Expression)it.next();
+            if (e instanceof Instruction || e instanceof UserFunctionCall ||
+                    (e instanceof FunctionCall && !(e instanceof SystemFunction)) ||
+                    e instanceof Document || e instanceof Doc || e instanceof DocAvailable ||
+                    e instanceof Collection || e instanceof UnparsedText || e instanceof KeyFn ||
+                    e instanceof Idref || e instanceof Trace) {
+                return false;
+            }
+            if (e instanceof VariableReference &&
+                    ((VariableReference)e).getBinding() instanceof GlobalVariable) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The entries for one range of nodes in an index that is being built in parallel
+     */
+
+    private static class IndexPart {
+        HashMap<Object, List<NodeInfo>> index;
+        Set<BuiltInAtomicType> foundItemTypes;
+    }
+
     /**
     * Process one matching node, adding entries to the index if appropriate
      * @param curr the node being processed
@@ -487,39 +631,14 @@ public class KeyManager implements Serializable {
 
         int keySetNumber = keySet.getKeySetNumber();
         BuiltInAtomicType itemType = value.getPrimitiveType();
-        HashMap index;
-        synchronized (doc) {
-            // Need to synchronize to prevent two threads that use the same stylesheet indexing the same source
-            // document simultaneously. We could synchronize on either the key definition or the document
-            // (ideally we would use the combination of the two), but the document is less likely to cause
-            // unnecessary contention: it's more likely that an index definition applies to large numbers of
-            // documents than that a document has large numbers of indexes.
-            Object indexObject = getIndex(doc, keySetNumber, itemType);
-            if (indexObject instanceof String) {
-                // index is under construction
-                XPathException de = new XPathException("Key definition is circular");
-                de.setXPathContext(context);
-                de.setErrorCode("XTDE0640");
-                throw de;
-            }
-            index = (HashMap)indexObject;
-
-            // If the index does not yet exist, then create it.
-            if (index==null) {
-                // Mark the index as being under construction, in case the definition is circular
-                putIndex(doc, keySetNumber, itemType, "Under Construction", context);
-                index = buildIndex(keySet, itemType, foundItemTypes, doc, context);
-                putIndex(doc, keySetNumber, itemType, index, context);
-                if (foundItemTypes != null) {
-                    // build indexes for each item type actually found
-                    for (Iterator<BuiltInAtomicType> f = foundItemTypes.iterator(); f.hasNext();) {
-                        BuiltInAtomicType t = f.next();
-                        if (!t.equals(BuiltInAtomicType.STRING)) {
-                            putIndex(doc, keySetNumber, t, "Under Construction", context);
-                            index = buildIndex(keySet, t, null, doc, context);
-                            putIndex(doc, keySetNumber, t, index, context);
-                        }
-                    }
+        boolean[] built = new boolean[1];
+        HashMap index = obtainIndex(keySet, itemType, foundItemTypes, doc, context, built);
+        if (foundItemTypes != null && built[0]) {
+            // build indexes for each item type actually found
+            for (Iterator<BuiltInAtomicType> f = foundItemTypes.iterator(); f.hasNext();) {
+                BuiltInAtomicType t = f.next();
+                if (!t.equals(BuiltInAtomicType.STRING)) {
+                    obtainIndex(keySet, t, null, doc, context, null);
                 }
             }
         }
@@ -534,38 +653,19 @@ public class KeyManager implements Serializable {
         } else {
             // we need to search the indexes for all possible types, and combine the results.
             SequenceIterator result = null;
-            WeakReference<HashMap<Long, Object>> ref = docIndexes.get(doc);
-            if (ref != null) {
-                HashMap<Long, Object> indexList = ref.get();
-                if (indexList != null) {
-                    for (Iterator<Long> i=indexList.keySet().iterator(); i.hasNext();) {
-                        long key = (i.next()).longValue();
-                        if (((key >> 32)) == keySetNumber) {
-                            int typefp = (int)key;
-
-                            BuiltInAtomicType type = (BuiltInAtomicType)BuiltInType.getSchemaType(typefp);
-
-                            Object indexObject2 = getIndex(doc, keySetNumber, type);
-                            if (indexObject2 instanceof String) {
-                                // index is under construction
-                                XPathException de = new XPathException("Key definition is circular");
-                                de.setXPathContext(context);
-                                de.setErrorCode("XTDE0640");
-                                throw de;
-                            }
-                            HashMap index2 = (HashMap)indexObject2;
-                            // NOTE: we've been known to encounter a null index2 here, but it doesn't seem possible
-                            if (!index2.isEmpty()) {
-                                value = soughtValue.convert(type, true, context).asAtomic();
-                                ArrayList nodes = (ArrayList)index2.get(getCollationKey(value, type, collation, context));
-                                if (nodes != null) {
-                                    if (result == null) {
-                                        result = new ListIterator(nodes);
-                                    } else {
-                                        result = new UnionEnumeration(result, new ListIterator(nodes), LocalOrderComparer.getInstance());
-                                    }
-                                }
-                            }
+            List<BuiltInAtomicType> types = getIndexedItemTypes(doc, keySetNumber);
+            for (int i=0; i<types.size(); i++) {
+                BuiltInAtomicType type = types.get(i);
+                // the index may still be under construction by another thread, in which case we wait for it
+                HashMap index2 = obtainIndex(keySet, type, null, doc, context, null);
+                if (!index2.isEmpty()) {
+                    value = soughtValue.convert(type, true, context).asAtomic();
+                    ArrayList nodes = (ArrayList)index2.get(getCollationKey(value, type, collation, context));
+                    if (nodes != null) {
+                        if (result == null) {
+                            result = new ListIterator(nodes);
+                        } else {
+                            result = new UnionEnumeration(result, new ListIterator(nodes), LocalOrderComparer.getInstance());
                         }
                     }
                 }
@@ -578,6 +678,137 @@ public class KeyManager implements Serializable {
         }
     }
 
+    /**
+     * Get an index, building it if necessary. If another thread is already building the same index, wait
+     * for it to finish. Indexes for different documents and different keys can be built concurrently.
+     * @param keySet The set of key definitions with this name
+     * @param itemType the type of the values to be indexed.
+     * @param foundItemTypes Optional (may be null). If supplied, and if the index is built by this call,
+     * a set that is to be populated with the set of primitive types actually found among the "use" values.
+     * @param doc The source document in question
+     * @param context The dynamic context
+     * @param built Optional (may be null). If supplied, the first item in the array is set to true if the
+     * index was built by this call, or false if it already existed
+     * @return the index
+     * @throws XPathException if the key definition is circular, or if a dynamic error occurs building the index
+     */
+
+    private HashMap obtainIndex(KeyDefinitionSet keySet,
+                                BuiltInAtomicType itemType,
+                                Set<BuiltInAtomicType> foundItemTypes,
+                                DocumentInfo doc,
+                                XPathContext context,
+                                boolean[] built) throws XPathException {
+        int keySetNumber = keySet.getKeySetNumber();
+        synchronized (this) {
+            if (waitingThreads == null) {
+                // it's transient, so it will be null when reloading a compiled stylesheet
+                waitingThreads = new HashMap<Thread, IndexUnderConstruction>(10);
+            }
+            while (true) {
+                Object indexObject = getIndex(doc, keySetNumber, itemType);
+                if (indexObject == null) {
+                    // Mark the index as being under construction, in case the definition is circular,
+                    // or another thread needs the same index
+                    putIndex(doc, keySetNumber, itemType, new IndexUnderConstruction(), context);
+                    break;
+                } else if (indexObject instanceof IndexUnderConstruction) {
+                    IndexUnderConstruction target = (IndexUnderConstruction)indexObject;
+                    if (isWaitingFor(target)) {
+                        XPathException de = new XPathException("Key definition is circular");
+                        de.setXPathContext(context);
+                        de.setErrorCode("XTDE0640");
+                        throw de;
+                    }
+                    Thread current = Thread.currentThread();
+                    waitingThreads.put(current, target);
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        current.interrupt();
+                        throw new XPathException("Interrupted while waiting for a key index to be built", e);
+                    } finally {
+                        waitingThreads.remove(current);
+                    }
+                } else {
+                    if (built != null) {
+                        built[0] = false;
+                    }
+                    return (HashMap)indexObject;
+                }
+            }
+        }
+        // Build the index without holding any lock, so that other threads are not held up
+        HashMap index = null;
+        try {
+            index = buildIndex(keySet, itemType, foundItemTypes, doc, context);
+        } finally {
+            synchronized (this) {
+                // if the build failed, remove the marker so that any waiting thread tries again
+                putIndex(doc, keySetNumber, itemType, index, context);
+                notifyAll();
+            }
+        }
+        if (built != null) {
+            built[0] = true;
+        }
+        return index;
+    }
+
+    /**
+     * Determine whether waiting for an index under construction would cause a deadlock: that is, whether
+     * the thread building the index is the current thread, or is itself (directly or indirectly) waiting for
+     * an index that the current thread is building. Must be called while holding the lock on the KeyManager.
+     * @param target the index that the current thread needs
+     * @return true if the current thread must not wait for the index
+     */
+
+    private boolean isWaitingFor(IndexUnderConstruction target) {
+        Thread current = Thread.currentThread();
+        Thread builder = target.builder;
+        while (builder != current) {
+            IndexUnderConstruction next = waitingThreads.get(builder);
+            if (next == null) {
+                return false;
+            }
+            builder = next.builder;
+        }
+        return true;
+    }
+
+    /**
+     * A marker placed in the table of indexes while an index is being built
+     */
+
+    private static class IndexUnderConstruction {
+        Thread builder = Thread.currentThread();
+    }
+
+    /**
+     * Get the primitive item types for which indexes exist (or are under construction) for a given
+     * key and document
+     * @param doc the document
+     * @param keyFingerprint the name of the key definition
+     * @return the list of item types
+     */
+
+    private synchronized List<BuiltInAtomicType> getIndexedItemTypes(DocumentInfo doc, int keyFingerprint) {
+        List<BuiltInAtomicType> types = new ArrayList<BuiltInAtomicType>(4);
+        WeakReference<HashMap<Long, Object>> ref = (docIndexes == null ? null : docIndexes.get(doc));
+        if (ref != null) {
+            HashMap<Long, Object> indexList = ref.get();
+            if (indexList != null) {
+                for (Iterator<Long> i=indexList.keySet().iterator(); i.hasNext();) {
+                    long key = (i.next()).longValue();
+                    if (((key >> 32)) == keyFingerprint) {
+                        types.add((BuiltInAtomicType)BuiltInType.getSchemaType((int)key));
+                    }
+                }
+            }
+        }
+        return types;
+    }
+
     private static Object getCollationKey(AtomicValue value, BuiltInAtomicType itemType,
                                           StringCollator collation, XPathContext context) throws XPathException {
         Object val;
@@ -637,7 +868,7 @@ public class KeyManager implements Serializable {
      * @param doc the document whose index is required
      * @param keyFingerprint the name of the key definition
      * @param itemType the primitive item type of the values being indexed
-     * @return either an index (as a HashMap), or the String "under construction", or null
+     * @return either an index (as a HashMap), or an IndexUnderConstruction marker, or null
     */
 
     private synchronized Object getIndex(DocumentInfo doc, int keyFingerprint, AtomicType itemType) {
@@ -658,7 +889,7 @@ public class KeyManager implements Serializable {
      * @param doc the document whose indexes are to be invalidated
      */
 
-    public void clearDocumentIndexes(DocumentInfo doc) {
+    public synchronized void clearDocumentIndexes(DocumentInfo doc) {
         docIndexes.remove(doc);
     }
 
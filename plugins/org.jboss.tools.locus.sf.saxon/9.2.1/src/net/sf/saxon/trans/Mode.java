@@ -1,13 +1,16 @@
 package net.sf.saxon.trans;
 
 import net.sf.saxon.Configuration;
-import net.sf.saxon.expr.Optimizer;
-import net.sf.saxon.expr.XPathContext;
-import net.sf.saxon.expr.XPathContextMajor;
+import net.sf.saxon.expr.*;
 import net.sf.saxon.instruct.Template;
+import net.sf.saxon.om.Axis;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.NameCodeHolder;
+import net.sf.saxon.om.NameCodeMap;
 import net.sf.saxon.om.NamespaceConstant;
 import net.sf.saxon.om.Navigator;
 import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.om.SequenceIterator;
 import net.sf.saxon.om.StructuredQName;
 import net.sf.saxon.pattern.*;
 import net.sf.saxon.sort.GenericSorter;
@@ -17,10 +20,13 @@ import net.sf.saxon.sort.Sortable;
 import net.sf.saxon.trace.ExpressionPresenter;
 import net.sf.saxon.trace.Location;
 import net.sf.saxon.type.Type;
+import net.sf.saxon.value.BooleanValue;
+import net.sf.saxon.value.StringValue;
 import net.sf.saxon.value.Whitespace;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A Mode is a collection of rules; the selection of a rule to apply to a given element
@@ -29,7 +35,7 @@ import java.util.ArrayList;
  * @author Michael H. Kay
  */
 
-public class Mode implements Serializable {
+public class Mode implements Serializable, NameCodeHolder {
 
     // TODO:PERF the data structure does not cater well for a stylesheet making heavy use of
     // match="schema-element(X)". We should probably expand the substitution group.
@@ -63,6 +69,16 @@ public class Mode implements Serializable {
     private StructuredQName modeName;
     private int stackFrameSlotsNeeded = 0;
     private int recoveryPolicy = Configuration.RECOVER_WITH_WARNINGS; // since 9.2 fixed at compile time
+    private boolean compiledDispatch = true;
+    private boolean rankingsComputed = false;
+    private DispatchTable dispatchTable = null;
+
+    /**
+     * The minimum number of rules in a chain for the chain to be partitioned according to the names
+     * of parent elements
+     */
+
+    private static final int PARENT_DISPATCH_THRESHOLD = 8;
 
     /**
      * Default constructor - creates a Mode containing no rules
@@ -148,6 +164,39 @@ public class Mode implements Serializable {
         return !hasRules;
     }
 
+    /**
+     * Ask whether there are any template rules in this mode that might match nodes of a given kind.
+     * This is used when streaming, to avoid constructing a node that would only be processed by the
+     * built-in template rule.
+     * @param kind the node kind, for example {@link Type#TEXT}
+     * @return false if no rule in this mode can match a node of the given kind, true if some rule
+     * might match such a node
+     */
+
+    public boolean hasRulesForNodeKind(int kind) {
+        if (genericNodeRuleChain != null) {
+            return true;
+        }
+        switch (kind) {
+            case Type.DOCUMENT:
+                return documentRuleChain != null;
+            case Type.ELEMENT:
+                return unnamedElementRuleChain != null || namedElementRuleChains.size() != 0;
+            case Type.ATTRIBUTE:
+                return unnamedAttributeRuleChain != null || namedAttributeRuleChains.size() != 0;
+            case Type.TEXT:
+                return textRuleChain != null;
+            case Type.COMMENT:
+                return commentRuleChain != null;
+            case Type.PROCESSING_INSTRUCTION:
+                return processingInstructionRuleChain != null;
+            case Type.NAMESPACE:
+                return namespaceRuleChain != null;
+            default:
+                return true;
+        }
+    }
+
     /**
      * Set the policy for handling recoverable errrors. Note that for some errors the decision can be
      * made at run-time, but for the "ambiguous template match" error, the decision is (since 9.2)
@@ -190,6 +239,34 @@ public class Mode implements Serializable {
         return streamable;
     }
 
+    /**
+     * Say whether rules in this mode are to be selected using a compiled dispatch table. The dispatch
+     * table is built when the rankings of the rules are computed, at the end of stylesheet compilation;
+     * it partitions the rules so that fewer patterns need to be tested against each node, and avoids
+     * testing the pattern at all where a rule can be rejected by a simple test on the name of the
+     * node's parent or on the presence of an attribute. The default is true.
+     * @param compiled true if a compiled dispatch table is to be used; false if the rules are to be
+     * searched sequentially
+     */
+
+    public void setCompiledDispatch(boolean compiled) {
+        compiledDispatch = compiled;
+        if (!compiled) {
+            dispatchTable = null;
+        } else if (rankingsComputed && dispatchTable == null) {
+            dispatchTable = new DispatchTable();
+        }
+    }
+
+    /**
+     * Ask whether rules in this mode are selected using a compiled dispatch table
+     * @return true if a compiled dispatch table is used
+     */
+
+    public boolean isCompiledDispatch() {
+        return compiledDispatch;
+    }
+
 
     /**
      * Add a rule to the Mode.
@@ -377,6 +454,11 @@ public class Mode implements Serializable {
             context = makeNewContext(context);
         }
 
+        DispatchTable table = dispatchTable;
+        if (table != null) {
+            return table.getRule(node, context, null);
+        }
+
         // search the specific list for this node type / node name
 
         Rule unnamedNodeChain;
@@ -499,6 +581,11 @@ public class Mode implements Serializable {
             context = makeNewContext(context);
         }
 
+        DispatchTable table = dispatchTable;
+        if (table != null) {
+            return table.getRule(node, context, filter);
+        }
+
         // search the specific list for this node type / node name
 
         Rule bestRule = null;
@@ -708,6 +795,26 @@ public class Mode implements Serializable {
         processRuleChain(genericNodeRuleChain, action);
     }
 
+    /**
+     * Get the actions of all the rules in this Mode
+     * @return a list containing the action (typically a Template) of each rule, in no particular order
+     */
+
+    public List<RuleTarget> getRuleTargets() {
+        final List<RuleTarget> targets = new ArrayList<RuleTarget>();
+        RuleAction action = new RuleAction() {
+            public void processRule(Rule r) {
+                targets.add(r.getAction());
+            }
+        };
+        try {
+            processRules(action);
+        } catch (XPathException err) {
+            // can't happen
+        }
+        return targets;
+    }
+
     private void processRuleChain(Rule r, RuleAction action) throws XPathException {
         while (r != null) {
             action.processRule(r);
@@ -716,7 +823,9 @@ public class Mode implements Serializable {
     }
 
     /**
-     * For a streamable mode, invert all the templates to generate streamable code
+     * For a streamable mode, invert all the templates to generate streamable code. Every template rule
+     * in the mode is analyzed, whatever kind of node it matches, so that templates that cannot be
+     * evaluated against streamed input are reported at compile time.
      */
 
     public void invertStreamableTemplates(final Optimizer opt) throws XPathException {
@@ -724,10 +833,9 @@ public class Mode implements Serializable {
             RuleAction action = new RuleAction() {
                 public void processRule(Rule r) throws XPathException {
                     NodeTest test = r.getPattern().getNodeTest();
-                    int kind = test.getPrimitiveType();
-                    if (kind == Type.DOCUMENT || kind == Type.ELEMENT) {
-                        Template t = (Template)r.getAction();
-                        RuleTarget inverse = opt.makeInversion(t, test);
+                    Template t = (Template)r.getAction();
+                    RuleTarget inverse = opt.makeInversion(t, test);
+                    if (inverse != null) {
                         r.setAction(inverse);
                     }
                 }
@@ -790,6 +898,463 @@ public class Mode implements Serializable {
         processRules(addToSorter);
         // now allocate ranks to all the modes
         sorter.allocateRanks();
+        rankingsComputed = true;
+        // build the dispatch table, which depends on the ranks
+        if (compiledDispatch) {
+            dispatchTable = new DispatchTable();
+        }
+    }
+
+    /**
+     * Determine the preconditions of a rule: simple conditions that every node matching the rule's
+     * pattern must satisfy, and that can be tested without evaluating the pattern. Two conditions are
+     * recognized: the name of the parent element, as in the pattern <code>section/title</code>, and the
+     * presence of an attribute, as in the pattern <code>para[@class]</code>, possibly with a given value,
+     * as in <code>para[@class='note']</code>.
+     * @param rule the rule whose preconditions are to be set
+     */
+
+    private static void computePreconditions(Rule rule) {
+        Pattern pattern = rule.getPattern();
+        if (rule.isAlwaysMatches() || !(pattern instanceof LocationPathPattern)) {
+            return;
+        }
+        LocationPathPattern lpp = (LocationPathPattern)pattern;
+        int parentFingerprint = -1;
+        Pattern parent = lpp.getParentPattern();
+        if (parent != null && parent.getNodeKind() == Type.ELEMENT) {
+            parentFingerprint = parent.getFingerprint();
+        }
+        Expression[] filters = lpp.getFilters();
+        if (lpp.getNodeKind() == Type.ELEMENT && filters != null) {
+            for (int i=0; i<filters.length && filters[i] != null; i++) {
+                Expression condition = getAttributeCondition(filters[i]);
+                if (condition instanceof AxisExpression) {
+                    rule.setPreconditions(parentFingerprint, getAttributeStep(condition), null);
+                    return;
+                } else if (condition != null) {
+                    Expression[] operands = ((BinaryExpression)condition).getOperands();
+                    int fp = getAttributeStep(operands[0]);
+                    Expression other = operands[1];
+                    if (fp == -1) {
+                        fp = getAttributeStep(operands[1]);
+                        other = operands[0];
+                    }
+                    rule.setPreconditions(parentFingerprint, fp,
+                            getComparisonStrings((ComparisonExpression)condition, other));
+                    return;
+                }
+            }
+        }
+        rule.setPreconditions(parentFingerprint, -1, null);
+    }
+
+    /**
+     * Determine whether a predicate in a pattern can only be true for an element that has a particular
+     * attribute. This is the case for predicates such as <code>[@a]</code>, <code>[@a = 'x']</code>, or
+     * <code>[@a eq 3 and ...]</code>, since a comparison with an empty sequence cannot be true.
+     * @param predicate the predicate
+     * @return the part of the predicate (an attribute axis expression, or a comparison with an
+     * attribute) that requires the attribute to be present, or null if there is no such attribute
+     */
+
+    private static Expression getAttributeCondition(Expression predicate) {
+        if (predicate instanceof BooleanExpression &&
+                ((BooleanExpression)predicate).getOperator() == Token.AND) {
+            Expression[] operands = ((BooleanExpression)predicate).getOperands();
+            Expression c = getAttributeCondition(operands[0]);
+            return (c != null ? c : getAttributeCondition(operands[1]));
+        } else if (predicate instanceof GeneralComparison || predicate instanceof SingletonComparison ||
+                (predicate instanceof ValueComparison &&
+                    ((ValueComparison)predicate).getResultWhenEmpty() != BooleanValue.TRUE)) {
+            Expression[] operands = ((BinaryExpression)predicate).getOperands();
+            if (getAttributeStep(operands[0]) != -1 || getAttributeStep(operands[1]) != -1) {
+                return predicate;
+            }
+            return null;
+        } else if (getAttributeStep(predicate) != -1 && predicate instanceof AxisExpression) {
+            return predicate;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Get the strings that an attribute is compared with in a predicate such as <code>[@a = 'x']</code>
+     * or <code>[@a = ('x', 'y')]</code>
+     * @param comparison the comparison
+     * @param other the operand of the comparison other than the attribute
+     * @return the strings, if the comparison tests (using the codepoint collation) whether the value of the
+     * attribute is equal to one of a sequence of string literals; otherwise null.
+     */
+
+    private static String[] getComparisonStrings(ComparisonExpression comparison, Expression other) {
+        if (comparison.getSingletonOperator() != Token.FEQ || !(other instanceof Literal) ||
+                !IndexedFilterExpression.isCodepointComparison(comparison)) {
+            return null;
+        }
+        try {
+            ArrayList<String> strings = new ArrayList<String>();
+            SequenceIterator iter = ((Literal)other).getValue().iterate();
+            while (true) {
+                Item item = iter.next();
+                if (item == null) {
+                    break;
+                }
+                if (!(item instanceof StringValue)) {
+                    return null;
+                }
+                strings.add(item.getStringValue());
+            }
+            return (strings.isEmpty() ? null : strings.toArray(new String[strings.size()]));
+        } catch (XPathException err) {
+            return null;
+        }
+    }
+
+    /**
+     * Determine whether an expression selects a named attribute of the context node, possibly
+     * atomized, in such a way that the expression is empty if the attribute is absent
+     * @param exp the expression
+     * @return the fingerprint of the attribute, or -1 if the expression is not of this form
+     */
+
+    private static int getAttributeStep(Expression exp) {
+        while (exp instanceof Atomizer || exp instanceof UntypedAtomicConverter ||
+                exp instanceof AtomicSequenceConverter || exp instanceof FirstItemExpression) {
+            exp = ((UnaryExpression)exp).getBaseExpression();
+        }
+        if (exp instanceof AxisExpression && ((AxisExpression)exp).getAxis() == Axis.ATTRIBUTE) {
+            NodeTest test = ((AxisExpression)exp).getNodeTest();
+            if (test instanceof NameTest) {
+                return test.getFingerprint();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A DispatchTable is a compiled form of the rules in a Mode, built by {@link Mode#computeRankings}
+     * once all the rules have been added. Each chain of rules is held as an array in rank order, with the
+     * preconditions of each rule precomputed, so that a rule can often be rejected without evaluating its
+     * pattern. A long chain in which many of the rules require a particular parent element (for example
+     * <code>section/title</code> and <code>figure/title</code>) is partitioned according to the name of
+     * the parent, so that rules requiring a different parent are not examined at all. The table also
+     * caches, for each element and attribute name, whether any rule in the mode is capable of matching
+     * a node of that name; if not, the search is abandoned immediately.
+     *
+     * <p>The result of a search is always the same as the result of searching the original rule chains
+     * in {@link Mode#getRule(NodeInfo, XPathContext)}, including the reporting of ambiguous matches.</p>
+     */
+
+    private class DispatchTable implements Serializable, NameCodeHolder {
+
+        private CompiledChain[] kindChains = new CompiledChain[Type.NAMESPACE + 1];
+        private CompiledChain genericChain;
+        private IntHashMap<CompiledChain> namedElementChains;
+        private IntHashMap<CompiledChain> namedAttributeChains;
+        private boolean usesParent = false;
+
+        // For each element or attribute fingerprint: 0 if not yet known, 1 if some rule might match a
+        // node with this name, 2 if no rule can match a node with this name. Entries are added
+        // lazily, as names are encountered.
+        private transient volatile byte[] elementNameStatus;
+        private transient volatile byte[] attributeNameStatus;
+
+        public DispatchTable() {
+            kindChains[Type.DOCUMENT] = compile(documentRuleChain);
+            kindChains[Type.ELEMENT] = compile(unnamedElementRuleChain);
+            kindChains[Type.ATTRIBUTE] = compile(unnamedAttributeRuleChain);
+            kindChains[Type.TEXT] = compile(textRuleChain);
+            kindChains[Type.COMMENT] = compile(commentRuleChain);
+            kindChains[Type.PROCESSING_INSTRUCTION] = compile(processingInstructionRuleChain);
+            kindChains[Type.NAMESPACE] = compile(namespaceRuleChain);
+            genericChain = compile(genericNodeRuleChain);
+            namedElementChains = compile(namedElementRuleChains);
+            namedAttributeChains = compile(namedAttributeRuleChains);
+        }
+
+        private CompiledChain compile(Rule head) {
+            if (head == null) {
+                return null;
+            }
+            CompiledChain chain = new CompiledChain(head);
+            usesParent |= chain.usesParent;
+            return chain;
+        }
+
+        private IntHashMap<CompiledChain> compile(IntHashMap<Rule> chains) {
+            IntHashMap<CompiledChain> result = new IntHashMap<CompiledChain>(chains.size());
+            IntIterator ii = chains.keyIterator();
+            while (ii.hasNext()) {
+                int fp = ii.next();
+                result.put(fp, compile(chains.get(fp)));
+            }
+            return result;
+        }
+
+        /**
+         * Get the best rule for a given node
+         * @param node the node to be matched
+         * @param context the dynamic context, with a stack frame for evaluating patterns if required
+         * @param filter a filter to select which rules are eligible, or null if all rules are eligible
+         * @return the best matching rule, or null if there is none
+         * @throws XPathException if an error occurs evaluating a pattern
+         */
+
+        public Rule getRule(NodeInfo node, XPathContext context, RuleFilter filter) throws XPathException {
+            int kind = node.getNodeKind();
+            int parentFingerprint = -1;
+            if (usesParent) {
+                NodeInfo parent = node.getParent();
+                if (parent != null && parent.getNodeKind() == Type.ELEMENT) {
+                    parentFingerprint = parent.getFingerprint();
+                }
+            }
+            Rule bestRule = null;
+            if (kind == Type.ELEMENT || kind == Type.ATTRIBUTE) {
+                int fp = node.getFingerprint();
+                CompiledChain namedChain =
+                        (kind == Type.ELEMENT ? namedElementChains : namedAttributeChains).get(fp);
+                if (namedChain != null) {
+                    bestRule = searchRules(node, context, null, namedChain.getRules(parentFingerprint),
+                            parentFingerprint, filter);
+                } else if (!isMatchable(kind, fp)) {
+                    return null;
+                }
+            }
+            CompiledChain unnamedChain = kindChains[kind];
+            if (unnamedChain != null) {
+                bestRule = searchRules(node, context, bestRule, unnamedChain.getRules(parentFingerprint),
+                        parentFingerprint, filter);
+            }
+            if (genericChain != null) {
+                bestRule = searchRules(node, context, bestRule, genericChain.getRules(parentFingerprint),
+                        parentFingerprint, filter);
+            }
+            return bestRule;
+        }
+
+        /**
+         * Search an array of rules. The logic is the same as {@link Mode#searchRuleChain}, except that
+         * the preconditions of each rule are tested before its pattern.
+         * @param node the node being matched
+         * @param context XPath dynamic context
+         * @param bestRule the best rule so far in terms of precedence and priority (may be null)
+         * @param rules the rules to be searched, in rank order
+         * @param parentFingerprint the fingerprint of the parent of the node, or -1 if the parent is not
+         * an element (or has not been computed because no rule needs it)
+         * @param filter a filter to select which rules are eligible, or null if all rules are eligible
+         * @return the best match rule found in the chain, or the previous best rule, or null
+         * @throws XPathException if an error occurs evaluating a pattern
+         */
+
+        private Rule searchRules(NodeInfo node, XPathContext context, Rule bestRule, Rule[] rules,
+                                 int parentFingerprint, RuleFilter filter) throws XPathException {
+            for (int i=0; i<rules.length; i++) {
+                Rule head = rules[i];
+                if (filter != null && !filter.testRule(head)) {
+                    continue;
+                }
+                if (bestRule != null) {
+                    int rank = head.compareRank(bestRule);
+                    if (rank < 0) {
+                        // if we already have a match, and the precedence or priority of this
+                        // rule is lower, quit the search
+                        break;
+                    } else if (rank == 0) {
+                        // this rule has the same precedence and priority as the matching rule already found
+                        if (matches(head, node, context, parentFingerprint)) {
+                            reportAmbiguity(node, bestRule, head, context);
+                            // choose whichever one comes last (assuming the error wasn't fatal)
+                            bestRule = (bestRule.getSequence() > head.getSequence() ? bestRule : head);
+                            break;
+                        }
+                    } else {
+                        // this rule has higher rank than the matching rule already found
+                        if (matches(head, node, context, parentFingerprint)) {
+                            bestRule = head;
+                        }
+                    }
+                } else if (matches(head, node, context, parentFingerprint)) {
+                    bestRule = head;
+                    if (recoveryPolicy == Configuration.RECOVER_SILENTLY) {
+                        break;   // choose the first match; rules are in order of rank
+                    }
+                }
+            }
+            return bestRule;
+        }
+
+        private boolean matches(Rule rule, NodeInfo node, XPathContext context, int parentFingerprint)
+                throws XPathException {
+            if (rule.isAlwaysMatches()) {
+                return true;
+            }
+            int parent = rule.getParentFingerprint();
+            if (parent != -1 && parent != parentFingerprint) {
+                return false;
+            }
+            int att = rule.getAttributeFingerprint();
+            if (att != -1) {
+                String value = node.getAttributeValue(att);
+                if (value == null) {
+                    return false;
+                }
+                String[] required = rule.getAttributeValues();
+                if (required != null && !isOneOf(value, required) && !Whitespace.containsWhitespace(value)) {
+                    // If the value contains whitespace, it might be a typed list value (e.g. IDREFS),
+                    // so we must leave the pattern to decide
+                    return false;
+                }
+            }
+            return rule.getPattern().matches(node, context);
+        }
+
+        private boolean isOneOf(String value, String[] strings) {
+            for (int i=0; i<strings.length; i++) {
+                if (strings[i].equals(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Determine whether any rule is capable of matching an element or attribute with a given name,
+         * given that there are no rules specific to that name. The answer is cached.
+         * @param kind the node kind, element or attribute
+         * @param fingerprint the fingerprint of the node name
+         * @return false if it is known that no rule can match; true if a rule might match
+         */
+
+        private boolean isMatchable(int kind, int fingerprint) {
+            byte[] status = (kind == Type.ELEMENT ? elementNameStatus : attributeNameStatus);
+            if (status != null && fingerprint < status.length && status[fingerprint] != 0) {
+                return status[fingerprint] == 1;
+            }
+            boolean matchable = canMatchName(kindChains[kind], kind, fingerprint) ||
+                    canMatchName(genericChain, kind, fingerprint);
+            if (status == null || fingerprint >= status.length) {
+                // the array is replaced rather than updated in place; a concurrent update may be lost,
+                // but this does no harm
+                byte[] newStatus = new byte[Math.max(fingerprint + 1, status == null ? 256 : status.length * 2)];
+                if (status != null) {
+                    System.arraycopy(status, 0, newStatus, 0, status.length);
+                }
+                status = newStatus;
+                if (kind == Type.ELEMENT) {
+                    elementNameStatus = status;
+                } else {
+                    attributeNameStatus = status;
+                }
+            }
+            status[fingerprint] = (byte)(matchable ? 1 : 2);
+            return matchable;
+        }
+
+        private boolean canMatchName(CompiledChain chain, int kind, int fingerprint) {
+            if (chain == null) {
+                return false;
+            }
+            for (int i=0; i<chain.rules.length; i++) {
+                NodeTest test = chain.rules[i].getPattern().getNodeTest();
+                if (!(test instanceof NameTest || test instanceof NamespaceTest || test instanceof LocalNameTest ||
+                        test instanceof NodeKindTest || test instanceof AnyNodeTest) ||
+                        test.matches(kind, fingerprint, -1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Translate the fingerprints used to index the rule chains by name into the codes of a different
+         * NamePool. The compiled chains translate their own codes.
+         * @param map the mapping between the two NamePools
+         */
+
+        public void remapNameCodes(NameCodeMap map) {
+            namedElementChains = map.mapKeys(namedElementChains);
+            namedAttributeChains = map.mapKeys(namedAttributeChains);
+        }
+    }
+
+    /**
+     * A chain of rules in compiled form, as used in a {@link DispatchTable}
+     */
+
+    private static class CompiledChain implements Serializable, NameCodeHolder {
+
+        private Rule[] rules;
+        private Rule[] unconditionalRules;
+        private IntHashMap<Rule[]> rulesByParent;
+        private boolean usesParent = false;
+
+        /**
+         * Compile a chain of rules
+         * @param head the first rule in the chain
+         */
+
+        public CompiledChain(Rule head) {
+            ArrayList<Rule> list = new ArrayList<Rule>();
+            int conditional = 0;
+            for (Rule r = head; r != null; r = r.getNext()) {
+                computePreconditions(r);
+                if (r.getParentFingerprint() != -1) {
+                    conditional++;
+                }
+                list.add(r);
+            }
+            rules = list.toArray(new Rule[list.size()]);
+            usesParent = conditional > 0;
+            if (rules.length >= PARENT_DISPATCH_THRESHOLD && conditional > 1) {
+                // partition the rules according to the name of the parent element that they require
+                rulesByParent = new IntHashMap<Rule[]>();
+                unconditionalRules = selectRules(-1);
+                for (int i=0; i<rules.length; i++) {
+                    int p = rules[i].getParentFingerprint();
+                    if (p != -1 && rulesByParent.get(p) == null) {
+                        rulesByParent.put(p, selectRules(p));
+                    }
+                }
+            }
+        }
+
+        private Rule[] selectRules(int parentFingerprint) {
+            ArrayList<Rule> list = new ArrayList<Rule>();
+            for (int i=0; i<rules.length; i++) {
+                int p = rules[i].getParentFingerprint();
+                if (p == -1 || p == parentFingerprint) {
+                    list.add(rules[i]);
+                }
+            }
+            return list.toArray(new Rule[list.size()]);
+        }
+
+        /**
+         * Get the rules that might match a node, in rank order
+         * @param parentFingerprint the fingerprint of the parent of the node, or -1 if the parent
+         * is not an element
+         * @return the rules that might match a node with this parent
+         */
+
+        public Rule[] getRules(int parentFingerprint) {
+            if (rulesByParent != null) {
+                Rule[] r = (parentFingerprint == -1 ? null : rulesByParent.get(parentFingerprint));
+                return (r == null ? unconditionalRules : r);
+            }
+            return rules;
+        }
+
+        /**
+         * Translate the parent fingerprints used to partition the rules into the codes of a different NamePool
+         * @param map the mapping between the two NamePools
+         */
+
+        public void remapNameCodes(NameCodeMap map) {
+            rulesByParent = map.mapKeys(rulesByParent);
+        }
     }
 
     /**
@@ -852,6 +1417,19 @@ public class Mode implements Serializable {
     }
 
 
+
+    /**
+     * Translate the fingerprints used to index the rule chains by element and attribute name into
+     * the codes of a different NamePool. The rules, and the dispatch table if there is one, translate
+     * their own codes.
+     * @param map the mapping between the two NamePools
+     */
+
+    public void remapNameCodes(NameCodeMap map) {
+        namedElementRuleChains = map.mapKeys(namedElementRuleChains);
+        namedAttributeRuleChains = map.mapKeys(namedAttributeRuleChains);
+    }
+
 }
 
 //
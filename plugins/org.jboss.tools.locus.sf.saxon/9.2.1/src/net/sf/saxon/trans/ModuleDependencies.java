@@ -0,0 +1,155 @@
+package net.sf.saxon.trans;
+
+import net.sf.saxon.functions.ResolveURI;
+
+import java.io.File;
+import java.io.Serializable;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A ModuleDependencies object records the URIs of the modules that were read in the course of a
+ * compilation (for example, the stylesheet modules of a stylesheet, or the library modules imported by
+ * a query), together with the modification time of each module at the time it was read. This allows
+ * a cache of compiled code to determine whether the compiled code is still up to date.
+ *
+ * <p>The modification time is known only for modules that are read from files, that is, modules
+ * whose URI uses the <code>file</code> scheme. A module read from any other kind of URI is
+ * assumed never to change; if it does, the compiled code must be removed from the cache explicitly.</p>
+ *
+ * <p>Modules are added during compilation, which happens in a single thread; once the compilation
+ * is complete, the object is not modified, and may be read in several threads at once.</p>
+ */
+
+public class ModuleDependencies implements Serializable {
+
+    private List<String> uris = new ArrayList<String>(4);
+    private long[] times = new long[4];
+
+    /**
+     * Create an empty set of module dependencies
+     */
+
+    public ModuleDependencies() {
+    }
+
+    /**
+     * Record that a module has been read, noting its current modification time. If the module has
+     * already been recorded, the call has no effect.
+     * @param systemId the system ID of the module. If this is a relative URI, it is made absolute
+     * by resolving it against the current working directory. If it is null, the call has no effect.
+     */
+
+    public void add(String systemId) {
+        if (systemId == null) {
+            return;
+        }
+        String uri = makeAbsolute(systemId);
+        if (uris.contains(uri)) {
+            return;
+        }
+        if (uris.size() == times.length) {
+            long[] t2 = new long[times.length * 2];
+            System.arraycopy(times, 0, t2, 0, times.length);
+            times = t2;
+        }
+        times[uris.size()] = getLastModified(uri);
+        uris.add(uri);
+    }
+
+    /**
+     * Get the URIs of the modules that have been recorded
+     * @return the absolute URIs of the modules, in the order in which they were read
+     */
+
+    public List<String> getModuleURIs() {
+        return Collections.unmodifiableList(uris);
+    }
+
+    /**
+     * Ask whether a given module is one of the modules that have been recorded
+     * @param systemId the system ID of the module. A relative URI is resolved against the current
+     * working directory.
+     * @return true if the module has been recorded
+     */
+
+    public boolean contains(String systemId) {
+        return systemId != null && uris.contains(makeAbsolute(systemId));
+    }
+
+    /**
+     * Ask whether all the recorded modules are unchanged since they were read
+     * @return false if any module that was read from a file has been modified or deleted since it
+     * was read; otherwise true
+     */
+
+    public boolean isUpToDate() {
+        for (int i=0; i<uris.size(); i++) {
+            if (times[i] != -1 && getLastModified(uris.get(i)) != times[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the modification time of the resource identified by a URI
+     * @param uri the absolute URI of the resource
+     * @return the modification time of the file, as returned by {@link File#lastModified}, if the URI
+     * uses the <code>file</code> scheme; this is zero if the file does not exist. For any other URI, -1.
+     */
+
+    public static long getLastModified(String uri) {
+        if (uri.startsWith("file:")) {
+            try {
+                URI u = new URI(uri);
+                if (u.getFragment() != null) {
+                    u = new URI(u.getScheme(), u.getSchemeSpecificPart(), null);
+                }
+                return new File(u).lastModified();
+            } catch (URISyntaxException e) {
+                return -1;
+            } catch (IllegalArgumentException e) {
+                // not a hierarchic file URI, for example a UNC filename
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Make a system ID absolute, by resolving it against the current working directory
+     * @param systemId the system ID
+     * @return the absolute URI, or the system ID unchanged if it cannot be resolved
+     */
+
+    private static String makeAbsolute(String systemId) {
+        try {
+            return ResolveURI.makeAbsolute(systemId, null).toString();
+        } catch (URISyntaxException e) {
+            return systemId;
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
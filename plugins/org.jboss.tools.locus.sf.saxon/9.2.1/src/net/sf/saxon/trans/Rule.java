@@ -1,5 +1,7 @@
 package net.sf.saxon.trans;
 
+import net.sf.saxon.om.NameCodeHolder;
+import net.sf.saxon.om.NameCodeMap;
 import net.sf.saxon.pattern.Pattern;
 
 import java.io.Serializable;
@@ -8,7 +10,7 @@ import java.io.Serializable;
  * Rule: a template rule, or a strip-space rule used to support the implementation
  */
 
-public final class Rule implements Serializable {
+public final class Rule implements Serializable, NameCodeHolder {
     private Pattern pattern;        // The pattern that fires this rule
     private RuleTarget action;      // The action associated with this rule (usually a Template)
     private int precedence;         // The import precedence
@@ -19,6 +21,12 @@ public final class Rule implements Serializable {
                                     // is on a rule-chain such that the pattern is necessarily satisfied
     private int rank;               // Indicates the relative precedence/priority of a rule within a mode;
                                     // used for quick comparison
+    private int parentFingerprint = -1;     // If not -1, the pattern can only match a node whose parent is an
+                                            // element with this fingerprint
+    private int attributeFingerprint = -1;  // If not -1, the pattern can only match an element that has an
+                                            // attribute with this fingerprint
+    private String[] attributeValues;       // If not null, the attribute identified by attributeFingerprint
+                                            // must have one of these values (unless it is a list-valued attribute)
 
     public int getSequence() {
         return sequence;
@@ -68,6 +76,53 @@ public final class Rule implements Serializable {
         return rank;
     }
 
+    /**
+     * Set conditions that are necessarily satisfied by any node that matches the pattern of this rule.
+     * These are used to reject nodes cheaply, without evaluating the pattern.
+     * @param parentFingerprint if not -1, the pattern can only match a node whose parent is an element
+     * with this fingerprint
+     * @param attributeFingerprint if not -1, the pattern can only match an element having an attribute
+     * with this fingerprint
+     * @param attributeValues if not null, the pattern can only match an element where the attribute
+     * identified by attributeFingerprint has one of these values. (If the attribute is a list-valued
+     * attribute, the condition applies to each item in the list.)
+     */
+
+    public void setPreconditions(int parentFingerprint, int attributeFingerprint, String[] attributeValues) {
+        this.parentFingerprint = parentFingerprint;
+        this.attributeFingerprint = attributeFingerprint;
+        this.attributeValues = attributeValues;
+    }
+
+    /**
+     * Get the fingerprint of the element that must be the parent of any node matched by this rule
+     * @return the fingerprint of the required parent element, or -1 if there is no such precondition
+     */
+
+    public int getParentFingerprint() {
+        return parentFingerprint;
+    }
+
+    /**
+     * Get the fingerprint of an attribute that must be present on any element matched by this rule
+     * @return the fingerprint of the required attribute, or -1 if there is no such precondition
+     */
+
+    public int getAttributeFingerprint() {
+        return attributeFingerprint;
+    }
+
+    /**
+     * Get the values, one of which must be the value of the required attribute of any element
+     * matched by this rule
+     * @return the permitted values of the attribute identified by {@link #getAttributeFingerprint()},
+     * or null if there is no restriction on its value
+     */
+
+    public String[] getAttributeValues() {
+        return attributeValues;
+    }
+
     /**
      * Create a Rule.
      *
@@ -142,6 +197,18 @@ public final class Rule implements Serializable {
         }
     }
 
+
+    /**
+     * Translate the fingerprints used in the preconditions of this rule into the codes of a
+     * different NamePool
+     * @param map the mapping between the two NamePools
+     */
+
+    public void remapNameCodes(NameCodeMap map) {
+        parentFingerprint = map.mapNameCode(parentFingerprint);
+        attributeFingerprint = map.mapNameCode(attributeFingerprint);
+    }
+
 }
 //
 // The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
@@ -0,0 +1,134 @@
+package net.sf.saxon.trans;
+
+import java.util.concurrent.*;
+
+/**
+ * A pool of worker threads used for multithreading optimizations, for example building a large
+ * key index in parallel. A single pool is owned by the {@link net.sf.saxon.Configuration}
+ * and is shared by all transformations and queries; it is created when first needed, and only used
+ * if multithreading has been enabled using {@link net.sf.saxon.Configuration#setMultiThreading}.
+ *
+ * <p>The threads are daemon threads, so an application that does not shut the pool down explicitly
+ * can still exit normally.</p>
+ *
+ * <p>Tasks running on a worker thread must not submit further tasks to the pool and wait for their
+ * completion, because this can lead to deadlock if all the threads in the pool are waiting. Code that might
+ * run on a worker thread should call {@link #isWorkerThread()} and do its work sequentially if this returns
+ * true.</p>
+ */
+
+public class WorkerPool {
+
+    private ExecutorService executor;
+    private int threads;
+
+    /**
+     * Create a pool of worker threads
+     * @param threads the number of threads in the pool
+     */
+
+    public WorkerPool(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of worker threads must be positive");
+        }
+        this.threads = threads;
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count = 0;
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new WorkerThread(r, "Saxon worker " + (++count));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Get the number of threads in the pool
+     * @return the number of threads
+     */
+
+    public int getNumberOfThreads() {
+        return threads;
+    }
+
+    /**
+     * Submit a task for execution on one of the worker threads
+     * @param task the task to be executed
+     * @return a Future representing the result of the task
+     */
+
+    public <T> Future<T> submit(Callable<T> task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * Wait for a task submitted to the pool to finish, and return its result. An XPathException thrown
+     * by the task is rethrown unchanged; other exceptions are wrapped in an XPathException.
+     * @param future the Future returned when the task was submitted
+     * @return the result of the task
+     * @throws XPathException if the task failed, or if the waiting thread is interrupted
+     */
+
+    public static <T> T getResult(Future<T> future) throws XPathException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XPathException("Interrupted while waiting for a worker thread", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof XPathException) {
+                throw (XPathException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            } else {
+                throw new XPathException(cause);
+            }
+        }
+    }
+
+    /**
+     * Shut down the pool. Tasks that have already been submitted are completed, but no new tasks
+     * are accepted.
+     */
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Ask whether the current thread is one of the threads belonging to a WorkerPool
+     * @return true if the current thread is a worker thread
+     */
+
+    public static boolean isWorkerThread() {
+        return Thread.currentThread() instanceof WorkerThread;
+    }
+
+    private static class WorkerThread extends Thread {
+        public WorkerThread(Runnable r, String name) {
+            super(r, name);
+        }
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
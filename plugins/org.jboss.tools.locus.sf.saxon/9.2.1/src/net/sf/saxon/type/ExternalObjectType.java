@@ -19,7 +19,7 @@ import java.io.Serializable;
  * an extension function, or supplied as an external variable/parameter.
  */
 
-public class ExternalObjectType implements AtomicType, Serializable {
+public class ExternalObjectType implements AtomicType, Serializable, NameCodeHolder {
 
     private Class javaClass;
     private Configuration config;
@@ -691,6 +691,18 @@ public class ExternalObjectType implements AtomicType, Serializable {
         return input;
     }
 
+
+    /**
+     * Translate the fingerprints of this type and of its base type into the codes of a different
+     * NamePool
+     * @param map the mapping between the two NamePools
+     */
+
+    public void remapNameCodes(NameCodeMap map) {
+        fingerprint = map.mapNameCode(fingerprint);
+        baseFingerprint = map.mapNameCode(baseFingerprint);
+    }
+
 }
 
 //
@@ -0,0 +1,160 @@
+package net.sf.saxon.value;
+
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.ItemType;
+import net.sf.saxon.type.TypeHierarchy;
+
+import java.util.IdentityHashMap;
+
+/**
+ * An IndexedValue is the value of a variable that is used in one or more filter expressions of the
+ * form $var[key = value]. It wraps the actual value of the variable (which may be a Closure, so that
+ * the variable is still evaluated lazily) and holds the indexes that have been built on it, one for each
+ * key expression. An index is built the first time the corresponding filter expression is evaluated,
+ * and is reused for all subsequent evaluations that use the same value of the variable: typically,
+ * on every iteration of a loop that contains the filter expression.
+ *
+ * <p>The indexes themselves are built and used by the class
+ * {@link net.sf.saxon.expr.IndexedFilterExpression}; to this class they are opaque objects. The value may
+ * be shared between threads, so access to the indexes is synchronized.</p>
+ */
+
+public final class IndexedValue extends Value {
+
+    private Value value;
+    private IdentityHashMap<Object, Object> indexes;
+
+    /**
+     * Create an IndexedValue
+     * @param value the value of the variable, which is to be indexed
+     */
+
+    public IndexedValue(Value value) {
+        this.value = value;
+    }
+
+    /**
+     * Get the underlying value
+     * @return the value that is being indexed
+     */
+
+    public Value getUnderlyingValue() {
+        return value;
+    }
+
+    /**
+     * Get the index that has been built for a given key expression
+     * @param keyExpression identifies the index. This is normally the expression used to compute
+     * the key of each item
+     * @return the index, or null if no index has yet been built for this key expression
+     */
+
+    public synchronized Object getIndex(Object keyExpression) {
+        return (indexes == null ? null : indexes.get(keyExpression));
+    }
+
+    /**
+     * Register an index for a given key expression
+     * @param keyExpression identifies the index. This is normally the expression used to compute
+     * the key of each item
+     * @param index the index
+     */
+
+    public synchronized void putIndex(Object keyExpression, Object index) {
+        if (indexes == null) {
+            indexes = new IdentityHashMap<Object, Object>(4);
+        }
+        indexes.put(keyExpression, index);
+    }
+
+    /**
+     * Return an iterator over the items in the value
+     */
+
+    public SequenceIterator iterate() throws XPathException {
+        return value.iterate();
+    }
+
+    /**
+     * Get the n'th item in the sequence (starting from 0).
+     * @param n position of the required item, counting from zero.
+     * @return the n'th item in the sequence, where the first item in the sequence is
+     *         numbered zero. If n is negative or >= the length of the sequence, returns null.
+     */
+
+    public Item itemAt(int n) throws XPathException {
+        return value.itemAt(n);
+    }
+
+    /**
+     * Get the length of the sequence
+     */
+
+    public int getLength() throws XPathException {
+        return value.getLength();
+    }
+
+    /**
+     * Determine the data type of the items in the sequence
+     * @param th the type hierarchy cache
+     * @return the type of the items in the sequence
+     */
+
+    public ItemType getItemType(TypeHierarchy th) {
+        return value.getItemType(th);
+    }
+
+    /**
+     * Determine the cardinality of the sequence
+     */
+
+    public int getCardinality() {
+        return value.getCardinality();
+    }
+
+    /**
+     * Process the value as an instruction, that is, copy it to the current output destination
+     */
+
+    public void process(XPathContext context) throws XPathException {
+        value.process(context);
+    }
+
+    /**
+     * Get the effective boolean value of the sequence
+     */
+
+    public boolean effectiveBooleanValue() throws XPathException {
+        return value.effectiveBooleanValue();
+    }
+
+    /**
+     * Get the string value of the sequence
+     */
+
+    public CharSequence getStringValueCS() throws XPathException {
+        return value.getStringValueCS();
+    }
+
+}
+
+//
+// The contents of this file are subject to the Mozilla Public License Version 1.0 (the "License");
+// you may not use this file except in compliance with the License. You may obtain a copy of the
+// License at http://www.mozilla.org/MPL/
+//
+// Software distributed under the License is distributed on an "AS IS" basis,
+// WITHOUT WARRANTY OF ANY KIND, either express or implied.
+// See the License for the specific language governing rights and limitations under the License.
+//
+// The Original Code is: all this file.
+//
+// The Initial Developer of the Original Code is Michael H. Kay.
+//
+// Portions created by (your name) are Copyright (C) (your legal entity). All Rights Reserved.
+//
+// Contributor(s): none.
+//
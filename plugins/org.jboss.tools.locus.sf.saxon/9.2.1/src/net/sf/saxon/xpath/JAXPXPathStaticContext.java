@@ -35,7 +35,7 @@ public class JAXPXPathStaticContext extends AbstractStaticContext
     private SlotManager stackFrameMap;
     private XPathFunctionLibrary xpathFunctionLibrary;
 
-    private NamespaceContext namespaceContext = new MinimalNamespaceContext();
+    private NamespaceContext namespaceContext = MinimalNamespaceContext.THE_INSTANCE;
     private XPathVariableResolver variableResolver;
 
 	/**
@@ -247,6 +247,10 @@ public class JAXPXPathStaticContext extends AbstractStaticContext
 
     private static class MinimalNamespaceContext implements NamespaceContext, NamespaceResolver {
 
+        // The class has no state, so a single instance is shared by all static contexts; this allows
+        // static contexts using the default namespace context to share cached expressions
+        private static final MinimalNamespaceContext THE_INSTANCE = new MinimalNamespaceContext();
+
         /**
          * Get the namespace URI bound to a prefix in the current scope.</p>
          * @param prefix the prefix to look up
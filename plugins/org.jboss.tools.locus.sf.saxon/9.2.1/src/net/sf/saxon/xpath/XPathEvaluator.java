@@ -11,6 +11,7 @@ import net.sf.saxon.expr.XPathContextMajor;
 import net.sf.saxon.instruct.Executable;
 import net.sf.saxon.instruct.SlotManager;
 import net.sf.saxon.om.*;
+import net.sf.saxon.sxpath.ExpressionCache;
 import net.sf.saxon.trans.SaxonErrorCode;
 import net.sf.saxon.type.SchemaException;
 import net.sf.saxon.type.Type;
@@ -58,6 +59,7 @@ public class XPathEvaluator implements XPath {
     private NodeInfo contextNode = null;
     private JAXPXPathStaticContext staticContext;
     private boolean stripSpace = false;
+    private ExpressionCache<XPathExpressionImpl> cache;
 
     /**
      * Default constructor. Creates an XPathEvaluator with Configuration appropriate
@@ -208,6 +210,35 @@ public class XPathEvaluator implements XPath {
         return staticContext;
     }
 
+    /**
+     * Set a cache of compiled expressions, to be used by the single-shot <code>evaluate()</code> methods
+     * that accept an expression supplied as a string. The expression is compiled only if the cache does not
+     * already contain an expression with the same text, compiled using an equivalent static context. The
+     * cache may be shared by several XPathEvaluators: this is done by the {@link XPathFactoryImpl} when caching
+     * is enabled for the factory.
+     *
+     * <p>Expressions returned by {@link #compile} are never taken from the cache, because an
+     * {@link XPathExpressionImpl} can be modified by its user. An expression is not cached if a context
+     * node has been supplied using the deprecated {@link #setContextNode} method, or if the static
+     * context is an instance of a user-defined subclass of {@link JAXPXPathStaticContext}.</p>
+     * @param cache the cache of compiled expressions, or null if no cache is to be used
+     * @since 9.2
+     */
+
+    public void setExpressionCache(ExpressionCache<XPathExpressionImpl> cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Get the cache of compiled expressions used by this XPathEvaluator
+     * @return the cache of compiled expressions, or null if none is in use
+     * @since 9.2
+     */
+
+    public ExpressionCache<XPathExpressionImpl> getExpressionCache() {
+        return cache;
+    }
+
     /**
      * Get the executable
      * @return the executable
@@ -230,6 +261,37 @@ public class XPathEvaluator implements XPath {
         return createExpressionInternal(expression);
     }
 
+    /**
+     * Get a compiled expression for one of the single-shot evaluate() methods, using the cache of
+     * compiled expressions if there is one
+     * @param expr the XPath expression, as a string
+     * @return the compiled expression
+     * @throws XPathExpressionException if there are any static errors in the expression
+     */
+
+    private XPathExpression getCompiledExpression(String expr) throws XPathExpressionException {
+        if (expr == null) {
+            throw new NullPointerException("expr");
+        }
+        CacheKey key = null;
+        if (cache != null && contextNode == null && staticContext.getClass() == JAXPXPathStaticContext.class) {
+            key = new CacheKey(expr, staticContext);
+            XPathExpressionImpl exp = cache.get(key);
+            if (exp != null) {
+                return exp;
+            }
+        }
+        try {
+            XPathExpressionImpl exp = createExpressionInternal(expr);
+            if (key != null) {
+                cache.put(key, exp);
+            }
+            return exp;
+        } catch (net.sf.saxon.trans.XPathException e) {
+            throw new XPathExpressionException(e);
+        }
+    }
+
     private XPathExpressionImpl createExpressionInternal(String expression) throws net.sf.saxon.trans.XPathException {
         Expression exp = ExpressionTool.make(expression, staticContext, 0, -1, 1, false);
         ExpressionVisitor visitor = ExpressionVisitor.make(staticContext);
@@ -442,7 +504,7 @@ public class XPathEvaluator implements XPath {
      */
 
     public Object evaluate(String expr, Object node, QName qName) throws XPathExpressionException {
-        XPathExpression exp = compile(expr);
+        XPathExpression exp = getCompiledExpression(expr);
         return exp.evaluate(node, qName);
     }
 
@@ -470,7 +532,7 @@ public class XPathEvaluator implements XPath {
      */
 
     public String evaluate(String expr, Object node) throws XPathExpressionException {
-        XPathExpression exp = compile(expr);
+        XPathExpression exp = getCompiledExpression(expr);
         return exp.evaluate(node);
     }
 
@@ -500,7 +562,7 @@ public class XPathEvaluator implements XPath {
         if (qName == null) {
             throw new NullPointerException("qName");
         }
-        XPathExpression exp = compile(expr);
+        XPathExpression exp = getCompiledExpression(expr);
         return exp.evaluate(inputSource, qName);
     }
 
@@ -526,7 +588,7 @@ public class XPathEvaluator implements XPath {
         if (inputSource == null) {
             throw new NullPointerException("inputSource");
         }
-        XPathExpression exp = compile(expr);
+        XPathExpression exp = getCompiledExpression(expr);
         return exp.evaluate(inputSource);
     }
 
@@ -560,6 +622,64 @@ public class XPathEvaluator implements XPath {
         }
     }
 
+    /**
+     * The key of an expression in the cache of compiled expressions: the text of the expression,
+     * together with the properties of the static context that affect its compilation. The namespace
+     * context and the variable and function resolvers are compared by identity.
+     */
+
+    private static class CacheKey {
+
+        private String expression;
+        private NamespaceContext namespaceContext;
+        private XPathVariableResolver variableResolver;
+        private XPathFunctionResolver functionResolver;
+        private String baseURI;
+        private String defaultElementNamespace;
+        private String defaultFunctionNamespace;
+        private String defaultCollationName;
+        private boolean backwardsCompatible;
+        private boolean schemaAware;
+
+        public CacheKey(String expression, JAXPXPathStaticContext env) {
+            this.expression = expression;
+            namespaceContext = env.getNamespaceContext();
+            variableResolver = env.getXPathVariableResolver();
+            functionResolver = env.getXPathFunctionResolver();
+            baseURI = env.getBaseURI();
+            defaultElementNamespace = env.getDefaultElementNamespace();
+            defaultFunctionNamespace = env.getDefaultFunctionNamespace();
+            defaultCollationName = env.getDefaultCollationName();
+            backwardsCompatible = env.isInBackwardsCompatibleMode();
+            schemaAware = env.getExecutable().isSchemaAware();
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey k = (CacheKey)obj;
+            return expression.equals(k.expression) &&
+                    namespaceContext == k.namespaceContext &&
+                    variableResolver == k.variableResolver &&
+                    functionResolver == k.functionResolver &&
+                    backwardsCompatible == k.backwardsCompatible &&
+                    schemaAware == k.schemaAware &&
+                    same(baseURI, k.baseURI) &&
+                    same(defaultElementNamespace, k.defaultElementNamespace) &&
+                    same(defaultFunctionNamespace, k.defaultFunctionNamespace) &&
+                    same(defaultCollationName, k.defaultCollationName);
+        }
+
+        public int hashCode() {
+            return expression.hashCode() ^ System.identityHashCode(namespaceContext);
+        }
+
+        private static boolean same(String a, String b) {
+            return (a == null ? b == null : a.equals(b));
+        }
+    }
+
     /**
      * A simple command-line interface for the XPathEvaluator (not documented).
      * @param args command line arguments.
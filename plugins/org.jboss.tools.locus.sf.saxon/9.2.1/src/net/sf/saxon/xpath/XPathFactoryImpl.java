@@ -4,6 +4,7 @@ import net.sf.saxon.Configuration;
 import net.sf.saxon.FeatureKeys;
 import net.sf.saxon.om.NamespaceConstant;
 import net.sf.saxon.om.Validation;
+import net.sf.saxon.sxpath.ExpressionCache;
 
 import javax.xml.XMLConstants;
 import javax.xml.xpath.*;
@@ -16,6 +17,7 @@ public class XPathFactoryImpl extends XPathFactory {
     private Configuration config;
     private XPathVariableResolver variableResolver;
     private XPathFunctionResolver functionResolver;
+    private ExpressionCache<XPathExpressionImpl> cache;
 
     /**
      * Default constructor: this creates a Configuration as well as creating the XPathFactory. Any documents
@@ -161,9 +163,54 @@ public class XPathFactoryImpl extends XPathFactory {
         XPathEvaluator xpath = new XPathEvaluator(config);
         xpath.setXPathFunctionResolver(functionResolver);
         xpath.setXPathVariableResolver(variableResolver);
+        xpath.setExpressionCache(cache);
         return xpath;
     }
 
+    /**
+     * Say whether compiled expressions are to be cached. If caching is enabled, all the XPath objects
+     * subsequently created by this factory share a cache of compiled expressions, which is used by the
+     * single-shot <code>evaluate()</code> methods that accept an expression as a string: an expression
+     * that has already been compiled with an equivalent static context is not compiled again. The static
+     * contexts are equivalent if they have the same NamespaceContext, XPathVariableResolver and
+     * XPathFunctionResolver objects (compared by identity), and the same base URI, default namespaces,
+     * default collation, and backwards compatibility mode. The cache is bounded in size: when it is full,
+     * the expression that was least recently used is discarded.
+     *
+     * @param caching true if compiled expressions are to be cached; false if XPath objects created by
+     * this factory in future are not to use a cache (the default)
+     * @since 9.2
+     */
+
+    public void setCaching(boolean caching) {
+        if (!caching) {
+            cache = null;
+        } else if (cache == null) {
+            cache = new ExpressionCache<XPathExpressionImpl>(ExpressionCache.DEFAULT_CAPACITY);
+        }
+    }
+
+    /**
+     * Ask whether compiled expressions are cached
+     * @return true if caching has been enabled using {@link #setCaching}
+     * @since 9.2
+     */
+
+    public boolean isCaching() {
+        return cache != null;
+    }
+
+    /**
+     * Get the cache of compiled expressions shared by the XPath objects created by this factory. This
+     * can be used to examine the hit rate, or to clear the cache.
+     * @return the cache of compiled expressions, or null if caching is not enabled
+     * @since 9.2
+     */
+
+    public ExpressionCache<XPathExpressionImpl> getExpressionCache() {
+        return cache;
+    }
+
     private static String FEATURE_SECURE_PROCESSING = XMLConstants.FEATURE_SECURE_PROCESSING;
             // "http://javax.xml.XMLConstants/feature/secure-processing";
             // Note JDK 1.5 dependency